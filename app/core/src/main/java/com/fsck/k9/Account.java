@@ -157,6 +157,7 @@ public class Account implements BaseAccount, StoreConfig {
     private boolean isSignatureBeforeQuotedText;
     private Expunge expungePolicy = Expunge.EXPUNGE_IMMEDIATELY;
     private int maxPushFolders;
+    private int maxParallelFolderSyncs;
     private int idleRefreshMinutes;
     private boolean goToUnreadMessageSearch;
     private final Map<NetworkType, Boolean> compressionMap = new ConcurrentHashMap<>();
@@ -673,6 +674,14 @@ public class Account implements BaseAccount, StoreConfig {
         return oldMaxPushFolders != maxPushFolders;
     }
 
+    public synchronized int getMaxParallelFolderSyncs() {
+        return maxParallelFolderSyncs;
+    }
+
+    public synchronized void setMaxParallelFolderSyncs(int maxParallelFolderSyncs) {
+        this.maxParallelFolderSyncs = maxParallelFolderSyncs;
+    }
+
     @Override
     public synchronized String toString() {
         return description;
@@ -83,6 +83,8 @@ class AccountPreferenceSerializer(
             isSyncRemoteDeletions = storage.getBoolean("$accountUuid.syncRemoteDeletions", true)
 
             maxPushFolders = storage.getInt("$accountUuid.maxPushFolders", 10)
+            maxParallelFolderSyncs = storage.getInt("$accountUuid.maxParallelFolderSyncs",
+                    DEFAULT_MAX_PARALLEL_FOLDER_SYNCS)
             isGoToUnreadMessageSearch = storage.getBoolean("$accountUuid.goToUnreadMessageSearch", false)
             isSubscribedFoldersOnly = storage.getBoolean("$accountUuid.subscribedFoldersOnly", false)
             maximumPolledMessageAge = storage.getInt("$accountUuid.maximumPolledMessageAge", -1)
@@ -255,6 +257,7 @@ class AccountPreferenceSerializer(
             editor.putString("$accountUuid.expungePolicy", expungePolicy.name)
             editor.putBoolean("$accountUuid.syncRemoteDeletions", isSyncRemoteDeletions)
             editor.putInt("$accountUuid.maxPushFolders", maxPushFolders)
+            editor.putInt("$accountUuid.maxParallelFolderSyncs", maxParallelFolderSyncs)
             editor.putString("$accountUuid.searchableFolders", searchableFolders.name)
             editor.putInt("$accountUuid.chipColor", chipColor)
             editor.putBoolean("$accountUuid.goToUnreadMessageSearch", isGoToUnreadMessageSearch)
@@ -371,6 +374,7 @@ class AccountPreferenceSerializer(
         editor.remove("$accountUuid.expungePolicy")
         editor.remove("$accountUuid.syncRemoteDeletions")
         editor.remove("$accountUuid.maxPushFolders")
+        editor.remove("$accountUuid.maxParallelFolderSyncs")
         editor.remove("$accountUuid.searchableFolders")
         editor.remove("$accountUuid.chipColor")
         editor.remove("$accountUuid.led")
@@ -528,6 +532,7 @@ class AccountPreferenceSerializer(
             autoExpandFolder = INBOX
             inboxFolder = INBOX
             maxPushFolders = 10
+            maxParallelFolderSyncs = DEFAULT_MAX_PARALLEL_FOLDER_SYNCS
             isGoToUnreadMessageSearch = false
             isSubscribedFoldersOnly = false
             maximumPolledMessageAge = -1
@@ -601,5 +606,6 @@ class AccountPreferenceSerializer(
         const val DEFAULT_REPLY_AFTER_QUOTE = false
         const val DEFAULT_STRIP_SIGNATURE = true
         const val DEFAULT_REMOTE_SEARCH_NUM_RESULTS = 25
+        const val DEFAULT_MAX_PARALLEL_FOLDER_SYNCS = 3
     }
 }
@@ -22,6 +22,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.annotation.SuppressLint;
@@ -59,6 +60,7 @@ import com.fsck.k9.controller.MessagingControllerCommands.PendingSetFlag;
 import com.fsck.k9.controller.ProgressBodyFactory.ProgressListener;
 import com.fsck.k9.core.BuildConfig;
 import com.fsck.k9.helper.Contacts;
+import com.fsck.k9.helper.Utility;
 import com.fsck.k9.mail.Address;
 import com.fsck.k9.mail.AuthenticationFailedException;
 import com.fsck.k9.mail.CertificateValidationException;
@@ -708,13 +710,23 @@ public class MessagingController {
     private void syncFolder(Account account, String folder, MessagingListener listener, Folder providedRemoteFolder,
             Backend remoteMessageStore) {
 
-        Exception commandException = null;
+        Exception commandException = processPendingCommandsBeforeSync(account);
+
+        syncFolder(account, folder, listener, providedRemoteFolder, remoteMessageStore, commandException);
+    }
+
+    private Exception processPendingCommandsBeforeSync(Account account) {
         try {
             processPendingCommandsSynchronous(account);
+            return null;
         } catch (Exception e) {
             Timber.e(e, "Failure processing command, but allow message sync attempt");
-            commandException = e;
+            return e;
         }
+    }
+
+    private void syncFolder(Account account, String folder, MessagingListener listener, Folder providedRemoteFolder,
+            Backend remoteMessageStore, Exception commandException) {
 
         // We don't ever sync the Outbox
         if (folder.equals(account.getOutboxFolder())) {
@@ -741,7 +753,8 @@ public class MessagingController {
                     account.isSyncRemoteDeletions(),
                     account.getMaximumAutoDownloadMessageSize(),
                     K9.DEFAULT_VISIBLE_LIMIT,
-                    SYNC_FLAGS);
+                    SYNC_FLAGS,
+                    Utility.isActiveNetworkMetered(context));
     }
 
     private void updateFolderStatus(Account account, String folderServerId, String status) {
@@ -810,9 +823,13 @@ public class MessagingController {
             l.synchronizeMailboxProgress(account, null, progress, todo);
         }
 
+        int[] appendRunEnds = getPendingAppendRunEnds(commands);
+
         PendingCommand processingCommand = null;
         try {
-            for (PendingCommand command : commands) {
+            int i = 0;
+            while (i < todo) {
+                PendingCommand command = commands.get(i);
                 processingCommand = command;
                 Timber.d("Processing pending command '%s'", command);
 
@@ -824,10 +841,20 @@ public class MessagingController {
                  * most likely due to a server or IO error and it must be retried before any
                  * other command processes. This maintains the order of the commands.
                  */
+                int processedCount = 1;
                 try {
-                    command.execute(this, account);
+                    if (command instanceof PendingAppend) {
+                        List<PendingAppend> pendingAppends = getPendingAppends(commands, i, appendRunEnds[i]);
+                        processedCount = processPendingAppends(pendingAppends, account);
 
-                    localStore.removePendingCommand(command);
+                        for (PendingAppend pendingAppend : pendingAppends.subList(0, processedCount)) {
+                            localStore.removePendingCommand(pendingAppend);
+                        }
+                    } else {
+                        command.execute(this, account);
+
+                        localStore.removePendingCommand(command);
+                    }
 
                     Timber.d("Done processing pending command '%s'", command);
                 } catch (MessagingException me) {
@@ -838,7 +865,8 @@ public class MessagingController {
                         throw me;
                     }
                 } finally {
-                    progress++;
+                    progress += processedCount;
+                    i += processedCount;
                     for (MessagingListener l : getListeners()) {
                         l.synchronizeMailboxProgress(account, null, progress, todo);
                         l.pendingCommandCompleted(account, command.getCommandName());
@@ -865,78 +893,160 @@ public class MessagingController {
      * TODO update the local message UID instead of deleting it
      */
     void processPendingAppend(PendingAppend command, Account account) throws MessagingException {
+        processPendingAppends(Collections.singletonList(command), account);
+    }
+
+    /**
+     * Process the given pending append commands by uploading their messages together. All commands have to be for the
+     * same folder.
+     *
+     * @return The number of commands, counted from the start of the list, that have been processed. If uploading all
+     *         messages at once fails permanently, only the first command is processed.
+     */
+    private int processPendingAppends(List<PendingAppend> commands, Account account) throws MessagingException {
+        try {
+            appendMessages(commands, account);
+            return commands.size();
+        } catch (MessagingException e) {
+            if (commands.size() == 1 || !e.isPermanentFailure()) {
+                throw e;
+            }
+
+            // A message of a later command might be the cause. Those commands will report their own failure.
+            Timber.w(e, "Could not upload %d messages at once, uploading first message on its own", commands.size());
+            appendMessages(commands.subList(0, 1), account);
+            return 1;
+        }
+    }
+
+    /**
+     * Finds the runs of consecutive pending append commands for the same folder in a single pass.
+     *
+     * @return For every index, the (exclusive) end of the run of appends to the same folder that contains the command
+     *         at that index. For commands that aren't appends, this is the index plus one.
+     */
+    private static int[] getPendingAppendRunEnds(List<PendingCommand> commands) {
+        int size = commands.size();
+        int[] runEnds = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            runEnds[i] = i + 1;
+            if (i + 1 < size && isPendingAppendToSameFolder(commands.get(i), commands.get(i + 1))) {
+                runEnds[i] = runEnds[i + 1];
+            }
+        }
+
+        return runEnds;
+    }
+
+    private static boolean isPendingAppendToSameFolder(PendingCommand command, PendingCommand nextCommand) {
+        return command instanceof PendingAppend && nextCommand instanceof PendingAppend &&
+                ((PendingAppend) command).folder.equals(((PendingAppend) nextCommand).folder);
+    }
+
+    private static List<PendingAppend> getPendingAppends(List<PendingCommand> commands, int start, int end) {
+        List<PendingAppend> pendingAppends = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            pendingAppends.add((PendingAppend) commands.get(i));
+        }
+
+        return pendingAppends;
+    }
+
+    private void appendMessages(List<PendingAppend> commands, Account account) throws MessagingException {
         LocalFolder localFolder = null;
         try {
 
-            String folder = command.folder;
-            String uid = command.uid;
+            String folder = commands.get(0).folder;
 
             LocalStore localStore = localStoreProvider.getInstance(account);
             localFolder = localStore.getFolder(folder);
-            LocalMessage localMessage = localFolder.getMessage(uid);
 
-            if (localMessage == null) {
-                return;
+            Backend backend = getBackend(account);
+
+            List<LocalMessage> localMessages = new ArrayList<>(commands.size());
+            for (PendingAppend command : commands) {
+                LocalMessage localMessage = localFolder.getMessage(command.uid);
+                if (localMessage != null && needsAppend(account, backend, localFolder, localMessage)) {
+                    localMessages.add(localMessage);
+                }
             }
 
-            if (!localMessage.getUid().startsWith(K9.LOCAL_UID_PREFIX)) {
-                //FIXME: This should never happen. Throw in debug builds.
+            if (localMessages.isEmpty()) {
                 return;
             }
 
-            Backend backend = getBackend(account);
+            /*
+             * If the messages do not exist remotely we just upload them and then
+             * update our local copies with the new uids.
+             */
+            FetchProfile fp = new FetchProfile();
+            fp.add(FetchProfile.Item.BODY);
+            localFolder.fetch(localMessages, fp, null);
+            for (LocalMessage localMessage : localMessages) {
+                localMessage.setFlag(Flag.X_REMOTE_COPY_STARTED, true);
+            }
 
-            if (localMessage.isSet(Flag.X_REMOTE_COPY_STARTED)) {
-                Timber.w("Local message with uid %s has flag %s  already set, checking for remote message with " +
-                        "same message id", localMessage.getUid(), X_REMOTE_COPY_STARTED);
+            Map<String, String> messageServerIds = backend.uploadMessages(folder, localMessages);
 
-                String messageServerId = backend.findByMessageId(folder, localMessage.getMessageId());
-                if (messageServerId != null) {
-                    Timber.w("Local message has flag %s already set, and there is a remote message with uid %s, " +
-                            "assuming message was already copied and aborting this copy",
-                            X_REMOTE_COPY_STARTED, messageServerId);
+            for (LocalMessage localMessage : localMessages) {
+                String oldUid = localMessage.getUid();
+                String messageServerId = messageServerIds.get(oldUid);
 
-                    String oldUid = localMessage.getUid();
+                if (messageServerId == null) {
+                    // We didn't get the server UID of the uploaded message. Remove the local message now. The uploaded
+                    // version will be downloaded during the next sync.
+                    localFolder.destroyMessages(Collections.singletonList(localMessage));
+                } else {
                     localMessage.setUid(messageServerId);
                     localFolder.changeUid(localMessage);
 
                     for (MessagingListener l : getListeners()) {
                         l.messageUidChanged(account, folder, oldUid, localMessage.getUid());
                     }
-
-                    return;
-                } else {
-                    Timber.w("No remote message with message-id found, proceeding with append");
                 }
             }
+        } finally {
+            closeFolder(localFolder);
+        }
+    }
 
-            /*
-             * If the message does not exist remotely we just upload it and then
-             * update our local copy with the new uid.
-             */
-            FetchProfile fp = new FetchProfile();
-            fp.add(FetchProfile.Item.BODY);
-            localFolder.fetch(Collections.singletonList(localMessage), fp, null);
-            String oldUid = localMessage.getUid();
-            localMessage.setFlag(Flag.X_REMOTE_COPY_STARTED, true);
+    /**
+     * @return {@code false} if the message doesn't have to be uploaded because it already exists on the server.
+     */
+    private boolean needsAppend(Account account, Backend backend, LocalFolder localFolder, LocalMessage localMessage)
+            throws MessagingException {
+        if (!localMessage.getUid().startsWith(K9.LOCAL_UID_PREFIX)) {
+            //FIXME: This should never happen. Throw in debug builds.
+            return false;
+        }
 
-            String messageServerId = backend.uploadMessage(folder, localMessage);
+        if (!localMessage.isSet(Flag.X_REMOTE_COPY_STARTED)) {
+            return true;
+        }
 
-            if (messageServerId == null) {
-                // We didn't get the server UID of the uploaded message. Remove the local message now. The uploaded
-                // version will be downloaded during the next sync.
-                localFolder.destroyMessages(Collections.singletonList(localMessage));
-            } else {
-                localMessage.setUid(messageServerId);
-                localFolder.changeUid(localMessage);
+        Timber.w("Local message with uid %s has flag %s  already set, checking for remote message with " +
+                "same message id", localMessage.getUid(), X_REMOTE_COPY_STARTED);
 
-                for (MessagingListener l : getListeners()) {
-                    l.messageUidChanged(account, folder, oldUid, localMessage.getUid());
-                }
-            }
-        } finally {
-            closeFolder(localFolder);
+        String folder = localFolder.getServerId();
+        String messageServerId = backend.findByMessageId(folder, localMessage.getMessageId());
+        if (messageServerId == null) {
+            Timber.w("No remote message with message-id found, proceeding with append");
+            return true;
+        }
+
+        Timber.w("Local message has flag %s already set, and there is a remote message with uid %s, " +
+                "assuming message was already copied and aborting this copy",
+                X_REMOTE_COPY_STARTED, messageServerId);
+
+        String oldUid = localMessage.getUid();
+        localMessage.setUid(messageServerId);
+        localFolder.changeUid(localMessage);
+
+        for (MessagingListener l : getListeners()) {
+            l.messageUidChanged(account, folder, oldUid, localMessage.getUid());
         }
+
+        return false;
     }
 
     private void queueMoveOrCopy(Account account, String srcFolder, String destFolder, boolean isCopy,
@@ -979,15 +1089,13 @@ public class MessagingController {
         Map<String, String> remoteUidMap;
         if (isCopy) {
             remoteUidMap = backend.copyMessages(srcFolder, destFolder, uids);
+        } else if (backend.getSupportsExpunge() && account.getExpungePolicy() == Expunge.EXPUNGE_IMMEDIATELY) {
+            Timber.i("processingPendingMoveOrCopy expunging folder %s:%s", account.getDescription(), srcFolder);
+            remoteUidMap = backend.moveMessagesAndExpunge(srcFolder, destFolder, uids);
         } else {
             remoteUidMap = backend.moveMessages(srcFolder, destFolder, uids);
         }
 
-        if (!isCopy && backend.getSupportsExpunge() && account.getExpungePolicy() == Expunge.EXPUNGE_IMMEDIATELY) {
-            Timber.i("processingPendingMoveOrCopy expunging folder %s:%s", account.getDescription(), srcFolder);
-            backend.expungeMessages(srcFolder, uids);
-        }
-
         /*
          * This next part is used to bring the local UIDs of the local destination folder
          * upto speed with the remote UIDs of remote destination folder.
@@ -1569,6 +1677,7 @@ public class MessagingController {
     @VisibleForTesting
     protected void sendPendingMessagesSynchronous(final Account account) {
         LocalFolder localFolder = null;
+        Backend backend = null;
         Exception lastFailure = null;
         boolean wasPermanentFailure = false;
         try {
@@ -1602,7 +1711,8 @@ public class MessagingController {
             Timber.i("Scanning folder '%s' (%d) for messages to send",
                     account.getOutboxFolder(), localFolder.getDatabaseId());
 
-            Backend backend = getBackend(account);
+            backend = getBackend(account);
+            backend.startSendSession();
 
             for (LocalMessage message : localMessages) {
                 if (message.isSet(Flag.DELETED)) {
@@ -1713,6 +1823,9 @@ public class MessagingController {
             if (lastFailure == null) {
                 notificationController.clearSendFailedNotification(account);
             }
+            if (backend != null) {
+                backend.endSendSession();
+            }
             closeFolder(localFolder);
         }
     }
@@ -2509,6 +2622,20 @@ public class MessagingController {
     }
 
 
+    private void refreshFolderStatus(Account account, Backend backend, List<Folder> folders) {
+        List<String> folderServerIds = new ArrayList<>(folders.size());
+        for (Folder folder : folders) {
+            folderServerIds.add(folder.getServerId());
+        }
+
+        try {
+            backend.refreshFolderStatus(folderServerIds);
+        } catch (MessagingException e) {
+            // Not fatal, all folders will be synchronized
+            Timber.w(e, "Unable to refresh folder status of account %s", account.getDescription());
+        }
+    }
+
     private void checkMailForAccount(final Context context, final Account account,
             final boolean ignoreLastCheckedTime,
             final MessagingListener listener) {
@@ -2533,6 +2660,7 @@ public class MessagingController {
             Account.FolderMode aSyncMode = account.getFolderSyncMode();
 
             LocalStore localStore = localStoreProvider.getInstance(account);
+            List<Folder> foldersToSync = new ArrayList<>();
             for (final Folder folder : localStore.getPersonalNamespaces(false)) {
                 folder.open(Folder.OPEN_MODE_RW);
 
@@ -2562,7 +2690,26 @@ public class MessagingController {
 
                     continue;
                 }
-                synchronizeFolder(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+
+                if (!isFolderSyncDue(folder, ignoreLastCheckedTime, accountInterval)) {
+                    continue;
+                }
+                foldersToSync.add(folder);
+            }
+
+            Backend backend = getBackend(account);
+            if (!foldersToSync.isEmpty()) {
+                refreshFolderStatus(account, backend, foldersToSync);
+            }
+
+            int maxParallelSyncs = Math.min(account.getMaxParallelFolderSyncs(), backend.getMaxParallelSyncs());
+            if (maxParallelSyncs > 1 && foldersToSync.size() > 1) {
+                synchronizeFoldersInParallel(account, foldersToSync, ignoreLastCheckedTime, accountInterval, listener,
+                        maxParallelSyncs);
+            } else {
+                for (Folder folder : foldersToSync) {
+                    synchronizeFolder(account, folder, ignoreLastCheckedTime, accountInterval, listener);
+                }
             }
         } catch (MessagingException e) {
             Timber.e(e, "Unable to synchronize account %s", account.getName());
@@ -2597,14 +2744,6 @@ public class MessagingController {
             final long accountInterval,
             final MessagingListener listener) {
 
-        Timber.v("Folder %s was last synced @ %tc", folder.getServerId(), folder.getLastChecked());
-
-        if (!ignoreLastCheckedTime && folder.getLastChecked() > System.currentTimeMillis() - accountInterval) {
-            Timber.v("Not syncing folder %s, previously synced @ %tc which would be too recent for the account " +
-                    "period", folder.getServerId(), folder.getLastChecked());
-            return;
-        }
-
         putBackground("sync" + folder.getServerId(), null, new Runnable() {
                     @Override
                     public void run() {
@@ -2616,11 +2755,7 @@ public class MessagingController {
                             tLocalFolder = localStore.getFolder(folder.getServerId());
                             tLocalFolder.open(Folder.OPEN_MODE_RW);
 
-                            if (!ignoreLastCheckedTime && tLocalFolder.getLastChecked() >
-                                    (System.currentTimeMillis() - accountInterval)) {
-                                Timber.v("Not running Command for folder %s, previously synced @ %tc which would " +
-                                        "be too recent for the account period",
-                                        folder.getServerId(), folder.getLastChecked());
+                            if (!isFolderSyncDue(tLocalFolder, ignoreLastCheckedTime, accountInterval)) {
                                 return;
                             }
                             showFetchingMailNotificationIfNecessary(account, folder);
@@ -2642,6 +2777,102 @@ public class MessagingController {
 
     }
 
+    /**
+     * Synchronizes the given folders using up to {@code maxParallelSyncs} threads.
+     *
+     * <p>
+     * This is queued as a single background command that only completes once all folders have been synchronized.
+     * </p>
+     */
+    private void synchronizeFoldersInParallel(final Account account, List<Folder> folders,
+            final boolean ignoreLastCheckedTime, final long accountInterval, final MessagingListener listener,
+            final int maxParallelSyncs) {
+
+        final List<String> folderServerIds = new ArrayList<>(folders.size());
+        for (Folder folder : folders) {
+            folderServerIds.add(folder.getServerId());
+        }
+
+        putBackground("sync folders of " + account.getDescription(), null, new Runnable() {
+            @Override
+            public void run() {
+                synchronizeFoldersInParallelSynchronous(account, folderServerIds, ignoreLastCheckedTime,
+                        accountInterval, listener, maxParallelSyncs);
+            }
+        });
+    }
+
+    /**
+     * Each thread uses its own connection to the server. Pending commands are processed once, before any folder is
+     * synchronized, because they must be executed in order. A failure to synchronize one folder doesn't affect the
+     * others.
+     */
+    @VisibleForTesting
+    void synchronizeFoldersInParallelSynchronous(final Account account, List<String> folderServerIds,
+            final boolean ignoreLastCheckedTime, final long accountInterval, final MessagingListener listener,
+            int maxParallelSyncs) {
+        final Exception commandException = processPendingCommandsBeforeSync(account);
+
+        int threadCount = Math.min(maxParallelSyncs, folderServerIds.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (final String folderServerId : folderServerIds) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        synchronizeFolderInParallel(account, folderServerId, ignoreLastCheckedTime,
+                                accountInterval, listener, commandException);
+                    }
+                });
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Timber.w("Interrupted while synchronizing folders of %s", account.getDescription());
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            clearFetchingMailNotificationIfNecessary(account);
+        }
+    }
+
+    private void synchronizeFolderInParallel(Account account, String folderServerId, boolean ignoreLastCheckedTime,
+            long accountInterval, MessagingListener listener, Exception commandException) {
+        LocalFolder localFolder = null;
+        try {
+            LocalStore localStore = localStoreProvider.getInstance(account);
+            localFolder = localStore.getFolder(folderServerId);
+            localFolder.open(Folder.OPEN_MODE_RW);
+
+            if (!isFolderSyncDue(localFolder, ignoreLastCheckedTime, accountInterval)) {
+                return;
+            }
+
+            showFetchingMailNotificationIfNecessary(account, localFolder);
+            syncFolder(account, folderServerId, listener, null, getBackend(account), commandException);
+        } catch (Exception e) {
+            Timber.e(e, "Exception while processing folder %s:%s", account.getDescription(), folderServerId);
+        } finally {
+            closeFolder(localFolder);
+        }
+    }
+
+    /**
+     * Checks whether the folder wasn't synchronized within the account's check interval. Done when selecting the
+     * folders to synchronize and again right before synchronizing, in case the same folder was queued twice.
+     */
+    private static boolean isFolderSyncDue(Folder folder, boolean ignoreLastCheckedTime, long accountInterval) {
+        if (!ignoreLastCheckedTime && folder.getLastChecked() > System.currentTimeMillis() - accountInterval) {
+            Timber.v("Not syncing folder %s, previously synced @ %tc which would be too recent for the account " +
+                    "period", folder.getServerId(), folder.getLastChecked());
+            return false;
+        }
+
+        return true;
+    }
+
     private void showFetchingMailNotificationIfNecessary(Account account, Folder folder) {
         if (account.isNotifySync()) {
             notificationController.showFetchingMailNotification(account, folder);
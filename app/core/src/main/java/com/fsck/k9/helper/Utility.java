@@ -17,6 +17,7 @@ import android.text.Editable;
 import android.text.TextUtils;
 import android.widget.EditText;
 import android.widget.TextView;
+import androidx.core.net.ConnectivityManagerCompat;
 
 import org.apache.james.mime4j.util.MimeUtil;
 import timber.log.Timber;
@@ -272,6 +273,18 @@ public class Utility {
         }
     }
 
+    /**
+     * Check to see if the active network is metered, e.g. a mobile data connection.
+     */
+    public static boolean isActiveNetworkMetered(final Context context) {
+        final ConnectivityManager connectivityManager =
+            (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        return ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
     private static final Pattern MESSAGE_ID = Pattern.compile("<" +
             "(?:" +
                 "[a-zA-Z0-9!#$%&'*+\\-/=?^_`{|}~]+" +
@@ -9,6 +9,7 @@ import com.fsck.k9.Preferences
 import com.fsck.k9.backend.api.BackendFolder
 import com.fsck.k9.backend.api.BackendFolder.MoreMessages
 import com.fsck.k9.backend.api.MessageRemovalListener
+import com.fsck.k9.mail.FetchProfile
 import com.fsck.k9.mail.Flag
 import com.fsck.k9.mail.Message
 import java.util.Date
@@ -226,6 +227,59 @@ class K9BackendFolder(
         localMessage.setFlag(Flag.X_DOWNLOADED_PARTIAL, true)
     }
 
+    override fun saveMessageHeaders(message: Message, preview: String) {
+        localFolder.appendMessages(listOf(message))
+
+        database.execute(false) { db ->
+            val contentValues = ContentValues().apply {
+                put("preview_type", DatabasePreviewType.TEXT.databaseValue)
+                put("preview", preview)
+            }
+            db.update("messages", contentValues, "folder_id = ? AND uid = ?", arrayOf(databaseId, message.uid))
+        }
+    }
+
+    override fun setMessageEmailId(messageServerId: String, emailId: String) {
+        database.setString(
+                table = "messages",
+                column = "email_id",
+                selection = "folder_id = ? AND uid = ?",
+                selectionArgs = *arrayOf(databaseId, messageServerId),
+                value = emailId
+        )
+    }
+
+    override fun copyMessageByEmailId(emailId: String, messageServerId: String): Boolean {
+        val source = database.rawQuery("SELECT folders.server_id, messages.uid FROM messages" +
+                " JOIN folders ON (folders.id = messages.folder_id)" +
+                " WHERE messages.email_id = ? AND messages.empty = 0 AND messages.deleted = 0" +
+                " AND messages.folder_id != ? LIMIT 1", emailId, databaseId) { cursor ->
+            if (cursor.moveToFirst()) {
+                cursor.getString(0) to cursor.getString(1)
+            } else {
+                null
+            }
+        } ?: return false
+
+        val (sourceFolderServerId, sourceMessageServerId) = source
+        val sourceFolder = localStore.getFolder(sourceFolderServerId)
+        val message = sourceFolder.getMessage(sourceMessageServerId) ?: return false
+        if (!message.isSet(Flag.X_DOWNLOADED_FULL) && !message.isSet(Flag.X_DOWNLOADED_PARTIAL)) return false
+
+        val fetchProfile = FetchProfile().apply {
+            add(FetchProfile.Item.ENVELOPE)
+            add(FetchProfile.Item.BODY)
+        }
+        sourceFolder.fetch(listOf(message), fetchProfile, null)
+
+        // Message parts are owned by a single message and deleted with it. So the content is copied, not shared.
+        message.uid = messageServerId
+        localFolder.appendMessages(listOf(message))
+        setMessageEmailId(messageServerId, emailId)
+
+        return true
+    }
+
     override fun getLatestOldMessageSeenTime(): Date = Date(account.latestOldMessageSeenTime)
 
     override fun setLatestOldMessageSeenTime(date: Date) {
@@ -119,6 +119,10 @@ public class AccountSettings {
         s.put("markMessageAsReadOnView", Settings.versions(
                 new V(7, new BooleanSetting(true))
         ));
+        s.put("maxParallelFolderSyncs", Settings.versions(
+                new V(59, new IntegerRangeSetting(1, 10,
+                        AccountPreferenceSerializer.DEFAULT_MAX_PARALLEL_FOLDER_SYNCS))
+        ));
         s.put("maxPushFolders", Settings.versions(
                 new V(1, new IntegerRangeSetting(0, 100, 10))
         ));
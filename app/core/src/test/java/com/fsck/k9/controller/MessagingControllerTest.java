@@ -3,10 +3,13 @@ package com.fsck.k9.controller;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 
@@ -21,12 +24,17 @@ import com.fsck.k9.K9RobolectricTest;
 import com.fsck.k9.Preferences;
 import com.fsck.k9.backend.BackendManager;
 import com.fsck.k9.backend.api.Backend;
+import com.fsck.k9.backend.api.SyncConfig;
+import com.fsck.k9.backend.api.SyncListener;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingAppend;
+import com.fsck.k9.controller.MessagingControllerCommands.PendingCommand;
 import com.fsck.k9.helper.Contacts;
 import com.fsck.k9.mail.AuthenticationFailedException;
 import com.fsck.k9.mail.CertificateValidationException;
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
+import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mailstore.LocalFolder;
@@ -63,6 +71,7 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
@@ -71,6 +80,7 @@ import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -464,6 +474,18 @@ public class MessagingControllerTest extends K9RobolectricTest {
         verify(backend).sendMessage(localMessageToSend1);
     }
 
+    @Test
+    public void sendPendingMessagesSynchronous_shouldSendMessagesInOneSession() throws MessagingException {
+        setupAccountWithMessageToSend();
+
+        controller.sendPendingMessagesSynchronous(account);
+
+        InOrder ordering = inOrder(backend);
+        ordering.verify(backend).startSendSession();
+        ordering.verify(backend).sendMessage(localMessageToSend1);
+        ordering.verify(backend).endSendSession();
+    }
+
     @Test
     public void sendPendingMessagesSynchronous_shouldSetAndRemoveSendInProgressFlag() throws MessagingException {
         setupAccountWithMessageToSend();
@@ -532,6 +554,99 @@ public class MessagingControllerTest extends K9RobolectricTest {
         verify(listener).sendPendingMessagesCompleted(account);
     }
 
+    @Test
+    public void processPendingCommandsSynchronous_withAppendsToSameFolder_shouldUploadMessagesTogether()
+            throws MessagingException {
+        LocalMessage firstMessage = createMessageToAppend(K9.LOCAL_UID_PREFIX + "1");
+        LocalMessage secondMessage = createMessageToAppend(K9.LOCAL_UID_PREFIX + "2");
+        List<PendingCommand> pendingCommands = Arrays.<PendingCommand>asList(
+                PendingAppend.create(FOLDER_NAME, K9.LOCAL_UID_PREFIX + "1"),
+                PendingAppend.create(FOLDER_NAME, K9.LOCAL_UID_PREFIX + "2"));
+        when(localStore.getPendingCommands()).thenReturn(pendingCommands);
+        Map<String, String> messageServerIds = new HashMap<>();
+        messageServerIds.put(K9.LOCAL_UID_PREFIX + "1", "101");
+        messageServerIds.put(K9.LOCAL_UID_PREFIX + "2", "102");
+        when(backend.uploadMessages(FOLDER_NAME, Arrays.asList(firstMessage, secondMessage)))
+                .thenReturn(messageServerIds);
+
+        controller.processPendingCommandsSynchronous(account);
+
+        verify(backend).uploadMessages(FOLDER_NAME, Arrays.asList(firstMessage, secondMessage));
+        verify(firstMessage).setUid("101");
+        verify(secondMessage).setUid("102");
+        verify(localStore).removePendingCommand(pendingCommands.get(0));
+        verify(localStore).removePendingCommand(pendingCommands.get(1));
+    }
+
+    @Test
+    public void processPendingCommandsSynchronous_withAppendsToSameFolder_shouldNotProcessUploadedCommandsAgain()
+            throws MessagingException {
+        createMessageToAppend(K9.LOCAL_UID_PREFIX + "1");
+        createMessageToAppend(K9.LOCAL_UID_PREFIX + "2");
+        createMessageToAppend(K9.LOCAL_UID_PREFIX + "3");
+        List<PendingCommand> pendingCommands = Arrays.<PendingCommand>asList(
+                PendingAppend.create(FOLDER_NAME, K9.LOCAL_UID_PREFIX + "1"),
+                PendingAppend.create(FOLDER_NAME, K9.LOCAL_UID_PREFIX + "2"),
+                PendingAppend.create(FOLDER_NAME, K9.LOCAL_UID_PREFIX + "3"));
+        when(localStore.getPendingCommands()).thenReturn(pendingCommands);
+        when(backend.uploadMessages(eq(FOLDER_NAME), anyListOf(Message.class)))
+                .thenReturn(Collections.<String, String>emptyMap());
+
+        controller.processPendingCommandsSynchronous(account);
+
+        verify(backend, times(1)).uploadMessages(eq(FOLDER_NAME), anyListOf(Message.class));
+        verify(localFolder, times(1)).getMessage(K9.LOCAL_UID_PREFIX + "2");
+        verify(localFolder, times(1)).getMessage(K9.LOCAL_UID_PREFIX + "3");
+        verify(localStore, times(3)).removePendingCommand(any(PendingCommand.class));
+    }
+
+    @Test
+    public void synchronizeFoldersInParallelSynchronous_shouldNotExceedMaxParallelSyncs() throws Exception {
+        when(localStore.getFolder(anyString())).thenReturn(localFolder);
+        final AtomicInteger runningSyncs = new AtomicInteger();
+        final AtomicInteger maxRunningSyncs = new AtomicInteger();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                int running = runningSyncs.incrementAndGet();
+                synchronized (maxRunningSyncs) {
+                    maxRunningSyncs.set(Math.max(maxRunningSyncs.get(), running));
+                }
+                Thread.sleep(50);
+                runningSyncs.decrementAndGet();
+                return null;
+            }
+        }).when(backend).sync(anyString(), any(SyncConfig.class), any(SyncListener.class), nullable(Folder.class));
+
+        controller.synchronizeFoldersInParallelSynchronous(account,
+                Arrays.asList("Folder1", "Folder2", "Folder3", "Folder4", "Folder5"), true, 0, listener, 2);
+
+        verify(backend, times(5)).sync(anyString(), any(SyncConfig.class), any(SyncListener.class),
+                nullable(Folder.class));
+        assertEquals(2, maxRunningSyncs.get());
+    }
+
+    @Test
+    public void synchronizeFoldersInParallelSynchronous_withFailingFolder_shouldSyncOtherFolders() throws Exception {
+        when(localStore.getFolder(anyString())).thenReturn(localFolder);
+        doThrow(new RuntimeException("Test")).when(backend)
+                .sync(eq("Folder2"), any(SyncConfig.class), any(SyncListener.class), nullable(Folder.class));
+
+        controller.synchronizeFoldersInParallelSynchronous(account,
+                Arrays.asList("Folder1", "Folder2", "Folder3"), true, 0, listener, 2);
+
+        verify(backend).sync(eq("Folder1"), any(SyncConfig.class), any(SyncListener.class), nullable(Folder.class));
+        verify(backend).sync(eq("Folder3"), any(SyncConfig.class), any(SyncListener.class), nullable(Folder.class));
+    }
+
+    private LocalMessage createMessageToAppend(String uid) throws MessagingException {
+        LocalMessage localMessage = mock(LocalMessage.class);
+        when(localMessage.getUid()).thenReturn(uid);
+        // Once uploaded, the message can't be found by its local UID anymore
+        when(localFolder.getMessage(uid)).thenReturn(localMessage, (LocalMessage) null);
+        return localMessage;
+    }
+
     private void setupAccountWithMessageToSend() throws MessagingException {
         when(account.getOutboxFolder()).thenReturn(FOLDER_NAME);
         account.setSentFolder(SENT_FOLDER_NAME, SpecialFolderSelection.AUTOMATIC);
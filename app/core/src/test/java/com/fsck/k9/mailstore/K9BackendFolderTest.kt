@@ -17,6 +17,7 @@ import com.fsck.k9.mail.internet.TextBody
 import com.fsck.k9.provider.EmailProvider
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
@@ -85,6 +86,47 @@ class K9BackendFolderTest : K9RobolectricTest() {
         assertEquals(200L, lastUid)
     }
 
+    @Test
+    fun copyMessageByEmailId_withMessageInOtherFolder_shouldCopyMessage() {
+        createMessage(MESSAGE_SERVER_ID, setOf(Flag.SEEN, Flag.X_DOWNLOADED_FULL))
+        backendFolder.setMessageEmailId(MESSAGE_SERVER_ID, EMAIL_ID)
+        val otherBackendFolder = createBackendFolder(OTHER_FOLDER_SERVER_ID, OTHER_FOLDER_NAME, FolderType.REGULAR)
+
+        val copied = otherBackendFolder.copyMessageByEmailId(EMAIL_ID, OTHER_MESSAGE_SERVER_ID)
+
+        assertTrue(copied)
+        assertEquals(setOf(OTHER_MESSAGE_SERVER_ID), otherBackendFolder.getAllMessagesAndEffectiveDates().keys)
+        assertTrue(Flag.X_DOWNLOADED_FULL in otherBackendFolder.getMessageFlags(OTHER_MESSAGE_SERVER_ID))
+        assertEquals(setOf(MESSAGE_SERVER_ID), backendFolder.getAllMessagesAndEffectiveDates().keys)
+    }
+
+    @Test
+    fun copyMessageByEmailId_withUnknownEmailId_shouldReturnFalse() {
+        createMessage(MESSAGE_SERVER_ID, setOf(Flag.X_DOWNLOADED_FULL))
+        val otherBackendFolder = createBackendFolder(OTHER_FOLDER_SERVER_ID, OTHER_FOLDER_NAME, FolderType.REGULAR)
+
+        val copied = otherBackendFolder.copyMessageByEmailId(EMAIL_ID, OTHER_MESSAGE_SERVER_ID)
+
+        assertFalse(copied)
+    }
+
+    @Test
+    fun saveMessageHeaders_shouldStorePreviewWithoutMarkingMessageAsDownloaded() {
+        val message = MimeMessage().apply {
+            subject = "Test message"
+            setFrom(Address("alice@domain.example"))
+            setHeader("To", "bob@domain.example")
+            uid = MESSAGE_SERVER_ID
+        }
+
+        backendFolder.saveMessageHeaders(message, "Hello Bob!")
+
+        val messageFlags = backendFolder.getMessageFlags(MESSAGE_SERVER_ID)
+        assertFalse(Flag.X_DOWNLOADED_FULL in messageFlags)
+        assertFalse(Flag.X_DOWNLOADED_PARTIAL in messageFlags)
+        assertEquals("Hello Bob!", getPreview(MESSAGE_SERVER_ID))
+    }
+
 
     fun createAccount(): Account {
         //FIXME: This is a hack to get Preferences into a state where it's safe to call newAccount()
@@ -93,17 +135,21 @@ class K9BackendFolderTest : K9RobolectricTest() {
         return preferences.newAccount()
     }
 
-    fun createBackendFolder(): BackendFolder {
+    fun createBackendFolder(
+            folderServerId: String = FOLDER_SERVER_ID,
+            folderName: String = FOLDER_NAME,
+            folderType: FolderType = FOLDER_TYPE
+    ): BackendFolder {
         val localStore: LocalStore = localStoreProvider.getInstance(account)
         val folderRepository = folderRepositoryManager.getFolderRepository(account)
         val specialFolderUpdater = SpecialFolderUpdater(preferences, folderRepository, account)
         val backendStorage = K9BackendStorage(preferences, account, localStore, specialFolderUpdater)
-        backendStorage.createFolders(listOf(FolderInfo(FOLDER_SERVER_ID, FOLDER_NAME, FOLDER_TYPE)))
+        backendStorage.createFolders(listOf(FolderInfo(folderServerId, folderName, folderType)))
 
         val folderServerIds = backendStorage.getFolderServerIds()
-        assertTrue(FOLDER_SERVER_ID in folderServerIds)
+        assertTrue(folderServerId in folderServerIds)
 
-        return K9BackendFolder(preferences, account, localStore, FOLDER_SERVER_ID)
+        return K9BackendFolder(preferences, account, localStore, folderServerId)
     }
 
     fun createMessage(messageServerId: String, flags: Set<Flag> = emptySet()) {
@@ -135,6 +181,14 @@ class K9BackendFolderTest : K9RobolectricTest() {
         }
     }
 
+    private fun getPreview(messageServerId: String): String? {
+        return database.execute(false) { db ->
+            db.rawQuery("SELECT preview FROM messages WHERE uid = ?", arrayOf(messageServerId)).use { cursor ->
+                if (cursor.moveToFirst()) cursor.getString(0) else null
+            }
+        }
+    }
+
     private fun dbOperation(action: (SQLiteDatabase) -> Unit) = database.execute(false, action)
 
 
@@ -143,5 +197,9 @@ class K9BackendFolderTest : K9RobolectricTest() {
         const val FOLDER_NAME = "Test Folder"
         val FOLDER_TYPE = FolderType.INBOX
         const val MESSAGE_SERVER_ID = "msg001"
+        const val OTHER_FOLDER_SERVER_ID = "otherFolder"
+        const val OTHER_FOLDER_NAME = "Other Folder"
+        const val OTHER_MESSAGE_SERVER_ID = "msg002"
+        const val EMAIL_ID = "M6d99ac3275bb4e"
     }
 }
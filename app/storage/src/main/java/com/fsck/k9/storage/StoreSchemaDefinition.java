@@ -12,7 +12,7 @@ import timber.log.Timber;
 
 
 class StoreSchemaDefinition implements SchemaDefinition {
-    static final int DB_VERSION = 69;
+    static final int DB_VERSION = 70;
 
     private final MigrationsHelper migrationsHelper;
 
@@ -136,7 +136,8 @@ class StoreSchemaDefinition implements SchemaDefinition {
                 "answered INTEGER default 0, " +
                 "forwarded INTEGER default 0, " +
                 "message_part_id INTEGER," +
-                "encryption_type TEXT" +
+                "encryption_type TEXT, " +
+                "email_id TEXT" +
                 ")");
 
         db.execSQL("DROP TABLE IF EXISTS message_parts");
@@ -184,6 +185,9 @@ class StoreSchemaDefinition implements SchemaDefinition {
         db.execSQL("DROP INDEX IF EXISTS msg_composite");
         db.execSQL("CREATE INDEX IF NOT EXISTS msg_composite ON messages (deleted, empty,folder_id,flagged,read)");
 
+        db.execSQL("DROP INDEX IF EXISTS msg_email_id");
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_email_id ON messages (email_id)");
+
 
         db.execSQL("DROP TABLE IF EXISTS threads");
         db.execSQL("CREATE TABLE threads (" +
@@ -0,0 +1,12 @@
+package com.fsck.k9.storage.migrations
+
+import android.database.sqlite.SQLiteDatabase
+
+
+internal object MigrationTo70 {
+    @JvmStatic
+    fun addEmailIdColumnToMessagesTable(db: SQLiteDatabase) {
+        db.execSQL("ALTER TABLE messages ADD email_id TEXT")
+        db.execSQL("CREATE INDEX IF NOT EXISTS msg_email_id ON messages (email_id)")
+    }
+}
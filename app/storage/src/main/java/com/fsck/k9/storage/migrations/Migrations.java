@@ -96,6 +96,8 @@ public class Migrations {
                 MigrationTo68.addOutboxStateTable(db);
             case 68:
                 new MigrationTo69(db).createPendingDelete();
+            case 69:
+                MigrationTo70.addEmailIdColumnToMessagesTable(db);
         }
 
         if (shouldBuildFtsTable) {
@@ -23,9 +23,21 @@ interface Backend {
     val isPushCapable: Boolean
     val isDeleteMoveToTrash: Boolean
 
+    /**
+     * The number of folders [sync] may be called for at the same time. `1` if calls must not overlap.
+     */
+    val maxParallelSyncs: Int
+
     @Throws(MessagingException::class)
     fun refreshFolderList()
 
+    /**
+     * Called before [sync] is called for the given folders. Backends that can learn about changes to several folders at
+     * once may do so here, so [sync] can skip folders that didn't change.
+     */
+    @Throws(MessagingException::class)
+    fun refreshFolderStatus(folderServerIds: List<String>)
+
     // TODO: Add a way to cancel the sync process
     fun sync(folder: String, syncConfig: SyncConfig, listener: SyncListener, providedRemoteFolder: Folder<*>?)
 
@@ -57,6 +69,18 @@ interface Backend {
             messageServerIds: List<String>
     ): Map<String, String>?
 
+    /**
+     * Moves messages and expunges them from the source folder, using as few round trips as the server allows.
+     *
+     * Only supported if [supportsExpunge] is `true`.
+     */
+    @Throws(MessagingException::class)
+    fun moveMessagesAndExpunge(
+            sourceFolderServerId: String,
+            targetFolderServerId: String,
+            messageServerIds: List<String>
+    ): Map<String, String>?
+
     @Throws(MessagingException::class)
     fun copyMessages(
             sourceFolderServerId: String,
@@ -84,14 +108,30 @@ interface Backend {
     @Throws(MessagingException::class)
     fun uploadMessage(folderServerId: String, message: Message): String?
 
+    /**
+     * Uploads several messages to the same folder, using as few round trips as the server allows.
+     *
+     * @return A map of the messages' local UIDs to their new server IDs. Messages whose server ID couldn't be
+     * determined are missing from the map.
+     */
+    @Throws(MessagingException::class)
+    fun uploadMessages(folderServerId: String, messages: List<Message>): Map<String, String>
+
     fun createPusher(receiver: PushReceiver): Pusher
 
     @Throws(MessagingException::class)
     fun checkIncomingServerSettings()
 
+    /**
+     * Keeps the connection to the outgoing server open across [sendMessage] calls until [endSendSession] is called.
+     */
+    fun startSendSession()
+
     @Throws(MessagingException::class)
     fun sendMessage(message: Message)
 
+    fun endSendSession()
+
     @Throws(MessagingException::class)
     fun checkOutgoingServerSettings()
 }
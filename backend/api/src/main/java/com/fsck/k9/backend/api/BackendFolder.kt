@@ -25,6 +25,18 @@ interface BackendFolder {
     fun setMessageFlag(messageServerId: String, flag: Flag, value: Boolean)
     fun savePartialMessage(message: Message)
     fun saveCompleteMessage(message: Message)
+    fun saveMessageHeaders(message: Message, preview: String)
+    fun setMessageEmailId(messageServerId: String, emailId: String)
+
+    /**
+     * Copies a message that has already been downloaded to another folder of the account into this folder.
+     *
+     * Used when the server reports that a new message has the same email ID as a local message, e.g. because it has
+     * been moved by another client.
+     *
+     * @return `true` if the message was copied. `false` if no downloaded message with this email ID was found.
+     */
+    fun copyMessageByEmailId(emailId: String, messageServerId: String): Boolean
     fun getLatestOldMessageSeenTime(): Date
     fun setLatestOldMessageSeenTime(date: Date)
     fun getOldestMessageDate(): Date?
@@ -9,7 +9,8 @@ data class SyncConfig(
         val syncRemoteDeletions: Boolean,
         val maximumAutoDownloadMessageSize: Int,
         val defaultVisibleLimit: Int,
-        val syncFlags: Set<Flag>
+        val syncFlags: Set<Flag>,
+        val deferBodyDownload: Boolean
 ) {
     enum class ExpungePolicy {
         IMMEDIATELY,
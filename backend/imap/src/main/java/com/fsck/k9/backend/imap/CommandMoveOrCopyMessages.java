@@ -26,16 +26,21 @@ class CommandMoveOrCopyMessages {
 
     Map<String, String> moveMessages(@NotNull String sourceFolderServerId, @NotNull String targetFolderServerId,
             @NotNull List<String> messageServerIds) throws MessagingException {
-        return moveOrCopyMessages(sourceFolderServerId, targetFolderServerId, messageServerIds, false);
+        return moveOrCopyMessages(sourceFolderServerId, targetFolderServerId, messageServerIds, false, false);
+    }
+
+    Map<String, String> moveMessagesAndExpunge(@NotNull String sourceFolderServerId,
+            @NotNull String targetFolderServerId, @NotNull List<String> messageServerIds) throws MessagingException {
+        return moveOrCopyMessages(sourceFolderServerId, targetFolderServerId, messageServerIds, false, true);
     }
 
     Map<String, String> copyMessages(@NotNull String sourceFolderServerId, @NotNull String targetFolderServerId,
             @NotNull List<String> messageServerIds) throws MessagingException {
-        return moveOrCopyMessages(sourceFolderServerId, targetFolderServerId, messageServerIds, true);
+        return moveOrCopyMessages(sourceFolderServerId, targetFolderServerId, messageServerIds, true, false);
     }
 
     private Map<String, String> moveOrCopyMessages(String srcFolder, String destFolder, Collection<String> uids,
-            boolean isCopy) throws MessagingException {
+            boolean isCopy, boolean expunge) throws MessagingException {
         ImapFolder remoteSrcFolder = null;
         ImapFolder remoteDestFolder = null;
 
@@ -75,6 +80,8 @@ class CommandMoveOrCopyMessages {
 
             if (isCopy) {
                 return remoteSrcFolder.copyMessages(messages, remoteDestFolder);
+            } else if (expunge) {
+                return remoteSrcFolder.moveMessagesAndExpunge(messages, remoteDestFolder);
             } else {
                 return remoteSrcFolder.moveMessages(messages, remoteDestFolder);
             }
@@ -21,4 +21,15 @@ internal class CommandUploadMessage(private val imapStore: ImapStore) {
             folder.close()
         }
     }
+
+    fun uploadMessages(folderServerId: String, messages: List<Message>): Map<String, String> {
+        val folder = imapStore.getFolder(folderServerId)
+        try {
+            folder.open(Folder.OPEN_MODE_RW)
+
+            return folder.appendMessages(messages) ?: emptyMap()
+        } finally {
+            folder.close()
+        }
+    }
 }
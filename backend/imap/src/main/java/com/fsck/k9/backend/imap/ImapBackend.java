@@ -107,11 +107,21 @@ public class ImapBackend implements Backend {
         return true;
     }
 
+    @Override
+    public int getMaxParallelSyncs() {
+        return imapStore.getMaxParallelSyncs();
+    }
+
     @Override
     public void refreshFolderList() {
         commandRefreshFolderList.refreshFolderList();
     }
 
+    @Override
+    public void refreshFolderStatus(@NotNull List<String> folderServerIds) throws MessagingException {
+        imapStore.refreshFolderStatus(folderServerIds);
+    }
+
     @Override
     public void sync(@NotNull String folder, @NotNull SyncConfig syncConfig, @NotNull SyncListener listener,
             Folder providedRemoteFolder) {
@@ -164,6 +174,14 @@ public class ImapBackend implements Backend {
         return commandMoveOrCopyMessages.moveMessages(sourceFolderServerId, targetFolderServerId, messageServerIds);
     }
 
+    @Nullable
+    @Override
+    public Map<String, String> moveMessagesAndExpunge(@NotNull String sourceFolderServerId,
+            @NotNull String targetFolderServerId, @NotNull List<String> messageServerIds) throws MessagingException {
+        return commandMoveOrCopyMessages.moveMessagesAndExpunge(sourceFolderServerId, targetFolderServerId,
+                messageServerIds);
+    }
+
     @Nullable
     @Override
     public Map<String, String> copyMessages(@NotNull String sourceFolderServerId, @NotNull String targetFolderServerId,
@@ -204,6 +222,13 @@ public class ImapBackend implements Backend {
         return commandUploadMessage.uploadMessage(folderServerId, message);
     }
 
+    @NotNull
+    @Override
+    public Map<String, String> uploadMessages(@NotNull String folderServerId, @NotNull List<? extends Message> messages)
+            throws MessagingException {
+        return commandUploadMessage.uploadMessages(folderServerId, messages);
+    }
+
     @NotNull
     @Override
     public Pusher createPusher(@NotNull PushReceiver receiver) {
@@ -215,11 +240,21 @@ public class ImapBackend implements Backend {
         imapStore.checkSettings();
     }
 
+    @Override
+    public void startSendSession() {
+        smtpTransport.startSession();
+    }
+
     @Override
     public void sendMessage(@NotNull Message message) throws MessagingException {
         smtpTransport.sendMessage(message);
     }
 
+    @Override
+    public void endSendSession() {
+        smtpTransport.endSession();
+    }
+
     @Override
     public void checkOutgoingServerSettings() throws MessagingException {
         smtpTransport.checkSettings();
@@ -3,9 +3,11 @@ package com.fsck.k9.backend.imap;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,11 +34,25 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MessageExtractor;
 import com.fsck.k9.mail.store.imap.ImapFolder;
+import com.fsck.k9.mail.store.imap.ImapMessage;
 import com.fsck.k9.mail.store.imap.ImapStore;
+import com.fsck.k9.mail.store.imap.QresyncResponse;
+import com.fsck.k9.mail.store.imap.SortedLongMap;
+import com.fsck.k9.mail.store.imap.SortedLongSet;
+import com.fsck.k9.mail.store.imap.StatusResponse;
 import timber.log.Timber;
 
 
 class ImapSync {
+    private static final String EXTRA_UID_VALIDITY = "imapUidValidity";
+    private static final String EXTRA_HIGHEST_MOD_SEQ = "imapHighestModSeq";
+    private static final String EXTRA_UID_NEXT = "imapUidNext";
+    private static final String EXTRA_VISIBLE_LIMIT = "imapVisibleLimit";
+    private static final String EXTRA_EARLIEST_POLL_DATE = "imapEarliestPollDate";
+    // Messages without an effective date are never too old to be synchronized
+    private static final long NO_EFFECTIVE_DATE = Long.MAX_VALUE;
+
+
     private final String accountName;
     private final BackendStorage backendStorage;
     private final ImapStore imapStore;
@@ -73,14 +89,25 @@ class ImapSync {
 
             Long lastUid = backendFolder.getLastUid();
 
-            Map<String, Long> localUidMap = backendFolder.getAllMessagesAndEffectiveDates();
+            StatusResponse folderStatus = providedRemoteFolder == null ? imapStore.takeFolderStatus(folder) : null;
+            if (isFolderUnchanged(syncConfig, backendFolder, folderStatus)) {
+                Timber.d("SYNC: Folder %s:%s didn't change since the last synchronization", accountName, folder);
+
+                listener.folderStatusChanged(folder, backendFolder.getUnreadMessageCount());
+                backendFolder.setLastChecked(System.currentTimeMillis());
+                backendFolder.setStatus(null);
+                listener.syncFinished(folder, (int) folderStatus.getMessageCount(), 0);
+                return;
+            }
 
+            QresyncResponse qresyncResponse = null;
             if (providedRemoteFolder != null) {
                 Timber.v("SYNC: using providedRemoteFolder %s", folder);
                 remoteFolder = providedRemoteFolder;
             } else {
                 Timber.v("SYNC: About to get remote folder %s", folder);
-                remoteFolder = imapStore.getFolder(folder);
+                ImapFolder imapFolder = imapStore.getFolder(folder);
+                remoteFolder = imapFolder;
 
                 /*
                  * Synchronization process:
@@ -109,8 +136,7 @@ class ImapSync {
                     Timber.d("SYNC: Expunging folder %s:%s", accountName, folder);
                     remoteFolder.expunge();
                 }
-                remoteFolder.open(Folder.OPEN_MODE_RO);
-
+                qresyncResponse = openRemoteFolder(syncConfig, imapFolder, backendFolder);
             }
 
             listener.syncAuthenticationSuccess();
@@ -120,96 +146,20 @@ class ImapSync {
              */
             int remoteMessageCount = remoteFolder.getMessageCount();
 
-            int visibleLimit = backendFolder.getVisibleLimit();
-
-            if (visibleLimit < 0) {
-                visibleLimit = syncConfig.getDefaultVisibleLimit();
-            }
-
-            final List<Message> remoteMessages = new ArrayList<>();
-            Map<String, Message> remoteUidMap = new HashMap<>();
-
-            Timber.v("SYNC: Remote message count for folder %s is %d", folder, remoteMessageCount);
-
-            final Date earliestDate = syncConfig.getEarliestPollDate();
-            long earliestTimestamp = earliestDate != null ? earliestDate.getTime() : 0L;
-
-
-            int remoteStart = 1;
-            if (remoteMessageCount > 0) {
-                /* Message numbers start at 1.  */
-                if (visibleLimit > 0) {
-                    remoteStart = Math.max(0, remoteMessageCount - visibleLimit) + 1;
-                } else {
-                    remoteStart = 1;
-                }
-
-                Timber.v("SYNC: About to get messages %d through %d for folder %s",
-                        remoteStart, remoteMessageCount, folder);
-
-                final AtomicInteger headerProgress = new AtomicInteger(0);
-                listener.syncHeadersStarted(folder, folderName);
-
-
-                List<? extends Message> remoteMessageArray =
-                        remoteFolder.getMessages(remoteStart, remoteMessageCount, earliestDate, null);
-
-                int messageCount = remoteMessageArray.size();
-
-                for (Message thisMess : remoteMessageArray) {
-                    headerProgress.incrementAndGet();
-                    listener.syncHeadersProgress(folder, headerProgress.get(), messageCount);
-
-                    Long localMessageTimestamp = localUidMap.get(thisMess.getUid());
-                    if (localMessageTimestamp == null || localMessageTimestamp >= earliestTimestamp) {
-                        remoteMessages.add(thisMess);
-                        remoteUidMap.put(thisMess.getUid(), thisMess);
-                    }
-                }
-
-                Timber.v("SYNC: Got %d messages for folder %s", remoteUidMap.size(), folder);
-
-                listener.syncHeadersFinished(folder, headerProgress.get(), remoteUidMap.size());
-
-            } else if (remoteMessageCount < 0) {
-                throw new Exception("Message count " + remoteMessageCount + " for folder " + folder);
-            }
-
-            /*
-             * Remove any messages that are in the local store but no longer on the remote store or are too old
-             */
-            MoreMessages moreMessages = backendFolder.getMoreMessages();
-            if (syncConfig.getSyncRemoteDeletions()) {
-                List<String> destroyMessageUids = new ArrayList<>();
-                for (String localMessageUid : localUidMap.keySet()) {
-                    if (!localMessageUid.startsWith(BackendFolder.LOCAL_UID_PREFIX) &&
-                            remoteUidMap.get(localMessageUid) == null) {
-                        destroyMessageUids.add(localMessageUid);
-                    }
-                }
-
-                if (!destroyMessageUids.isEmpty()) {
-                    moreMessages = MoreMessages.UNKNOWN;
-
-                    backendFolder.destroyMessages(destroyMessageUids);
-                    for (String uid : destroyMessageUids) {
-                        listener.syncRemovedMessage(folder, uid);
-                    }
-                }
+            int newMessages;
+            if (qresyncResponse != null) {
+                Timber.d("SYNC: Using QRESYNC to synchronize folder %s:%s", accountName, folder);
+                newMessages = synchronizeChangedMessages(syncConfig, folder, remoteFolder, backendFolder,
+                        qresyncResponse, remoteMessageCount, lastUid, listener);
+            } else {
+                newMessages = synchronizeAllMessages(syncConfig, folder, remoteFolder, backendFolder,
+                        remoteMessageCount, lastUid, listener);
             }
-            // noinspection UnusedAssignment, free memory early? (better break up the method!)
-            localUidMap = null;
 
-            if (moreMessages == MoreMessages.UNKNOWN) {
-                updateMoreMessages(remoteFolder, backendFolder, earliestDate, remoteStart);
+            if (providedRemoteFolder == null) {
+                saveSyncState(syncConfig, (ImapFolder) remoteFolder, backendFolder);
             }
 
-            /*
-             * Now we download the actual content of messages.
-             */
-            int newMessages = downloadMessages(syncConfig, remoteFolder, backendFolder, remoteMessages, false,
-                    true, lastUid, listener);
-
             int unreadMessageCount = backendFolder.getUnreadMessageCount();
             listener.folderStatusChanged(folder, unreadMessageCount);
 
@@ -257,6 +207,316 @@ class ImapSync {
 
     }
 
+    /**
+     * Opens the remote folder. If the folder was synchronized before and the server supports QRESYNC, the server is
+     * asked to report all changes since the last synchronization.
+     *
+     * <p>
+     * The server only reports changes to messages we already know about. So when the range of messages to synchronize
+     * was extended, e.g. by loading more messages, a full synchronization is necessary.
+     * </p>
+     *
+     * @return The changes reported by the server, or {@code null} if a full synchronization is necessary.
+     */
+    private QresyncResponse openRemoteFolder(SyncConfig syncConfig, ImapFolder remoteFolder,
+            BackendFolder backendFolder) throws MessagingException {
+        Long uidValidity = backendFolder.getFolderExtraNumber(EXTRA_UID_VALIDITY);
+        Long highestModSeq = backendFolder.getFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ);
+        if (uidValidity == null || highestModSeq == null || uidValidity <= 0 || highestModSeq <= 0 ||
+                !isSyncRangeUnchanged(syncConfig, backendFolder)) {
+            remoteFolder.open(Folder.OPEN_MODE_RO);
+            return null;
+        }
+
+        return remoteFolder.openUsingQresync(Folder.OPEN_MODE_RO, uidValidity, highestModSeq);
+    }
+
+    /**
+     * Uses the folder status reported by {@code LIST-STATUS} to check whether anything happened in the folder since
+     * the last synchronization. That's only possible with mod-sequences, because without them flag changes go
+     * unnoticed.
+     */
+    private boolean isFolderUnchanged(SyncConfig syncConfig, BackendFolder backendFolder,
+            StatusResponse folderStatus) {
+        if (folderStatus == null || folderStatus.getHighestModSeq() <= 0 || folderStatus.getUidNext() <= 0) {
+            return false;
+        }
+
+        Long uidValidity = backendFolder.getFolderExtraNumber(EXTRA_UID_VALIDITY);
+        Long highestModSeq = backendFolder.getFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ);
+        Long uidNext = backendFolder.getFolderExtraNumber(EXTRA_UID_NEXT);
+
+        return uidValidity != null && uidValidity == folderStatus.getUidValidity() &&
+                highestModSeq != null && highestModSeq == folderStatus.getHighestModSeq() &&
+                uidNext != null && uidNext == folderStatus.getUidNext() &&
+                isSyncRangeUnchanged(syncConfig, backendFolder);
+    }
+
+    /**
+     * Checks whether the visible limit and the earliest poll date are the same as during the last synchronization.
+     */
+    private boolean isSyncRangeUnchanged(SyncConfig syncConfig, BackendFolder backendFolder) {
+        Long visibleLimit = backendFolder.getFolderExtraNumber(EXTRA_VISIBLE_LIMIT);
+        Long earliestPollDate = backendFolder.getFolderExtraNumber(EXTRA_EARLIEST_POLL_DATE);
+
+        return visibleLimit != null && visibleLimit == backendFolder.getVisibleLimit() &&
+                earliestPollDate != null && earliestPollDate == getEarliestPollTimestamp(syncConfig);
+    }
+
+    private void saveSyncState(SyncConfig syncConfig, ImapFolder remoteFolder, BackendFolder backendFolder) {
+        long uidValidity = remoteFolder.getUidValidity();
+        long highestModSeq = remoteFolder.getHighestModSeq();
+        if (uidValidity > 0 && highestModSeq > 0) {
+            backendFolder.setFolderExtraNumber(EXTRA_UID_VALIDITY, uidValidity);
+            backendFolder.setFolderExtraNumber(EXTRA_HIGHEST_MOD_SEQ, highestModSeq);
+            backendFolder.setFolderExtraNumber(EXTRA_UID_NEXT, remoteFolder.getUidNext());
+            backendFolder.setFolderExtraNumber(EXTRA_VISIBLE_LIMIT, backendFolder.getVisibleLimit());
+            backendFolder.setFolderExtraNumber(EXTRA_EARLIEST_POLL_DATE, getEarliestPollTimestamp(syncConfig));
+        }
+    }
+
+    private static long getEarliestPollTimestamp(SyncConfig syncConfig) {
+        Date earliestPollDate = syncConfig.getEarliestPollDate();
+        return earliestPollDate != null ? earliestPollDate.getTime() : 0L;
+    }
+
+    private int synchronizeChangedMessages(SyncConfig syncConfig, String folder, Folder remoteFolder,
+            BackendFolder backendFolder, QresyncResponse qresyncResponse, int remoteMessageCount, Long lastUid,
+            SyncListener listener) throws MessagingException, IOException {
+        MoreMessages moreMessages = backendFolder.getMoreMessages();
+        List<String> vanishedUids = qresyncResponse.getVanishedUids();
+        if (syncConfig.getSyncRemoteDeletions() && !vanishedUids.isEmpty()) {
+            Set<String> localUids = backendFolder.getAllMessagesAndEffectiveDates().keySet();
+            List<String> destroyMessageUids = new ArrayList<>();
+            for (String uid : vanishedUids) {
+                if (localUids.contains(uid)) {
+                    destroyMessageUids.add(uid);
+                }
+            }
+
+            if (!destroyMessageUids.isEmpty()) {
+                moreMessages = MoreMessages.UNKNOWN;
+
+                backendFolder.destroyMessages(destroyMessageUids);
+                for (String uid : destroyMessageUids) {
+                    listener.syncRemovedMessage(folder, uid);
+                }
+            }
+        }
+
+        /*
+         * The server reports changes to all messages in the folder. Like synchronizeAllMessages() we only download
+         * messages within the visible limit, not older ones that got flagged, for example.
+         */
+        int remoteStart = getRemoteStart(syncConfig, backendFolder, remoteMessageCount);
+        Set<String> uidsInRange = new HashSet<>();
+        for (Message message : qresyncResponse.getChangedMessages(remoteStart)) {
+            uidsInRange.add(message.getUid());
+        }
+
+        /*
+         * The server already sent us the current flags of all changed messages. So we only need to talk to the
+         * server again for messages that haven't been downloaded yet.
+         */
+        List<Message> unsyncedMessages = new ArrayList<>();
+        for (Message message : qresyncResponse.getChangedMessages()) {
+            if (isMessageDownloaded(backendFolder, message.getUid())) {
+                boolean messageChanged = syncFlags(syncConfig, backendFolder, message);
+                if (messageChanged) {
+                    listener.syncFlagChanged(folder, message.getUid());
+                }
+            } else if (uidsInRange.contains(message.getUid())) {
+                unsyncedMessages.add(message);
+            }
+        }
+
+        // New messages may have pushed older ones out of the visible range
+        if (moreMessages == MoreMessages.UNKNOWN || (moreMessages == MoreMessages.FALSE && remoteStart > 1)) {
+            updateMoreMessages(remoteFolder, backendFolder, syncConfig.getEarliestPollDate(), remoteStart);
+        }
+
+        boolean deferBodyDownload = shouldDeferBodyDownload(syncConfig, remoteFolder);
+        return downloadMessages(syncConfig, remoteFolder, backendFolder, unsyncedMessages, false, true,
+                deferBodyDownload, lastUid, listener);
+    }
+
+    private boolean isMessageDownloaded(BackendFolder backendFolder, String messageServerId) {
+        if (!backendFolder.isMessagePresent(messageServerId)) {
+            return false;
+        }
+
+        Set<Flag> messageFlags = backendFolder.getMessageFlags(messageServerId);
+        return messageFlags.contains(Flag.X_DOWNLOADED_FULL) || messageFlags.contains(Flag.X_DOWNLOADED_PARTIAL);
+    }
+
+    private int synchronizeAllMessages(SyncConfig syncConfig, String folder, Folder remoteFolder,
+            BackendFolder backendFolder, int remoteMessageCount, Long lastUid, SyncListener listener)
+            throws Exception {
+        String folderName = backendFolder.getName();
+
+        List<String> nonNumericLocalUids = new ArrayList<>();
+        SortedLongMap localEffectiveDates = getLocalEffectiveDates(backendFolder, nonNumericLocalUids);
+
+        final List<Message> remoteMessages = new ArrayList<>();
+        SortedLongSet remoteUids = new SortedLongSet();
+
+        Timber.v("SYNC: Remote message count for folder %s is %d", folder, remoteMessageCount);
+
+        final Date earliestDate = syncConfig.getEarliestPollDate();
+        long earliestTimestamp = earliestDate != null ? earliestDate.getTime() : 0L;
+
+
+        int remoteStart = getRemoteStart(syncConfig, backendFolder, remoteMessageCount);
+        if (remoteMessageCount > 0) {
+            Timber.v("SYNC: About to get messages %d through %d for folder %s",
+                    remoteStart, remoteMessageCount, folder);
+
+            final AtomicInteger headerProgress = new AtomicInteger(0);
+            listener.syncHeadersStarted(folder, folderName);
+
+
+            List<? extends Message> remoteMessageArray =
+                    remoteFolder.getMessages(remoteStart, remoteMessageCount, earliestDate, null);
+
+            int messageCount = remoteMessageArray.size();
+
+            for (Message thisMess : remoteMessageArray) {
+                headerProgress.incrementAndGet();
+                listener.syncHeadersProgress(folder, headerProgress.get(), messageCount);
+
+                long uid = parseUid(thisMess.getUid());
+                long localMessageTimestamp = localEffectiveDates.get(uid, NO_EFFECTIVE_DATE);
+                if (localMessageTimestamp >= earliestTimestamp) {
+                    remoteMessages.add(thisMess);
+                    remoteUids.add(uid);
+                }
+            }
+
+            Timber.v("SYNC: Got %d messages for folder %s", remoteMessages.size(), folder);
+
+            listener.syncHeadersFinished(folder, headerProgress.get(), remoteMessages.size());
+
+        } else if (remoteMessageCount < 0) {
+            throw new Exception("Message count " + remoteMessageCount + " for folder " + folder);
+        }
+
+        /*
+         * Remove any messages that are in the local store but no longer on the remote store or are too old
+         */
+        MoreMessages moreMessages = backendFolder.getMoreMessages();
+        if (syncConfig.getSyncRemoteDeletions()) {
+            List<String> destroyMessageUids = new ArrayList<>();
+            for (int i = 0, size = localEffectiveDates.size(); i < size; i++) {
+                long localMessageUid = localEffectiveDates.keyAt(i);
+                if (!remoteUids.contains(localMessageUid)) {
+                    destroyMessageUids.add(Long.toString(localMessageUid));
+                }
+            }
+
+            // IMAP UIDs are numbers. Anything else can't be on the server.
+            for (String localMessageUid : nonNumericLocalUids) {
+                if (!localMessageUid.startsWith(BackendFolder.LOCAL_UID_PREFIX)) {
+                    destroyMessageUids.add(localMessageUid);
+                }
+            }
+
+            if (!destroyMessageUids.isEmpty()) {
+                moreMessages = MoreMessages.UNKNOWN;
+
+                backendFolder.destroyMessages(destroyMessageUids);
+                for (String uid : destroyMessageUids) {
+                    listener.syncRemovedMessage(folder, uid);
+                }
+            }
+        }
+        // noinspection UnusedAssignment, free memory early? (better break up the method!)
+        localEffectiveDates = null;
+        remoteUids = null;
+
+        if (moreMessages == MoreMessages.UNKNOWN) {
+            updateMoreMessages(remoteFolder, backendFolder, earliestDate, remoteStart);
+        }
+
+        /*
+         * Now we download the actual content of messages.
+         */
+        boolean deferBodyDownload = shouldDeferBodyDownload(syncConfig, remoteFolder);
+        return downloadMessages(syncConfig, remoteFolder, backendFolder, remoteMessages, false,
+                true, deferBodyDownload, lastUid, listener);
+    }
+
+    /**
+     * @return The message sequence number of the oldest message within the visible limit. Message numbers start at 1.
+     */
+    private static int getRemoteStart(SyncConfig syncConfig, BackendFolder backendFolder, int remoteMessageCount) {
+        int visibleLimit = backendFolder.getVisibleLimit();
+        if (visibleLimit < 0) {
+            visibleLimit = syncConfig.getDefaultVisibleLimit();
+        }
+
+        if (remoteMessageCount <= 0 || visibleLimit <= 0) {
+            return 1;
+        }
+
+        return Math.max(0, remoteMessageCount - visibleLimit) + 1;
+    }
+
+    /**
+     * Copies the UIDs and effective dates of all local messages into a {@link SortedLongMap}, so the boxed map
+     * returned by {@link BackendFolder#getAllMessagesAndEffectiveDates()} can be garbage collected before the remote
+     * headers are downloaded. Messages without an effective date are mapped to {@link #NO_EFFECTIVE_DATE}.
+     *
+     * @param nonNumericLocalUids
+     *         Receives the UIDs that aren't IMAP UIDs, e.g. those of messages that haven't been uploaded yet.
+     */
+    private SortedLongMap getLocalEffectiveDates(BackendFolder backendFolder, List<String> nonNumericLocalUids) {
+        Map<String, Long> localUidMap = backendFolder.getAllMessagesAndEffectiveDates();
+
+        long[] numericUids = new long[localUidMap.size()];
+        int numericUidCount = 0;
+        for (String localMessageUid : localUidMap.keySet()) {
+            long uid = parseUid(localMessageUid);
+            if (uid == -1L) {
+                nonNumericLocalUids.add(localMessageUid);
+            } else {
+                numericUids[numericUidCount++] = uid;
+            }
+        }
+
+        Arrays.sort(numericUids, 0, numericUidCount);
+
+        // Adding keys in ascending order only appends to the arrays
+        SortedLongMap localEffectiveDates = new SortedLongMap(numericUidCount);
+        for (int i = 0; i < numericUidCount; i++) {
+            long uid = numericUids[i];
+            Long effectiveDate = localUidMap.get(Long.toString(uid));
+            localEffectiveDates.put(uid, effectiveDate != null ? effectiveDate : NO_EFFECTIVE_DATE);
+        }
+
+        return localEffectiveDates;
+    }
+
+    /**
+     * @return The numeric value of {@code uid} or {@code -1} if it's not in the canonical form of an IMAP UID.
+     */
+    private static long parseUid(String uid) {
+        int length = uid.length();
+        if (length == 0 || length > 10 || uid.charAt(0) == '0') {
+            return -1L;
+        }
+
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = uid.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1L;
+            }
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
     void downloadMessage(SyncConfig syncConfig, String folderServerId, String messageServerId)
             throws MessagingException {
         BackendFolder backendFolder = backendStorage.getFolder(folderServerId);
@@ -272,6 +532,7 @@ class ImapSync {
                     Collections.singletonList(remoteMessage),
                     false,
                     false,
+                    false,
                     null,
                     new SimpleSyncListener());
         } finally {
@@ -293,14 +554,17 @@ class ImapSync {
      *         Only flags will be fetched from the remote store if this is {@code true}.
      * @param purgeToVisibleLimit
      *         If true, local messages will be purged down to the limit of visible messages.
+     * @param deferBodyDownload
+     *         If true, new messages are stored with the preview generated by the server instead of downloading their
+     *         body. The body is downloaded when the message is opened or during a later synchronization.
      *
      * @return The number of downloaded messages that are not flagged as {@link Flag#SEEN}.
      *
      * @throws MessagingException
      */
     private int downloadMessages(SyncConfig syncConfig, Folder remoteFolder, BackendFolder backendFolder,
-            List<Message> inputMessages, boolean flagSyncOnly, boolean purgeToVisibleLimit, Long lastUid,
-            final SyncListener listener) throws MessagingException {
+            List<Message> inputMessages, boolean flagSyncOnly, boolean purgeToVisibleLimit,
+            boolean deferBodyDownload, Long lastUid, final SyncListener listener) throws MessagingException {
 
         final Date earliestDate = syncConfig.getEarliestPollDate();
 
@@ -317,7 +581,7 @@ class ImapSync {
 
         for (Message message : messages) {
             evaluateMessageForDownload(message, backendFolder, remoteFolder, unsyncedMessages, syncFlagMessages,
-                    flagSyncOnly);
+                    flagSyncOnly, deferBodyDownload);
         }
 
         final AtomicInteger progress = new AtomicInteger(0);
@@ -341,6 +605,9 @@ class ImapSync {
             FetchProfile fp = new FetchProfile();
             fp.add(FetchProfile.Item.FLAGS);
             fp.add(FetchProfile.Item.ENVELOPE);
+            if (deferBodyDownload) {
+                fp.add(FetchProfile.Item.PREVIEW);
+            }
 
             Timber.d("SYNC: About to fetch %d unsynced messages for folder %s", unsyncedMessages.size(), folder);
 
@@ -359,6 +626,16 @@ class ImapSync {
             Timber.d("SYNC: Synced unsynced messages for folder %s", folder);
         }
 
+        copyKnownMessages(syncConfig, folder, backendFolder, smallMessages, progress, newMessages, todo, lastUid,
+                listener);
+        copyKnownMessages(syncConfig, folder, backendFolder, largeMessages, progress, newMessages, todo, lastUid,
+                listener);
+
+        if (deferBodyDownload) {
+            saveMessageHeaders(folder, backendFolder, smallMessages, progress, newMessages, todo, lastUid, listener);
+            saveMessageHeaders(folder, backendFolder, largeMessages, progress, newMessages, todo, lastUid, listener);
+        }
+
         Timber.d("SYNC: Have %d large messages and %d small messages out of %d unsynced messages",
                 largeMessages.size(), smallMessages.size(), unsyncedMessages.size());
 
@@ -408,7 +685,8 @@ class ImapSync {
     }
 
     private void evaluateMessageForDownload(Message message, BackendFolder backendFolder, Folder remoteFolder,
-            List<Message> unsyncedMessages, List<Message> syncFlagMessages, boolean flagSyncOnly) {
+            List<Message> unsyncedMessages, List<Message> syncFlagMessages, boolean flagSyncOnly,
+            boolean deferBodyDownload) {
 
         String messageServerId = message.getUid();
         if (message.isSet(Flag.DELETED)) {
@@ -432,10 +710,17 @@ class ImapSync {
             Timber.v("Message with uid %s is present in the local store", messageServerId);
 
             if (!messageFlags.contains(Flag.X_DOWNLOADED_FULL) && !messageFlags.contains(Flag.X_DOWNLOADED_PARTIAL)) {
-                Timber.v("Message with uid %s is not downloaded, even partially; trying again",
-                        messageServerId);
+                if (deferBodyDownload) {
+                    Timber.v("Message with uid %s is not downloaded, even partially; deferring download",
+                            messageServerId);
 
-                unsyncedMessages.add(message);
+                    syncFlagMessages.add(message);
+                } else {
+                    Timber.v("Message with uid %s is not downloaded, even partially; trying again",
+                            messageServerId);
+
+                    unsyncedMessages.add(message);
+                }
             } else {
                 String newPushState = remoteFolder.getNewPushState(backendFolder.getPushState(), message);
                 if (newPushState != null) {
@@ -448,6 +733,98 @@ class ImapSync {
         }
     }
 
+    /**
+     * Copies messages that are already present in another local folder, e.g. because another client moved them, instead
+     * of downloading them again. This requires the server to report the {@code EMAILID} of messages (RFC 8474).
+     */
+    private void copyKnownMessages(SyncConfig syncConfig, String folder, BackendFolder backendFolder,
+            List<Message> messages, AtomicInteger progress, AtomicInteger newMessages, int todo, Long lastUid,
+            SyncListener listener) {
+        Iterator<Message> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            String emailId = getEmailId(message);
+            if (emailId == null) {
+                continue;
+            }
+
+            String messageServerId = message.getUid();
+            try {
+                if (!backendFolder.copyMessageByEmailId(emailId, messageServerId)) {
+                    continue;
+                }
+            } catch (Exception e) {
+                Timber.e(e, "SYNC: Couldn't copy message %s from local storage; downloading it", messageServerId);
+                continue;
+            }
+
+            Timber.v("SYNC: Copied message %s:%s:%s with email ID %s from local storage", accountName, folder,
+                    messageServerId, emailId);
+
+            iterator.remove();
+            syncFlags(syncConfig, backendFolder, message);
+            reportNewMessage(folder, message, progress, newMessages, todo, lastUid, listener);
+        }
+    }
+
+    /**
+     * Stores only the headers of messages for which the server generated a preview ({@code PREVIEW}, RFC 8970). The
+     * message list can display them without the body having been downloaded.
+     */
+    private void saveMessageHeaders(String folder, BackendFolder backendFolder, List<Message> messages,
+            AtomicInteger progress, AtomicInteger newMessages, int todo, Long lastUid, SyncListener listener) {
+        Iterator<Message> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            String preview = message instanceof ImapMessage ? ((ImapMessage) message).getPreview() : null;
+            if (preview == null) {
+                continue;
+            }
+
+            try {
+                backendFolder.saveMessageHeaders(message, preview);
+            } catch (Exception e) {
+                Timber.e(e, "SYNC: Couldn't store headers of message %s; downloading it", message.getUid());
+                continue;
+            }
+
+            iterator.remove();
+            reportNewMessage(folder, message, progress, newMessages, todo, lastUid, listener);
+        }
+    }
+
+    private void reportNewMessage(String folder, Message message, AtomicInteger progress, AtomicInteger newMessages,
+            int todo, Long lastUid, SyncListener listener) {
+        progress.incrementAndGet();
+
+        if (!message.isSet(Flag.SEEN)) {
+            newMessages.incrementAndGet();
+        }
+
+        listener.syncProgress(folder, progress.get(), todo);
+
+        String messageServerId = message.getUid();
+        boolean isOldMessage = isOldMessage(messageServerId, lastUid);
+        listener.syncNewMessage(folder, messageServerId, isOldMessage);
+    }
+
+    private static boolean shouldDeferBodyDownload(SyncConfig syncConfig, Folder remoteFolder)
+            throws MessagingException {
+        return syncConfig.getDeferBodyDownload() && remoteFolder instanceof ImapFolder &&
+                ((ImapFolder) remoteFolder).isPreviewSupported();
+    }
+
+    private void saveEmailId(BackendFolder backendFolder, Message message) {
+        String emailId = getEmailId(message);
+        if (emailId != null) {
+            backendFolder.setMessageEmailId(message.getUid(), emailId);
+        }
+    }
+
+    private static String getEmailId(Message message) {
+        return message instanceof ImapMessage ? ((ImapMessage) message).getEmailId() : null;
+    }
+
     private boolean isOldMessage(String messageServerId, Long lastUid) {
         if (lastUid == null) {
             return false;
@@ -551,6 +928,7 @@ class ImapSync {
 
                             // Store the updated message locally
                             backendFolder.saveCompleteMessage(message);
+                            saveEmailId(backendFolder, message);
                             progress.incrementAndGet();
 
 
@@ -615,6 +993,7 @@ class ImapSync {
             } else {
                 downloadPartial(remoteFolder, backendFolder, message);
             }
+            saveEmailId(backendFolder, message);
 
             String messageServerId = message.getUid();
             Timber.v("About to notify listeners that we got a new large message %s:%s:%s",
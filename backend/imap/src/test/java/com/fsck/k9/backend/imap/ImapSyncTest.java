@@ -1,6 +1,7 @@
 package com.fsck.k9.backend.imap;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
@@ -8,6 +9,7 @@ import java.util.List;
 import java.util.Set;
 
 import com.fsck.k9.backend.api.BackendFolder;
+import com.fsck.k9.backend.api.BackendFolder.MoreMessages;
 import com.fsck.k9.backend.api.BackendStorage;
 import com.fsck.k9.backend.api.SyncConfig;
 import com.fsck.k9.backend.api.SyncConfig.ExpungePolicy;
@@ -19,7 +21,10 @@ import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.store.imap.ImapFolder;
+import com.fsck.k9.mail.store.imap.ImapMessage;
 import com.fsck.k9.mail.store.imap.ImapStore;
+import com.fsck.k9.mail.store.imap.QresyncResponse;
+import com.fsck.k9.mail.store.imap.StatusResponse;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -29,12 +34,16 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
@@ -130,6 +139,124 @@ public class ImapSyncTest {
         verify(remoteFolder).open(Folder.OPEN_MODE_RO);
     }
 
+    @Test
+    public void sync_withStoredQresyncState_shouldRemoveVanishedMessagesWithoutListingRemoteFolder()
+            throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        hasStoredSyncState(1L, 100L, 50L);
+        when(backendFolder.getAllMessagesAndEffectiveDates()).thenReturn(Collections.singletonMap(MESSAGE_UID1, 0L));
+        QresyncResponse qresyncResponse = mock(QresyncResponse.class);
+        when(qresyncResponse.getVanishedUids()).thenReturn(Collections.singletonList(MESSAGE_UID1));
+        when(qresyncResponse.getChangedMessages()).thenReturn(Collections.<ImapMessage>emptyList());
+        when(remoteFolder.openUsingQresync(Folder.OPEN_MODE_RO, 1L, 100L)).thenReturn(qresyncResponse);
+        when(remoteFolder.getUidValidity()).thenReturn(1L);
+        when(remoteFolder.getHighestModSeq()).thenReturn(105L);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, null);
+
+        verify(backendFolder).destroyMessages(Collections.singletonList(MESSAGE_UID1));
+        verify(listener).syncRemovedMessage(FOLDER_NAME, MESSAGE_UID1);
+        verify(remoteFolder, never()).getMessages(anyInt(), anyInt(), nullable(Date.class),
+                nullable(MessageRetrievalListener.class));
+        verify(backendFolder).setFolderExtraNumber("imapHighestModSeq", 105L);
+    }
+
+    @Test
+    public void sync_withStoredQresyncState_shouldOnlyDownloadChangedMessagesWithinVisibleLimit() throws Exception {
+        messageCountInRemoteFolder(DEFAULT_VISIBLE_LIMIT + 5);
+        configureRemoteStoreWithFolder();
+        hasStoredSyncState(1L, 100L, 50L);
+        ImapMessage newMessage = createImapMessage("60");
+        ImapMessage oldMessage = createImapMessage("3");
+        QresyncResponse qresyncResponse = mock(QresyncResponse.class);
+        when(qresyncResponse.getChangedMessages()).thenReturn(asList(oldMessage, newMessage));
+        when(qresyncResponse.getChangedMessages(6L)).thenReturn(Collections.singletonList(newMessage));
+        when(remoteFolder.openUsingQresync(Folder.OPEN_MODE_RO, 1L, 100L)).thenReturn(qresyncResponse);
+        final List<Message> fetchedMessages = new ArrayList<>();
+        doAnswer(new Answer() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                fetchedMessages.addAll((List<Message>) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(remoteFolder).fetch(any(List.class), any(FetchProfile.class), nullable(MessageRetrievalListener.class));
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, null);
+
+        assertEquals(Collections.<Message>singletonList(newMessage), fetchedMessages);
+    }
+
+    @Test
+    public void sync_withStoredQresyncStateAndVanishedMessages_shouldUpdateMoreMessages() throws Exception {
+        messageCountInRemoteFolder(DEFAULT_VISIBLE_LIMIT + 5);
+        configureRemoteStoreWithFolder();
+        hasStoredSyncState(1L, 100L, 50L);
+        when(backendFolder.getMoreMessages()).thenReturn(MoreMessages.FALSE);
+        when(backendFolder.getAllMessagesAndEffectiveDates()).thenReturn(Collections.singletonMap(MESSAGE_UID1, 0L));
+        QresyncResponse qresyncResponse = mock(QresyncResponse.class);
+        when(qresyncResponse.getVanishedUids()).thenReturn(Collections.singletonList(MESSAGE_UID1));
+        when(remoteFolder.openUsingQresync(Folder.OPEN_MODE_RO, 1L, 100L)).thenReturn(qresyncResponse);
+        when(remoteFolder.areMoreMessagesAvailable(6, null)).thenReturn(true);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, null);
+
+        verify(backendFolder).setMoreMessages(MoreMessages.TRUE);
+    }
+
+    @Test
+    public void sync_withStoredQresyncStateAndIncreasedVisibleLimit_shouldNotUseQresync() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        hasStoredSyncState(1L, 100L, 50L);
+        when(backendFolder.getVisibleLimit()).thenReturn(DEFAULT_VISIBLE_LIMIT + 25);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, null);
+
+        verify(remoteFolder, never()).openUsingQresync(anyInt(), anyLong(), anyLong());
+        verify(remoteFolder).open(Folder.OPEN_MODE_RO);
+    }
+
+    @Test
+    public void sync_withStoredQresyncStateAndChangedEarliestPollDate_shouldNotUseQresync() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        hasStoredSyncState(1L, 100L, 50L);
+        configureSyncConfigWithSyncRemoteDeletionsAndEarliestPollDate(new Date());
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, null);
+
+        verify(remoteFolder, never()).openUsingQresync(anyInt(), anyLong(), anyLong());
+        verify(remoteFolder).open(Folder.OPEN_MODE_RO);
+    }
+
+    @Test
+    public void sync_withUnchangedFolderStatus_shouldNotOpenRemoteFolder() throws Exception {
+        configureRemoteStoreWithFolder();
+        hasStoredSyncState(1L, 100L, 50L);
+        StatusResponse folderStatus = createFolderStatus(1L, 100L, 50L);
+        when(remoteStore.takeFolderStatus(FOLDER_NAME)).thenReturn(folderStatus);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, null);
+
+        verify(remoteFolder, never()).open(anyInt());
+        verify(remoteFolder, never()).openUsingQresync(anyInt(), anyLong(), anyLong());
+        verify(listener).syncFinished(FOLDER_NAME, 3, 0);
+    }
+
+    @Test
+    public void sync_withChangedFolderStatus_shouldOpenRemoteFolder() throws Exception {
+        messageCountInRemoteFolder(1);
+        configureRemoteStoreWithFolder();
+        hasStoredSyncState(1L, 100L, 50L);
+        StatusResponse folderStatus = createFolderStatus(1L, 101L, 50L);
+        when(remoteStore.takeFolderStatus(FOLDER_NAME)).thenReturn(folderStatus);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, null);
+
+        verify(remoteFolder).openUsingQresync(Folder.OPEN_MODE_RO, 1L, 100L);
+    }
+
     @Test
     public void sync_withRemoteFolderProvided_shouldNotCloseRemoteFolder() {
         messageCountInRemoteFolder(1);
@@ -272,6 +399,67 @@ public class ImapSyncTest {
         assertEquals(FetchProfile.Item.BODY_SANE, fetchProfileCaptor.getAllValues().get(3).get(0));
     }
 
+    @Test
+    public void sync_withUnsyncedMessageKnownByEmailId_shouldCopyMessageInsteadOfFetchingBody() throws Exception {
+        ImapMessage knownMessage = mock(ImapMessage.class);
+        when(knownMessage.getUid()).thenReturn("UID");
+        when(knownMessage.getEmailId()).thenReturn("M6d99ac3275bb4e");
+        when(knownMessage.getSize()).thenReturn((long) MAXIMUM_SMALL_MESSAGE_SIZE);
+        messageCountInRemoteFolder(1);
+        hasUnsyncedRemoteMessage();
+        when(remoteFolder.getServerId()).thenReturn(FOLDER_NAME);
+        when(remoteFolder.supportsFetchingFlags()).thenReturn(false);
+        respondToFetchEnvelopesWithMessage(knownMessage);
+        when(backendFolder.copyMessageByEmailId("M6d99ac3275bb4e", "UID")).thenReturn(true);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, remoteFolder);
+
+        verify(backendFolder).copyMessageByEmailId("M6d99ac3275bb4e", "UID");
+        verify(backendFolder, never()).saveCompleteMessage(any(Message.class));
+        verify(listener).syncNewMessage(FOLDER_NAME, "UID", false);
+    }
+
+    @Test
+    public void sync_withDeferredBodyDownloadAndServerPreview_shouldOnlySaveMessageHeaders() throws Exception {
+        ImapMessage message = mock(ImapMessage.class);
+        when(message.getUid()).thenReturn("UID");
+        when(message.getPreview()).thenReturn("Hello");
+        when(message.getSize()).thenReturn((long) MAXIMUM_SMALL_MESSAGE_SIZE);
+        messageCountInRemoteFolder(1);
+        hasUnsyncedRemoteMessage();
+        when(remoteFolder.getServerId()).thenReturn(FOLDER_NAME);
+        when(remoteFolder.supportsFetchingFlags()).thenReturn(false);
+        when(remoteFolder.isPreviewSupported()).thenReturn(true);
+        respondToFetchEnvelopesWithMessage(message);
+        syncConfig = syncConfig.copy(syncConfig.getExpungePolicy(), syncConfig.getEarliestPollDate(),
+                syncConfig.getSyncRemoteDeletions(), syncConfig.getMaximumAutoDownloadMessageSize(),
+                syncConfig.getDefaultVisibleLimit(), syncConfig.getSyncFlags(), true);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, remoteFolder);
+
+        verify(backendFolder).saveMessageHeaders(message, "Hello");
+        verify(backendFolder, never()).saveCompleteMessage(any(Message.class));
+        verify(listener).syncNewMessage(FOLDER_NAME, "UID", false);
+    }
+
+    @Test
+    public void sync_withDeferredBodyDownloadWithoutPreviewCapability_shouldDownloadMessage() throws Exception {
+        messageCountInRemoteFolder(1);
+        hasUnsyncedRemoteMessage();
+        when(remoteFolder.supportsFetchingFlags()).thenReturn(false);
+        respondToFetchEnvelopesWithMessage(buildSmallNewMessage());
+        syncConfig = syncConfig.copy(syncConfig.getExpungePolicy(), syncConfig.getEarliestPollDate(),
+                syncConfig.getSyncRemoteDeletions(), syncConfig.getMaximumAutoDownloadMessageSize(),
+                syncConfig.getDefaultVisibleLimit(), syncConfig.getSyncFlags(), true);
+
+        imapSync.sync(FOLDER_NAME, syncConfig, listener, remoteFolder);
+
+        verify(backendFolder, never()).saveMessageHeaders(any(Message.class), anyString());
+        verify(remoteFolder, atLeast(2)).fetch(any(List.class), fetchProfileCaptor.capture(),
+                nullable(MessageRetrievalListener.class));
+        assertFalse(fetchProfileCaptor.getAllValues().get(0).contains(FetchProfile.Item.PREVIEW));
+    }
+
     private void respondToFetchEnvelopesWithMessage(final Message message) throws MessagingException {
         doAnswer(new Answer() {
             @Override
@@ -326,6 +514,30 @@ public class ImapSyncTest {
                 nullable(MessageRetrievalListener.class))).thenReturn(Collections.singletonList(remoteMessage));
     }
 
+    private ImapMessage createImapMessage(String uid) {
+        ImapMessage message = mock(ImapMessage.class);
+        when(message.getUid()).thenReturn(uid);
+        return message;
+    }
+
+    private void hasStoredSyncState(long uidValidity, long highestModSeq, long uidNext) {
+        when(backendFolder.getVisibleLimit()).thenReturn(DEFAULT_VISIBLE_LIMIT);
+        when(backendFolder.getFolderExtraNumber("imapUidValidity")).thenReturn(uidValidity);
+        when(backendFolder.getFolderExtraNumber("imapHighestModSeq")).thenReturn(highestModSeq);
+        when(backendFolder.getFolderExtraNumber("imapUidNext")).thenReturn(uidNext);
+        when(backendFolder.getFolderExtraNumber("imapVisibleLimit")).thenReturn((long) DEFAULT_VISIBLE_LIMIT);
+        when(backendFolder.getFolderExtraNumber("imapEarliestPollDate")).thenReturn(0L);
+    }
+
+    private StatusResponse createFolderStatus(long uidValidity, long highestModSeq, long uidNext) {
+        StatusResponse folderStatus = mock(StatusResponse.class);
+        when(folderStatus.getMessageCount()).thenReturn(3L);
+        when(folderStatus.getUidValidity()).thenReturn(uidValidity);
+        when(folderStatus.getHighestModSeq()).thenReturn(highestModSeq);
+        when(folderStatus.getUidNext()).thenReturn(uidNext);
+        return folderStatus;
+    }
+
     private void configureSyncConfig() {
         syncConfig = new SyncConfig(
                 ExpungePolicy.MANUALLY,
@@ -333,7 +545,8 @@ public class ImapSyncTest {
                 true,
                 MAXIMUM_SMALL_MESSAGE_SIZE,
                 DEFAULT_VISIBLE_LIMIT,
-                SYNC_FLAGS);
+                SYNC_FLAGS,
+                false);
     }
 
     private void configureRemoteStoreWithFolder() {
@@ -352,7 +565,8 @@ public class ImapSyncTest {
                 syncConfig.getSyncRemoteDeletions(),
                 syncConfig.getMaximumAutoDownloadMessageSize(),
                 syncConfig.getDefaultVisibleLimit(),
-                syncConfig.getSyncFlags());
+                syncConfig.getSyncFlags(),
+                syncConfig.getDeferBodyDownload());
     }
 
     private void configureSyncConfigWithSyncRemoteDeletions(boolean syncRemoteDeletions) {
@@ -362,7 +576,8 @@ public class ImapSyncTest {
                 syncRemoteDeletions,
                 syncConfig.getMaximumAutoDownloadMessageSize(),
                 syncConfig.getDefaultVisibleLimit(),
-                syncConfig.getSyncFlags());
+                syncConfig.getSyncFlags(),
+                syncConfig.getDeferBodyDownload());
     }
 
     private void configureSyncConfigWithSyncRemoteDeletionsAndEarliestPollDate(Date earliestPollDate) {
@@ -372,6 +587,7 @@ public class ImapSyncTest {
                 true,
                 syncConfig.getMaximumAutoDownloadMessageSize(),
                 syncConfig.getDefaultVisibleLimit(),
-                syncConfig.getSyncFlags());
+                syncConfig.getSyncFlags(),
+                syncConfig.getDeferBodyDownload());
     }
 }
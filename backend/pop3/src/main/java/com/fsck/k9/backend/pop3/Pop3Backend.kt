@@ -36,11 +36,14 @@ class Pop3Backend(
     override val supportsSearchByDate = false
     override val isPushCapable = false
     override val isDeleteMoveToTrash = false
+    override val maxParallelSyncs = 1
 
     override fun refreshFolderList() {
         commandRefreshFolderList.refreshFolderList()
     }
 
+    override fun refreshFolderStatus(folderServerIds: List<String>) = Unit
+
     override fun sync(folder: String, syncConfig: SyncConfig, listener: SyncListener, providedRemoteFolder: Folder<*>?) {
         pop3Sync.sync(folder, syncConfig, listener)
     }
@@ -81,6 +84,14 @@ class Pop3Backend(
         throw UnsupportedOperationException("not supported")
     }
 
+    override fun moveMessagesAndExpunge(
+            sourceFolderServerId: String,
+            targetFolderServerId: String,
+            messageServerIds: List<String>
+    ): Map<String, String>? {
+        throw UnsupportedOperationException("not supported")
+    }
+
     override fun copyMessages(
             sourceFolderServerId: String,
             targetFolderServerId: String,
@@ -114,6 +125,10 @@ class Pop3Backend(
         throw UnsupportedOperationException("not supported")
     }
 
+    override fun uploadMessages(folderServerId: String, messages: List<Message>): Map<String, String> {
+        throw UnsupportedOperationException("not supported")
+    }
+
     override fun createPusher(receiver: PushReceiver): Pusher {
         throw UnsupportedOperationException("not supported")
     }
@@ -122,10 +137,18 @@ class Pop3Backend(
         pop3Store.checkSettings()
     }
 
+    override fun startSendSession() {
+        smtpTransport.startSession()
+    }
+
     override fun sendMessage(message: Message) {
         smtpTransport.sendMessage(message)
     }
 
+    override fun endSendSession() {
+        smtpTransport.endSession()
+    }
+
     override fun checkOutgoingServerSettings() {
         smtpTransport.checkSettings()
     }
@@ -3,9 +3,10 @@ package com.fsck.k9.backend.pop3;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,11 +31,16 @@ import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.MessageExtractor;
+import com.fsck.k9.mail.store.pop3.Pop3Folder;
 import com.fsck.k9.mail.store.pop3.Pop3Store;
 import timber.log.Timber;
 
 
 class Pop3Sync {
+    private static final String EXTRA_UID_INDEX = "uidIndex";
+    private static final int MAX_UID_INDEX_SIZE = 500;
+
+
     private final String accountName;
     private final BackendStorage backendStorage;
     private final Pop3Store remoteStore;
@@ -51,7 +57,7 @@ class Pop3Sync {
     }
 
     void synchronizeMailboxSynchronous(String folder, SyncConfig syncConfig, SyncListener listener) {
-        Folder remoteFolder = null;
+        Pop3Folder remoteFolder = null;
 
         Timber.i("Synchronizing folder %s:%s", accountName, folder);
 
@@ -131,6 +137,8 @@ class Pop3Sync {
                     remoteStart = 1;
                 }
 
+                restoreUidIndex(backendFolder, remoteFolder);
+
                 Timber.v("SYNC: About to get messages %d through %d for folder %s",
                         remoteStart, remoteMessageCount, folder);
 
@@ -197,6 +205,8 @@ class Pop3Sync {
             int newMessages = downloadMessages(syncConfig, remoteFolder, backendFolder, remoteMessages, false, true,
                     listener);
 
+            saveUidIndex(backendFolder, remoteFolder, remoteStart, remoteMessageCount);
+
             int unreadMessageCount = backendFolder.getUnreadMessageCount();
             listener.folderStatusChanged(folder, unreadMessageCount);
 
@@ -243,6 +253,65 @@ class Pop3Sync {
         }
     }
 
+    /**
+     * Restores the message number to UID mapping recorded during the last sync, so only messages that were added since
+     * then have to be looked up using {@code UIDL}.
+     */
+    private void restoreUidIndex(BackendFolder backendFolder, Pop3Folder remoteFolder) throws MessagingException {
+        String uidIndex = backendFolder.getFolderExtraString(EXTRA_UID_INDEX);
+        if (uidIndex == null || uidIndex.isEmpty()) {
+            return;
+        }
+
+        String[] parts = uidIndex.split(" ");
+        int start;
+        int savedMessageCount;
+        try {
+            start = Integer.parseInt(parts[0]);
+            savedMessageCount = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+        } catch (NumberFormatException e) {
+            Timber.w("Ignoring malformed UID index for %s:%s", accountName, remoteFolder.getServerId());
+            return;
+        }
+
+        List<String> uids = Arrays.asList(parts).subList(Math.min(2, parts.length), parts.length);
+        boolean restored = remoteFolder.restoreUidIndex(start, savedMessageCount, uids);
+
+        Timber.d("SYNC: UID index with %d entries for folder %s %s", uids.size(), remoteFolder.getServerId(),
+                restored ? "is still valid" : "is outdated");
+    }
+
+    /**
+     * Records the message number to UID mapping as the first message number and the message count, followed by the
+     * space-separated UIDs of the messages in between. UIDs can't contain spaces (RFC 1939).
+     *
+     * <p>
+     * Windows larger than {@link #MAX_UID_INDEX_SIZE} (e.g. when there's no visible limit) aren't recorded, and the
+     * folder extra is only written when the window has changed since the last sync.
+     * </p>
+     */
+    private void saveUidIndex(BackendFolder backendFolder, Pop3Folder remoteFolder, int start, int end) {
+        String uidIndex = "";
+        if (end - start + 1 <= MAX_UID_INDEX_SIZE) {
+            List<String> uids = remoteFolder.getIndexedUids(start, end);
+            if (uids != null && !uids.isEmpty()) {
+                StringBuilder builder = new StringBuilder();
+                builder.append(start).append(' ').append(end);
+                for (String uid : uids) {
+                    builder.append(' ').append(uid);
+                }
+                uidIndex = builder.toString();
+            }
+        }
+
+        String savedUidIndex = backendFolder.getFolderExtraString(EXTRA_UID_INDEX);
+        if (uidIndex.equals(savedUidIndex) || (uidIndex.isEmpty() && savedUidIndex == null)) {
+            return;
+        }
+
+        backendFolder.setFolderExtraString(EXTRA_UID_INDEX, uidIndex);
+    }
+
     private void updateMoreMessages(Folder remoteFolder, BackendFolder backendFolder, Date earliestDate,
             int remoteStart) throws MessagingException, IOException {
 
@@ -564,10 +633,23 @@ class Pop3Sync {
         Timber.d("SYNC: Fetching large messages for folder %s", folder);
 
         remoteFolder.fetch(largeMessages, fp, null);
-        for (T message : largeMessages) {
 
+        List<T> messagesWithoutStructure = new ArrayList<>();
+        for (T message : largeMessages) {
             if (message.getBody() == null) {
-                downloadSaneBody(syncConfig, remoteFolder, backendFolder, message);
+                messagesWithoutStructure.add(message);
+            }
+        }
+        fetchSaneBodies(remoteFolder, messagesWithoutStructure);
+
+        Set<String> saneBodyUids = new HashSet<>();
+        for (T message : messagesWithoutStructure) {
+            saneBodyUids.add(message.getUid());
+        }
+
+        for (T message : largeMessages) {
+            if (saneBodyUids.contains(message.getUid())) {
+                saveSaneBody(syncConfig, backendFolder, message);
             } else {
                 downloadPartial(remoteFolder, backendFolder, message);
             }
@@ -596,8 +678,16 @@ class Pop3Sync {
         Timber.d("SYNC: Done fetching large messages for folder %s", folder);
     }
 
-    private void downloadSaneBody(SyncConfig syncConfig, Folder remoteFolder, BackendFolder backendFolder,
-            Message message) throws MessagingException {
+    /**
+     * Fetches a reasonable portion of the given messages with a single {@link Folder#fetch} call, so the commands can
+     * be pipelined.
+     */
+    private <T extends Message> void fetchSaneBodies(Folder<T> remoteFolder, List<T> messages)
+            throws MessagingException {
+        if (messages.isEmpty()) {
+            return;
+        }
+
         /*
          * The provider was unable to get the structure of the message, so
          * we'll download a reasonable portion of the messge and mark it as
@@ -612,8 +702,11 @@ class Pop3Sync {
          *  they equal we can mark this SYNCHRONIZED instead of PARTIALLY_SYNCHRONIZED
          */
 
-        remoteFolder.fetch(Collections.singletonList(message), fp, null);
+        remoteFolder.fetch(messages, fp, null);
+    }
 
+    private void saveSaneBody(SyncConfig syncConfig, BackendFolder backendFolder, Message message)
+            throws MessagingException {
         boolean completeMessage = false;
         // Certain (POP3) servers give you the whole message even when you ask for only the first x Kb
         if (!message.isSet(Flag.X_DOWNLOADED_FULL)) {
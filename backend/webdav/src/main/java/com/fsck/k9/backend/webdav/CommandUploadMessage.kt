@@ -20,4 +20,17 @@ internal class CommandUploadMessage(private val webDavStore: WebDavStore) {
             folder.close()
         }
     }
+
+    fun uploadMessages(folderServerId: String, messages: List<Message>): Map<String, String> {
+        val folder = webDavStore.getFolder(folderServerId)
+        try {
+            folder.open(Folder.OPEN_MODE_RW)
+
+            folder.appendMessages(messages)
+
+            return emptyMap()
+        } finally {
+            folder.close()
+        }
+    }
 }
@@ -40,11 +40,14 @@ class WebDavBackend(
     override val supportsSearchByDate = false
     override val isPushCapable = false
     override val isDeleteMoveToTrash = true
+    override val maxParallelSyncs = 1
 
     override fun refreshFolderList() {
         commandGetFolders.refreshFolderList()
     }
 
+    override fun refreshFolderStatus(folderServerIds: List<String>) = Unit
+
     override fun sync(folder: String, syncConfig: SyncConfig, listener: SyncListener, providedRemoteFolder: Folder<*>?) {
         webDavSync.sync(folder, syncConfig, listener)
     }
@@ -86,6 +89,15 @@ class WebDavBackend(
         return commandMoveOrCopyMessages.moveMessages(sourceFolderServerId, targetFolderServerId, messageServerIds)
     }
 
+    override fun moveMessagesAndExpunge(
+            sourceFolderServerId: String,
+            targetFolderServerId: String,
+            messageServerIds: List<String>
+    ): Map<String, String>? {
+        // Moved messages don't remain in the source folder
+        return commandMoveOrCopyMessages.moveMessages(sourceFolderServerId, targetFolderServerId, messageServerIds)
+    }
+
     override fun copyMessages(
             sourceFolderServerId: String,
             targetFolderServerId: String,
@@ -119,6 +131,10 @@ class WebDavBackend(
         return commandUploadMessage.uploadMessage(folderServerId, message)
     }
 
+    override fun uploadMessages(folderServerId: String, messages: List<Message>): Map<String, String> {
+        return commandUploadMessage.uploadMessages(folderServerId, messages)
+    }
+
     override fun createPusher(receiver: PushReceiver): Pusher {
         throw UnsupportedOperationException("not supported")
     }
@@ -127,10 +143,14 @@ class WebDavBackend(
         webDavStore.checkSettings()
     }
 
+    override fun startSendSession() = Unit
+
     override fun sendMessage(message: Message) {
         webDavTransport.sendMessage(message)
     }
 
+    override fun endSendSession() = Unit
+
     override fun checkOutgoingServerSettings() {
         webDavTransport.checkSettings()
     }
@@ -55,5 +55,11 @@ public class FetchProfile extends ArrayList<FetchProfile.Item> {
          * The entire message.
          */
         BODY,
+
+        /**
+         * A short plain text preview of the message generated by the server. Providers that can't supply one ignore
+         * this item.
+         */
+        PREVIEW,
     }
 }
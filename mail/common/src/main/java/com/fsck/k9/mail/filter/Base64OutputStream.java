@@ -91,6 +91,17 @@ public class Base64OutputStream extends FilterOutputStream {
         this.base64 = new Base64(lineLength, lineSeparator);
     }
 
+    /**
+     * Returns the number of bytes written when encoding {@code length} bytes using the default line length and line
+     * separator, including the line separator written when the stream is closed.
+     */
+    public static long getEncodedLength(long length) {
+        long encodedLength = (length + 2) / 3 * 4;
+        long bytesPerLine = Base64.CHUNK_SIZE / 4 * 3;
+        long lineCount = length / bytesPerLine + 1;
+        return encodedLength + lineCount * Base64.CHUNK_SEPARATOR.length;
+    }
+
     /**
      * Writes the specified <code>byte</code> to this output stream.
      */
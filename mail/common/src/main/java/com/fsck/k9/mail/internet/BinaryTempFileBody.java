@@ -49,7 +49,7 @@ public class BinaryTempFileBody implements RawDataBody, SizeAware {
         }
 
         // The encoding changed, so we need to convert the message
-        if (!MimeUtil.ENC_8BIT.equalsIgnoreCase(mEncoding)) {
+        if (!MimeUtil.ENC_8BIT.equalsIgnoreCase(mEncoding) && !MimeUtil.ENC_BINARY.equalsIgnoreCase(mEncoding)) {
             throw new RuntimeException("Can't convert from encoding: " + mEncoding);
         }
 
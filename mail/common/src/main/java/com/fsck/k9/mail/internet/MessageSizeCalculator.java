@@ -0,0 +1,113 @@
+package com.fsck.k9.mail.internet;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.Base64OutputStream;
+import com.fsck.k9.mail.filter.CountingOutputStream;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mime4j.util.MimeUtil;
+
+
+/**
+ * Calculates the number of bytes {@link Part#writeTo(java.io.OutputStream)} writes to an
+ * {@link EOLConvertingOutputStream}.
+ *
+ * <p>
+ * Multipart structures are added up from their parts. The size of base64-encoded bodies implementing
+ * {@link SizeAware} is derived from {@link SizeAware#getSize()}, so large attachments don't have to be read or encoded
+ * just to be counted. For a {@link RawDataBody} that is the size of the encoded data. Other bodies report the size of
+ * the unencoded data and encode it when written. Base64 data only uses CRLF line breaks, so it isn't changed by line
+ * break normalization. All other bodies are written to a counting stream.
+ * </p>
+ */
+class MessageSizeCalculator {
+    private static final int CRLF_LENGTH = 2;
+    private static final int BOUNDARY_DASHES_LENGTH = 2;
+
+
+    private MessageSizeCalculator() {
+    }
+
+    static long calculatePartSize(Part part) throws IOException, MessagingException {
+        CountingOutputStream headerOutputStream = new CountingOutputStream();
+        part.writeHeaderTo(headerOutputStream);
+
+        return headerOutputStream.getCount() + CRLF_LENGTH + calculateBodySize(part, part.getBody());
+    }
+
+    private static long calculateBodySize(Part part, Body body) throws IOException, MessagingException {
+        if (body == null) {
+            return 0;
+        } else if (body instanceof MimeMultipart) {
+            return calculateMultipartSize((MimeMultipart) body);
+        } else if (body instanceof MimeMessage) {
+            return calculatePartSize((MimeMessage) body);
+        } else if (body instanceof SizeAware && isBase64Encoded(part)) {
+            long size = ((SizeAware) body).getSize();
+            return body instanceof RawDataBody ? size : Base64OutputStream.getEncodedLength(size);
+        }
+
+        CountingOutputStream countingOutputStream = new CountingOutputStream();
+        EOLConvertingOutputStream eolOutputStream = new EOLConvertingOutputStream(countingOutputStream);
+        if (body instanceof RawDataBody) {
+            // Closing the stream of a BinaryTempFileBody deletes the file, but it is still needed to write the message
+            InputStream inputStream = body.getInputStream();
+            try {
+                IOUtils.copy(inputStream, eolOutputStream);
+            } finally {
+                MimeUtility.closeInputStreamWithoutDeletingTemporaryFiles(inputStream);
+            }
+        } else {
+            body.writeTo(eolOutputStream);
+        }
+        eolOutputStream.flush();
+
+        return countingOutputStream.getCount();
+    }
+
+    private static long calculateMultipartSize(MimeMultipart multipart) throws IOException, MessagingException {
+        long boundaryLineLength = BOUNDARY_DASHES_LENGTH + multipart.getBoundary().length() + CRLF_LENGTH;
+
+        long size = 0;
+        if (multipart.getPreamble() != null) {
+            size += countConvertedBytes(multipart.getPreamble()) + CRLF_LENGTH;
+        }
+
+        if (multipart.getBodyParts().isEmpty()) {
+            size += boundaryLineLength;
+        } else {
+            for (BodyPart bodyPart : multipart.getBodyParts()) {
+                size += boundaryLineLength + calculatePartSize(bodyPart) + CRLF_LENGTH;
+            }
+        }
+
+        size += boundaryLineLength + BOUNDARY_DASHES_LENGTH;
+
+        if (multipart.getEpilogue() != null) {
+            size += countConvertedBytes(multipart.getEpilogue());
+        }
+
+        return size;
+    }
+
+    private static long countConvertedBytes(byte[] data) throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream();
+        EOLConvertingOutputStream eolOutputStream = new EOLConvertingOutputStream(countingOutputStream);
+        eolOutputStream.write(data);
+        eolOutputStream.flush();
+
+        return countingOutputStream.getCount();
+    }
+
+    private static boolean isBase64Encoded(Part part) {
+        String[] contentTransferEncoding = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING);
+        return contentTransferEncoding.length == 1 && MimeUtil.isBase64Encoding(contentTransferEncoding[0].trim());
+    }
+}
@@ -64,6 +64,7 @@ public class MimeMessage extends Message {
 
     private Body mBody;
     protected int mSize;
+    private long calculatedSize = -1;
     private String serverExtra;
 
 
@@ -102,6 +103,7 @@ public class MimeMessage extends Message {
         mSentDate = null;
 
         mBody = null;
+        invalidateCalculatedSize();
 
         MimeConfig parserConfig = new MimeConfig.Builder()
                 // The default is a mere 10k
@@ -396,6 +398,7 @@ public class MimeMessage extends Message {
     @Override
     public void setBody(Body body) {
         this.mBody = body;
+        invalidateCalculatedSize();
     }
 
     private String getFirstHeader(String name) {
@@ -405,16 +408,19 @@ public class MimeMessage extends Message {
     @Override
     public void addHeader(String name, String value) {
         mHeader.addHeader(name, value);
+        invalidateCalculatedSize();
     }
 
     @Override
     public void addRawHeader(String name, String raw) {
         mHeader.addRawHeader(name, raw);
+        invalidateCalculatedSize();
     }
 
     @Override
     public void setHeader(String name, String value) {
         mHeader.setHeader(name, value);
+        invalidateCalculatedSize();
     }
 
     @NonNull
@@ -426,6 +432,7 @@ public class MimeMessage extends Message {
     @Override
     public void removeHeader(String name) {
         mHeader.removeHeader(name);
+        invalidateCalculatedSize();
     }
 
     @Override
@@ -433,6 +440,31 @@ public class MimeMessage extends Message {
         return mHeader.getHeaderNames();
     }
 
+    /**
+     * Calculates the size of the message without serializing base64-encoded attachments.
+     *
+     * <p>
+     * The result is cached until the message's headers or body are replaced. Changes made to nested parts afterwards
+     * are not picked up.
+     * </p>
+     */
+    @Override
+    public long calculateSize() {
+        if (calculatedSize == -1) {
+            try {
+                calculatedSize = MessageSizeCalculator.calculatePartSize(this);
+            } catch (IOException | MessagingException e) {
+                Timber.e(e, "Failed to calculate a message size");
+                return 0;
+            }
+        }
+        return calculatedSize;
+    }
+
+    private void invalidateCalculatedSize() {
+        calculatedSize = -1;
+    }
+
     @Override
     public void writeTo(OutputStream out) throws IOException, MessagingException {
 
@@ -465,6 +497,7 @@ public class MimeMessage extends Message {
 
     @Override
     public void setCharset(String charset) throws MessagingException {
+        invalidateCalculatedSize();
         mHeader.setCharset(charset);
         if (mBody instanceof Multipart) {
             ((Multipart)mBody).setCharset(charset);
@@ -0,0 +1,297 @@
+package com.fsck.k9.mail.net;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fsck.k9.mail.ConnectionSecurity;
+import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.ssl.TrustedSocketFactory;
+import timber.log.Timber;
+
+
+/**
+ * Connects to one of the addresses of a host using the "Happy Eyeballs" algorithm described in RFC 8305.
+ *
+ * <p>
+ * The addresses are tried in the order returned by the resolver, but with IPv6 and IPv4 addresses interleaved. A new
+ * connection attempt is started whenever the previous one failed or hasn't succeeded within
+ * {@link #CONNECTION_ATTEMPT_DELAY_MILLIS}. Attempts that are still running are not aborted; the first socket that
+ * connects is used and all others are closed. That way a broken IPv6 route or an unresponsive address only costs a
+ * fraction of a second instead of the full connect timeout.
+ * </p>
+ *
+ * <p>
+ * Sockets are created on the calling thread using a {@link SocketCreator}, so errors setting up e.g. a TLS socket are
+ * reported immediately and aren't mistaken for a failed connection attempt.
+ * </p>
+ */
+public class HappyEyeballsConnector {
+    /**
+     * The delay between starting two connection attempts, as recommended by RFC 8305, section 8.
+     */
+    static final long CONNECTION_ATTEMPT_DELAY_MILLIS = 250;
+
+
+    private static final SocketCreator PLAIN_SOCKET_CREATOR = new SocketCreator() {
+        @Override
+        public Socket createSocket() {
+            return new Socket();
+        }
+    };
+
+
+    private HappyEyeballsConnector() {
+    }
+
+    /**
+     * Returns a {@link SocketCreator} for the given connection security. With {@link ConnectionSecurity#SSL_TLS_REQUIRED}
+     * the socket is created by {@code trustedSocketFactory}, otherwise a plain socket is used.
+     */
+    public static SocketCreator createSocketCreator(final TrustedSocketFactory trustedSocketFactory,
+            ConnectionSecurity connectionSecurity, final String host, final int port,
+            final String clientCertificateAlias) {
+
+        if (connectionSecurity == ConnectionSecurity.SSL_TLS_REQUIRED) {
+            return new SocketCreator() {
+                @Override
+                public Socket createSocket() throws GeneralSecurityException, MessagingException, IOException {
+                    return trustedSocketFactory.createSocket(null, host, port, clientCertificateAlias);
+                }
+            };
+        }
+
+        return PLAIN_SOCKET_CREATOR;
+    }
+
+    /**
+     * Resolves {@code host} and connects to one of its addresses.
+     *
+     * @throws java.net.UnknownHostException
+     *         if the host name couldn't be resolved.
+     * @throws IOException
+     *         if no connection could be established. This is the exception of the last failed attempt.
+     */
+    public static Socket connect(String host, int port, int connectTimeoutMillis, SocketCreator socketCreator)
+            throws GeneralSecurityException, MessagingException, IOException {
+        InetAddress[] addresses = InetAddress.getAllByName(host);
+        return connect(addresses, port, connectTimeoutMillis, socketCreator);
+    }
+
+    /**
+     * Connects to one of {@code addresses}.
+     *
+     * @throws IOException
+     *         if no connection could be established. This is the exception of the last failed attempt.
+     */
+    public static Socket connect(InetAddress[] addresses, int port, int connectTimeoutMillis,
+            SocketCreator socketCreator) throws GeneralSecurityException, MessagingException, IOException {
+        return connect(addresses, port, connectTimeoutMillis, socketCreator, CONNECTION_ATTEMPT_DELAY_MILLIS);
+    }
+
+    static Socket connect(InetAddress[] addresses, int port, int connectTimeoutMillis, SocketCreator socketCreator,
+            long attemptDelayMillis) throws GeneralSecurityException, MessagingException, IOException {
+
+        if (addresses.length == 0) {
+            throw new IOException("No addresses to connect to");
+        }
+
+        if (addresses.length == 1) {
+            // Nothing to race; don't bother with an extra thread
+            ConnectionAttempt attempt = new ConnectionAttempt(socketCreator.createSocket(), addresses[0], port,
+                    connectTimeoutMillis, null);
+            attempt.run();
+            if (attempt.exception != null) {
+                throw attempt.exception;
+            }
+            return attempt.socket;
+        }
+
+        List<InetAddress> sortedAddresses = sortAddresses(addresses);
+        BlockingQueue<ConnectionAttempt> completedAttempts = new LinkedBlockingQueue<>();
+        List<ConnectionAttempt> attempts = new ArrayList<>(sortedAddresses.size());
+
+        Socket connectedSocket = null;
+        IOException lastException = null;
+        try {
+            int nextAddressIndex = 0;
+            int runningAttempts = 0;
+            long nextAttemptTime = 0;
+
+            while (true) {
+                long now = System.currentTimeMillis();
+                boolean moreAddresses = nextAddressIndex < sortedAddresses.size();
+                if (moreAddresses && (runningAttempts == 0 || now >= nextAttemptTime)) {
+                    InetAddress address = sortedAddresses.get(nextAddressIndex++);
+                    ConnectionAttempt attempt = new ConnectionAttempt(socketCreator.createSocket(), address, port,
+                            connectTimeoutMillis, completedAttempts);
+                    attempts.add(attempt);
+                    runningAttempts++;
+
+                    Thread thread = new Thread(attempt, "HappyEyeballs-" + address.getHostAddress());
+                    thread.setDaemon(true);
+                    thread.start();
+
+                    nextAttemptTime = now + attemptDelayMillis;
+                    continue;
+                }
+
+                ConnectionAttempt completedAttempt;
+                if (moreAddresses) {
+                    completedAttempt = completedAttempts.poll(nextAttemptTime - now, TimeUnit.MILLISECONDS);
+                } else {
+                    completedAttempt = completedAttempts.take();
+                }
+
+                if (completedAttempt == null) {
+                    continue;
+                }
+
+                runningAttempts--;
+                if (completedAttempt.socket != null) {
+                    if (K9MailLib.isDebug()) {
+                        Timber.d("Connected to %s after %d attempt(s)", completedAttempt.address, attempts.size());
+                    }
+
+                    connectedSocket = completedAttempt.socket;
+                    return connectedSocket;
+                }
+
+                Timber.w(completedAttempt.exception, "Could not connect to %s", completedAttempt.address);
+                lastException = completedAttempt.exception;
+
+                if (runningAttempts == 0 && nextAddressIndex == sortedAddresses.size()) {
+                    throw lastException;
+                }
+            }
+        } catch (InterruptedException e) {
+            InterruptedIOException exception = new InterruptedIOException("Interrupted while connecting");
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            for (ConnectionAttempt attempt : attempts) {
+                if (attempt.socket != connectedSocket) {
+                    attempt.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Interleaves IPv6 and IPv4 addresses as described in RFC 8305, section 4.
+     *
+     * <p>
+     * The first address is the one preferred by the resolver. After that the address families alternate, keeping the
+     * relative order of the addresses within each family.
+     * </p>
+     */
+    static List<InetAddress> sortAddresses(InetAddress[] addresses) {
+        LinkedList<InetAddress> ipv6Addresses = new LinkedList<>();
+        LinkedList<InetAddress> ipv4Addresses = new LinkedList<>();
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet6Address) {
+                ipv6Addresses.add(address);
+            } else {
+                ipv4Addresses.add(address);
+            }
+        }
+
+        List<InetAddress> sortedAddresses = new ArrayList<>(addresses.length);
+        boolean ipv6 = addresses.length > 0 && addresses[0] instanceof Inet6Address;
+        while (!ipv6Addresses.isEmpty() || !ipv4Addresses.isEmpty()) {
+            LinkedList<InetAddress> preferred = ipv6 ? ipv6Addresses : ipv4Addresses;
+            LinkedList<InetAddress> other = ipv6 ? ipv4Addresses : ipv6Addresses;
+
+            if (!preferred.isEmpty()) {
+                sortedAddresses.add(preferred.removeFirst());
+            } else {
+                sortedAddresses.add(other.removeFirst());
+            }
+
+            ipv6 = !ipv6;
+        }
+
+        return sortedAddresses;
+    }
+
+
+    /**
+     * Creates the (unconnected) socket used for a single connection attempt.
+     */
+    public interface SocketCreator {
+        Socket createSocket() throws GeneralSecurityException, MessagingException, IOException;
+    }
+
+
+    private static class ConnectionAttempt implements Runnable {
+        final InetAddress address;
+        private final int port;
+        private final int connectTimeoutMillis;
+        private final BlockingQueue<ConnectionAttempt> completedAttempts;
+
+        private final Socket pendingSocket;
+        private boolean cancelled;
+        volatile Socket socket;
+        volatile IOException exception;
+
+
+        ConnectionAttempt(Socket pendingSocket, InetAddress address, int port, int connectTimeoutMillis,
+                BlockingQueue<ConnectionAttempt> completedAttempts) {
+            this.pendingSocket = pendingSocket;
+            this.address = address;
+            this.port = port;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.completedAttempts = completedAttempts;
+        }
+
+        @Override
+        public void run() {
+            try {
+                pendingSocket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+
+                synchronized (this) {
+                    if (cancelled) {
+                        closeQuietly(pendingSocket);
+                        return;
+                    }
+                    socket = pendingSocket;
+                }
+            } catch (IOException e) {
+                closeQuietly(pendingSocket);
+                exception = e;
+            } catch (RuntimeException e) {
+                // e.g. SecurityException or IllegalArgumentException for unsupported address types
+                closeQuietly(pendingSocket);
+                exception = new IOException("Could not connect to " + address, e);
+            }
+
+            if (completedAttempts != null) {
+                completedAttempts.add(this);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            closeQuietly(pendingSocket);
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
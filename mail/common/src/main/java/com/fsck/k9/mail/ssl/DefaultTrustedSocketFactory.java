@@ -2,12 +2,19 @@ package com.fsck.k9.mail.ssl;
 
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.Socket;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.net.SSLCertificateSocketFactory;
@@ -15,8 +22,11 @@ import android.os.Build;
 import android.text.TextUtils;
 
 import com.fsck.k9.mail.MessagingException;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -93,6 +103,16 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
             "SSLv3"
     };
 
+    /*
+     * An SSLContext keeps its own cache of client sessions. To allow resuming sessions we reuse the SSLContext for
+     * the same server and client certificate instead of creating a new one for every connection.
+     */
+    private static final int MAX_CACHED_SSL_CONTEXTS = 16;
+    private static final int MAX_CACHED_SESSIONS_PER_SSL_CONTEXT = 4;
+
+    private static Method setUseSessionTicketsMethod;
+    private static boolean setUseSessionTicketsMethodLookedUp;
+
     static {
         String[] enabledCiphers = null;
         String[] supportedProtocols = null;
@@ -130,6 +150,15 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
 
     private final Context context;
     private final TrustManagerFactory trustManagerFactory;
+    private final Map<String, SSLContext> sslContextCache =
+            new LinkedHashMap<String, SSLContext>(MAX_CACHED_SSL_CONTEXTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SSLContext> eldest) {
+                    return size() > MAX_CACHED_SSL_CONTEXTS;
+                }
+            };
+    private final AtomicLong sessionCacheHits = new AtomicLong();
+    private final AtomicLong sessionCacheMisses = new AtomicLong();
 
     public DefaultTrustedSocketFactory(Context context, TrustManagerFactory trustManagerFactory) {
         this.context = context;
@@ -183,14 +212,8 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
     public Socket createSocket(Socket socket, String host, int port, String clientCertificateAlias)
             throws NoSuchAlgorithmException, KeyManagementException, MessagingException, IOException {
 
-        TrustManager[] trustManagers = new TrustManager[] { trustManagerFactory.getTrustManagerForDomain(host, port) };
-        KeyManager[] keyManagers = null;
-        if (!TextUtils.isEmpty(clientCertificateAlias)) {
-            keyManagers = new KeyManager[] { new KeyChainKeyManager(context, clientCertificateAlias) };
-        }
+        SSLContext sslContext = getSslContext(host, port, clientCertificateAlias);
 
-        SSLContext sslContext = SSLContext.getInstance("TLS");
-        sslContext.init(keyManagers, trustManagers, null);
         SSLSocketFactory socketFactory = sslContext.getSocketFactory();
         Socket trustedSocket;
         if (socket == null) {
@@ -204,10 +227,130 @@ public class DefaultTrustedSocketFactory implements TrustedSocketFactory {
         hardenSocket(sslSocket);
 
         setSniHost(socketFactory, sslSocket, host);
+        enableSessionTickets(sslSocket);
+        recordSessionResumption(sslSocket, sslContext);
 
         return trustedSocket;
     }
 
+    private SSLContext getSslContext(String host, int port, String clientCertificateAlias)
+            throws NoSuchAlgorithmException, KeyManagementException, MessagingException {
+        String key = host + ":" + port + ":" + (clientCertificateAlias != null ? clientCertificateAlias : "");
+        synchronized (sslContextCache) {
+            SSLContext sslContext = sslContextCache.get(key);
+            if (sslContext == null) {
+                sslContext = createSslContext(host, port, clientCertificateAlias);
+                sslContextCache.put(key, sslContext);
+            }
+
+            return sslContext;
+        }
+    }
+
+    private SSLContext createSslContext(String host, int port, String clientCertificateAlias)
+            throws NoSuchAlgorithmException, KeyManagementException, MessagingException {
+        TrustManager[] trustManagers = new TrustManager[] { trustManagerFactory.getTrustManagerForDomain(host, port) };
+        KeyManager[] keyManagers = null;
+        if (!TextUtils.isEmpty(clientCertificateAlias)) {
+            keyManagers = new KeyManager[] { new KeyChainKeyManager(context, clientCertificateAlias) };
+        }
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, trustManagers, null);
+
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(MAX_CACHED_SESSIONS_PER_SSL_CONTEXT);
+        }
+
+        return sslContext;
+    }
+
+    /**
+     * Counts a hit if the handshake resumed one of the sessions the SSLContext had cached when the socket was
+     * created, i.e. the server accepted the session ID we offered.
+     */
+    private void recordSessionResumption(SSLSocket socket, SSLContext sslContext) {
+        final List<byte[]> cachedSessionIds = new ArrayList<>();
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            Enumeration<byte[]> ids = sessionContext.getIds();
+            while (ids.hasMoreElements()) {
+                cachedSessionIds.add(ids.nextElement());
+            }
+        }
+
+        socket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+            @Override
+            public void handshakeCompleted(HandshakeCompletedEvent event) {
+                if (containsSessionId(cachedSessionIds, event.getSession().getId())) {
+                    sessionCacheHits.incrementAndGet();
+                } else {
+                    sessionCacheMisses.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    private static boolean containsSessionId(List<byte[]> sessionIds, byte[] sessionId) {
+        if (sessionId == null || sessionId.length == 0) {
+            return false;
+        }
+
+        for (byte[] id : sessionIds) {
+            if (Arrays.equals(id, sessionId)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The number of TLS handshakes that resumed a cached session.
+     */
+    public long getSessionCacheHits() {
+        return sessionCacheHits.get();
+    }
+
+    /**
+     * @return The number of TLS handshakes that established a new session.
+     */
+    public long getSessionCacheMisses() {
+        return sessionCacheMisses.get();
+    }
+
+    private static void enableSessionTickets(SSLSocket socket) {
+        // Only available with Android's TLS implementation (Conscrypt). Session IDs still work without it.
+        Method method = getSetUseSessionTicketsMethod(socket.getClass());
+        if (method == null || !method.getDeclaringClass().isInstance(socket)) {
+            return;
+        }
+
+        try {
+            method.invoke(socket, true);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            Timber.d(e, "Could not enable TLS session tickets");
+        }
+    }
+
+    /**
+     * Looks up {@code setUseSessionTickets(boolean)} once. All sockets are created by the same TLS provider, so the
+     * result applies to every socket.
+     */
+    private static synchronized Method getSetUseSessionTicketsMethod(Class<?> socketClass) {
+        if (!setUseSessionTicketsMethodLookedUp) {
+            setUseSessionTicketsMethodLookedUp = true;
+            try {
+                setUseSessionTicketsMethod = socketClass.getMethod("setUseSessionTickets", boolean.class);
+            } catch (NoSuchMethodException e) {
+                Timber.d("TLS session tickets aren't supported by %s", socketClass.getName());
+            }
+        }
+
+        return setUseSessionTicketsMethod;
+    }
+
     private static void hardenSocket(SSLSocket sock) {
         if (ENABLED_CIPHERS != null) {
             sock.setEnabledCipherSuites(ENABLED_CIPHERS);
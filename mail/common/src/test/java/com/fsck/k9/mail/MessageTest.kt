@@ -1,6 +1,8 @@
 package com.fsck.k9.mail
 
 
+import com.fsck.k9.mail.filter.Base64OutputStream
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream
 import com.fsck.k9.mail.internet.BinaryTempFileBody
 import com.fsck.k9.mail.internet.BinaryTempFileMessageBody
 import com.fsck.k9.mail.internet.CharsetSupport
@@ -9,6 +11,7 @@ import com.fsck.k9.mail.internet.MimeHeader
 import com.fsck.k9.mail.internet.MimeMessage
 import com.fsck.k9.mail.internet.MimeMessageHelper
 import com.fsck.k9.mail.internet.MimeMultipart
+import com.fsck.k9.mail.internet.SizeAware
 import com.fsck.k9.mail.internet.TextBody
 import com.google.common.truth.Truth.assertThat
 import okio.Buffer
@@ -17,7 +20,10 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RuntimeEnvironment
+import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.io.OutputStream
 import java.util.Date
 import java.util.TimeZone
 
@@ -164,6 +170,44 @@ class MessageTest {
             """.trimIndent().crlf())
     }
 
+    @Test
+    fun calculateSize_shouldMatchNumberOfBytesWritten() {
+        mimeBoundary = 101
+        val message = nestedMessage(sampleMessage())
+
+        val size = message.calculateSize()
+
+        val out = ByteArrayOutputStream()
+        EOLConvertingOutputStream(out).use { message.writeTo(it) }
+        assertThat(size).isEqualTo(out.size().toLong())
+    }
+
+    @Test
+    fun calculateSize_withBodyEncodedWhenWritten_shouldMatchNumberOfBytesWritten() {
+        val message = sampleMessage().apply {
+            val bodyPart = MimeBodyPart(Base64EncodingBody(ByteArray(1000)), "application/octet-stream").apply {
+                setHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING, MimeUtil.ENC_BASE64)
+            }
+            (body as Multipart).addBodyPart(bodyPart)
+        }
+
+        val size = message.calculateSize()
+
+        val out = ByteArrayOutputStream()
+        EOLConvertingOutputStream(out).use { message.writeTo(it) }
+        assertThat(size).isEqualTo(out.size().toLong())
+    }
+
+    @Test
+    fun calculateSize_afterHeaderChange_shouldRecalculateSize() {
+        val message = sampleMessage()
+        val size = message.calculateSize()
+
+        message.setHeader("X-Test", "value")
+
+        assertThat(message.calculateSize()).isEqualTo(size + "X-Test: value\r\n".length)
+    }
+
     @Test
     fun toBodyPart() {
         mimeBoundary = 101
@@ -334,3 +378,15 @@ class MessageTest {
 }
 
 private fun Message.getFirstHeader(header: String): String = getHeader(header)[0]
+
+private class Base64EncodingBody(private val data: ByteArray) : Body, SizeAware {
+    override fun getInputStream(): InputStream = ByteArrayInputStream(data)
+
+    override fun setEncoding(encoding: String) = Unit
+
+    override fun writeTo(out: OutputStream) {
+        Base64OutputStream(out).use { it.write(data) }
+    }
+
+    override fun getSize(): Long = data.size.toLong()
+}
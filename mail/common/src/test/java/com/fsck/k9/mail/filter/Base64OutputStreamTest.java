@@ -0,0 +1,23 @@
+package com.fsck.k9.mail.filter;
+
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class Base64OutputStreamTest {
+    @Test
+    public void getEncodedLength_shouldMatchNumberOfBytesWritten() throws Exception {
+        for (int length = 0; length <= 300; length++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Base64OutputStream base64OutputStream = new Base64OutputStream(out);
+            base64OutputStream.write(new byte[length]);
+            base64OutputStream.close();
+
+            assertEquals("length: " + length, out.size(), Base64OutputStream.getEncodedLength(length));
+        }
+    }
+}
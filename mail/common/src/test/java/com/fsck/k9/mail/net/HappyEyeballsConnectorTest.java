@@ -0,0 +1,119 @@
+package com.fsck.k9.mail.net;
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+import com.fsck.k9.mail.ConnectionSecurity;
+import com.fsck.k9.mail.net.HappyEyeballsConnector.SocketCreator;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class HappyEyeballsConnectorTest {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final SocketCreator PLAIN_SOCKETS =
+            HappyEyeballsConnector.createSocketCreator(null, ConnectionSecurity.NONE, null, 0, null);
+
+
+    @Test
+    public void sortAddresses_withIpv6First_shouldInterleaveStartingWithIpv6() throws Exception {
+        InetAddress[] addresses = addresses("2001:db8::1", "2001:db8::2", "192.0.2.1", "192.0.2.2", "192.0.2.3");
+
+        List<InetAddress> result = HappyEyeballsConnector.sortAddresses(addresses);
+
+        assertEquals(asList(addresses("2001:db8::1", "192.0.2.1", "2001:db8::2", "192.0.2.2", "192.0.2.3")), result);
+    }
+
+    @Test
+    public void sortAddresses_withIpv4First_shouldInterleaveStartingWithIpv4() throws Exception {
+        InetAddress[] addresses = addresses("192.0.2.1", "192.0.2.2", "2001:db8::1");
+
+        List<InetAddress> result = HappyEyeballsConnector.sortAddresses(addresses);
+
+        assertEquals(asList(addresses("192.0.2.1", "2001:db8::1", "192.0.2.2")), result);
+    }
+
+    @Test
+    public void sortAddresses_withSingleFamily_shouldKeepOrder() throws Exception {
+        InetAddress[] addresses = addresses("192.0.2.3", "192.0.2.1", "192.0.2.2");
+
+        List<InetAddress> result = HappyEyeballsConnector.sortAddresses(addresses);
+
+        assertEquals(asList(addresses), result);
+    }
+
+    @Test
+    public void connect_withSingleAddress_shouldConnect() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            Socket socket = HappyEyeballsConnector.connect(addresses("127.0.0.1"), serverSocket.getLocalPort(),
+                    CONNECT_TIMEOUT_MILLIS, PLAIN_SOCKETS);
+
+            assertTrue(socket.isConnected());
+            socket.close();
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void connect_withFailingFirstAddress_shouldConnectToSecondAddress() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            int port = serverSocket.getLocalPort();
+
+            // Nothing is listening on 127.0.0.2
+            Socket socket = HappyEyeballsConnector.connect(
+                    addresses("127.0.0.2", "127.0.0.1"), port, CONNECT_TIMEOUT_MILLIS, PLAIN_SOCKETS, 100);
+
+            assertTrue(socket.isConnected());
+            assertEquals(InetAddress.getByName("127.0.0.1"), socket.getInetAddress());
+            socket.close();
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void connect_withAllAddressesFailing_shouldThrow() throws Exception {
+        int port = getUnusedPort();
+
+        try {
+            HappyEyeballsConnector.connect(addresses("127.0.0.1", "127.0.0.1"), port, CONNECT_TIMEOUT_MILLIS,
+                    PLAIN_SOCKETS, 100);
+            fail("Expected exception");
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void connect_withoutAddresses_shouldThrow() throws Exception {
+        HappyEyeballsConnector.connect(new InetAddress[0], 143, CONNECT_TIMEOUT_MILLIS, PLAIN_SOCKETS);
+    }
+
+
+    private InetAddress[] addresses(String... literals) throws IOException {
+        InetAddress[] addresses = new InetAddress[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            addresses[i] = InetAddress.getByName(literals[i]);
+        }
+
+        return addresses;
+    }
+
+    private int getUnusedPort() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        return port;
+    }
+}
@@ -0,0 +1,42 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyFactory;
+import com.fsck.k9.mail.MessagingException;
+
+
+/**
+ * Creates bodies for parts fetched using {@code BINARY} (RFC 3516).
+ *
+ * <p>
+ * The server returns the decoded content. It is encoded again using the part's {@code Content-Transfer-Encoding}, so
+ * the body matches the part's headers and can be stored and written out like a part fetched using {@code BODY}.
+ * </p>
+ */
+class BinaryFetchBodyFactory implements BodyFactory {
+    private final BodyFactory bodyFactory;
+    private final String partEncoding;
+
+
+    BinaryFetchBodyFactory(BodyFactory bodyFactory, String partEncoding) {
+        this.bodyFactory = bodyFactory;
+        this.partEncoding = partEncoding;
+    }
+
+    @Override
+    public Body createBody(String contentTransferEncoding, String contentType, InputStream inputStream)
+            throws IOException {
+        Body body = bodyFactory.createBody(contentTransferEncoding, contentType, inputStream);
+        try {
+            body.setEncoding(partEncoding);
+        } catch (MessagingException e) {
+            throw new IOException("Couldn't encode part using " + partEncoding, e);
+        }
+
+        return body;
+    }
+}
@@ -4,6 +4,7 @@ package com.fsck.k9.mail.store.imap;
 class Capabilities {
     public static final String IDLE = "IDLE";
     public static final String CONDSTORE = "CONDSTORE";
+    public static final String QRESYNC = "QRESYNC";
     public static final String SASL_IR = "SASL-IR";
     public static final String AUTH_XOAUTH2 = "AUTH=XOAUTH2";
     public static final String AUTH_CRAM_MD5 = "AUTH=CRAM-MD5";
@@ -16,4 +17,13 @@ class Capabilities {
     public static final String SPECIAL_USE = "SPECIAL-USE";
     public static final String UID_PLUS = "UIDPLUS";
     public static final String LIST_EXTENDED = "LIST-EXTENDED";
+    public static final String LIST_STATUS = "LIST-STATUS";
+    public static final String NOTIFY = "NOTIFY";
+    public static final String BINARY = "BINARY";
+    public static final String ESEARCH = "ESEARCH";
+    public static final String MULTIAPPEND = "MULTIAPPEND";
+    public static final String LITERAL_PLUS = "LITERAL+";
+    public static final String LITERAL_MINUS = "LITERAL-";
+    public static final String OBJECTID = "OBJECTID";
+    public static final String PREVIEW = "PREVIEW";
 }
@@ -0,0 +1,140 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Arrays;
+import java.util.Locale;
+
+
+/**
+ * A snapshot of the statistics of one type of IMAP command, e.g. {@code UID FETCH}.
+ *
+ * @see ImapStatistics
+ */
+public class CommandStatistics {
+    /**
+     * The (inclusive) upper bounds of the buckets of the latency histogram. The histogram contains one additional
+     * bucket for all commands that took longer than the last bound.
+     */
+    public static final long[] LATENCY_BUCKET_BOUNDS_MILLIS = {
+            10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000
+    };
+
+
+    private final String commandType;
+    private final long count;
+    private final long[] latencyHistogram;
+    private final long totalLatencyMillis;
+    private final long maxLatencyMillis;
+    private final long bytesSent;
+    private final long wireBytesSent;
+    private final long bytesReceived;
+    private final long wireBytesReceived;
+    private final long parseTimeMillis;
+
+
+    CommandStatistics(String commandType, long count, long[] latencyHistogram, long totalLatencyMillis,
+            long maxLatencyMillis, long bytesSent, long wireBytesSent, long bytesReceived, long wireBytesReceived,
+            long parseTimeMillis) {
+        this.commandType = commandType;
+        this.count = count;
+        this.latencyHistogram = Arrays.copyOf(latencyHistogram, latencyHistogram.length);
+        this.totalLatencyMillis = totalLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.bytesSent = bytesSent;
+        this.wireBytesSent = wireBytesSent;
+        this.bytesReceived = bytesReceived;
+        this.wireBytesReceived = wireBytesReceived;
+        this.parseTimeMillis = parseTimeMillis;
+    }
+
+    static int getLatencyBucket(long latencyMillis) {
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKET_BOUNDS_MILLIS.length && latencyMillis > LATENCY_BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+
+        return bucket;
+    }
+
+    /**
+     * @return The command name, e.g. {@code SELECT}, or {@code UID} followed by the command name, e.g.
+     *         {@code UID FETCH}.
+     */
+    public String getCommandType() {
+        return commandType;
+    }
+
+    /**
+     * @return The number of completed commands.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of commands per latency bucket.
+     *
+     * @see #LATENCY_BUCKET_BOUNDS_MILLIS
+     */
+    public long[] getLatencyHistogram() {
+        return Arrays.copyOf(latencyHistogram, latencyHistogram.length);
+    }
+
+    /**
+     * @return The total time between sending the commands and receiving their tagged responses.
+     */
+    public long getTotalLatencyMillis() {
+        return totalLatencyMillis;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    /**
+     * @return The number of bytes sent, before compression.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return The number of bytes sent over the network, i.e. after compression. This doesn't include TLS overhead.
+     */
+    public long getWireBytesSent() {
+        return wireBytesSent;
+    }
+
+    /**
+     * @return The number of bytes received, after decompression.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return The number of bytes received over the network, i.e. before decompression. This doesn't include TLS
+     *         overhead.
+     */
+    public long getWireBytesReceived() {
+        return wireBytesReceived;
+    }
+
+    /**
+     * @return The time spent reading the responses without the time spent waiting for the network. This includes
+     *         decompression, parsing and the processing done by response callbacks, e.g. writing message bodies to
+     *         disk.
+     */
+    public long getParseTimeMillis() {
+        return parseTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "CommandStatistics(commandType=%s, count=%d, latencyHistogram=%s, " +
+                "totalLatencyMillis=%d, maxLatencyMillis=%d, bytesSent=%d, wireBytesSent=%d, bytesReceived=%d, " +
+                "wireBytesReceived=%d, parseTimeMillis=%d)", commandType, count, Arrays.toString(latencyHistogram),
+                totalLatencyMillis, maxLatencyMillis, bytesSent, wireBytesSent, bytesReceived, wireBytesReceived,
+                parseTimeMillis);
+    }
+}
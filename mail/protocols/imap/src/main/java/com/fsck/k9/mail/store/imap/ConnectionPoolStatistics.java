@@ -0,0 +1,69 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Locale;
+
+
+/**
+ * A snapshot of the usage statistics of an account's IMAP connection pool.
+ *
+ * @see ImapStore#getConnectionPoolStatistics()
+ */
+public class ConnectionPoolStatistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long totalWaitTimeMillis;
+    private final int idleConnections;
+
+
+    ConnectionPoolStatistics(long hits, long misses, long evictions, long totalWaitTimeMillis, int idleConnections) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.totalWaitTimeMillis = totalWaitTimeMillis;
+        this.idleConnections = idleConnections;
+    }
+
+    /**
+     * @return The number of times a pooled connection was reused.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of times a new connection had to be created because no usable pooled connection was
+     *         available.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of pooled connections that were closed because they were idle for too long, the pool was
+     *         full, or they failed the liveness check.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The total time callers spent waiting for a connection, including liveness checks of pooled connections.
+     *         This doesn't include the time it takes to open a newly created connection.
+     */
+    public long getTotalWaitTimeMillis() {
+        return totalWaitTimeMillis;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "ConnectionPoolStatistics(hits=%d, misses=%d, evictions=%d, " +
+                "totalWaitTimeMillis=%d, idleConnections=%d)", hits, misses, evictions, totalWaitTimeMillis,
+                idleConnections);
+    }
+}
@@ -0,0 +1,101 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.List;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+/**
+ * Represents the result of a {@code SEARCH} command using {@code RETURN} options as defined in RFC 4731.
+ *
+ * <p>Example:</p>
+ * <pre>
+ * * ESEARCH (TAG "A282") UID MIN 2 MAX 47 COUNT 6 ALL 2,10:11,40,45:47
+ * </pre>
+ *
+ * <p>
+ * Result options that weren't requested or that don't apply because nothing matched are reported as {@code -1}
+ * respectively an empty set.
+ * </p>
+ */
+class EsearchResponse {
+    private static final String MIN = "MIN";
+    private static final String MAX = "MAX";
+    private static final String COUNT = "COUNT";
+    private static final String ALL = "ALL";
+
+
+    private final long min;
+    private final long max;
+    private final long count;
+    private final SequenceSet all;
+
+
+    private EsearchResponse(long min, long max, long count, SequenceSet all) {
+        this.min = min;
+        this.max = max;
+        this.count = count;
+        this.all = all;
+    }
+
+    public static EsearchResponse parse(List<ImapResponse> responses) {
+        long min = -1L;
+        long max = -1L;
+        long count = -1L;
+        SequenceSet all = SequenceSet.empty();
+
+        for (ImapResponse response : responses) {
+            if (response.isTagged() || response.size() < 1 || !equalsIgnoreCase(response.get(0), Responses.ESEARCH)) {
+                continue;
+            }
+
+            int index = 1;
+            if (response.isList(index)) {
+                // Skip the search correlator, e.g. (TAG "A282")
+                index++;
+            }
+
+            if (index < response.size() && equalsIgnoreCase(response.get(index), "UID")) {
+                index++;
+            }
+
+            for (; index + 1 < response.size(); index += 2) {
+                if (!response.isString(index + 1)) {
+                    continue;
+                }
+
+                Object name = response.get(index);
+                String value = response.getString(index + 1);
+
+                if (equalsIgnoreCase(name, MIN)) {
+                    min = Long.parseLong(value);
+                } else if (equalsIgnoreCase(name, MAX)) {
+                    max = Long.parseLong(value);
+                } else if (equalsIgnoreCase(name, COUNT)) {
+                    count = Long.parseLong(value);
+                } else if (equalsIgnoreCase(name, ALL)) {
+                    all = SequenceSet.parse(value);
+                }
+            }
+        }
+
+        return new EsearchResponse(min, max, count, all);
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public SequenceSet getAll() {
+        return all;
+    }
+}
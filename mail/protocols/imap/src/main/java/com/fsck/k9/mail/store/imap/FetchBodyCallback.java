@@ -7,6 +7,7 @@ import java.util.Map;
 import com.fsck.k9.mail.Message;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.FixedLengthInputStream;
+import org.apache.commons.io.IOUtils;
 
 
 class FetchBodyCallback implements ImapResponseCallback {
@@ -22,9 +23,20 @@ class FetchBodyCallback implements ImapResponseCallback {
         if (response.getTag() == null &&
                 ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
             ImapList fetchList = (ImapList)response.getKeyedValue("FETCH");
+            if (isPreviewLiteral(fetchList)) {
+                // The preview text is UTF-8 (RFC 8970), but the parser reads literals as US-ASCII
+                return IOUtils.toString(literal, "UTF-8");
+            }
+
             String uid = fetchList.getKeyedString("UID");
 
             ImapMessage message = (ImapMessage) mMessageMap.get(uid);
+            if (message == null) {
+                // The UID didn't precede the literal or we didn't ask for this message. Let the parser read the
+                // literal into memory so ImapFolder.fetch() can deal with it.
+                return null;
+            }
+
             message.parse(literal);
 
             // Return placeholder object
@@ -32,4 +44,9 @@ class FetchBodyCallback implements ImapResponseCallback {
         }
         return null;
     }
+
+    private static boolean isPreviewLiteral(ImapList fetchList) {
+        int size = fetchList.size();
+        return size > 0 && ImapResponseParser.equalsIgnoreCase(fetchList.get(size - 1), "PREVIEW");
+    }
 }
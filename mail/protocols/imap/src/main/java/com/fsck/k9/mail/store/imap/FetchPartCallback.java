@@ -12,11 +12,18 @@ import com.fsck.k9.mail.internet.MimeHeader;
 class FetchPartCallback implements ImapResponseCallback {
     private final Part part;
     private final BodyFactory bodyFactory;
+    private final String contentTransferEncoding;
 
 
-    FetchPartCallback(Part part, BodyFactory bodyFactory) {
+    /**
+     * @param contentTransferEncoding
+     *         The encoding of the data sent by the server. This differs from the part's
+     *         {@code Content-Transfer-Encoding} header when the part is fetched using {@code BINARY}.
+     */
+    FetchPartCallback(Part part, BodyFactory bodyFactory, String contentTransferEncoding) {
         this.part = part;
         this.bodyFactory = bodyFactory;
+        this.contentTransferEncoding = contentTransferEncoding;
     }
 
     @Override
@@ -24,7 +31,6 @@ class FetchPartCallback implements ImapResponseCallback {
         if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
             //TODO: check for correct UID
 
-            String contentTransferEncoding = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
             String contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
 
             return bodyFactory.createBody(contentTransferEncoding, contentType, literal);
@@ -0,0 +1,21 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+
+import com.fsck.k9.mail.filter.FixedLengthInputStream;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Reads the literal of a ranged {@code FETCH} response, e.g. {@code BODY[2]<262144>}, into a byte array.
+ */
+class FetchPartChunkCallback implements ImapResponseCallback {
+    @Override
+    public Object foundLiteral(ImapResponse response, FixedLengthInputStream literal) throws IOException {
+        if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+            return IOUtils.toByteArray(literal, literal.available());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.List;
+
+
+/**
+ * Decides how many messages {@link ImapFolder#fetch} requests with a single {@code UID FETCH} command.
+ *
+ * <p>
+ * Each window should take about {@link #TARGET_WINDOW_MILLIS} to transfer, but at least a few round trips so the
+ * latency of the command is amortized. After every window the size is recalculated from the measured round trip time,
+ * the bytes per message, and the throughput. To avoid oscillating, the size changes by at most a factor of two per
+ * window. Independent of that, a window never contains more UIDs than fit the line length limit of the connection.
+ * </p>
+ * <p>
+ * One instance is shared by all folders of an account (see {@link ImapStore#getFetchWindowSizer()}), so the size keeps
+ * converging across folders and syncs. Folders may fetch in parallel, hence the methods are synchronized.
+ * </p>
+ */
+class FetchWindowSizer {
+    static final int INITIAL_WINDOW_SIZE = 100;
+    static final int MIN_WINDOW_SIZE = 10;
+    static final int MAX_WINDOW_SIZE = 2000;
+    static final long TARGET_WINDOW_MILLIS = 2000;
+    static final int MIN_ROUND_TRIPS_PER_WINDOW = 4;
+
+
+    private int windowSize = INITIAL_WINDOW_SIZE;
+
+
+    public synchronized int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Returns the end of the next window.
+     *
+     * @param uids
+     *         All UIDs to fetch.
+     * @param start
+     *         The index of the first UID of the next window.
+     * @param commandLength
+     *         The length of the command without the UID list.
+     * @param lineLengthLimit
+     *         The maximum length of a command line.
+     *
+     * @return The (exclusive) index of the last UID of the window. The window always contains at least one UID.
+     */
+    public synchronized int getWindowEnd(List<String> uids, int start, int commandLength, int lineLengthLimit) {
+        int maxEnd = Math.min(uids.size(), start + windowSize);
+        int length = commandLength;
+
+        int end = start;
+        while (end < maxEnd) {
+            int uidLength = uids.get(end).length() + (end > start ? 1 : 0);
+            if (end > start && length + uidLength > lineLengthLimit) {
+                break;
+            }
+
+            length += uidLength;
+            end++;
+        }
+
+        return end;
+    }
+
+    /**
+     * Updates the window size using the measurements of a completed window.
+     *
+     * @param messageCount
+     *         The number of messages requested in the window.
+     * @param bytes
+     *         The number of bytes received in response to the command.
+     * @param firstResponseMillis
+     *         The time between sending the command and receiving the first response line, i.e. the round trip time.
+     * @param totalMillis
+     *         The time between sending the command and receiving the tagged response.
+     */
+    public synchronized void recordWindow(int messageCount, long bytes, long firstResponseMillis, long totalMillis) {
+        if (messageCount <= 0 || bytes <= 0) {
+            return;
+        }
+
+        long transferMillis = Math.max(1, totalMillis - firstResponseMillis);
+        double bytesPerMilli = (double) bytes / transferMillis;
+        double bytesPerMessage = (double) bytes / messageCount;
+
+        long targetMillis = Math.max(TARGET_WINDOW_MILLIS, MIN_ROUND_TRIPS_PER_WINDOW * firstResponseMillis);
+        double idealWindowSize = targetMillis * bytesPerMilli / bytesPerMessage;
+
+        int newWindowSize = (int) Math.min(Math.max(idealWindowSize, windowSize / 2.0), windowSize * 2.0);
+        windowSize = Math.min(Math.max(newWindowSize, MIN_WINDOW_SIZE), MAX_WINDOW_SIZE);
+    }
+}
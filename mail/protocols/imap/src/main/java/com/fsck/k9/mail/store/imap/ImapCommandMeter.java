@@ -0,0 +1,168 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Measures the commands of a single {@link ImapConnection} and reports them to the account's
+ * {@link ImapStatisticsRecorder}.
+ *
+ * <p>
+ * A command is measured from the time it is sent until its tagged response has been read. The bytes sent and received
+ * in that time are attributed to the command. When commands are pipelined, the traffic is attributed to the commands
+ * in the order they complete, i.e. the first command to complete is charged with everything up to its tagged
+ * response.
+ * </p>
+ *
+ * <p>
+ * The latency of {@code IDLE} is measured until the server accepted the command with a continuation request. The time
+ * spent idling after that is not part of the latency.
+ * </p>
+ */
+class ImapCommandMeter {
+    private final ImapStatisticsRecorder recorder;
+    private final TrafficCounter sent = new TrafficCounter();
+    private final TrafficCounter wireSent = new TrafficCounter();
+    private final TrafficCounter received = new TrafficCounter();
+    private final TrafficCounter wireReceived = new TrafficCounter();
+    private final Map<String, InFlightCommand> inFlightCommands = new HashMap<>();
+
+    private long markSent;
+    private long markWireSent;
+    private long markReceived;
+    private long markWireReceived;
+    private long lastBlockedNanos;
+    private long parseNanos;
+
+
+    ImapCommandMeter(ImapStatisticsRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    InputStream meterWireInputStream(InputStream inputStream) {
+        return new MeteredInputStream(inputStream, wireReceived);
+    }
+
+    OutputStream meterWireOutputStream(OutputStream outputStream) {
+        return new MeteredOutputStream(outputStream, wireSent);
+    }
+
+    InputStream meterInputStream(InputStream inputStream) {
+        return new MeteredInputStream(inputStream, received);
+    }
+
+    OutputStream meterOutputStream(OutputStream outputStream) {
+        return new MeteredOutputStream(outputStream, sent);
+    }
+
+    /**
+     * @return The number of (decompressed) bytes read since the connection was opened.
+     */
+    long getBytesReceived() {
+        return received.getBytes();
+    }
+
+    /**
+     * Must be called before the command is written to the output stream.
+     */
+    void commandStarted(String tag, String command) {
+        if (inFlightCommands.isEmpty()) {
+            mark();
+            parseNanos = 0;
+        }
+
+        inFlightCommands.put(tag, new InFlightCommand(getCommandType(command), System.nanoTime()));
+    }
+
+    /**
+     * Called by {@link ImapResponseParser} after each response.
+     *
+     * @param readNanos
+     *         The time it took to read the response, including the time spent waiting for the network.
+     */
+    void responseRead(ImapResponse response, long readNanos) {
+        long blockedNanos = wireReceived.getBlockedNanos();
+        parseNanos += Math.max(0, readNanos - (blockedNanos - lastBlockedNanos));
+        lastBlockedNanos = blockedNanos;
+
+        if (response.isContinuationRequested()) {
+            idleAccepted();
+            return;
+        }
+
+        String tag = response.getTag();
+        InFlightCommand command = tag != null ? inFlightCommands.remove(tag) : null;
+        if (command == null) {
+            return;
+        }
+
+        long latencyNanos = command.acceptedNanos != -1 ?
+                command.acceptedNanos - command.startNanos : System.nanoTime() - command.startNanos;
+        recorder.recordCommand(command.commandType, latencyNanos,
+                sent.getBytes() - markSent, wireSent.getBytes() - markWireSent,
+                received.getBytes() - markReceived, wireReceived.getBytes() - markWireReceived,
+                parseNanos);
+
+        mark();
+        parseNanos = 0;
+    }
+
+    private void idleAccepted() {
+        // IDLE is never pipelined, so a continuation request for it can only arrive while it's the only command
+        if (inFlightCommands.size() != 1) {
+            return;
+        }
+
+        InFlightCommand command = inFlightCommands.values().iterator().next();
+        if (command.commandType.equals(Commands.IDLE) && command.acceptedNanos == -1) {
+            command.acceptedNanos = System.nanoTime();
+        }
+    }
+
+    private void mark() {
+        markSent = sent.getBytes();
+        markWireSent = wireSent.getBytes();
+        markReceived = received.getBytes();
+        markWireReceived = wireReceived.getBytes();
+    }
+
+    /**
+     * Returns the command name without arguments, so no sensitive data ends up in the statistics. For {@code UID}
+     * commands the name of the actual command is included, e.g. {@code UID FETCH}.
+     */
+    static String getCommandType(String command) {
+        int end = command.indexOf(' ');
+        if (end == -1) {
+            return command.toUpperCase(Locale.US);
+        }
+
+        String name = command.substring(0, end).toUpperCase(Locale.US);
+        if (!name.equals("UID")) {
+            return name;
+        }
+
+        int subcommandEnd = command.indexOf(' ', end + 1);
+        if (subcommandEnd == -1) {
+            subcommandEnd = command.length();
+        }
+
+        return name + " " + command.substring(end + 1, subcommandEnd).toUpperCase(Locale.US);
+    }
+
+
+    private static class InFlightCommand {
+        final String commandType;
+        final long startNanos;
+        long acceptedNanos = -1;
+
+        InFlightCommand(String commandType, long startNanos) {
+            this.commandType = commandType;
+            this.startNanos = startNanos;
+        }
+    }
+}
@@ -8,16 +8,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
 import java.net.SocketException;
 import java.security.GeneralSecurityException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.security.Security;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -39,6 +36,8 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.NetworkType;
 import com.fsck.k9.mail.filter.Base64;
 import com.fsck.k9.mail.filter.PeekableInputStream;
+import com.fsck.k9.mail.net.HappyEyeballsConnector;
+import com.fsck.k9.mail.net.HappyEyeballsConnector.SocketCreator;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
@@ -74,14 +73,23 @@ class ImapConnection {
     private static final int LENGTH_LIMIT_WITHOUT_CONDSTORE = 980;
     private static final int LENGTH_LIMIT_WITH_CONDSTORE = 8172;
 
+    /* Number of pipelined commands in flight. Together with the length limits above this keeps the data written ahead
+     * of the responses well below the size of the socket buffers.
+     */
+    private static final int MAX_PIPELINED_COMMANDS = 4;
+
 
     private final ConnectivityManager connectivityManager;
     private final OAuth2TokenProvider oauthTokenProvider;
     private final TrustedSocketFactory socketFactory;
     private final int socketConnectTimeout;
     private final int socketReadTimeout;
+    private final ImapCommandMeter commandMeter;
+    private final ImapSessionProfile sessionProfile;
 
     private Socket socket;
+    private InputStream wireInputStream;
+    private OutputStream wireOutputStream;
     private PeekableInputStream inputStream;
     private OutputStream outputStream;
     private ImapResponseParser responseParser;
@@ -91,28 +99,38 @@ class ImapConnection {
     private Exception stacktraceForClose;
     private boolean open = false;
     private boolean retryXoauth2WithNewToken = true;
+    private boolean qresyncEnabled = false;
+    private boolean mailboxSelected = false;
     private int lineLengthLimit;
+    private boolean sessionProfileUsable = false;
+    private boolean serverChanged = false;
+    private boolean pathDelimiterRetrieved = false;
 
 
     public ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
-            ConnectivityManager connectivityManager, OAuth2TokenProvider oauthTokenProvider) {
+            ConnectivityManager connectivityManager, OAuth2TokenProvider oauthTokenProvider,
+            ImapStatisticsRecorder statisticsRecorder, ImapSessionProfile sessionProfile) {
         this.settings = settings;
         this.socketFactory = socketFactory;
         this.connectivityManager = connectivityManager;
         this.oauthTokenProvider = oauthTokenProvider;
         this.socketConnectTimeout = SOCKET_CONNECT_TIMEOUT;
         this.socketReadTimeout = SOCKET_READ_TIMEOUT;
+        this.commandMeter = new ImapCommandMeter(statisticsRecorder);
+        this.sessionProfile = sessionProfile;
     }
 
     ImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
             ConnectivityManager connectivityManager, OAuth2TokenProvider oauthTokenProvider,
-            int socketConnectTimeout, int socketReadTimeout) {
+            int socketConnectTimeout, int socketReadTimeout, ImapSessionProfile sessionProfile) {
         this.settings = settings;
         this.socketFactory = socketFactory;
         this.connectivityManager = connectivityManager;
         this.oauthTokenProvider = oauthTokenProvider;
         this.socketConnectTimeout = socketConnectTimeout;
         this.socketReadTimeout = socketReadTimeout;
+        this.commandMeter = new ImapCommandMeter(new ImapStatisticsRecorder());
+        this.sessionProfile = sessionProfile;
     }
 
     public void open() throws IOException, MessagingException {
@@ -158,6 +176,7 @@ class ImapConnection {
         } finally {
             if (!authSuccess) {
                 Timber.e("Failed to login, closing connection for %s", getLogId());
+                sessionProfile.invalidate();
                 close();
             }
         }
@@ -203,44 +222,21 @@ class ImapConnection {
     }
 
     private Socket connect() throws GeneralSecurityException, MessagingException, IOException {
-        Exception connectException = null;
-
-        InetAddress[] inetAddresses = InetAddress.getAllByName(settings.getHost());
-        for (InetAddress address : inetAddresses) {
-            try {
-                return connectToAddress(address);
-            } catch (IOException e) {
-                Timber.w(e, "Could not connect to %s", address);
-                connectException = e;
-            }
-        }
-
-        throw new MessagingException("Cannot connect to host", connectException);
-    }
-
-    private Socket connectToAddress(InetAddress address) throws NoSuchAlgorithmException, KeyManagementException,
-            MessagingException, IOException {
-
         String host = settings.getHost();
         int port = settings.getPort();
-        String clientCertificateAlias = settings.getClientCertificateAlias();
 
+        InetAddress[] inetAddresses = InetAddress.getAllByName(host);
         if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
-            Timber.d("Connecting to %s as %s", host, address);
+            Timber.d("Connecting to %s as one of %s", host, Arrays.toString(inetAddresses));
         }
 
-        SocketAddress socketAddress = new InetSocketAddress(address, port);
-
-        Socket socket;
-        if (settings.getConnectionSecurity() == ConnectionSecurity.SSL_TLS_REQUIRED) {
-            socket = socketFactory.createSocket(null, host, port, clientCertificateAlias);
-        } else {
-            socket = new Socket();
+        SocketCreator socketCreator = HappyEyeballsConnector.createSocketCreator(socketFactory,
+                settings.getConnectionSecurity(), host, port, settings.getClientCertificateAlias());
+        try {
+            return HappyEyeballsConnector.connect(inetAddresses, port, socketConnectTimeout, socketCreator);
+        } catch (IOException e) {
+            throw new MessagingException("Cannot connect to host", e);
         }
-
-        socket.connect(socketAddress, socketConnectTimeout);
-
-        return socket;
     }
 
     private void configureSocket() throws SocketException {
@@ -248,13 +244,16 @@ class ImapConnection {
     }
 
     private void setUpStreamsAndParserFromSocket() throws IOException {
-        setUpStreamsAndParser(socket.getInputStream(), socket.getOutputStream());
+        wireInputStream = commandMeter.meterWireInputStream(socket.getInputStream());
+        wireOutputStream = commandMeter.meterWireOutputStream(socket.getOutputStream());
+        setUpStreamsAndParser(wireInputStream, wireOutputStream);
     }
 
     private void setUpStreamsAndParser(InputStream input, OutputStream output) {
-        inputStream = new PeekableInputStream(new BufferedInputStream(input, BUFFER_SIZE));
-        responseParser = new ImapResponseParser(inputStream);
-        outputStream = new BufferedOutputStream(output, BUFFER_SIZE);
+        InputStream meteredInput = commandMeter.meterInputStream(input);
+        inputStream = new PeekableInputStream(new BufferedInputStream(meteredInput, BUFFER_SIZE));
+        responseParser = new ImapResponseParser(inputStream, commandMeter);
+        outputStream = new BufferedOutputStream(commandMeter.meterOutputStream(output), BUFFER_SIZE);
     }
 
     private void readInitialResponse() throws IOException {
@@ -263,6 +262,30 @@ class ImapConnection {
             Timber.v("%s <<< %s", getLogId(), initialResponse);
         }
         extractCapabilities(Collections.singletonList(initialResponse));
+
+        String greeting = settings.getHost() + " " + getGreetingSignature(initialResponse);
+        serverChanged = sessionProfile.hasOtherGreeting(greeting);
+        sessionProfileUsable = sessionProfile.matchesGreeting(greeting);
+        if (serverChanged) {
+            Timber.i("Server greeting changed, discarding session profile for %s", getLogId());
+        }
+    }
+
+    /**
+     * Returns the parts of the greeting that identify the server software and its configuration, i.e. the status and
+     * the response code (usually the capabilities), but not the human-readable text. The session profile combines
+     * this with the host name, so a greeting without response code doesn't match any server.
+     */
+    static String getGreetingSignature(ImapResponse greeting) {
+        StringBuilder signature = new StringBuilder();
+        if (!greeting.isEmpty() && greeting.isString(0)) {
+            signature.append(greeting.getString(0));
+        }
+        if (greeting.isList(1)) {
+            signature.append(' ').append(greeting.getList(1));
+        }
+
+        return signature.toString();
     }
 
     private List<ImapResponse> extractCapabilities(List<ImapResponse> responses) {
@@ -284,11 +307,21 @@ class ImapConnection {
             Set<String> receivedCapabilities = capabilityResponse.getCapabilities();
             Timber.d("Saving %s capabilities for %s", receivedCapabilities, getLogId());
             capabilities = receivedCapabilities;
+        } else if (sessionProfileUsable && sessionProfile.getPostAuthCapabilities() != null) {
+            capabilities = sessionProfile.getPostAuthCapabilities();
+            if (K9MailLib.isDebug()) {
+                Timber.d("Using cached post-auth capabilities %s for %s", capabilities, getLogId());
+            }
         } else {
             Timber.i("Did not get capabilities in post-auth banner, requesting CAPABILITY for %s", getLogId());
             requestCapabilities();
         }
 
+        if (sessionProfile.updatePostAuthCapabilities(capabilities)) {
+            Timber.i("Server capabilities changed for %s", getLogId());
+            serverChanged = true;
+        }
+
         return responses;
     }
 
@@ -296,10 +329,35 @@ class ImapConnection {
         if (!capabilities.isEmpty()) {
             return;
         }
+
+        // Capabilities received before STARTTLS can't be trusted and are only valid until the TLS handshake. So they
+        // are neither cached nor taken from the cache.
+        boolean isStartTls = settings.getConnectionSecurity() == STARTTLS_REQUIRED;
+        if (!isStartTls && useCachedPreAuthCapabilities()) {
+            return;
+        }
+
         if (K9MailLib.isDebug()) {
             Timber.i("Did not get capabilities in banner, requesting CAPABILITY for %s", getLogId());
         }
         requestCapabilities();
+
+        if (!isStartTls) {
+            sessionProfile.setPreAuthCapabilities(capabilities);
+        }
+    }
+
+    private boolean useCachedPreAuthCapabilities() {
+        Set<String> cachedCapabilities = sessionProfileUsable ? sessionProfile.getPreAuthCapabilities() : null;
+        if (cachedCapabilities == null) {
+            return false;
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("Using cached pre-auth capabilities %s for %s", cachedCapabilities, getLogId());
+        }
+        capabilities = cachedCapabilities;
+        return true;
     }
 
     private void requestCapabilities() throws IOException, MessagingException {
@@ -601,8 +659,8 @@ class ImapConnection {
         }
 
         try {
-            InflaterInputStream input = new InflaterInputStream(socket.getInputStream(), new Inflater(true));
-            ZOutputStream output = new ZOutputStream(socket.getOutputStream(), JZlib.Z_BEST_SPEED, true);
+            InflaterInputStream input = new InflaterInputStream(wireInputStream, new Inflater(true));
+            ZOutputStream output = new ZOutputStream(wireOutputStream, JZlib.Z_BEST_SPEED, true);
             output.setFlushMode(JZlib.Z_PARTIAL_FLUSH);
 
             setUpStreamsAndParser(input, output);
@@ -610,17 +668,67 @@ class ImapConnection {
             if (K9MailLib.isDebug()) {
                 Timber.i("Compression enabled for %s", getLogId());
             }
-        } catch (IOException e) {
+        } catch (RuntimeException e) {
+            // The server already expects compressed data, so the uncompressed streams can't be used anymore
             close();
             Timber.e(e, "Error enabling compression");
+            throw new IOException("Error enabling compression", e);
         }
     }
 
+    /**
+     * Enables the QRESYNC extension (RFC 7162) for this connection if the server supports it.
+     *
+     * <p>
+     * This is only done when a folder is about to be opened using QRESYNC, so connections that never select a mailbox
+     * don't pay for the {@code ENABLE} round trip. RFC 5161 doesn't allow {@code ENABLE} once a mailbox has been
+     * selected, so after that this only reports whether QRESYNC was enabled earlier.
+     * </p>
+     *
+     * @return {@code true} if QRESYNC is enabled for this connection.
+     */
+    boolean enableQresyncIfAvailable() throws IOException, MessagingException {
+        if (!open) {
+            open();
+        }
+
+        if (qresyncEnabled || mailboxSelected || !hasCapability(Capabilities.QRESYNC)) {
+            return qresyncEnabled;
+        }
+
+        List<ImapResponse> responses;
+        try {
+            responses = executeSimpleCommand(Commands.ENABLE_QRESYNC);
+        } catch (NegativeImapResponseException e) {
+            Timber.d(e, "Unable to enable QRESYNC");
+            return false;
+        }
+
+        for (ImapResponse response : responses) {
+            if (!response.isTagged() && equalsIgnoreCase(response.get(0), Responses.ENABLED)) {
+                for (int i = 1, size = response.size(); i < size; i++) {
+                    if (equalsIgnoreCase(response.get(i), Capabilities.QRESYNC)) {
+                        qresyncEnabled = true;
+                    }
+                }
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("QRESYNC enabled: %b for %s", qresyncEnabled, getLogId());
+        }
+
+        return qresyncEnabled;
+    }
+
     private void retrievePathPrefixIfNecessary() throws IOException, MessagingException {
-        if (settings.getPathPrefix() != null) {
+        boolean redetectPathPrefix = serverChanged && sessionProfile.isPathPrefixDetected();
+        if (settings.getPathPrefix() != null && !redetectPathPrefix) {
             return;
         }
 
+        sessionProfile.setPathPrefixDetected();
+
         if (hasCapability(Capabilities.NAMESPACE)) {
             if (K9MailLib.isDebug()) {
                 Timber.i("pathPrefix is unset and server has NAMESPACE capability");
@@ -645,6 +753,7 @@ class ImapConnection {
             settings.setPathPrefix(prefix);
             settings.setPathDelimiter(hierarchyDelimiter);
             settings.setCombinedPrefix(null);
+            pathDelimiterRetrieved = true;
 
             if (K9MailLib.isDebug()) {
                 Timber.d("Got path '%s' and separator '%s'", prefix, hierarchyDelimiter);
@@ -653,7 +762,7 @@ class ImapConnection {
     }
 
     private void retrievePathDelimiterIfNecessary() throws IOException, MessagingException {
-        if (settings.getPathDelimiter() == null) {
+        if (settings.getPathDelimiter() == null || (serverChanged && !pathDelimiterRetrieved)) {
             retrievePathDelimiter();
         }
     }
@@ -706,6 +815,34 @@ class ImapConnection {
         return hasCapability(Capabilities.CONDSTORE);
     }
 
+    boolean isBinaryCapable() throws IOException, MessagingException {
+        return hasCapability(Capabilities.BINARY);
+    }
+
+    boolean isEsearchCapable() throws IOException, MessagingException {
+        return hasCapability(Capabilities.ESEARCH);
+    }
+
+    boolean isMultiAppendCapable() throws IOException, MessagingException {
+        return hasCapability(Capabilities.MULTIAPPEND);
+    }
+
+    boolean isLiteralPlusCapable() throws IOException, MessagingException {
+        return hasCapability(Capabilities.LITERAL_PLUS);
+    }
+
+    boolean isLiteralMinusCapable() throws IOException, MessagingException {
+        return hasCapability(Capabilities.LITERAL_MINUS);
+    }
+
+    boolean isObjectIdCapable() throws IOException, MessagingException {
+        return hasCapability(Capabilities.OBJECTID);
+    }
+
+    boolean isPreviewCapable() throws IOException, MessagingException {
+        return hasCapability(Capabilities.PREVIEW);
+    }
+
     protected boolean isIdleCapable() {
         if (K9MailLib.isDebug()) {
             Timber.v("Connection %s has %d capabilities", getLogId(), capabilities.size());
@@ -718,6 +855,28 @@ class ImapConnection {
         return capabilities.contains(Capabilities.UID_PLUS);
     }
 
+    /**
+     * Returns {@code true} if the QRESYNC extension (RFC 7162) was enabled for this connection using
+     * {@link #enableQresyncIfAvailable()}.
+     *
+     * <p>
+     * Once enabled the server reports expunged messages using {@code VANISHED} responses instead of {@code EXPUNGE}
+     * responses.
+     * </p>
+     */
+    boolean isQresyncEnabled() throws IOException, MessagingException {
+        if (!open) {
+            open();
+        }
+
+        return qresyncEnabled;
+    }
+
+    private static boolean isSelectOrExamine(String command) {
+        String commandType = ImapCommandMeter.getCommandType(command);
+        return commandType.equals("SELECT") || commandType.equals("EXAMINE");
+    }
+
     public void close() {
         if (!open) {
             return;
@@ -732,6 +891,8 @@ class ImapConnection {
 
         inputStream = null;
         outputStream = null;
+        wireInputStream = null;
+        wireOutputStream = null;
         socket = null;
     }
 
@@ -760,26 +921,118 @@ class ImapConnection {
         try {
             return responseParser.readStatusResponse(tag, commandToLog, getLogId(), null);
         } catch (IOException e) {
-            close();
+            closeAfterReadError();
             throw e;
         }
     }
 
+    /**
+     * Executes a command for a set of IDs, split into several commands if it would exceed the line length limit.
+     *
+     * <p>
+     * The split commands are pipelined. Use {@link #splitCommandWithIdSet(String, String, Set)} and
+     * {@link #executePipelinedCommands(List)} to pipeline several different commands.
+     * </p>
+     */
     List<ImapResponse> executeCommandWithIdSet(String commandPrefix, String commandSuffix, Set<Long> ids)
             throws IOException, MessagingException {
 
-        GroupedIds groupedIds = IdGrouper.groupIds(ids);
-        List<String> splitCommands = ImapCommandSplitter.splitCommand(
-                commandPrefix, commandSuffix, groupedIds, getLineLengthLimit());
+        List<String> splitCommands = splitCommandWithIdSet(commandPrefix, commandSuffix, ids);
+
+        if (splitCommands.size() == 1) {
+            return executeSimpleCommand(splitCommands.get(0));
+        }
 
         List<ImapResponse> responses = new ArrayList<>();
-        for (String splitCommand : splitCommands) {
-            responses.addAll(executeSimpleCommand(splitCommand));
+        for (List<ImapResponse> commandResponses : executePipelinedCommands(splitCommands)) {
+            responses.addAll(commandResponses);
         }
 
         return responses;
     }
 
+    List<String> splitCommandWithIdSet(String commandPrefix, String commandSuffix, Set<Long> ids)
+            throws IOException, MessagingException {
+        GroupedIds groupedIds = IdGrouper.groupIds(ids);
+        return ImapCommandSplitter.splitCommand(commandPrefix, commandSuffix, groupedIds, getLineLengthLimit());
+    }
+
+    /**
+     * Sends the commands without waiting for the server to complete the previous one and reads the responses.
+     *
+     * <p>
+     * At most {@link #MAX_PIPELINED_COMMANDS} commands are in flight at any time. Sending is resumed whenever a command
+     * completes. That way the client never blocks writing while the server blocks writing responses the client isn't
+     * reading yet. No further commands are sent once a command failed.
+     * </p>
+     *
+     * <p>
+     * Only commands that don't depend on the outcome of a preceding command in the same batch should be pipelined.
+     * Commands containing literals are not supported.
+     * </p>
+     *
+     * @return A list containing the responses for each command, in the order the commands were supplied.
+     *
+     * @throws NegativeImapResponseException
+     *         If any of the commands didn't complete successfully. This is only thrown after the responses to all
+     *         commands in flight have been read, so the connection remains usable.
+     */
+    public List<List<ImapResponse>> executePipelinedCommands(List<String> commands) throws IOException,
+            MessagingException {
+        int commandCount = commands.size();
+        List<List<ImapResponse>> commandResponses = new ArrayList<>(commandCount);
+        List<String> tagsInFlight = new ArrayList<>(MAX_PIPELINED_COMMANDS);
+        List<Integer> commandIndexesInFlight = new ArrayList<>(MAX_PIPELINED_COMMANDS);
+        int commandsSent = 0;
+        int failedCommandIndex = -1;
+
+        while (true) {
+            if (failedCommandIndex == -1 && commandsSent < commandCount &&
+                    tagsInFlight.size() < MAX_PIPELINED_COMMANDS) {
+                int end = Math.min(commandCount, commandsSent + MAX_PIPELINED_COMMANDS - tagsInFlight.size());
+                tagsInFlight.addAll(sendPipelinedCommands(commands.subList(commandsSent, end)));
+                for (int i = commandsSent; i < end; i++) {
+                    commandIndexesInFlight.add(i);
+                    commandResponses.add(null);
+                }
+                commandsSent = end;
+            }
+
+            if (tagsInFlight.isEmpty()) {
+                break;
+            }
+
+            List<ImapResponse> responses = new ArrayList<>();
+            int index;
+            try {
+                index = responseParser.readPipelinedStatusResponse(tagsInFlight, responses, getLogId(), null);
+            } catch (IOException e) {
+                closeAfterReadError();
+                throw e;
+            }
+
+            int commandIndex = commandIndexesInFlight.remove(index);
+            tagsInFlight.remove(index);
+            commandResponses.set(commandIndex, responses);
+
+            ImapResponse response = responses.get(responses.size() - 1);
+            boolean success = response.size() >= 1 &&
+                    ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK);
+            if (!success && (failedCommandIndex == -1 || commandIndex < failedCommandIndex)) {
+                failedCommandIndex = commandIndex;
+            }
+        }
+
+        if (failedCommandIndex != -1) {
+            List<ImapResponse> failedResponses = commandResponses.get(failedCommandIndex);
+            ImapResponse response = failedResponses.get(failedResponses.size() - 1);
+            String message = "Command: " + commands.get(failedCommandIndex) + "; response: " + response.toString();
+            throw new NegativeImapResponseException(message, failedResponses);
+        }
+
+        return commandResponses;
+    }
+
     public List<ImapResponse> readStatusResponse(String tag, String commandToLog, UntaggedHandler untaggedHandler)
             throws IOException, NegativeImapResponseException {
         return responseParser.readStatusResponse(tag, commandToLog, getLogId(), untaggedHandler);
@@ -792,6 +1045,7 @@ class ImapConnection {
 
             String tag = Integer.toString(nextCommandTag++);
             String commandToSend = tag + " " + command + " " + initialClientResponse + "\r\n";
+            commandMeter.commandStarted(tag, command);
             outputStream.write(commandToSend.getBytes());
             outputStream.flush();
 
@@ -816,6 +1070,10 @@ class ImapConnection {
 
             String tag = Integer.toString(nextCommandTag++);
             String commandToSend = tag + " " + command + "\r\n";
+            commandMeter.commandStarted(tag, command);
+            if (isSelectOrExamine(command)) {
+                mailboxSelected = true;
+            }
             outputStream.write(commandToSend.getBytes());
             outputStream.flush();
 
@@ -834,6 +1092,33 @@ class ImapConnection {
         }
     }
 
+    private List<String> sendPipelinedCommands(List<String> commands) throws MessagingException, IOException {
+        try {
+            open();
+
+            List<String> tags = new ArrayList<>(commands.size());
+            StringBuilder commandsToSend = new StringBuilder();
+            for (String command : commands) {
+                String tag = Integer.toString(nextCommandTag++);
+                tags.add(tag);
+                commandMeter.commandStarted(tag, command);
+                commandsToSend.append(tag).append(' ').append(command).append("\r\n");
+
+                if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
+                    Timber.v("%s>>> %s %s", getLogId(), tag, command);
+                }
+            }
+
+            outputStream.write(commandsToSend.toString().getBytes());
+            outputStream.flush();
+
+            return tags;
+        } catch (IOException | MessagingException e) {
+            close();
+            throw e;
+        }
+    }
+
     public void sendContinuation(String continuation) throws IOException {
         outputStream.write(continuation.getBytes());
         outputStream.write('\r');
@@ -859,11 +1144,20 @@ class ImapConnection {
 
             return response;
         } catch (IOException e) {
-            close();
+            closeAfterReadError();
             throw e;
         }
     }
 
+    /**
+     * Closes the connection after reading from the server failed. The server might be restarting, e.g. after an
+     * upgrade, so the capabilities cached in the session profile are requested again by the next connection.
+     */
+    private void closeAfterReadError() {
+        sessionProfile.invalidate();
+        close();
+    }
+
     protected void setReadTimeout(int millis) throws SocketException {
         Socket sock = socket;
         if (sock != null) {
@@ -890,6 +1184,21 @@ class ImapConnection {
         return response;
     }
 
+    /**
+     * @return The number of (decompressed) bytes read from the server since the connection was opened.
+     */
+    long getBytesRead() {
+        return commandMeter.getBytesReceived();
+    }
+
+    /**
+     * @return The value of {@link System#nanoTime()} when the first byte of the last response read on this
+     *         connection arrived.
+     */
+    long getResponseStartNanos() {
+        return responseParser.getResponseStartNanos();
+    }
+
     int getLineLengthLimit() throws IOException, MessagingException {
         return isCondstoreCapable() ? LENGTH_LIMIT_WITH_CONDSTORE : LENGTH_LIMIT_WITHOUT_CONDSTORE;
     }
@@ -0,0 +1,146 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fsck.k9.mail.K9MailLib;
+import timber.log.Timber;
+
+
+/**
+ * Keeps idle {@link ImapConnection}s around so they can be reused.
+ *
+ * <p>
+ * The most recently released connection is handed out first. That way connections that aren't needed anymore age out
+ * and are closed once they've been idle for longer than the idle timeout. The number of idle connections is limited;
+ * when a connection is released into a full pool the connection that has been idle the longest is closed.
+ * </p>
+ */
+class ImapConnectionPool {
+    private final int maxIdleConnections;
+    private final long idleTimeoutMillis;
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long totalWaitTimeNanos;
+
+
+    ImapConnectionPool(int maxIdleConnections, long idleTimeoutMillis) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Removes the most recently released connection from the pool.
+     *
+     * <p>
+     * The caller is expected to check the connection is still usable before using it.
+     * </p>
+     *
+     * @return An idle connection or {@code null} if the pool is empty.
+     */
+    ImapConnection poll() {
+        List<ImapConnection> expiredConnections = new ArrayList<>();
+        ImapConnection connection = null;
+
+        synchronized (this) {
+            long now = now();
+            Iterator<IdleConnection> iterator = idleConnections.descendingIterator();
+            while (iterator.hasNext()) {
+                IdleConnection idleConnection = iterator.next();
+                if (now - idleConnection.releaseTime < idleTimeoutMillis) {
+                    break;
+                }
+
+                iterator.remove();
+                expiredConnections.add(idleConnection.connection);
+                evictions++;
+            }
+
+            IdleConnection idleConnection = idleConnections.pollFirst();
+            if (idleConnection != null) {
+                connection = idleConnection.connection;
+            }
+        }
+
+        closeConnections(expiredConnections, "idle timeout");
+
+        return connection;
+    }
+
+    /**
+     * Returns a connection to the pool. Connections that are no longer connected are ignored.
+     */
+    void offer(ImapConnection connection) {
+        if (connection == null || !connection.isConnected()) {
+            return;
+        }
+
+        List<ImapConnection> excessConnections = new ArrayList<>();
+        synchronized (this) {
+            idleConnections.offerFirst(new IdleConnection(connection, now()));
+
+            while (idleConnections.size() > maxIdleConnections) {
+                excessConnections.add(idleConnections.pollLast().connection);
+                evictions++;
+            }
+        }
+
+        closeConnections(excessConnections, "pool full");
+    }
+
+    synchronized void recordHit() {
+        hits++;
+    }
+
+    synchronized void recordMiss() {
+        misses++;
+    }
+
+    /**
+     * Records a pooled connection that failed the liveness check and had to be discarded.
+     */
+    synchronized void recordFailedProbe() {
+        evictions++;
+    }
+
+    synchronized void recordWaitTime(long waitTimeNanos) {
+        totalWaitTimeNanos += waitTimeNanos;
+    }
+
+    synchronized ConnectionPoolStatistics getStatistics() {
+        return new ConnectionPoolStatistics(hits, misses, evictions, totalWaitTimeNanos / 1000000L,
+                idleConnections.size());
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void closeConnections(List<ImapConnection> connections, String reason) {
+        for (ImapConnection connection : connections) {
+            if (K9MailLib.isDebug()) {
+                Timber.d("Closing pooled connection %s (%s)", connection.getLogId(), reason);
+            }
+
+            connection.close();
+        }
+    }
+
+
+    private static class IdleConnection {
+        final ImapConnection connection;
+        final long releaseTime;
+
+        IdleConnection(ImapConnection connection, long releaseTime) {
+            this.connection = connection;
+            this.releaseTime = releaseTime;
+        }
+    }
+}
@@ -15,7 +15,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeSet;
 
 import android.text.TextUtils;
 
@@ -30,11 +30,13 @@ import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeHeader;
 import com.fsck.k9.mail.internet.MimeMessageHelper;
 import com.fsck.k9.mail.internet.MimeMultipart;
 import com.fsck.k9.mail.internet.MimeUtility;
+import org.apache.james.mime4j.util.MimeUtil;
 import timber.log.Timber;
 
 import static com.fsck.k9.mail.store.imap.ImapUtility.getLastResponse;
@@ -48,15 +50,28 @@ public class ImapFolder extends Folder<ImapMessage> {
             return new SimpleDateFormat("dd-MMM-yyyy", Locale.US);
         }
     };
-    private static final int MORE_MESSAGES_WINDOW_SIZE = 500;
-    private static final int FETCH_WINDOW_SIZE = 100;
+    private static final int MORE_MESSAGES_INITIAL_WINDOW_SIZE = 500;
+    private static final int MORE_MESSAGES_MAX_WINDOW_SIZE = 16000;
+    private static final String ENCODING_BINARY = "binary";
+    private static final String ENCODING_BASE64 = "base64";
+    private static final String ENCODING_QUOTED_PRINTABLE = "quoted-printable";
+    private static final int MULTIAPPEND_MAX_MESSAGES = 50;
+    private static final long LITERAL_MINUS_MAX_SIZE = 4096;
+    private static final long PART_CHUNK_THRESHOLD = 1024 * 1024;
+    private static final int PART_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_PART_CHUNKS_IN_FLIGHT = 4;
 
 
     protected volatile int messageCount = -1;
     protected volatile long uidNext = -1L;
+    protected volatile long uidValidity = -1L;
+    protected volatile long highestModSeq = -1L;
     protected volatile ImapConnection connection;
     protected ImapStore store = null;
-    protected Map<Long, String> msgSeqUidMap = new ConcurrentHashMap<>();
+    /**
+     * Maps message sequence numbers to UIDs. Access has to be synchronized on the map.
+     */
+    protected final SortedLongMap msgSeqUidMap = new SortedLongMap();
     private final FolderNameCodec folderNameCodec;
     private final String name;
     private int mode;
@@ -107,6 +122,13 @@ public class ImapFolder extends Folder<ImapMessage> {
         return prefixedName;
     }
 
+    /**
+     * @return The folder name as it is sent to the server, i.e. with the path prefix and encoded, but not quoted.
+     */
+    String getEncodedName() throws MessagingException {
+        return folderNameCodec.encode(getPrefixedName());
+    }
+
     private List<ImapResponse> executeSimpleCommand(String command) throws MessagingException, IOException {
         return handleUntaggedResponses(connection.executeSimpleCommand(command));
     }
@@ -120,7 +142,98 @@ public class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    /**
+     * Opens the folder and asks the server to report all changes since the given state using the {@code QRESYNC}
+     * parameter (RFC 7162).
+     *
+     * @param mode
+     *         The mode to open the folder in. Either {@link #OPEN_MODE_RO} or {@link #OPEN_MODE_RW}.
+     * @param knownUidValidity
+     *         The {@code UIDVALIDITY} value of the folder when it was last synchronized.
+     * @param knownHighestModSeq
+     *         The {@code HIGHESTMODSEQ} value of the folder when it was last synchronized.
+     *
+     * @return The changes since the given state, or {@code null} if the server couldn't provide them, e.g. because
+     *         QRESYNC isn't supported or {@code UIDVALIDITY} changed. In that case the folder has still been opened
+     *         and the caller needs to fall back to a full synchronization.
+     */
+    public QresyncResponse openUsingQresync(int mode, long knownUidValidity, long knownHighestModSeq)
+            throws MessagingException {
+        if (isOpen()) {
+            // We need a fresh SELECT/EXAMINE for the server to report the changes
+            close();
+        }
+
+        List<ImapResponse> responses = internalOpen(mode, knownUidValidity, knownHighestModSeq);
+
+        if (messageCount == -1) {
+            throw new MessagingException("Did not find message count during open");
+        }
+
+        try {
+            if (!connection.isQresyncEnabled() || highestModSeq <= 0 || uidValidity != knownUidValidity) {
+                return null;
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+
+        List<String> vanishedUids = new ArrayList<>();
+        List<ImapMessage> changedMessages = new ArrayList<>();
+        List<Long> messageSequenceNumbers = new ArrayList<>();
+        for (ImapResponse response : responses) {
+            VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+            if (vanishedResponse != null) {
+                vanishedUids.addAll(vanishedResponse.getUids());
+            } else if (!response.isTagged() && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
+                ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                String uid = fetchList.getKeyedString("UID");
+                if (uid == null) {
+                    continue;
+                }
+
+                long msgSeq = response.getLong(0);
+                storeMessageSequenceNumber(msgSeq, uid);
+
+                ImapMessage message = new ImapMessage(uid, this);
+                handleFetchResponse(message, fetchList);
+                changedMessages.add(message);
+                messageSequenceNumbers.add(msgSeq);
+            }
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.d("QRESYNC reported %d vanished and %d changed messages for %s",
+                    vanishedUids.size(), changedMessages.size(), getLogId());
+        }
+
+        return new QresyncResponse(vanishedUids, changedMessages, messageSequenceNumbers);
+    }
+
+    private void storeMessageSequenceNumber(long msgSeq, String uid) {
+        long numericUid;
+        try {
+            numericUid = Long.parseLong(uid);
+        } catch (NumberFormatException e) {
+            Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
+            return;
+        }
+
+        synchronized (msgSeqUidMap) {
+            msgSeqUidMap.put(msgSeq, numericUid);
+        }
+
+        if (K9MailLib.isDebug()) {
+            Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
+        }
+    }
+
     protected List<ImapResponse> internalOpen(int mode) throws MessagingException {
+        return internalOpen(mode, -1L, -1L);
+    }
+
+    private List<ImapResponse> internalOpen(int mode, long knownUidValidity, long knownHighestModSeq)
+            throws MessagingException {
         if (isOpen() && this.mode == mode) {
             // Make sure the connection is valid. If it's not we'll close it down and continue
             // on to get a new one.
@@ -138,12 +251,20 @@ public class ImapFolder extends Folder<ImapMessage> {
         }
 
         try {
-            msgSeqUidMap.clear();
+            synchronized (msgSeqUidMap) {
+                msgSeqUidMap.clear();
+            }
+            uidValidity = -1L;
+            uidNext = -1L;
+            highestModSeq = -1L;
 
             String openCommand = mode == OPEN_MODE_RW ? "SELECT" : "EXAMINE";
             String encodedFolderName = folderNameCodec.encode(getPrefixedName());
             String escapedFolderName = ImapUtility.encodeString(encodedFolderName);
             String command = String.format("%s %s", openCommand, escapedFolderName);
+            if (knownUidValidity > 0 && knownHighestModSeq > 0 && connection.enableQresyncIfAvailable()) {
+                command += String.format(Locale.US, " (QRESYNC (%d %d))", knownUidValidity, knownHighestModSeq);
+            }
             List<ImapResponse> responses = executeSimpleCommand(command);
 
             /*
@@ -390,11 +511,74 @@ public class ImapFolder extends Folder<ImapMessage> {
         return uidMapping;
     }
 
+    /**
+     * Moves messages and expunges them from this folder.
+     *
+     * <p>
+     * Marking the messages as deleted must wait for {@code UID COPY} to succeed. If the server supports
+     * {@code UIDPLUS}, the {@code UID STORE} and {@code UID EXPUNGE} commands are then pipelined.
+     * </p>
+     */
+    public Map<String, String> moveMessagesAndExpunge(List<? extends Message> messages, Folder folder)
+            throws MessagingException {
+        if (messages.isEmpty()) {
+            return null;
+        }
+
+        Map<String, String> uidMapping = copyMessages(messages, folder);
+
+        try {
+            if (!connection.isUidPlusCapable()) {
+                setFlags(messages, Collections.singleton(Flag.DELETED), true);
+                executeSimpleCommand("EXPUNGE");
+                return uidMapping;
+            }
+
+            Set<Long> uids = getUids(messages);
+            String storeCommandSuffix = createSetFlagsCommandSuffix(Collections.singleton(Flag.DELETED), true);
+
+            List<String> commands = new ArrayList<>();
+            commands.addAll(connection.splitCommandWithIdSet(Commands.UID_STORE, storeCommandSuffix, uids));
+            commands.addAll(connection.splitCommandWithIdSet(Commands.UID_EXPUNGE, "", uids));
+
+            for (List<ImapResponse> responses : connection.executePipelinedCommands(commands)) {
+                handleUntaggedResponses(responses);
+            }
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+
+        return uidMapping;
+    }
+
     @Override
     public int getMessageCount() {
         return messageCount;
     }
 
+    /**
+     * @return The {@code UIDVALIDITY} value reported when the folder was opened, or {@code -1} if it's unknown.
+     */
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * @return The {@code UIDNEXT} value reported when the folder was opened, or {@code -1} if the server didn't send
+     *         one.
+     */
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    /**
+     * @return The {@code HIGHESTMODSEQ} value reported when the folder was opened, or {@code -1} if the server doesn't
+     *         support mod-sequences for this folder.
+     */
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
     private int getRemoteMessageCount(String criteria) throws MessagingException {
         checkOpen();
 
@@ -402,6 +586,12 @@ public class ImapFolder extends Folder<ImapMessage> {
             int count = 0;
             int start = 1;
 
+            if (connection.isEsearchCapable()) {
+                String command = String.format(Locale.US, "SEARCH RETURN (COUNT) %d:* %s", start, criteria);
+                EsearchResponse response = executeEsearchCommand(command);
+                return (int) Math.max(0, response.getCount());
+            }
+
             String command = String.format(Locale.US, "SEARCH %d:* %s", start, criteria);
             List<ImapResponse> responses = executeSimpleCommand(command);
 
@@ -429,6 +619,11 @@ public class ImapFolder extends Folder<ImapMessage> {
 
     protected long getHighestUid() throws MessagingException {
         try {
+            if (connection.isEsearchCapable()) {
+                EsearchResponse response = executeEsearchCommand("UID SEARCH RETURN (MAX) ALL");
+                return response.getMax();
+            }
+
             List<ImapResponse> responses = executeSimpleCommand("UID SEARCH *:*");
 
             SearchResponse searchResponse = SearchResponse.parse(responses);
@@ -477,11 +672,16 @@ public class ImapFolder extends Folder<ImapMessage> {
         checkOpen();
 
         String dateSearchString = getDateSearchString(earliestDate);
-        String command = String.format(Locale.US, "UID SEARCH %d:%d%s%s", start, end, dateSearchString,
+        String criteria = String.format(Locale.US, "%d:%d%s%s", start, end, dateSearchString,
                 includeDeleted ? "" : " NOT DELETED");
 
         try {
-            List<ImapResponse> imapResponses = connection.executeSimpleCommand(command);
+            if (connection.isEsearchCapable()) {
+                EsearchResponse response = executeEsearchCommand("UID SEARCH RETURN (ALL) " + criteria);
+                return getMessages(response.getAll(), listener);
+            }
+
+            List<ImapResponse> imapResponses = connection.executeSimpleCommand("UID SEARCH " + criteria);
             SearchResponse searchResponse = SearchResponse.parse(imapResponses);
             return getMessages(searchResponse, listener);
         } catch (IOException ioe) {
@@ -510,14 +710,26 @@ public class ImapFolder extends Folder<ImapMessage> {
         int endIndex = indexOfOldestMessage - 1;
         String dateSearchString = getDateSearchString(earliestDate);
 
+        if (connection.isEsearchCapable()) {
+            // The response only contains the lowest match, so there's no need to search in windows
+            String command = String.format(Locale.US, "SEARCH RETURN (MIN) 1:%d%s NOT DELETED", endIndex,
+                    dateSearchString);
+            EsearchResponse response = executeEsearchCommand(command);
+            return response.getMin() != -1L;
+        }
+
+        // Most searches either succeed right away or have to scan the whole folder. So start with a small range and
+        // double it every time nothing was found to keep the number of round trips logarithmic.
+        int windowSize = MORE_MESSAGES_INITIAL_WINDOW_SIZE;
         while (endIndex > 0) {
-            int startIndex = Math.max(0, endIndex - MORE_MESSAGES_WINDOW_SIZE) + 1;
+            int startIndex = Math.max(0, endIndex - windowSize) + 1;
 
             if (existsNonDeletedMessageInRange(startIndex, endIndex, dateSearchString)) {
                 return true;
             }
 
-            endIndex = endIndex - MORE_MESSAGES_WINDOW_SIZE;
+            endIndex = endIndex - windowSize;
+            windowSize = Math.min(windowSize * 2, MORE_MESSAGES_MAX_WINDOW_SIZE);
         }
 
         return false;
@@ -569,6 +781,45 @@ public class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    private EsearchResponse executeEsearchCommand(String command) throws MessagingException, IOException {
+        List<ImapResponse> imapResponses = executeSimpleCommand(command);
+        try {
+            return EsearchResponse.parse(imapResponses);
+        } catch (NumberFormatException e) {
+            throw new MessagingException("Invalid ESEARCH response", e);
+        }
+    }
+
+    /**
+     * Creates messages for the UIDs in {@code uids}, newest first, without expanding the set into a list first.
+     */
+    private List<ImapMessage> getMessages(SequenceSet uids, MessageRetrievalListener<ImapMessage> listener) {
+        int count = (int) uids.getCount();
+        List<ImapMessage> messages = new ArrayList<>(count);
+
+        int i = 0;
+        for (int range = uids.getRangeCount() - 1; range >= 0; range--) {
+            long rangeStart = uids.getRangeStart(range);
+            for (long uidValue = uids.getRangeEnd(range); uidValue >= rangeStart; uidValue--) {
+                String uid = Long.toString(uidValue);
+                if (listener != null) {
+                    listener.messageStarted(uid, i, count);
+                }
+
+                ImapMessage message = new ImapMessage(uid, this);
+                messages.add(message);
+
+                if (listener != null) {
+                    listener.messageFinished(message, i, count);
+                }
+
+                i++;
+            }
+        }
+
+        return messages;
+    }
+
     private List<ImapMessage> getMessages(SearchResponse searchResponse, MessageRetrievalListener<ImapMessage> listener)
             throws MessagingException {
 
@@ -627,6 +878,14 @@ public class ImapFolder extends Folder<ImapMessage> {
             fetchFields.add("RFC822.SIZE");
             fetchFields.add("BODY.PEEK[HEADER.FIELDS (date subject from content-type to cc " +
                     "reply-to message-id references in-reply-to " + K9MailLib.IDENTITY_HEADER + ")]");
+
+            if (isObjectIdSupported()) {
+                fetchFields.add("EMAILID");
+            }
+        }
+
+        if (fetchProfile.contains(FetchProfile.Item.PREVIEW) && isPreviewSupported()) {
+            fetchFields.add("PREVIEW");
         }
 
         if (fetchProfile.contains(FetchProfile.Item.STRUCTURE)) {
@@ -647,41 +906,49 @@ public class ImapFolder extends Folder<ImapMessage> {
         }
 
         String spaceSeparatedFetchFields = ImapUtility.join(" ", fetchFields);
+        int commandLength = String.format("UID FETCH  (%s)", spaceSeparatedFetchFields).length();
 
-        for (int windowStart = 0; windowStart < messages.size(); windowStart += (FETCH_WINDOW_SIZE)) {
-            int windowEnd = Math.min(windowStart + FETCH_WINDOW_SIZE, messages.size());
-            List<String> uidWindow = uids.subList(windowStart, windowEnd);
-
+        int windowEnd;
+        for (int windowStart = 0; windowStart < messages.size(); windowStart = windowEnd) {
             try {
+                int lineLengthLimit = connection.getLineLengthLimit();
+                windowEnd = store.getFetchWindowSizer().getWindowEnd(uids, windowStart, commandLength, lineLengthLimit);
+                List<String> uidWindow = uids.subList(windowStart, windowEnd);
+
                 String commaSeparatedUids = ImapUtility.join(",", uidWindow);
                 String command = String.format("UID FETCH %s (%s)", commaSeparatedUids, spaceSeparatedFetchFields);
+
+                long startTime = System.nanoTime();
+                long startBytes = connection.getBytesRead();
+                long firstResponseTime = -1;
+
                 connection.sendCommand(command, false);
 
                 ImapResponse response;
                 int messageNumber = 0;
 
+                // Parse header and body literals straight from the stream instead of buffering them as strings
                 ImapResponseCallback callback = null;
-                if (fetchProfile.contains(FetchProfile.Item.BODY) ||
+                if (fetchProfile.contains(FetchProfile.Item.ENVELOPE) ||
+                        fetchProfile.contains(FetchProfile.Item.PREVIEW) ||
+                        fetchProfile.contains(FetchProfile.Item.BODY) ||
                         fetchProfile.contains(FetchProfile.Item.BODY_SANE)) {
                     callback = new FetchBodyCallback(messageMap);
                 }
 
                 do {
                     response = connection.readResponse(callback);
+                    if (firstResponseTime == -1) {
+                        // Taken when the first response line arrived, not after its literal has been read
+                        firstResponseTime = connection.getResponseStartNanos();
+                    }
 
                     if (response.getTag() == null && ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH")) {
                         ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
                         String uid = fetchList.getKeyedString("UID");
                         long msgSeq = response.getLong(0);
                         if (uid != null) {
-                            try {
-                                msgSeqUidMap.put(msgSeq, uid);
-                                if (K9MailLib.isDebug()) {
-                                    Timber.v("Stored uid '%s' for msgSeq %d into map", uid, msgSeq);
-                                }
-                            } catch (Exception e) {
-                                Timber.e("Unable to store uid '%s' for msgSeq %d", uid, msgSeq);
-                            }
+                            storeMessageSequenceNumber(msgSeq, uid);
                         }
 
                         Message message = messageMap.get(uid);
@@ -722,27 +989,307 @@ public class ImapFolder extends Folder<ImapMessage> {
                     }
 
                 } while (response.getTag() == null);
+
+                recordFetchWindow(uidWindow.size(), connection.getBytesRead() - startBytes,
+                        nanosToMillis(firstResponseTime - startTime), nanosToMillis(System.nanoTime() - startTime));
             } catch (IOException ioe) {
                 throw ioExceptionHandler(connection, ioe);
             }
         }
     }
 
+    private static long nanosToMillis(long nanos) {
+        return Math.max(0, nanos / 1000000L);
+    }
+
+    private void recordFetchWindow(int messageCount, long bytes, long firstResponseMillis, long totalMillis) {
+        FetchWindowSizer fetchWindowSizer = store.getFetchWindowSizer();
+        fetchWindowSizer.recordWindow(messageCount, bytes, firstResponseMillis, totalMillis);
+
+        if (K9MailLib.isDebug()) {
+            long kibPerSecond = bytes * 1000 / 1024 / Math.max(1, totalMillis);
+            Timber.d("Fetched %d messages (%d bytes) in %d ms (%d KiB/s, first response after %d ms), " +
+                    "next window size %d for %s", messageCount, bytes, totalMillis, kibPerSecond, firstResponseMillis,
+                    fetchWindowSizer.getWindowSize(), getLogId());
+        }
+    }
+
     @Override
     public void fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener,
             BodyFactory bodyFactory) throws MessagingException {
         checkOpen();
 
         String partId = part.getServerExtra();
+        String contentTransferEncoding = getContentTransferEncoding(part);
 
         String fetch;
         if ("TEXT".equalsIgnoreCase(partId)) {
             int maximumAutoDownloadMessageSize = store.getStoreConfig().getMaximumAutoDownloadMessageSize();
             fetch = String.format(Locale.US, "BODY.PEEK[TEXT]<0.%d>", maximumAutoDownloadMessageSize);
         } else {
+            boolean fetchInChunks = shouldFetchPartInChunks(part);
+            if (shouldFetchPartUsingBinary(part, contentTransferEncoding)) {
+                String partEncoding = MimeUtility.getHeaderParameter(contentTransferEncoding, null)
+                        .toLowerCase(Locale.US);
+                BodyFactory binaryBodyFactory = new BinaryFetchBodyFactory(bodyFactory, partEncoding);
+
+                boolean success;
+                if (fetchInChunks) {
+                    success = fetchPartInChunks(message, part, listener, binaryBodyFactory, "BINARY", partId,
+                            ENCODING_BINARY);
+                } else {
+                    String binaryFetch = String.format("BINARY.PEEK[%s]", partId);
+                    ImapResponse taggedResponse = fetchPart(message, part, listener, binaryBodyFactory, binaryFetch,
+                            ENCODING_BINARY);
+                    success = ImapResponseParser.equalsIgnoreCase(taggedResponse.get(0), Responses.OK);
+                }
+
+                if (success) {
+                    return;
+                }
+
+                // e.g. [UNKNOWN-CTE] if the server can't decode the part
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Server didn't return decoded part %s, fetching it encoded for %s", partId, getLogId());
+                }
+            }
+
+            if (fetchInChunks) {
+                if (!fetchPartInChunks(message, part, listener, bodyFactory, "BODY", partId,
+                        contentTransferEncoding)) {
+                    throw new MessagingException("Server refused to return part " + partId);
+                }
+                return;
+            }
+
             fetch = String.format("BODY.PEEK[%s]", partId);
         }
 
+        fetchPart(message, part, listener, bodyFactory, fetch, contentTransferEncoding);
+    }
+
+    /**
+     * Checks if the part is large enough to be fetched in chunks, e.g. {@code BODY.PEEK[2]<0.262144>}, so an
+     * interrupted download doesn't have to start from scratch.
+     */
+    private static boolean shouldFetchPartInChunks(Part part) {
+        return BinaryTempFileBody.getTempDirectory() != null && getPartSize(part) >= PART_CHUNK_THRESHOLD;
+    }
+
+    private static long getPartSize(Part part) {
+        String size = MimeUtility.getHeaderParameter(part.getDisposition(), "size");
+        if (size == null) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(size);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Fetches a part using ranged {@code FETCH} commands with up to {@link #MAX_PART_CHUNKS_IN_FLIGHT} commands
+     * pipelined. The data is collected in a {@link PartialPartDownload}, so a later attempt resumes an interrupted
+     * download at the last stored byte.
+     *
+     * @param fetchItem
+     *         {@code BODY} or {@code BINARY}.
+     *
+     * @return {@code false} if the server rejected the command, e.g. with {@code [UNKNOWN-CTE]}.
+     */
+    private boolean fetchPartInChunks(Message message, Part part, MessageRetrievalListener<Message> listener,
+            BodyFactory bodyFactory, String fetchItem, String partId, String contentTransferEncoding)
+            throws MessagingException {
+        String uid = message.getUid();
+        PartialPartDownload download = PartialPartDownload.create(BinaryTempFileBody.getTempDirectory(),
+                store.getAccountKey() + "/" + getServerId() + "/" + uidValidity + "/" + uid + "/" + fetchItem +
+                        "[" + partId + "]");
+        long partSize = getPartSize(part);
+
+        try {
+            if (listener != null) {
+                listener.messageStarted(uid, 0, 1);
+            }
+
+            long resumeOffset = download.getLength();
+            if (resumeOffset > 0 && K9MailLib.isDebug()) {
+                Timber.d("Resuming download of part %s at offset %d for %s", partId, resumeOffset, getLogId());
+            }
+
+            Map<String, Long> pendingCommands = new HashMap<>();
+            TreeSet<Long> missingChunks = new TreeSet<>();
+            Map<Long, byte[]> receivedChunks = new HashMap<>();
+            ImapResponseCallback callback = new FetchPartChunkCallback();
+            long nextOffset = resumeOffset;
+            boolean complete = false;
+            boolean rejected = false;
+
+            while (true) {
+                while (!complete && !rejected && pendingCommands.size() < MAX_PART_CHUNKS_IN_FLIGHT &&
+                        (nextOffset < partSize || pendingCommands.isEmpty())) {
+                    String command = String.format(Locale.US, "UID FETCH %s (UID %s.PEEK[%s]<%d.%d>)", uid,
+                            fetchItem, partId, nextOffset, PART_CHUNK_SIZE);
+                    pendingCommands.put(connection.sendCommand(command, false), nextOffset);
+                    missingChunks.add(nextOffset);
+                    nextOffset += PART_CHUNK_SIZE;
+                }
+
+                if (pendingCommands.isEmpty()) {
+                    break;
+                }
+
+                ImapResponse response = connection.readResponse(callback);
+                if (response.getTag() != null) {
+                    Long offset = pendingCommands.remove(response.getTag());
+                    if (!ImapResponseParser.equalsIgnoreCase(response.get(0), Responses.OK)) {
+                        rejected = true;
+                    } else if (offset != null && missingChunks.remove(offset)) {
+                        // The range starts beyond the end of the part
+                        receivedChunks.put(offset, new byte[0]);
+                    }
+                } else if (ImapResponseParser.equalsIgnoreCase(response.get(1), "FETCH") &&
+                        uid.equals(((ImapList) response.getKeyedValue("FETCH")).getKeyedString("UID"))) {
+                    ImapList fetchList = (ImapList) response.getKeyedValue("FETCH");
+                    if (fetchList.containsKey(fetchItem)) {
+                        Long origin = getOriginOctet(fetchList, fetchItem);
+                        if (origin == null && !missingChunks.isEmpty()) {
+                            origin = missingChunks.first();
+                        }
+
+                        if (origin != null && missingChunks.remove(origin)) {
+                            receivedChunks.put(origin, getChunkData(getFetchedLiteral(fetchList, fetchItem)));
+                        }
+                    }
+                } else {
+                    handleUntaggedResponse(response);
+                }
+
+                byte[] chunk;
+                while (!complete && (chunk = receivedChunks.remove(download.getLength())) != null) {
+                    download.append(chunk);
+                    complete = chunk.length < PART_CHUNK_SIZE;
+                }
+            }
+
+            if (rejected) {
+                download.delete();
+                return false;
+            }
+
+            InputStream inputStream = download.getInputStream();
+            try {
+                String contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
+                Body body = bodyFactory.createBody(contentTransferEncoding, contentType, inputStream);
+                MimeMessageHelper.setBody(part, body);
+            } finally {
+                inputStream.close();
+            }
+            download.delete();
+
+            if (resumeOffset > 0) {
+                PartialPartDownload.deleteStaleDownloads(BinaryTempFileBody.getTempDirectory(),
+                        System.currentTimeMillis());
+            }
+
+            if (listener != null) {
+                listener.messageFinished(message, 1, 1);
+            }
+
+            return true;
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
+    private static Long getOriginOctet(ImapList fetchList, String key) {
+        int index = fetchList.getKeyIndex(key) + 2;
+        if (index < fetchList.size() && fetchList.get(index) instanceof String) {
+            String originOctet = (String) fetchList.get(index);
+            if (originOctet.startsWith("<") && originOctet.endsWith(">")) {
+                try {
+                    return Long.parseLong(originOctet.substring(1, originOctet.length() - 1));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static byte[] getChunkData(Object literal) throws IOException {
+        if (literal instanceof byte[]) {
+            return (byte[]) literal;
+        } else if (literal instanceof String && !"NIL".equalsIgnoreCase((String) literal)) {
+            // Small ranges might be returned as quoted string
+            return ((String) literal).getBytes("ISO-8859-1");
+        }
+
+        return new byte[0];
+    }
+
+    /**
+     * Checks if the part should be fetched using {@code BINARY} (RFC 3516), i.e. decoded by the server.
+     *
+     * <p>
+     * This only pays off for parts that are base64 or quoted-printable encoded. The decoded data is encoded again
+     * locally (see {@link BinaryFetchBodyFactory}), so the part keeps its {@code Content-Transfer-Encoding}.
+     * {@code message/*} parts are always fetched encoded because their bodies can't be converted to another encoding.
+     * </p>
+     */
+    private boolean shouldFetchPartUsingBinary(Part part, String contentTransferEncoding) throws MessagingException {
+        if (contentTransferEncoding == null || MimeUtil.isMessage(getContentType(part))) {
+            return false;
+        }
+
+        String encoding = MimeUtility.getHeaderParameter(contentTransferEncoding, null);
+        if (!ENCODING_BASE64.equalsIgnoreCase(encoding) &&
+                !ENCODING_QUOTED_PRINTABLE.equalsIgnoreCase(encoding)) {
+            return false;
+        }
+
+        try {
+            return connection.isBinaryCapable();
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
+    /**
+     * @return {@code true} if the server can generate message previews ({@code PREVIEW}, RFC 8970).
+     */
+    public boolean isPreviewSupported() throws MessagingException {
+        checkOpen();
+
+        try {
+            return connection.isPreviewCapable();
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
+    private boolean isObjectIdSupported() throws MessagingException {
+        try {
+            return connection.isObjectIdCapable();
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
+        }
+    }
+
+    private static String getContentType(Part part) {
+        String[] contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE);
+        return contentType.length > 0 ? contentType[0] : null;
+    }
+
+    private static String getContentTransferEncoding(Part part) {
+        String[] contentTransferEncoding = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING);
+        return contentTransferEncoding.length > 0 ? contentTransferEncoding[0] : null;
+    }
+
+    private ImapResponse fetchPart(Message message, Part part, MessageRetrievalListener<Message> listener,
+            BodyFactory bodyFactory, String fetch, String contentTransferEncoding) throws MessagingException {
         try {
             String command = String.format("UID FETCH %s (UID %s)", message.getUid(), fetch);
             connection.sendCommand(command, false);
@@ -750,7 +1297,7 @@ public class ImapFolder extends Folder<ImapMessage> {
             ImapResponse response;
             int messageNumber = 0;
 
-            ImapResponseCallback callback = new FetchPartCallback(part, bodyFactory);
+            ImapResponseCallback callback = new FetchPartCallback(part, bodyFactory, contentTransferEncoding);
 
             do {
                 response = connection.readResponse(callback);
@@ -784,8 +1331,6 @@ public class ImapFolder extends Folder<ImapMessage> {
                             String bodyString = (String) literal;
                             InputStream bodyStream = new ByteArrayInputStream(bodyString.getBytes());
 
-                            String contentTransferEncoding =
-                                    part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)[0];
                             String contentType = part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)[0];
                             Body body = bodyFactory.createBody(contentTransferEncoding, contentType, bodyStream);
                             MimeMessageHelper.setBody(part, body);
@@ -803,6 +1348,8 @@ public class ImapFolder extends Folder<ImapMessage> {
                 }
 
             } while (response.getTag() == null);
+
+            return response;
         } catch (IOException ioe) {
             throw ioExceptionHandler(connection, ioe);
         }
@@ -845,6 +1392,21 @@ public class ImapFolder extends Folder<ImapMessage> {
             message.setSize(size);
         }
 
+        if (fetchList.containsKey("PREVIEW")) {
+            // NIL means the server couldn't generate a preview
+            Object preview = fetchList.getKeyedValue("PREVIEW");
+            if (preview instanceof String && !"NIL".equalsIgnoreCase((String) preview)) {
+                message.setPreview((String) preview);
+            }
+        }
+
+        if (fetchList.containsKey("EMAILID")) {
+            ImapList emailId = fetchList.getKeyedList("EMAILID");
+            if (emailId != null && emailId.size() == 1 && emailId.isString(0)) {
+                message.setEmailId(emailId.getString(0));
+            }
+        }
+
         if (fetchList.containsKey("BODYSTRUCTURE")) {
             ImapList bs = fetchList.getKeyedList("BODYSTRUCTURE");
             if (bs != null) {
@@ -860,17 +1422,28 @@ public class ImapFolder extends Folder<ImapMessage> {
         }
 
         if (fetchList.containsKey("BODY")) {
-            int index = fetchList.getKeyIndex("BODY") + 2;
-            int size = fetchList.size();
-            if (index < size) {
-                result = fetchList.getObject(index);
-
-                // Check if there's an origin octet
-                if (result instanceof String) {
-                    String originOctet = (String) result;
-                    if (originOctet.startsWith("<") && (index + 1) < size) {
-                        result = fetchList.getObject(index + 1);
-                    }
+            result = getFetchedLiteral(fetchList, "BODY");
+        } else if (fetchList.containsKey("BINARY")) {
+            result = getFetchedLiteral(fetchList, "BINARY");
+        }
+
+        return result;
+    }
+
+    private Object getFetchedLiteral(ImapList fetchList, String key) {
+        Object result = null;
+
+        // Skip the section specifier, e.g. "BODY[1.2]" is parsed as "BODY" followed by the list "[1.2]"
+        int index = fetchList.getKeyIndex(key) + 2;
+        int size = fetchList.size();
+        if (index < size) {
+            result = fetchList.getObject(index);
+
+            // Check if there's an origin octet
+            if (result instanceof String) {
+                String originOctet = (String) result;
+                if (originOctet.startsWith("<") && (index + 1) < size) {
+                    result = fetchList.getObject(index + 1);
                 }
             }
         }
@@ -901,8 +1474,14 @@ public class ImapFolder extends Folder<ImapMessage> {
                             if (K9MailLib.isDebug()) {
                                 Timber.d("Got UidNext = %s for %s", uidNext, getLogId());
                             }
+                        } else if ("UIDVALIDITY".equalsIgnoreCase(key)) {
+                            uidValidity = bracketed.getLong(1);
+                        } else if ("HIGHESTMODSEQ".equalsIgnoreCase(key)) {
+                            highestModSeq = bracketed.getLong(1);
                         }
                     }
+                } else if (bracketed.size() == 1 && ImapResponseParser.equalsIgnoreCase(bracketed.get(0), "NOMODSEQ")) {
+                    highestModSeq = -1L;
                 }
             }
         }
@@ -928,6 +1507,23 @@ public class ImapFolder extends Folder<ImapMessage> {
                     Timber.d("Got untagged EXPUNGE with messageCount %d for %s", messageCount, getLogId());
                 }
             }
+
+            handlePossibleVanished(response);
+        }
+    }
+
+    /**
+     * With QRESYNC enabled the server sends {@code VANISHED} responses instead of {@code EXPUNGE} responses.
+     */
+    private void handlePossibleVanished(ImapResponse response) {
+        VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+        if (vanishedResponse == null || vanishedResponse.isEarlier() || messageCount <= 0) {
+            return;
+        }
+
+        messageCount = Math.max(0, messageCount - vanishedResponse.getUids().size());
+        if (K9MailLib.isDebug()) {
+            Timber.d("Got untagged VANISHED with messageCount %d for %s", messageCount, getLogId());
         }
     }
 
@@ -1098,71 +1694,55 @@ public class ImapFolder extends Folder<ImapMessage> {
         checkOpen();
 
         try {
-            Map<String, String> uidMap = new HashMap<>();
-            for (Message message : messages) {
-                long messageSize = message.calculateSize();
-
-                String encodeFolderName = folderNameCodec.encode(getPrefixedName());
-                String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
-                String combinedFlags = ImapUtility.combineFlags(message.getFlags(),
-                        canCreateKeywords || store.getPermanentFlagsIndex().contains(Flag.FORWARDED));
-                String command = String.format(Locale.US, "APPEND %s (%s) {%d}", escapedFolderName,
-                        combinedFlags, messageSize);
-                connection.sendCommand(command, false);
-
-                ImapResponse response;
-                do {
-                    response = connection.readResponse();
-
-                    handleUntaggedResponse(response);
+            String encodeFolderName = folderNameCodec.encode(getPrefixedName());
+            String escapedFolderName = ImapUtility.encodeString(encodeFolderName);
 
-                    if (response.isContinuationRequested()) {
-                        EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(connection.getOutputStream());
-                        message.writeTo(eolOut);
-                        eolOut.write('\r');
-                        eolOut.write('\n');
-                        eolOut.flush();
-                    }
-                } while (response.getTag() == null);
+            /*
+             * With MULTIAPPEND (RFC 3502) a single APPEND command can upload several messages. The
+             * server either adds all of them or none, so the batch size is limited to keep the damage
+             * of a rejected message small.
+             */
+            int batchSize = connection.isMultiAppendCapable() ? MULTIAPPEND_MAX_MESSAGES : 1;
 
-                if (response.size() > 1) {
-                    /*
-                     * If the server supports UIDPLUS, then along with the APPEND response it
-                     * will return an APPENDUID response code, e.g.
-                     *
-                     * 11 OK [APPENDUID 2 238268] APPEND completed
-                     *
-                     * We can use the UID included in this response to update our records.
-                     */
-                    Object responseList = response.get(1);
+            Map<String, String> uidMap = new HashMap<>();
+            for (int start = 0, count = messages.size(); start < count; start += batchSize) {
+                List<? extends Message> batch = messages.subList(start, Math.min(start + batchSize, count));
 
-                    if (responseList instanceof ImapList) {
-                        ImapList appendList = (ImapList) responseList;
-                        if (appendList.size() >= 3 && appendList.getString(0).equals("APPENDUID")) {
-                            String newUid = appendList.getString(2);
-
-                            if (!TextUtils.isEmpty(newUid)) {
-                                uidMap.put(message.getUid(), newUid);
-                                message.setUid(newUid);
-                                continue;
-                            }
-                        }
-                    }
-                }
+                ImapResponse response = appendMessageBatch(escapedFolderName, batch);
 
                 /*
-                 * This part is executed in case the server does not support UIDPLUS or does
-                 * not implement the APPENDUID response code.
+                 * If the server supports UIDPLUS, then along with the APPEND response it
+                 * will return an APPENDUID response code, e.g.
+                 *
+                 * 11 OK [APPENDUID 2 238268] APPEND completed
+                 *
+                 * For MULTIAPPEND the response code contains the UIDs of all messages, in the order
+                 * the messages were appended, e.g. [APPENDUID 2 238268:238270]
+                 *
+                 * We can use the UIDs included in this response to update our records.
                  */
-                String messageId = extractMessageId(message);
-                String newUid = messageId != null ? getUidFromMessageId(messageId) : null;
-                if (K9MailLib.isDebug()) {
-                    Timber.d("Got UID %s for message for %s", newUid, getLogId());
-                }
+                List<String> newUids = getAppendUids(response, batch.size());
+
+                for (int i = 0, batchCount = batch.size(); i < batchCount; i++) {
+                    Message message = batch.get(i);
+                    String newUid = newUids != null ? newUids.get(i) : null;
+
+                    if (TextUtils.isEmpty(newUid)) {
+                        /*
+                         * This part is executed in case the server does not support UIDPLUS or does
+                         * not implement the APPENDUID response code.
+                         */
+                        String messageId = extractMessageId(message);
+                        newUid = messageId != null ? getUidFromMessageId(messageId) : null;
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Got UID %s for message for %s", newUid, getLogId());
+                        }
+                    }
 
-                if (!TextUtils.isEmpty(newUid)) {
-                    uidMap.put(message.getUid(), newUid);
-                    message.setUid(newUid);
+                    if (!TextUtils.isEmpty(newUid)) {
+                        uidMap.put(message.getUid(), newUid);
+                        message.setUid(newUid);
+                    }
                 }
             }
 
@@ -1177,6 +1757,103 @@ public class ImapFolder extends Folder<ImapMessage> {
         }
     }
 
+    /**
+     * Uploads the given messages using a single {@code APPEND} command.
+     *
+     * <p>
+     * Literals are sent as non-synchronizing literals if the server supports LITERAL+ (RFC 7888), or LITERAL- and
+     * the message is small enough. Otherwise we wait for the server's continuation request before sending a message.
+     * </p>
+     *
+     * @return The tagged response to the command.
+     */
+    private ImapResponse appendMessageBatch(String escapedFolderName, List<? extends Message> messages)
+            throws IOException, MessagingException {
+        boolean literalPlus = connection.isLiteralPlusCapable();
+        boolean literalMinus = connection.isLiteralMinusCapable();
+        boolean canCreateForwardedFlag = canCreateKeywords ||
+                store.getPermanentFlagsIndex().contains(Flag.FORWARDED);
+
+        for (int i = 0, count = messages.size(); i < count; i++) {
+            Message message = messages.get(i);
+            long messageSize = message.calculateSize();
+            boolean nonSynchronizing = literalPlus || (literalMinus && messageSize <= LITERAL_MINUS_MAX_SIZE);
+
+            String combinedFlags = ImapUtility.combineFlags(message.getFlags(), canCreateForwardedFlag);
+            String messageArguments = String.format(Locale.US, "(%s) {%d%s}", combinedFlags, messageSize,
+                    nonSynchronizing ? "+" : "");
+            if (i == 0) {
+                connection.sendCommand("APPEND " + escapedFolderName + " " + messageArguments, false);
+            } else {
+                connection.sendContinuation(" " + messageArguments);
+            }
+
+            if (!nonSynchronizing) {
+                ImapResponse response = readAppendResponse(true);
+                if (!response.isContinuationRequested()) {
+                    // The server rejected the command before we sent the message
+                    return response;
+                }
+            }
+
+            EOLConvertingOutputStream eolOut = new EOLConvertingOutputStream(connection.getOutputStream());
+            message.writeTo(eolOut);
+            eolOut.flush();
+        }
+
+        connection.sendContinuation("");
+
+        return readAppendResponse(false);
+    }
+
+    private ImapResponse readAppendResponse(boolean expectContinuation) throws IOException, MessagingException {
+        ImapResponse response;
+        do {
+            response = connection.readResponse();
+
+            handleUntaggedResponse(response);
+
+            if (expectContinuation && response.isContinuationRequested()) {
+                return response;
+            }
+        } while (response.getTag() == null);
+
+        return response;
+    }
+
+    private List<String> getAppendUids(ImapResponse response, int messageCount) {
+        if (response.size() < 2 || !response.isList(1)) {
+            return null;
+        }
+
+        ImapList appendList = response.getList(1);
+        if (appendList.size() < 3 || !"APPENDUID".equals(appendList.getString(0))) {
+            return null;
+        }
+
+        SequenceSet uidSet;
+        try {
+            uidSet = SequenceSet.parse(appendList.getString(2));
+        } catch (NumberFormatException e) {
+            Timber.w("Invalid APPENDUID response code: %s", response);
+            return null;
+        }
+
+        if (uidSet.getCount() != messageCount) {
+            Timber.w("Number of UIDs in APPENDUID response code doesn't match number of messages: %s", response);
+            return null;
+        }
+
+        List<String> uids = new ArrayList<>(messageCount);
+        for (int i = 0, rangeCount = uidSet.getRangeCount(); i < rangeCount; i++) {
+            for (long uid = uidSet.getRangeStart(i), end = uidSet.getRangeEnd(i); uid <= end; uid++) {
+                uids.add(Long.toString(uid));
+            }
+        }
+
+        return uids;
+    }
+
     private String extractMessageId(Message message) {
         String[] messageIdHeader = message.getHeader("Message-ID");
         return messageIdHeader.length == 0 ? null : messageIdHeader[0];
@@ -1288,22 +1965,31 @@ public class ImapFolder extends Folder<ImapMessage> {
         open(OPEN_MODE_RW);
         checkOpen();
 
-        Set<Long> uids = new HashSet<>(messages.size());
-        for (Message message : messages) {
-            uids.add(Long.parseLong(message.getUid()));
+        Set<Long> uids = getUids(messages);
+        String commandSuffix = createSetFlagsCommandSuffix(flags, value);
+
+        try {
+            connection.executeCommandWithIdSet(Commands.UID_STORE, commandSuffix, uids);
+        } catch (IOException ioe) {
+            throw ioExceptionHandler(connection, ioe);
         }
+    }
 
+    private String createSetFlagsCommandSuffix(Set<Flag> flags, boolean value) {
         boolean canCreateForwardedFlag = canCreateKeywords ||
                 store.getPermanentFlagsIndex().contains(Flag.FORWARDED);
 
         String combinedFlags = ImapUtility.combineFlags(flags, canCreateForwardedFlag);
-        String commandSuffix = String.format("%sFLAGS.SILENT (%s)", value ? "+" : "-", combinedFlags);
+        return String.format("%sFLAGS.SILENT (%s)", value ? "+" : "-", combinedFlags);
+    }
 
-        try {
-            connection.executeCommandWithIdSet(Commands.UID_STORE, commandSuffix, uids);
-        } catch (IOException ioe) {
-            throw ioExceptionHandler(connection, ioe);
+    private static Set<Long> getUids(List<? extends Message> messages) {
+        Set<Long> uids = new HashSet<>(messages.size());
+        for (Message message : messages) {
+            uids.add(Long.parseLong(message.getUid()));
         }
+
+        return uids;
     }
 
     private void checkOpen() throws MessagingException {
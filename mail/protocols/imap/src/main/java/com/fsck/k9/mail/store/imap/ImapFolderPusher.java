@@ -20,7 +20,6 @@ import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.PushReceiver;
 import com.fsck.k9.mail.power.PowerManager;
 import com.fsck.k9.mail.power.WakeLock;
-import com.fsck.k9.mail.store.RemoteStore;
 import timber.log.Timber;
 
 import static com.fsck.k9.mail.K9MailLib.PUSH_WAKE_LOCK_TIMEOUT;
@@ -59,7 +58,8 @@ class ImapFolderPusher extends ImapFolder {
                 throw new IllegalStateException("start() called twice");
             }
 
-            listeningThread = new Thread(new PushRunnable());
+            String threadName = "ImapFolderPusher " + getServerId();
+            listeningThread = new Thread(new PushRunnable(), threadName);
             listeningThread.start();
         }
     }
@@ -100,7 +100,7 @@ class ImapFolderPusher extends ImapFolder {
         if (response.getTag() == null && response.size() > 1) {
             Object responseType = response.get(1);
             if (equalsIgnoreCase(responseType, "FETCH") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                    equalsIgnoreCase(responseType, "EXISTS")) {
+                    equalsIgnoreCase(responseType, "EXISTS") || equalsIgnoreCase(response.get(0), "VANISHED")) {
 
                 if (K9MailLib.isDebug()) {
                     Timber.d("Storing response %s for later processing", response);
@@ -128,6 +128,7 @@ class ImapFolderPusher extends ImapFolder {
         @Override
         public void run() {
             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+            store.pushConnectionStarted();
 
             if (K9MailLib.isDebug()) {
                 Timber.i("Pusher starting for %s", getLogId());
@@ -239,6 +240,7 @@ class ImapFolderPusher extends ImapFolder {
             } catch (Exception me) {
                 Timber.e(me, "Got exception while closing for %s", getLogId());
             } finally {
+                store.pushConnectionStopped();
                 wakeLock.release();
             }
         }
@@ -381,7 +383,7 @@ class ImapFolderPusher extends ImapFolder {
                     if (response.size() > 1) {
                         Object responseType = response.get(1);
                         if (equalsIgnoreCase(responseType, "EXISTS") || equalsIgnoreCase(responseType, "EXPUNGE") ||
-                                equalsIgnoreCase(responseType, "FETCH")) {
+                                equalsIgnoreCase(responseType, "FETCH") || equalsIgnoreCase(response.get(0), "VANISHED")) {
 
                             wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
 
@@ -522,34 +524,35 @@ class ImapFolderPusher extends ImapFolder {
 
                         flagSyncMsgSeqs.addAll(newSeqs);
 
-                        List<Long> msgSeqs = new ArrayList<>(msgSeqUidMap.keySet());
-                        Collections.sort(msgSeqs);  // Have to do comparisons in order because of msgSeq reductions
+                        synchronized (msgSeqUidMap) {
+                            long uid = msgSeqUidMap.get(msgSeq, -1L);
+                            if (uid != -1L) {
+                                if (K9MailLib.isDebug()) {
+                                    Timber.d("Scheduling removal of UID %d because msgSeq %d was expunged", uid, msgSeq);
+                                }
 
-                        for (long msgSeqNum : msgSeqs) {
-                            if (K9MailLib.isDebug()) {
-                                Timber.v("Comparing EXPUNGEd msgSeq %d to %d", msgSeq, msgSeqNum);
+                                removeMsgUids.add(Long.toString(uid));
                             }
 
-                            if (msgSeqNum == msgSeq) {
-                                String uid = msgSeqUidMap.get(msgSeqNum);
-
-                                if (K9MailLib.isDebug()) {
-                                    Timber.d("Scheduling removal of UID %s because msgSeq %d was expunged", uid, msgSeqNum);
-                                }
+                            // Reduce the msgSeq of all following messages
+                            msgSeqUidMap.removeAndShiftFollowingKeys(msgSeq);
+                        }
+                    }
 
-                                removeMsgUids.add(uid);
-                                msgSeqUidMap.remove(msgSeqNum);
-                            } else if (msgSeqNum > msgSeq) {
-                                String uid = msgSeqUidMap.get(msgSeqNum);
+                    VanishedResponse vanishedResponse = VanishedResponse.parse(response);
+                    if (vanishedResponse != null && !vanishedResponse.isEarlier()) {
+                        List<String> vanishedUids = vanishedResponse.getUids();
 
-                                if (K9MailLib.isDebug()) {
-                                    Timber.d("Reducing msgSeq for UID %s from %d to %d", uid, msgSeqNum, (msgSeqNum - 1));
-                                }
+                        if (K9MailLib.isDebug()) {
+                            Timber.d("Got untagged VANISHED for UIDs %s for %s", vanishedUids, getLogId());
+                        }
 
-                                msgSeqUidMap.remove(msgSeqNum);
-                                msgSeqUidMap.put(msgSeqNum - 1, uid);
-                            }
+                        // VANISHED doesn't include message sequence numbers, so we can't adjust the mapping
+                        messageCountDelta = -vanishedUids.size();
+                        synchronized (msgSeqUidMap) {
+                            msgSeqUidMap.clear();
                         }
+                        removeMsgUids.addAll(vanishedUids);
                     }
                 } catch (Exception e) {
                     Timber.e(e, "Could not handle untagged FETCH for %s", getLogId());
@@ -617,7 +620,9 @@ class ImapFolderPusher extends ImapFolder {
                 List<ImapMessage> existingMessages = getMessagesFromUids(removeUids);
                 for (Message existingMessage : existingMessages) {
                     needsPoll = true;
-                    msgSeqUidMap.clear();
+                    synchronized (msgSeqUidMap) {
+                        msgSeqUidMap.clear();
+                    }
 
                     String existingUid = existingMessage.getUid();
                     Timber.w("Message with UID %s still exists on server, not expunging", existingUid);
@@ -686,43 +691,4 @@ class ImapFolderPusher extends ImapFolder {
             return oldUidNext;
         }
     }
-
-    /**
-     * Ensure the DONE continuation is only sent when the IDLE command was sent and hasn't completed yet.
-     */
-    private static class IdleStopper {
-        private boolean acceptDoneContinuation = false;
-        private ImapConnection imapConnection;
-
-
-        public synchronized void startAcceptingDoneContinuation(ImapConnection connection) {
-            if (connection == null) {
-                throw new NullPointerException("connection must not be null");
-            }
-
-            acceptDoneContinuation = true;
-            imapConnection = connection;
-        }
-
-        public synchronized void stopAcceptingDoneContinuation() {
-            acceptDoneContinuation = false;
-            imapConnection = null;
-        }
-
-        public synchronized void stopIdle() {
-            if (acceptDoneContinuation) {
-                acceptDoneContinuation = false;
-                sendDone();
-            }
-        }
-
-        private void sendDone() {
-            try {
-                imapConnection.setReadTimeout(RemoteStore.SOCKET_READ_TIMEOUT);
-                imapConnection.sendContinuation("DONE");
-            } catch (IOException e) {
-                imapConnection.close();
-            }
-        }
-    }
 }
@@ -10,6 +10,10 @@ import com.fsck.k9.mail.internet.MimeMessage;
 
 
 public class ImapMessage extends MimeMessage {
+    private String emailId;
+    private String preview;
+
+
     ImapMessage(String uid, Folder folder) {
         this.mUid = uid;
         this.mFolder = folder;
@@ -19,6 +23,30 @@ public class ImapMessage extends MimeMessage {
         this.mSize = size;
     }
 
+    /**
+     * @return The {@code EMAILID} (RFC 8474) of the message, or {@code null} if the server didn't report one. It is
+     *         the same for all copies of a message, even in different folders.
+     */
+    public String getEmailId() {
+        return emailId;
+    }
+
+    public void setEmailId(String emailId) {
+        this.emailId = emailId;
+    }
+
+    /**
+     * @return The preview text generated by the server ({@code PREVIEW}, RFC 8970), or {@code null} if it wasn't
+     *         requested or the server couldn't generate one.
+     */
+    public String getPreview() {
+        return preview;
+    }
+
+    public void setPreview(String preview) {
+        this.preview = preview;
+    }
+
     public void setFlagInternal(Flag flag, boolean set) throws MessagingException {
         super.setFlag(flag, set);
     }
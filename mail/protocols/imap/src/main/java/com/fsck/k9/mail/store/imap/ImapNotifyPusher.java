@@ -0,0 +1,611 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fsck.k9.mail.AuthenticationFailedException;
+import com.fsck.k9.mail.CertificateValidationException;
+import com.fsck.k9.mail.K9MailLib;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.PushReceiver;
+import com.fsck.k9.mail.power.PowerManager;
+import com.fsck.k9.mail.power.WakeLock;
+import timber.log.Timber;
+
+import static com.fsck.k9.mail.K9MailLib.PUSH_WAKE_LOCK_TIMEOUT;
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+/**
+ * Watches a set of folders for changes using a single connection and the {@code NOTIFY} extension (RFC 5465).
+ *
+ * <p>
+ * No folder is selected on the connection. While the connection is idling the server reports changes to the watched
+ * folders using untagged {@code STATUS} responses. New messages are reported to the {@link PushReceiver} directly, all
+ * other changes trigger a sync of the affected folder.
+ * </p>
+ *
+ * <p>
+ * If the server doesn't support {@code NOTIFY}, or rejects the command, the folders are handed back to
+ * {@link ImapPusher} via
+ * {@link FallbackHandler} so they can be watched using one {@link ImapFolderPusher} per folder.
+ * </p>
+ */
+class ImapNotifyPusher {
+    private static final int IDLE_READ_TIMEOUT_INCREMENT = 5 * 60 * 1000;
+    private static final int IDLE_FAILURE_COUNT_LIMIT = 10;
+    private static final int MAX_DELAY_TIME = 5 * 60 * 1000; // 5 minutes
+    private static final int NORMAL_DELAY_TIME = 5000;
+    private static final String EVENTS = "MessageNew MessageExpunge";
+    private static final String EVENTS_WITH_FLAG_CHANGE = "MessageNew MessageExpunge FlagChange";
+    private static final String INBOX = "INBOX";
+
+
+    private final ImapStore store;
+    private final List<String> folderServerIds;
+    private final PushReceiver pushReceiver;
+    private final FallbackHandler fallbackHandler;
+    private final Object threadLock = new Object();
+    private final IdleStopper idleStopper = new IdleStopper();
+    private final WakeLock wakeLock;
+    private final List<ImapResponse> storedUntaggedResponses = new ArrayList<>();
+    private final Map<String, String> serverIdsByEncodedName = new HashMap<>();
+    private Thread listeningThread;
+    private volatile ImapConnection connection;
+    private volatile boolean stop = false;
+    private volatile boolean idling = false;
+
+
+    ImapNotifyPusher(ImapStore store, List<String> folderServerIds, PushReceiver pushReceiver,
+            PowerManager powerManager, FallbackHandler fallbackHandler) {
+        this.store = store;
+        this.folderServerIds = new ArrayList<>(folderServerIds);
+        this.pushReceiver = pushReceiver;
+        this.fallbackHandler = fallbackHandler;
+
+        String tag = "ImapNotifyPusher " + store.getStoreConfig().toString();
+        wakeLock = powerManager.newWakeLock(tag);
+        wakeLock.setReferenceCounted(false);
+    }
+
+    public void start() {
+        synchronized (threadLock) {
+            if (listeningThread != null) {
+                throw new IllegalStateException("start() called twice");
+            }
+
+            listeningThread = new Thread(new PushRunnable(), "ImapNotifyPusher");
+            listeningThread.start();
+        }
+    }
+
+    public void refresh() {
+        if (idling) {
+            wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+            idleStopper.stopIdle();
+        }
+    }
+
+    public void stop() {
+        synchronized (threadLock) {
+            if (listeningThread == null) {
+                throw new IllegalStateException("stop() called twice");
+            }
+
+            stop = true;
+
+            listeningThread.interrupt();
+            listeningThread = null;
+        }
+
+        ImapConnection conn = connection;
+        if (conn != null) {
+            if (K9MailLib.isDebug()) {
+                Timber.v("Closing connection to stop pushing for %s", getLogId());
+            }
+
+            conn.close();
+        }
+    }
+
+    List<String> getFolderServerIds() {
+        return Collections.unmodifiableList(folderServerIds);
+    }
+
+    private String getLogId() {
+        ImapConnection conn = connection;
+        return "NOTIFY " + folderServerIds + (conn != null ? "/" + conn.getLogId() : "");
+    }
+
+    private static String normalizeEncodedName(String encodedName) {
+        return INBOX.equalsIgnoreCase(encodedName) ? INBOX : encodedName;
+    }
+
+    private static boolean hasResponseCode(ImapResponse response, String responseCode) {
+        if (response.size() < 2 || !response.isList(1)) {
+            return false;
+        }
+
+        ImapList responseTextCode = response.getList(1);
+        return !responseTextCode.isEmpty() && equalsIgnoreCase(responseTextCode.get(0), responseCode);
+    }
+
+
+    interface FallbackHandler {
+        /**
+         * Called from the pusher's thread when the server turned out not to support {@code NOTIFY}. The pusher exits
+         * right after this method returns.
+         */
+        void onNotifyNotSupported(ImapNotifyPusher pusher);
+    }
+
+
+    private class PushRunnable implements Runnable, UntaggedHandler {
+        private int delayTime = NORMAL_DELAY_TIME;
+        private int idleFailureCount = 0;
+        private boolean notifyActive = false;
+        private boolean pushActive = false;
+
+        @Override
+        public void run() {
+            wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+            store.pushConnectionStarted();
+
+            if (K9MailLib.isDebug()) {
+                Timber.i("Pusher starting for %s", getLogId());
+            }
+
+            while (!stop) {
+                try {
+                    boolean openedNewConnection = openConnectionIfNecessary();
+
+                    if (stop) {
+                        break;
+                    }
+
+                    if (!connection.hasCapability(Capabilities.NOTIFY)) {
+                        fallBackToFolderPushers();
+                        break;
+                    }
+
+                    if (openedNewConnection || !notifyActive) {
+                        if (!setUpNotifications()) {
+                            fallBackToFolderPushers();
+                            break;
+                        }
+
+                        boolean pushPollOnConnect = store.getStoreConfig().isPushPollOnConnect();
+                        if (pushPollOnConnect && openedNewConnection) {
+                            syncFolders(folderServerIds);
+                        }
+                    }
+
+                    if (stop) {
+                        break;
+                    }
+
+                    if (processStoredUntaggedResponses()) {
+                        continue;
+                    }
+
+                    if (K9MailLib.isDebug()) {
+                        Timber.i("About to IDLE for %s", getLogId());
+                    }
+
+                    prepareForIdle();
+
+                    ImapConnection conn = connection;
+                    setReadTimeoutForIdle(conn);
+                    sendIdle(conn);
+
+                    returnFromIdle();
+                } catch (AuthenticationFailedException e) {
+                    reacquireWakeLockAndCleanUp();
+
+                    if (K9MailLib.isDebug()) {
+                        Timber.e(e, "Authentication failed. Stopping ImapNotifyPusher.");
+                    }
+
+                    pushReceiver.authenticationFailed();
+                    stop = true;
+                } catch (CertificateValidationException e) {
+                    reacquireWakeLockAndCleanUp();
+
+                    Timber.e(e, "Certificate check failed. Stopping ImapNotifyPusher.");
+                    stop = true;
+                    pushReceiver.pushError("Push error for " + folderServerIds, e);
+                } catch (Exception e) {
+                    reacquireWakeLockAndCleanUp();
+
+                    if (stop) {
+                        Timber.i("Got exception while idling, but stop is set for %s", getLogId());
+                    } else {
+                        pushReceiver.pushError("Push error for " + folderServerIds, e);
+                        Timber.e("Got exception while idling for %s", getLogId());
+
+                        pushReceiver.sleep(wakeLock, delayTime);
+
+                        delayTime *= 2;
+                        if (delayTime > MAX_DELAY_TIME) {
+                            delayTime = MAX_DELAY_TIME;
+                        }
+
+                        idleFailureCount++;
+                        if (idleFailureCount > IDLE_FAILURE_COUNT_LIMIT) {
+                            Timber.e("Disabling pusher for %s after %d consecutive errors", getLogId(),
+                                    idleFailureCount);
+                            pushReceiver.pushError("Push disabled for " + folderServerIds + " after " +
+                                    idleFailureCount + " consecutive errors", e);
+                            stop = true;
+                        }
+                    }
+                }
+            }
+
+            setPushActive(false);
+
+            try {
+                if (K9MailLib.isDebug()) {
+                    Timber.i("Pusher for %s is exiting", getLogId());
+                }
+
+                ImapConnection conn = connection;
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (Exception me) {
+                Timber.e(me, "Got exception while closing for %s", getLogId());
+            } finally {
+                store.pushConnectionStopped();
+                wakeLock.release();
+            }
+        }
+
+        private void reacquireWakeLockAndCleanUp() {
+            wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+
+            clearStoredUntaggedResponses();
+            idling = false;
+            notifyActive = false;
+            setPushActive(false);
+
+            try {
+                ImapConnection conn = connection;
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (Exception me) {
+                Timber.e(me, "Got exception while closing for exception for %s", getLogId());
+            }
+
+            connection = null;
+        }
+
+        private boolean openConnectionIfNecessary() throws MessagingException, IOException {
+            ImapConnection conn = connection;
+            if (conn != null && conn.isConnected()) {
+                return false;
+            }
+
+            conn = store.createImapConnection();
+            connection = conn;
+            conn.open();
+
+            if (!conn.isIdleCapable()) {
+                stop = true;
+
+                String message = "IMAP server is not IDLE capable: " + conn.toString();
+                pushReceiver.pushError(message, null);
+
+                throw new MessagingException(message);
+            }
+
+            return true;
+        }
+
+        private void fallBackToFolderPushers() {
+            if (K9MailLib.isDebug()) {
+                Timber.i("NOTIFY not available, falling back to IDLE for %s", getLogId());
+            }
+
+            stop = true;
+
+            // The folder pushers will need connections, so hand this one to the pool instead of closing it.
+            ImapConnection conn = connection;
+            connection = null;
+            store.releaseConnection(conn);
+
+            fallbackHandler.onNotifyNotSupported(ImapNotifyPusher.this);
+        }
+
+        /**
+         * @return {@code false} if the server rejected the {@code NOTIFY} command.
+         */
+        private boolean setUpNotifications() throws MessagingException, IOException {
+            serverIdsByEncodedName.clear();
+
+            StringBuilder mailboxes = new StringBuilder();
+            for (String serverId : folderServerIds) {
+                String encodedName = new ImapFolder(store, serverId).getEncodedName();
+                serverIdsByEncodedName.put(normalizeEncodedName(encodedName), serverId);
+
+                if (mailboxes.length() > 0) {
+                    mailboxes.append(' ');
+                }
+                mailboxes.append(ImapUtility.encodeString(encodedName));
+            }
+
+            List<ImapResponse> responses;
+            try {
+                try {
+                    responses = executeNotifySet(mailboxes, EVENTS_WITH_FLAG_CHANGE);
+                } catch (NegativeImapResponseException e) {
+                    if (!hasResponseCode(e.getLastResponse(), Responses.BADEVENT)) {
+                        throw e;
+                    }
+
+                    // Servers aren't required to report flag changes for folders that aren't selected
+                    if (K9MailLib.isDebug()) {
+                        Timber.d("Server doesn't report flag changes for unselected folders for %s", getLogId());
+                    }
+
+                    responses = executeNotifySet(mailboxes, EVENTS);
+                }
+            } catch (NegativeImapResponseException e) {
+                Timber.w(e, "Server rejected NOTIFY for %s", getLogId());
+                return false;
+            }
+
+            storeUntaggedResponses(responses);
+            notifyActive = true;
+
+            return true;
+        }
+
+        private List<ImapResponse> executeNotifySet(StringBuilder mailboxes, String events)
+                throws MessagingException, IOException {
+            String command = String.format("%s (MAILBOXES (%s) (%s))", Commands.NOTIFY_SET, mailboxes, events);
+            return connection.executeSimpleCommand(command);
+        }
+
+        private void prepareForIdle() {
+            setPushActive(true);
+            idling = true;
+        }
+
+        private void setPushActive(boolean active) {
+            if (pushActive == active) {
+                return;
+            }
+
+            pushActive = active;
+            for (String serverId : folderServerIds) {
+                pushReceiver.setPushActive(serverId, active);
+            }
+        }
+
+        private void sendIdle(ImapConnection conn) throws MessagingException, IOException {
+            String tag = conn.sendCommand(Commands.IDLE, false);
+
+            try {
+                try {
+                    conn.readStatusResponse(tag, Commands.IDLE, this);
+                } finally {
+                    idleStopper.stopAcceptingDoneContinuation();
+                }
+            } catch (IOException e) {
+                conn.close();
+                throw e;
+            }
+        }
+
+        private void returnFromIdle() {
+            idling = false;
+            delayTime = NORMAL_DELAY_TIME;
+            idleFailureCount = 0;
+        }
+
+        private void setReadTimeoutForIdle(ImapConnection conn) throws SocketException {
+            int idleRefreshTimeout = store.getStoreConfig().getIdleRefreshMinutes() * 60 * 1000;
+            conn.setReadTimeout(idleRefreshTimeout + IDLE_READ_TIMEOUT_INCREMENT);
+        }
+
+        @Override
+        public void handleAsyncUntaggedResponse(ImapResponse response) {
+            if (K9MailLib.isDebug()) {
+                Timber.v("Got async response: %s", response);
+            }
+
+            if (stop) {
+                if (K9MailLib.isDebug()) {
+                    Timber.d("Got async untagged response: %s, but stop is set for %s", response, getLogId());
+                }
+
+                idleStopper.stopIdle();
+            } else if (response.getTag() == null) {
+                if (isUsefulResponse(response)) {
+                    wakeLock.acquire(PUSH_WAKE_LOCK_TIMEOUT);
+
+                    if (K9MailLib.isDebug()) {
+                        Timber.d("Got useful async untagged response: %s for %s", response, getLogId());
+                    }
+
+                    storeUntaggedResponse(response);
+                    idleStopper.stopIdle();
+                } else if (response.isContinuationRequested()) {
+                    if (K9MailLib.isDebug()) {
+                        Timber.d("Idling %s", getLogId());
+                    }
+
+                    idleStopper.startAcceptingDoneContinuation(connection);
+                    wakeLock.release();
+                }
+            }
+        }
+
+        private boolean isUsefulResponse(ImapResponse response) {
+            return StatusResponse.parse(response) != null || isNotificationOverflow(response);
+        }
+
+        private boolean isNotificationOverflow(ImapResponse response) {
+            return equalsIgnoreCase(response.get(0), Responses.OK) &&
+                    hasResponseCode(response, Responses.NOTIFICATIONOVERFLOW);
+        }
+
+        private void storeUntaggedResponses(List<ImapResponse> responses) {
+            for (ImapResponse response : responses) {
+                if (response.getTag() == null && isUsefulResponse(response)) {
+                    storeUntaggedResponse(response);
+                }
+            }
+        }
+
+        private void storeUntaggedResponse(ImapResponse response) {
+            synchronized (storedUntaggedResponses) {
+                storedUntaggedResponses.add(response);
+            }
+        }
+
+        private void clearStoredUntaggedResponses() {
+            synchronized (storedUntaggedResponses) {
+                storedUntaggedResponses.clear();
+            }
+        }
+
+        private List<ImapResponse> getAndClearStoredUntaggedResponses() {
+            synchronized (storedUntaggedResponses) {
+                if (storedUntaggedResponses.isEmpty()) {
+                    return Collections.emptyList();
+                }
+
+                List<ImapResponse> untaggedResponses = new ArrayList<>(storedUntaggedResponses);
+                storedUntaggedResponses.clear();
+
+                return untaggedResponses;
+            }
+        }
+
+        /**
+         * @return {@code true} if the server stopped sending notifications and they have to be set up again.
+         */
+        private boolean processStoredUntaggedResponses() throws MessagingException {
+            List<ImapResponse> untaggedResponses = getAndClearStoredUntaggedResponses();
+            if (untaggedResponses.isEmpty()) {
+                return false;
+            }
+
+            if (K9MailLib.isDebug()) {
+                Timber.i("Processing %d untagged responses for %s", untaggedResponses.size(), getLogId());
+            }
+
+            // Only the most recent status of a folder is interesting
+            Map<String, StatusResponse> changedFolders = new LinkedHashMap<>();
+            for (ImapResponse response : untaggedResponses) {
+                if (isNotificationOverflow(response)) {
+                    Timber.w("Server stopped sending notifications for %s", getLogId());
+
+                    notifyActive = false;
+                    syncFolders(folderServerIds);
+
+                    return true;
+                }
+
+                StatusResponse statusResponse = StatusResponse.parse(response);
+                String serverId = serverIdsByEncodedName.get(
+                        normalizeEncodedName(statusResponse.getEncodedFolderName()));
+                if (serverId == null) {
+                    Timber.w("Got STATUS response for unknown folder %s", statusResponse.getEncodedFolderName());
+                } else {
+                    changedFolders.put(serverId, statusResponse);
+                }
+            }
+
+            for (Map.Entry<String, StatusResponse> entry : changedFolders.entrySet()) {
+                processFolderChange(entry.getKey(), entry.getValue().getUidNext());
+            }
+
+            return false;
+        }
+
+        private void syncFolders(List<String> serverIds) throws MessagingException {
+            for (String serverId : serverIds) {
+                processFolderChange(serverId, -1L);
+            }
+        }
+
+        private void processFolderChange(String serverId, long newUidNext) throws MessagingException {
+            // The receiver expects a folder it can use right away
+            ImapFolder folder = new ImapFolder(store, serverId);
+            try {
+                folder.open(ImapFolder.OPEN_MODE_RO);
+
+                long oldUidNext = getOldUidNext(serverId);
+                long startUid = getStartUid(oldUidNext, newUidNext);
+
+                if (newUidNext != -1L && oldUidNext != -1L && newUidNext > startUid) {
+                    notifyMessagesArrived(folder, startUid, newUidNext);
+                } else {
+                    pushReceiver.syncFolder(folder);
+                }
+            } catch (AuthenticationFailedException | CertificateValidationException e) {
+                throw e;
+            } catch (MessagingException e) {
+                pushReceiver.pushError("Push error for " + serverId, e);
+            } finally {
+                folder.close();
+            }
+        }
+
+        private long getStartUid(long oldUidNext, long newUidNext) {
+            long startUid = oldUidNext;
+            int displayCount = store.getStoreConfig().getDisplayCount();
+
+            if (startUid < newUidNext - displayCount) {
+                startUid = newUidNext - displayCount;
+            }
+
+            if (startUid < 1) {
+                startUid = 1;
+            }
+
+            return startUid;
+        }
+
+        private void notifyMessagesArrived(ImapFolder folder, long startUid, long uidNext) {
+            if (K9MailLib.isDebug()) {
+                Timber.i("Needs sync from uid %d to %d for %s", startUid, uidNext, folder.getLogId());
+            }
+
+            int count = (int) (uidNext - startUid);
+            List<Message> messages = new ArrayList<>(count);
+
+            for (long uid = startUid; uid < uidNext; uid++) {
+                ImapMessage message = new ImapMessage(Long.toString(uid), folder);
+                messages.add(message);
+            }
+
+            pushReceiver.messagesArrived(folder, messages);
+        }
+
+        private long getOldUidNext(String serverId) {
+            long oldUidNext = -1L;
+            try {
+                String serializedPushState = pushReceiver.getPushState(serverId);
+                ImapPushState pushState = ImapPushState.parse(serializedPushState);
+                oldUidNext = pushState.uidNext;
+            } catch (Exception e) {
+                Timber.e(e, "Unable to get oldUidNext for %s", serverId);
+            }
+
+            return oldUidNext;
+        }
+    }
+}
@@ -11,12 +11,18 @@ import com.fsck.k9.mail.power.PowerManager;
 import timber.log.Timber;
 
 
+/**
+ * Watches folders for changes using {@code NOTIFY} when the server supports it and watching more than one folder, and
+ * using one {@code IDLE} connection per folder otherwise.
+ */
 public class ImapPusher implements Pusher {
     private final ImapStore store;
     private final PushReceiver pushReceiver;
     private final PowerManager powerManager;
 
     private final List<ImapFolderPusher> folderPushers = new ArrayList<>();
+    private ImapNotifyPusher notifyPusher;
+    private volatile boolean notifyUnsupported = false;
 
     private long lastRefresh = -1;
 
@@ -34,18 +40,49 @@ public class ImapPusher implements Pusher {
 
             setLastRefresh(currentTimeMillis());
 
-            for (String folderName : folderServerIds) {
-                ImapFolderPusher pusher = createImapFolderPusher(folderName);
-                folderPushers.add(pusher);
+            if (folderServerIds.size() > 1 && !notifyUnsupported) {
+                notifyPusher = createImapNotifyPusher(folderServerIds);
+                notifyPusher.start();
+            } else {
+                startFolderPushers(folderServerIds);
+            }
+        }
+    }
+
+    private void startFolderPushers(List<String> folderServerIds) {
+        for (String folderName : folderServerIds) {
+            ImapFolderPusher pusher = createImapFolderPusher(folderName);
+            folderPushers.add(pusher);
+
+            pusher.start();
+        }
+    }
+
+    void fallBackToFolderPushers(ImapNotifyPusher pusher) {
+        synchronized (folderPushers) {
+            notifyUnsupported = true;
 
-                pusher.start();
+            // Ignore the callback if the pusher was replaced or stopped in the meantime
+            if (pusher != notifyPusher) {
+                return;
             }
+
+            notifyPusher = null;
+            startFolderPushers(pusher.getFolderServerIds());
         }
     }
 
     @Override
     public void refresh() {
         synchronized (folderPushers) {
+            if (notifyPusher != null) {
+                try {
+                    notifyPusher.refresh();
+                } catch (Exception e) {
+                    Timber.e(e, "Got exception while refreshing NOTIFY pusher");
+                }
+            }
+
             for (ImapFolderPusher folderPusher : folderPushers) {
                 try {
                     folderPusher.refresh();
@@ -63,6 +100,16 @@ public class ImapPusher implements Pusher {
         }
 
         synchronized (folderPushers) {
+            if (notifyPusher != null) {
+                try {
+                    notifyPusher.stop();
+                } catch (Exception e) {
+                    Timber.e(e, "Got exception while stopping NOTIFY pusher");
+                }
+
+                notifyPusher = null;
+            }
+
             for (ImapFolderPusher folderPusher : folderPushers) {
                 try {
                     if (K9MailLib.isDebug()) {
@@ -98,6 +145,16 @@ public class ImapPusher implements Pusher {
         return new ImapFolderPusher(store, folderName, pushReceiver, powerManager);
     }
 
+    ImapNotifyPusher createImapNotifyPusher(List<String> folderServerIds) {
+        return new ImapNotifyPusher(store, folderServerIds, pushReceiver, powerManager,
+                new ImapNotifyPusher.FallbackHandler() {
+                    @Override
+                    public void onNotifyNotSupported(ImapNotifyPusher pusher) {
+                        fallBackToFolderPushers(pusher);
+                    }
+                });
+    }
+
     long currentTimeMillis() {
         return System.currentTimeMillis();
     }
@@ -15,13 +15,21 @@ import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_IMAP;
 
 
 class ImapResponseParser {
+    private final ImapTokenBuffer tokenBuffer = new ImapTokenBuffer();
+    private final ImapCommandMeter commandMeter;
     private PeekableInputStream inputStream;
     private ImapResponse response;
     private Exception exception;
+    private long responseStartNanos;
 
 
     public ImapResponseParser(PeekableInputStream in) {
+        this(in, null);
+    }
+
+    ImapResponseParser(PeekableInputStream in, ImapCommandMeter commandMeter) {
         this.inputStream = in;
+        this.commandMeter = commandMeter;
     }
 
     public ImapResponse readResponse() throws IOException {
@@ -32,8 +40,10 @@ class ImapResponseParser {
      * Reads the next response available on the stream and returns an {@code ImapResponse} object that represents it.
      */
     public ImapResponse readResponse(ImapResponseCallback callback) throws IOException {
+        long startTime = System.nanoTime();
         try {
             int peek = inputStream.peek();
+            responseStartNanos = System.nanoTime();
             if (peek == '+') {
                 readContinuationRequest(callback);
             } else if (peek == '*') {
@@ -46,6 +56,10 @@ class ImapResponseParser {
                 throw new ImapResponseParserException("readResponse(): Exception in callback method", exception);
             }
 
+            if (commandMeter != null) {
+                commandMeter.responseRead(response, System.nanoTime() - startTime);
+            }
+
             return response;
         } finally {
             response = null;
@@ -53,6 +67,14 @@ class ImapResponseParser {
         }
     }
 
+    /**
+     * @return The value of {@link System#nanoTime()} when the first byte of the last response read by
+     *         {@link #readResponse(ImapResponseCallback)} arrived.
+     */
+    long getResponseStartNanos() {
+        return responseStartNanos;
+    }
+
     private void readContinuationRequest(ImapResponseCallback callback) throws IOException {
         parseCommandContinuationRequest();
         response = ImapResponse.newContinuationRequest(callback);
@@ -121,6 +143,63 @@ class ImapResponseParser {
         return responses;
     }
 
+    /**
+     * Reads responses until one of several commands that have been sent back-to-back without waiting for the server
+     * to complete the previous command completes.
+     *
+     * <p>
+     * Responses are demultiplexed by tag. Untagged responses are attributed to the command whose tagged response is
+     * received next. Tagged responses to other commands are ignored.
+     * </p>
+     *
+     * @param tags
+     *         The tags of the commands in flight.
+     * @param responses
+     *         Receives the untagged responses followed by the tagged response of the completed command.
+     *
+     * @return The index of the completed command in {@code tags}.
+     */
+    int readPipelinedStatusResponse(List<String> tags, List<ImapResponse> responses, String logId,
+            UntaggedHandler untaggedHandler) throws IOException {
+        while (true) {
+            ImapResponse response = readResponse();
+
+            if (K9MailLib.isDebug() && DEBUG_PROTOCOL_IMAP) {
+                Timber.v("%s<<<%s", logId, response);
+            }
+
+            String tag = response.getTag();
+            if (tag == null) {
+                if (untaggedHandler != null) {
+                    untaggedHandler.handleAsyncUntaggedResponse(response);
+                }
+
+                responses.add(response);
+                continue;
+            }
+
+            int commandIndex = indexOfTag(tags, tag);
+            if (commandIndex == -1) {
+                Timber.w("After sending tags %s, got tag response from previous command %s for %s", tags, response,
+                        logId);
+                continue;
+            }
+
+            responses.add(response);
+            return commandIndex;
+        }
+    }
+
+    private static int indexOfTag(List<String> tags, String tag) {
+        for (int i = 0, count = tags.size(); i < count; i++) {
+            if (tags.get(i).equalsIgnoreCase(tag)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
     private void readTokens(ImapResponse response) throws IOException {
         response.clear();
 
@@ -241,6 +320,8 @@ class ImapResponseParser {
                 return parseQuoted();
             } else if (ch == '{') {
                 return parseLiteral();
+            } else if (ch == '~') {
+                return parseLiteral8OrBareString();
             } else if (ch == ' ') {
                 expect(' ');
             } else if (ch == '\r') {
@@ -308,8 +389,25 @@ class ImapResponseParser {
     }
 
     private String parseBareString(boolean allowBrackets) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        tokenBuffer.clear();
+        return readBareStringIntoTokenBuffer(allowBrackets);
+    }
 
+    /**
+     * A literal8 as defined in RFC 3516 starts with "~{". Otherwise "~" is just the first character of an atom.
+     */
+    private Object parseLiteral8OrBareString() throws IOException {
+        expect('~');
+        if (inputStream.peek() == '{') {
+            return parseLiteral();
+        }
+
+        tokenBuffer.clear();
+        tokenBuffer.append('~');
+        return readBareStringIntoTokenBuffer(true);
+    }
+
+    private String readBareStringIntoTokenBuffer(boolean allowBrackets) throws IOException {
         int ch;
         while (true) {
             ch = inputStream.peek();
@@ -321,13 +419,13 @@ class ImapResponseParser {
                     ch == '{' || ch == ' ' || ch == '"' ||
                     (ch >= 0x00 && ch <= 0x1f) || ch == 0x7f) {
 
-                if (sb.length() == 0) {
+                if (tokenBuffer.length() == 0) {
                     throw new IOException(String.format("parseBareString(): (%04x %c)", ch, ch));
                 }
 
-                return sb.toString();
+                return tokenBuffer.decode();
             } else {
-                sb.append((char) inputStream.read());
+                tokenBuffer.append(inputStream.read());
             }
         }
     }
@@ -338,7 +436,7 @@ class ImapResponseParser {
      */
     private Object parseLiteral() throws IOException {
         expect('{');
-        int size = Integer.parseInt(readStringUntil('}'));
+        int size = readLiteralSize();
         expect('\r');
         expect('\n');
 
@@ -396,7 +494,7 @@ class ImapResponseParser {
     private String parseQuoted() throws IOException {
         expect('"');
 
-        StringBuilder sb = new StringBuilder();
+        tokenBuffer.clear();
         int ch;
         boolean escape = false;
         while ((ch = inputStream.read()) != -1) {
@@ -404,9 +502,9 @@ class ImapResponseParser {
                 // Found the escape character
                 escape = true;
             } else if (!escape && ch == '"') {
-                return sb.toString();
+                return tokenBuffer.decode();
             } else {
-                sb.append((char) ch);
+                tokenBuffer.append(ch);
                 escape = false;
             }
         }
@@ -430,19 +528,35 @@ class ImapResponseParser {
     }
 
     private String readStringUntil(char end) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        readIntoTokenBufferUntil(end);
+        return tokenBuffer.decode();
+    }
+
+    private int readLiteralSize() throws IOException {
+        readIntoTokenBufferUntil('}');
+
+        int size = tokenBuffer.parseNumber();
+        if (size == -1) {
+            throw new IOException("Invalid literal size: " + tokenBuffer.decode());
+        }
+
+        return size;
+    }
+
+    private void readIntoTokenBufferUntil(char end) throws IOException {
+        tokenBuffer.clear();
 
         int ch;
         while ((ch = inputStream.read()) != -1) {
             if (ch == end) {
-                return sb.toString();
+                return;
             } else {
-                sb.append((char) ch);
+                tokenBuffer.append(ch);
             }
         }
 
         throw new IOException("readStringUntil(): end of stream reached. " +
-                "Read: \"" + sb.toString() + "\" while waiting for " + formatChar(end));
+                "Read: \"" + tokenBuffer.decode() + "\" while waiting for " + formatChar(end));
     }
 
     private String formatChar(char value) {
@@ -0,0 +1,129 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Set;
+
+
+/**
+ * What previous sessions learned about an IMAP server, shared by all {@link ImapConnection}s of an {@link ImapStore}.
+ *
+ * <p>
+ * As long as the same host greets a new connection the same way, the capabilities it announced before and after
+ * authentication are reused instead of being requested with another {@code CAPABILITY} command. Only the host, the
+ * status and the response code of the greeting are compared; the human-readable text often contains client addresses
+ * or session IDs. With STARTTLS, no pre-auth capabilities are recorded. They have to be requested again after every
+ * TLS handshake.
+ * </p>
+ *
+ * <p>
+ * A different greeting or a different set of capabilities reported by the server on its own invalidates the profile.
+ * So does a connection that fails to open or to read from the server, in case the server was restarted or changed in
+ * a way we couldn't detect. Cached capabilities are also requested again once they are older than
+ * {@link #MAX_CAPABILITIES_AGE_MILLIS}, so a server upgrade is noticed even if the greeting didn't change.
+ * </p>
+ */
+class ImapSessionProfile {
+    static final long MAX_CAPABILITIES_AGE_MILLIS = 60 * 60 * 1000L;
+
+
+    private final long maxCapabilitiesAgeMillis;
+    private String greeting;
+    private long capabilitiesRecordedAt;
+    private Set<String> preAuthCapabilities;
+    private Set<String> postAuthCapabilities;
+    private boolean pathPrefixDetected;
+
+
+    ImapSessionProfile() {
+        this(MAX_CAPABILITIES_AGE_MILLIS);
+    }
+
+    ImapSessionProfile(long maxCapabilitiesAgeMillis) {
+        this.maxCapabilitiesAgeMillis = maxCapabilitiesAgeMillis;
+    }
+
+    /**
+     * Checks whether the profile was recorded for a server that sent {@code greeting}. If it wasn't, the profile is
+     * reset and recorded for {@code greeting} from now on.
+     *
+     * @return {@code true} if the cached capabilities can be used for this session. {@code false} if the session has
+     *         to request the capabilities, either because the server changed or because the cached ones expired.
+     */
+    public synchronized boolean matchesGreeting(String greeting) {
+        long now = System.currentTimeMillis();
+        if (greeting.equals(this.greeting) && now - capabilitiesRecordedAt < maxCapabilitiesAgeMillis) {
+            return true;
+        }
+
+        if (greeting.equals(this.greeting)) {
+            invalidate();
+        } else {
+            clear();
+            this.greeting = greeting;
+        }
+
+        capabilitiesRecordedAt = now;
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the profile contained information about a server that greeted us differently.
+     */
+    public synchronized boolean hasOtherGreeting(String greeting) {
+        return this.greeting != null && !greeting.equals(this.greeting);
+    }
+
+    public synchronized Set<String> getPreAuthCapabilities() {
+        return preAuthCapabilities;
+    }
+
+    public synchronized void setPreAuthCapabilities(Set<String> capabilities) {
+        preAuthCapabilities = capabilities;
+    }
+
+    public synchronized Set<String> getPostAuthCapabilities() {
+        return postAuthCapabilities;
+    }
+
+    /**
+     * Records the capabilities the server reported after authentication.
+     *
+     * @return {@code true} if they differ from the ones recorded by a previous session. In that case only the new
+     *         capabilities are kept; everything else learned before is discarded.
+     */
+    public synchronized boolean updatePostAuthCapabilities(Set<String> capabilities) {
+        boolean changed = postAuthCapabilities != null && !postAuthCapabilities.equals(capabilities);
+        if (changed) {
+            preAuthCapabilities = null;
+        }
+
+        postAuthCapabilities = capabilities;
+        return changed;
+    }
+
+    /**
+     * Whether the path prefix was detected by a connection (as opposed to being configured by the user) and so has to
+     * be detected again when the server changes. This survives {@link #invalidate()}.
+     */
+    public synchronized boolean isPathPrefixDetected() {
+        return pathPrefixDetected;
+    }
+
+    public synchronized void setPathPrefixDetected() {
+        pathPrefixDetected = true;
+    }
+
+    /**
+     * Discards the cached capabilities, but keeps the greeting so a changed server can still be detected.
+     */
+    public synchronized void invalidate() {
+        preAuthCapabilities = null;
+        postAuthCapabilities = null;
+    }
+
+    private void clear() {
+        greeting = null;
+        preAuthCapabilities = null;
+        postAuthCapabilities = null;
+    }
+}
@@ -0,0 +1,89 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A snapshot of the per-command statistics of all IMAP connections of an account.
+ *
+ * @see ImapStore#getStatistics()
+ */
+public class ImapStatistics {
+    private final long startTimeMillis;
+    private final long snapshotTimeMillis;
+    private final List<CommandStatistics> commandStatistics;
+
+
+    ImapStatistics(long startTimeMillis, long snapshotTimeMillis, List<CommandStatistics> commandStatistics) {
+        this.startTimeMillis = startTimeMillis;
+        this.snapshotTimeMillis = snapshotTimeMillis;
+        this.commandStatistics = Collections.unmodifiableList(commandStatistics);
+    }
+
+    /**
+     * @return The time when recording started, in milliseconds since the epoch.
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * @return The time this snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getSnapshotTimeMillis() {
+        return snapshotTimeMillis;
+    }
+
+    /**
+     * @return The statistics of every command type that was used, sorted by command type.
+     */
+    public List<CommandStatistics> getCommandStatistics() {
+        return commandStatistics;
+    }
+
+    /**
+     * @return The statistics of the given command type, or {@code null} if no such command completed.
+     */
+    public CommandStatistics getCommandStatistics(String commandType) {
+        for (CommandStatistics statistics : commandStatistics) {
+            if (statistics.getCommandType().equalsIgnoreCase(commandType)) {
+                return statistics;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes this snapshot in CSV format, one line per command type.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write("# start_time_ms=" + startTimeMillis + " snapshot_time_ms=" + snapshotTimeMillis + "\n");
+
+        writer.write("command,count,total_latency_ms,max_latency_ms");
+        for (long bound : CommandStatistics.LATENCY_BUCKET_BOUNDS_MILLIS) {
+            writer.write(",le_" + bound + "ms");
+        }
+        writer.write(",gt_" + CommandStatistics.LATENCY_BUCKET_BOUNDS_MILLIS[
+                CommandStatistics.LATENCY_BUCKET_BOUNDS_MILLIS.length - 1] + "ms");
+        writer.write(",bytes_sent,wire_bytes_sent,bytes_received,wire_bytes_received,parse_time_ms\n");
+
+        for (CommandStatistics statistics : commandStatistics) {
+            writer.write(String.format(Locale.US, "%s,%d,%d,%d", statistics.getCommandType(), statistics.getCount(),
+                    statistics.getTotalLatencyMillis(), statistics.getMaxLatencyMillis()));
+            for (long bucketCount : statistics.getLatencyHistogram()) {
+                writer.write("," + bucketCount);
+            }
+            writer.write(String.format(Locale.US, ",%d,%d,%d,%d,%d\n", statistics.getBytesSent(),
+                    statistics.getWireBytesSent(), statistics.getBytesReceived(), statistics.getWireBytesReceived(),
+                    statistics.getParseTimeMillis()));
+        }
+
+        writer.flush();
+    }
+}
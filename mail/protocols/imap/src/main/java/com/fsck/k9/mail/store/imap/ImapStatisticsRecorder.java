@@ -0,0 +1,72 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Aggregates the measurements of all IMAP connections of an account.
+ *
+ * <p>
+ * Connections report each completed command using {@link #recordCommand(String, long, long, long, long, long, long)}.
+ * The memory used doesn't grow with the number of commands, only with the number of distinct command types.
+ * </p>
+ */
+class ImapStatisticsRecorder {
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private final long startTimeMillis = System.currentTimeMillis();
+
+
+    synchronized void recordCommand(String commandType, long latencyNanos, long bytesSent, long wireBytesSent,
+            long bytesReceived, long wireBytesReceived, long parseNanos) {
+        Entry entry = entries.get(commandType);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(commandType, entry);
+        }
+
+        long latencyMillis = latencyNanos / NANOS_PER_MILLI;
+
+        entry.count++;
+        entry.latencyHistogram[CommandStatistics.getLatencyBucket(latencyMillis)]++;
+        entry.totalLatencyNanos += latencyNanos;
+        entry.maxLatencyNanos = Math.max(entry.maxLatencyNanos, latencyNanos);
+        entry.bytesSent += bytesSent;
+        entry.wireBytesSent += wireBytesSent;
+        entry.bytesReceived += bytesReceived;
+        entry.wireBytesReceived += wireBytesReceived;
+        entry.parseNanos += parseNanos;
+    }
+
+    synchronized ImapStatistics getStatistics() {
+        List<CommandStatistics> commandStatistics = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            commandStatistics.add(new CommandStatistics(mapEntry.getKey(), entry.count, entry.latencyHistogram,
+                    entry.totalLatencyNanos / NANOS_PER_MILLI, entry.maxLatencyNanos / NANOS_PER_MILLI,
+                    entry.bytesSent, entry.wireBytesSent, entry.bytesReceived, entry.wireBytesReceived,
+                    entry.parseNanos / NANOS_PER_MILLI));
+        }
+
+        return new ImapStatistics(startTimeMillis, System.currentTimeMillis(), commandStatistics);
+    }
+
+
+    private static class Entry {
+        long count;
+        final long[] latencyHistogram = new long[CommandStatistics.LATENCY_BUCKET_BOUNDS_MILLIS.length + 1];
+        long totalLatencyNanos;
+        long maxLatencyNanos;
+        long bytesSent;
+        long wireBytesSent;
+        long bytesReceived;
+        long wireBytesReceived;
+        long parseNanos;
+    }
+}
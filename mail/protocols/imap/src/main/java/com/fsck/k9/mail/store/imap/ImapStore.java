@@ -1,17 +1,23 @@
 package com.fsck.k9.mail.store.imap;
 
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.net.ConnectivityManager;
 import androidx.annotation.Nullable;
@@ -36,7 +42,12 @@ import timber.log.Timber;
  * </pre>
  */
 public class ImapStore extends RemoteStore {
-    private Set<Flag> permanentFlagsIndex = EnumSet.noneOf(Flag.class);
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long CONNECTION_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+    private static final long FOLDER_STATUS_MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+
+    private Set<Flag> permanentFlagsIndex = Collections.synchronizedSet(EnumSet.noneOf(Flag.class));
     private ConnectivityManager connectivityManager;
     private OAuth2TokenProvider oauthTokenProvider;
 
@@ -48,9 +59,15 @@ public class ImapStore extends RemoteStore {
     private ConnectionSecurity connectionSecurity;
     private AuthType authType;
     private String pathPrefix;
-    private String combinedPrefix = null;
-    private String pathDelimiter = null;
-    private final Deque<ImapConnection> connections = new LinkedList<>();
+    private volatile String combinedPrefix = null;
+    private volatile String pathDelimiter = null;
+    private final ImapStatisticsRecorder statisticsRecorder = new ImapStatisticsRecorder();
+    private final ImapSessionProfile sessionProfile = new ImapSessionProfile();
+    private final Map<String, FolderStatus> folderStatuses = new ConcurrentHashMap<>();
+    private final FetchWindowSizer fetchWindowSizer = new FetchWindowSizer();
+    private final ImapConnectionPool connectionPool =
+            new ImapConnectionPool(MAX_IDLE_CONNECTIONS, CONNECTION_IDLE_TIMEOUT_MILLIS);
+    private final AtomicInteger activePushConnections = new AtomicInteger();
     private FolderNameCodec folderNameCodec;
 
     /**
@@ -99,6 +116,13 @@ public class ImapStore extends RemoteStore {
         return folder;
     }
 
+    /**
+     * @return A string identifying the account on the server, e.g. to name files belonging to this account.
+     */
+    String getAccountKey() {
+        return username + "@" + host + ":" + port;
+    }
+
     String getCombinedPrefix() {
         if (combinedPrefix == null) {
             if (pathPrefix != null) {
@@ -142,6 +166,58 @@ public class ImapStore extends RemoteStore {
         }
     }
 
+    /**
+     * Requests the status of the given folders with a single {@code LIST} command, so
+     * {@link #takeFolderStatus(String)} can report them. Does nothing if the server doesn't support
+     * {@code LIST-STATUS}, or if only one folder is going to be synchronized. Selecting that folder costs the same
+     * round trip.
+     */
+    public void refreshFolderStatus(List<String> folderServerIds) throws MessagingException {
+        if (folderServerIds.size() < 2) {
+            return;
+        }
+
+        ImapConnection connection = getConnection();
+
+        try {
+            if (connection.hasCapability(Capabilities.LIST_STATUS)) {
+                listFolderStatus(connection, folderServerIds);
+            }
+        } catch (IOException | MessagingException ioe) {
+            connection.close();
+            throw new MessagingException("Unable to get folder status.", ioe);
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Uses the multiple mailbox patterns of {@code LIST-EXTENDED} (RFC 5258), which {@code LIST-STATUS} builds on, to
+     * only request the status of the given folders.
+     */
+    private void listFolderStatus(ImapConnection connection, List<String> folderServerIds) throws IOException,
+            MessagingException {
+        Map<String, String> folderServerIdsByEncodedName = new HashMap<>(folderServerIds.size());
+        List<String> mailboxPatterns = new ArrayList<>(folderServerIds.size());
+        String combinedPrefix = getCombinedPrefix();
+        for (String folderServerId : folderServerIds) {
+            String prefixedName = ImapFolder.INBOX.equalsIgnoreCase(folderServerId) ?
+                    folderServerId : combinedPrefix + folderServerId;
+            String encodedName = folderNameCodec.encode(prefixedName);
+            folderServerIdsByEncodedName.put(encodedName, folderServerId);
+            mailboxPatterns.add(ImapUtility.encodeString(encodedName));
+        }
+
+        String command = String.format("LIST \"\" (%s) RETURN (STATUS (%s))",
+                ImapUtility.join(" ", mailboxPatterns), getStatusItems(connection));
+        List<ImapResponse> responses = connection.executeSimpleCommand(command);
+
+        Map<String, StatusResponse> statusResponses = getStatusResponsesByEncodedName(responses);
+        for (Map.Entry<String, String> entry : folderServerIdsByEncodedName.entrySet()) {
+            storeFolderStatus(entry.getValue(), statusResponses.get(entry.getKey()));
+        }
+    }
+
     private List<FolderListItem> limitToSubscribedFolders(List<FolderListItem> folders,
             List<FolderListItem> subscribedFolders) {
         Set<String> subscribedFolderNames = new HashSet<>(subscribedFolders.size());
@@ -163,11 +239,11 @@ public class ImapStore extends RemoteStore {
             MessagingException {
 
         String commandFormat;
+        String returnOptions = subscribedOnly ? null : getListReturnOptions(connection);
         if (subscribedOnly) {
             commandFormat = "LSUB \"\" %s";
-        } else if (connection.hasCapability(Capabilities.SPECIAL_USE) &&
-                connection.hasCapability(Capabilities.LIST_EXTENDED)) {
-            commandFormat = "LIST \"\" %s RETURN (SPECIAL-USE)";
+        } else if (returnOptions != null) {
+            commandFormat = "LIST \"\" %s RETURN (" + returnOptions + ")";
         } else {
             commandFormat = "LIST \"\" %s";
         }
@@ -178,6 +254,7 @@ public class ImapStore extends RemoteStore {
         List<ListResponse> listResponses = (subscribedOnly) ?
                 ListResponse.parseLsub(responses) :
                 ListResponse.parseList(responses);
+        Map<String, StatusResponse> statusResponses = getStatusResponsesByEncodedName(responses);
 
         List<FolderListItem> folders = new ArrayList<>(listResponses.size());
         for (ListResponse listResponse : listResponses) {
@@ -202,7 +279,10 @@ public class ImapStore extends RemoteStore {
                 combinedPrefix = null;
             }
 
+            StatusResponse statusResponse = statusResponses.get(listResponse.getName());
+
             if (ImapFolder.INBOX.equalsIgnoreCase(folder)) {
+                storeFolderStatus(ImapFolder.INBOX, statusResponse);
                 continue;
             } else if (folder.equals(mStoreConfig.getOutboxFolder())) {
                 /*
@@ -235,6 +315,7 @@ public class ImapStore extends RemoteStore {
                 type = FolderType.REGULAR;
             }
 
+            storeFolderStatus(folder, statusResponse);
             folders.add(new FolderListItem(folder, type));
         }
 
@@ -243,6 +324,76 @@ public class ImapStore extends RemoteStore {
         return folders;
     }
 
+    /**
+     * Returns the options for the {@code RETURN} clause of the {@code LIST} command, or {@code null} if the server
+     * supports none of the ones we use.
+     *
+     * <p>
+     * With {@code LIST-STATUS} (RFC 5819) the server includes a {@code STATUS} response for every folder. That saves
+     * selecting folders that didn't change since the last synchronization.
+     * </p>
+     */
+    @Nullable
+    private String getListReturnOptions(ImapConnection connection) throws IOException, MessagingException {
+        List<String> returnOptions = new ArrayList<>(2);
+        if (connection.hasCapability(Capabilities.SPECIAL_USE) &&
+                connection.hasCapability(Capabilities.LIST_EXTENDED)) {
+            returnOptions.add("SPECIAL-USE");
+        }
+
+        if (connection.hasCapability(Capabilities.LIST_STATUS)) {
+            returnOptions.add("STATUS (" + getStatusItems(connection) + ")");
+        }
+
+        return returnOptions.isEmpty() ? null : ImapUtility.join(" ", returnOptions);
+    }
+
+    private String getStatusItems(ImapConnection connection) throws IOException, MessagingException {
+        return connection.hasCapability(Capabilities.CONDSTORE) ?
+                "MESSAGES UIDNEXT UIDVALIDITY HIGHESTMODSEQ" :
+                "MESSAGES UIDNEXT UIDVALIDITY";
+    }
+
+    private Map<String, StatusResponse> getStatusResponsesByEncodedName(List<ImapResponse> responses) {
+        Map<String, StatusResponse> statusResponses = new HashMap<>();
+        for (ImapResponse response : responses) {
+            StatusResponse statusResponse = StatusResponse.parse(response);
+            if (statusResponse != null) {
+                statusResponses.put(statusResponse.getEncodedFolderName(), statusResponse);
+            }
+        }
+
+        return statusResponses;
+    }
+
+    private void storeFolderStatus(String folderServerId, @Nullable StatusResponse statusResponse) {
+        if (statusResponse == null) {
+            folderStatuses.remove(folderServerId);
+        } else {
+            folderStatuses.put(folderServerId, new FolderStatus(statusResponse, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Returns the status of a folder as reported by the last {@code LIST} command using {@code LIST-STATUS}.
+     *
+     * <p>
+     * A status is only handed out once, and only within a minute of receiving it. After that it can't be trusted to
+     * describe the current state of the folder.
+     * </p>
+     *
+     * @return The status, or {@code null} if there's no recent one.
+     */
+    @Nullable
+    public StatusResponse takeFolderStatus(String folderServerId) {
+        FolderStatus folderStatus = folderStatuses.remove(folderServerId);
+        if (folderStatus == null || System.nanoTime() - folderStatus.receivedNanos > FOLDER_STATUS_MAX_AGE_NANOS) {
+            return null;
+        }
+
+        return folderStatus.statusResponse;
+    }
+
     @Nullable
     private String removePrefixFromFolderName(String folderName) {
         String prefix = getCombinedPrefix();
@@ -273,34 +424,91 @@ public class ImapStore extends RemoteStore {
     }
 
     ImapConnection getConnection() throws MessagingException {
-        ImapConnection connection;
-        while ((connection = pollConnection()) != null) {
-            try {
-                connection.executeSimpleCommand(Commands.NOOP);
-                break;
-            } catch (IOException ioe) {
+        long startTime = System.nanoTime();
+        try {
+            ImapConnection connection;
+            while ((connection = connectionPool.poll()) != null) {
+                if (isConnectionAlive(connection)) {
+                    connectionPool.recordHit();
+                    return connection;
+                }
+
+                connectionPool.recordFailedProbe();
                 connection.close();
             }
-        }
 
-        if (connection == null) {
-            connection = createImapConnection();
+            connectionPool.recordMiss();
+            return createImapConnection();
+        } finally {
+            connectionPool.recordWaitTime(System.nanoTime() - startTime);
         }
-
-        return connection;
     }
 
-    private ImapConnection pollConnection() {
-        synchronized (connections) {
-            return connections.poll();
+    private boolean isConnectionAlive(ImapConnection connection) throws MessagingException {
+        if (!connection.isConnected()) {
+            return false;
+        }
+
+        try {
+            connection.executeSimpleCommand(Commands.NOOP);
+            return true;
+        } catch (IOException ioe) {
+            return false;
         }
     }
 
     void releaseConnection(ImapConnection connection) {
-        if (connection != null && connection.isConnected()) {
-            synchronized (connections) {
-                connections.offer(connection);
-            }
+        connectionPool.offer(connection);
+    }
+
+    /**
+     * @return The number of folders that may be synchronized at the same time. Each synchronization uses its own
+     *         connection, so this is limited to the number of connections the pool keeps for reuse, minus the
+     *         connections currently held open by pushers. Servers usually limit the connections per account.
+     */
+    public int getMaxParallelSyncs() {
+        return Math.max(1, MAX_IDLE_CONNECTIONS - activePushConnections.get());
+    }
+
+    /**
+     * Called by a pusher when it starts using a connection of its own for the lifetime of its push thread.
+     */
+    void pushConnectionStarted() {
+        activePushConnections.incrementAndGet();
+    }
+
+    /**
+     * Called by a pusher when its push thread exits.
+     */
+    void pushConnectionStopped() {
+        activePushConnections.decrementAndGet();
+    }
+
+    /**
+     * @return A snapshot of the usage statistics of this account's connection pool.
+     */
+    public ConnectionPoolStatistics getConnectionPoolStatistics() {
+        return connectionPool.getStatistics();
+    }
+
+    /**
+     * @return A snapshot of the per-command latency, traffic and parse time statistics of this account's connections.
+     */
+    public ImapStatistics getStatistics() {
+        return statisticsRecorder.getStatistics();
+    }
+
+    /**
+     * Writes a snapshot of this account's connection statistics to the given file in CSV format.
+     *
+     * @see ImapStatistics#writeTo(Writer)
+     */
+    public void exportStatistics(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            getStatistics().writeTo(writer);
+        } finally {
+            writer.close();
         }
     }
 
@@ -309,7 +517,9 @@ public class ImapStore extends RemoteStore {
                 new StoreImapSettings(),
                 mTrustedSocketFactory,
                 connectivityManager,
-                oauthTokenProvider);
+                oauthTokenProvider,
+                statisticsRecorder,
+                sessionProfile);
     }
 
     FolderNameCodec getFolderNameCodec() {
@@ -348,6 +558,14 @@ public class ImapStore extends RemoteStore {
         return true;
     }
 
+    /**
+     * @return The window sizer shared by all folders of this account, so the measurements of every fetch contribute
+     *         to the same window size.
+     */
+    FetchWindowSizer getFetchWindowSizer() {
+        return fetchWindowSizer;
+    }
+
     StoreConfig getStoreConfig() {
         return mStoreConfig;
     }
@@ -357,6 +575,18 @@ public class ImapStore extends RemoteStore {
     }
 
 
+    private static class FolderStatus {
+        final StatusResponse statusResponse;
+        final long receivedNanos;
+
+
+        FolderStatus(StatusResponse statusResponse, long receivedNanos) {
+            this.statusResponse = statusResponse;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+
     private class StoreImapSettings implements ImapSettings {
         @Override
         public String getHost() {
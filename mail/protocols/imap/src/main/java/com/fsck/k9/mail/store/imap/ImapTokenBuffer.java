@@ -0,0 +1,157 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.nio.charset.Charset;
+
+
+/**
+ * A reusable byte buffer used by {@link ImapResponseParser} to collect the bytes of a single token.
+ *
+ * <p>
+ * Tokens are only decoded when they are added to a response. Well-known atoms like {@code FETCH}, {@code UID}, or
+ * {@code \Seen} are matched against the raw bytes and returned as shared {@code String} instances. So parsing large
+ * {@code FETCH} responses only allocates new strings for values like UIDs and sequence numbers.
+ * </p>
+ */
+class ImapTokenBuffer {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAXIMUM_RETAINED_CAPACITY = 8192;
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    private static final String[] KNOWN_ATOMS = {
+            "NIL", "OK", "NO", "BAD", "BYE", "FETCH", "UID", "FLAGS", "EXISTS", "RECENT", "EXPUNGE", "VANISHED",
+            "SEARCH", "ESEARCH", "LIST", "LSUB", "STATUS", "CAPABILITY", "MODSEQ", "RFC822.SIZE", "INTERNALDATE",
+            "ENVELOPE", "BODY", "BODYSTRUCTURE", "BINARY", "MESSAGES", "UNSEEN", "UIDNEXT", "UIDVALIDITY",
+            "HIGHESTMODSEQ", "EARLIER", "\\Seen", "\\Answered", "\\Flagged", "\\Deleted", "\\Draft", "\\Recent",
+            "\\*", "$Forwarded", "$MDNSent", "\\Noselect", "\\NoInferiors", "\\HasChildren", "\\HasNoChildren",
+            "TEXT", "PLAIN", "HTML", "MIXED", "ALTERNATIVE", "RELATED", "CHARSET", "UTF-8", "US-ASCII", "7BIT",
+            "8BIT", "QUOTED-PRINTABLE", "BASE64", "ATTACHMENT", "INLINE", "NAME", "FILENAME", "BOUNDARY"
+    };
+    private static final String[][] KNOWN_ATOMS_BY_LENGTH = groupByLength(KNOWN_ATOMS);
+
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+
+
+    public void clear() {
+        length = 0;
+    }
+
+    public void append(int value) {
+        if (length == buffer.length) {
+            byte[] newBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+
+        buffer[length++] = (byte) value;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Parses the contents of the buffer as non-negative decimal number.
+     *
+     * @return The parsed value or {@code -1} if the buffer is empty or contains characters other than digits.
+     */
+    public int parseNumber() {
+        if (length == 0 || length > 10) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
+    }
+
+    /**
+     * Decodes the contents of the buffer, reusing a shared instance for well-known atoms.
+     *
+     * <p>
+     * Bytes are mapped to characters one-to-one, the way the parser always treated them.
+     * </p>
+     */
+    public String decode() {
+        if (length == 0) {
+            return "";
+        }
+
+        String knownAtom = findKnownAtom();
+        if (knownAtom != null) {
+            return knownAtom;
+        }
+
+        String result = new String(buffer, 0, length, CHARSET);
+        releaseLargeBuffer();
+
+        return result;
+    }
+
+    private String findKnownAtom() {
+        if (length >= KNOWN_ATOMS_BY_LENGTH.length) {
+            return null;
+        }
+
+        String[] candidates = KNOWN_ATOMS_BY_LENGTH[length];
+        if (candidates == null) {
+            return null;
+        }
+
+        for (String candidate : candidates) {
+            if (contentEquals(candidate)) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean contentEquals(String value) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != value.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void releaseLargeBuffer() {
+        if (buffer.length > MAXIMUM_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    private static String[][] groupByLength(String[] atoms) {
+        int maximumLength = 0;
+        for (String atom : atoms) {
+            maximumLength = Math.max(maximumLength, atom.length());
+        }
+
+        String[][] atomsByLength = new String[maximumLength + 1][];
+        for (String atom : atoms) {
+            int length = atom.length();
+            String[] existing = atomsByLength[length];
+            if (existing == null) {
+                atomsByLength[length] = new String[] { atom };
+            } else {
+                String[] extended = new String[existing.length + 1];
+                System.arraycopy(existing, 0, extended, 0, existing.length);
+                extended[existing.length] = atom;
+                atomsByLength[length] = extended;
+            }
+        }
+
+        return atomsByLength;
+    }
+}
@@ -0,0 +1,66 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Reports the number of bytes read from the wrapped stream, and the time spent waiting for them, to a
+ * {@link TrafficCounter}.
+ */
+class MeteredInputStream extends FilterInputStream {
+    private final TrafficCounter counter;
+
+
+    MeteredInputStream(InputStream in, TrafficCounter counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long startTime = System.nanoTime();
+        try {
+            int value = super.read();
+            if (value != -1) {
+                counter.addBytes(1);
+            }
+            return value;
+        } finally {
+            counter.addBlockedNanos(System.nanoTime() - startTime);
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long startTime = System.nanoTime();
+        try {
+            int bytesRead = super.read(b, off, len);
+            if (bytesRead > 0) {
+                counter.addBytes(bytesRead);
+            }
+            return bytesRead;
+        } finally {
+            counter.addBlockedNanos(System.nanoTime() - startTime);
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long startTime = System.nanoTime();
+        try {
+            long skipped = super.skip(n);
+            counter.addBytes(skipped);
+            return skipped;
+        } finally {
+            counter.addBlockedNanos(System.nanoTime() - startTime);
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Reports the number of bytes written to the wrapped stream to a {@link TrafficCounter}.
+ */
+class MeteredOutputStream extends FilterOutputStream {
+    private final TrafficCounter counter;
+
+
+    MeteredOutputStream(OutputStream out, TrafficCounter counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        out.write(oneByte);
+        counter.addBytes(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write the array one byte at a time
+        out.write(b, off, len);
+        counter.addBytes(len);
+    }
+}
@@ -0,0 +1,104 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.fsck.k9.mail.filter.Hex;
+import timber.log.Timber;
+
+
+/**
+ * The data of a message part that has already been downloaded using ranged {@code FETCH} commands.
+ *
+ * <p>
+ * The data is kept in a file in the temp directory whose name is derived from the account, the folder, its
+ * {@code UIDVALIDITY}, the message UID, and the fetched section. When a download is interrupted, e.g. because the
+ * connection dropped, the next attempt resumes at the end of this file instead of starting from scratch.
+ * </p>
+ *
+ * <p>
+ * Downloads that are never resumed, e.g. because the message was deleted in the meantime, are cleaned up by
+ * {@link #deleteStaleDownloads(File, long)} once they haven't been written to for {@link #MAX_AGE_MILLIS}.
+ * </p>
+ */
+class PartialPartDownload {
+    private static final String FILE_NAME_PREFIX = "imap-part-";
+    static final long MAX_AGE_MILLIS = 3 * 24 * 60 * 60 * 1000L;
+
+
+    private final File file;
+
+
+    static PartialPartDownload create(File directory, String key) {
+        return new PartialPartDownload(new File(directory, FILE_NAME_PREFIX + sha1(key)));
+    }
+
+    private PartialPartDownload(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The number of bytes downloaded so far, i.e. the offset at which to resume the download.
+     */
+    long getLength() {
+        return file.length();
+    }
+
+    void append(byte[] data) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    InputStream getInputStream() throws IOException {
+        return new FileInputStream(file);
+    }
+
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Deletes the partial downloads in {@code directory} that were last modified more than {@link #MAX_AGE_MILLIS}
+     * before {@code now}.
+     */
+    static void deleteStaleDownloads(File directory, long now) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FILE_NAME_PREFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (now - file.lastModified() > MAX_AGE_MILLIS && !file.delete()) {
+                Timber.w("Couldn't delete stale partial download %s", file);
+            }
+        }
+    }
+
+    private static String sha1(String key) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            return Hex.encodeHex(messageDigest.digest(key.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
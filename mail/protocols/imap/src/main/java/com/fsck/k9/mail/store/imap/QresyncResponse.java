@@ -0,0 +1,58 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The changes reported by the server when opening a folder using the {@code QRESYNC} parameter (RFC 7162).
+ *
+ * @see ImapFolder#openUsingQresync(int, long, long)
+ */
+public class QresyncResponse {
+    private final List<String> vanishedUids;
+    private final List<ImapMessage> changedMessages;
+    private final List<Long> messageSequenceNumbers;
+
+
+    QresyncResponse(List<String> vanishedUids, List<ImapMessage> changedMessages, List<Long> messageSequenceNumbers) {
+        this.vanishedUids = vanishedUids;
+        this.changedMessages = changedMessages;
+        this.messageSequenceNumbers = messageSequenceNumbers;
+    }
+
+    /**
+     * @return The UIDs of messages that have been expunged since the known state. This might include UIDs that were
+     *         never seen by the client.
+     */
+    public List<String> getVanishedUids() {
+        return vanishedUids;
+    }
+
+    /**
+     * @return Messages that were added or whose flags changed since the known state. The flags of these messages have
+     *         already been populated.
+     */
+    public List<ImapMessage> getChangedMessages() {
+        return changedMessages;
+    }
+
+    /**
+     * @param start
+     *         The message sequence number of the first message to include.
+     *
+     * @return The changed messages with a message sequence number of at least {@code start}, i.e. those within the
+     *         range of messages that is synchronized.
+     */
+    public List<ImapMessage> getChangedMessages(long start) {
+        List<ImapMessage> messages = new ArrayList<>();
+        for (int i = 0, size = changedMessages.size(); i < size; i++) {
+            if (messageSequenceNumbers.get(i) >= start) {
+                messages.add(changedMessages.get(i));
+            }
+        }
+
+        return messages;
+    }
+}
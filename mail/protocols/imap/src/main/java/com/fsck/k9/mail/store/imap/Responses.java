@@ -16,4 +16,10 @@ class Responses {
     public static final String PERMANENTFLAGS = "PERMANENTFLAGS";
     public static final String COPYUID = "COPYUID";
     public static final String SEARCH = "SEARCH";
+    public static final String ESEARCH = "ESEARCH";
+    public static final String ENABLED = "ENABLED";
+    public static final String VANISHED = "VANISHED";
+    public static final String STATUS = "STATUS";
+    public static final String NOTIFICATIONOVERFLOW = "NOTIFICATIONOVERFLOW";
+    public static final String BADEVENT = "BADEVENT";
 }
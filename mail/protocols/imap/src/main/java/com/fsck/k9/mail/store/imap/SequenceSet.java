@@ -0,0 +1,160 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A set of numbers in the compact {@code sequence-set} form defined in RFC 3501, e.g. {@code 2,10:15,20}.
+ *
+ * <p>
+ * The ranges are kept as primitive {@code long} values. So large sets returned by {@code ESEARCH} don't have to be
+ * expanded into a list of boxed numbers.
+ * </p>
+ */
+class SequenceSet {
+    private final long[] rangeStarts;
+    private final long[] rangeEnds;
+    private final long count;
+
+
+    private SequenceSet(long[] rangeStarts, long[] rangeEnds, int rangeCount) {
+        this.rangeStarts = Arrays.copyOf(rangeStarts, rangeCount);
+        this.rangeEnds = Arrays.copyOf(rangeEnds, rangeCount);
+
+        long count = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            count += this.rangeEnds[i] - this.rangeStarts[i] + 1;
+        }
+        this.count = count;
+    }
+
+    static SequenceSet empty() {
+        return new SequenceSet(new long[0], new long[0], 0);
+    }
+
+    /**
+     * Parses a sequence set that doesn't contain {@code *}.
+     *
+     * <p>
+     * Ranges are normalized so that the start isn't larger than the end, and sorted in ascending order. Overlapping
+     * ranges aren't merged; servers don't return them.
+     * </p>
+     *
+     * @throws NumberFormatException
+     *         if the input isn't a valid sequence set.
+     */
+    static SequenceSet parse(String sequenceSet) {
+        int maxRanges = 1;
+        for (int i = 0, length = sequenceSet.length(); i < length; i++) {
+            if (sequenceSet.charAt(i) == ',') {
+                maxRanges++;
+            }
+        }
+
+        long[] rangeStarts = new long[maxRanges];
+        long[] rangeEnds = new long[maxRanges];
+        int rangeCount = 0;
+        boolean sorted = true;
+
+        int start = 0;
+        int length = sequenceSet.length();
+        while (start <= length) {
+            int end = sequenceSet.indexOf(',', start);
+            if (end == -1) {
+                end = length;
+            }
+
+            int colon = sequenceSet.indexOf(':', start);
+            long first;
+            long last;
+            if (colon != -1 && colon < end) {
+                first = parseNumber(sequenceSet, start, colon);
+                last = parseNumber(sequenceSet, colon + 1, end);
+            } else {
+                first = parseNumber(sequenceSet, start, end);
+                last = first;
+            }
+
+            rangeStarts[rangeCount] = Math.min(first, last);
+            rangeEnds[rangeCount] = Math.max(first, last);
+            if (rangeCount > 0 && rangeStarts[rangeCount] < rangeStarts[rangeCount - 1]) {
+                sorted = false;
+            }
+            rangeCount++;
+
+            start = end + 1;
+        }
+
+        if (!sorted) {
+            sortRanges(rangeStarts, rangeEnds, rangeCount);
+        }
+
+        return new SequenceSet(rangeStarts, rangeEnds, rangeCount);
+    }
+
+    private static long parseNumber(String input, int start, int end) {
+        if (start >= end || end - start > 19) {
+            throw new NumberFormatException("Invalid sequence set: " + input);
+        }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = input.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid sequence set: " + input);
+            }
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+    private static void sortRanges(long[] rangeStarts, long[] rangeEnds, int rangeCount) {
+        // Insertion sort; the input is almost always sorted already
+        for (int i = 1; i < rangeCount; i++) {
+            long rangeStart = rangeStarts[i];
+            long rangeEnd = rangeEnds[i];
+
+            int j = i - 1;
+            while (j >= 0 && rangeStarts[j] > rangeStart) {
+                rangeStarts[j + 1] = rangeStarts[j];
+                rangeEnds[j + 1] = rangeEnds[j];
+                j--;
+            }
+
+            rangeStarts[j + 1] = rangeStart;
+            rangeEnds[j + 1] = rangeEnd;
+        }
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return The number of values in this set.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public int getRangeCount() {
+        return rangeStarts.length;
+    }
+
+    public long getRangeStart(int index) {
+        return rangeStarts[index];
+    }
+
+    public long getRangeEnd(int index) {
+        return rangeEnds[index];
+    }
+
+    /**
+     * @return The largest value in this set or {@code -1} if the set is empty.
+     */
+    public long getMax() {
+        return rangeEnds.length == 0 ? -1L : rangeEnds[rangeEnds.length - 1];
+    }
+}
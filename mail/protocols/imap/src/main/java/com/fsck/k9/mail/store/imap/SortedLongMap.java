@@ -0,0 +1,251 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A map from {@code long} to {@code long} backed by two sorted arrays.
+ *
+ * <p>
+ * Message sequence numbers and UIDs are numeric. Keeping them in primitive arrays instead of a {@code HashMap} of
+ * boxed values needs about a tenth of the memory, which matters for folders with hundreds of thousands of messages.
+ * </p>
+ *
+ * <p>
+ * Keys added out of order are appended to an unsorted tail. The tail is sorted and merged into the sorted entries
+ * the next time the map is read, so filling the map in any order takes {@code O(n log n)}. Removals move the
+ * following entries.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public class SortedLongMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int sortedSize;
+
+
+    public SortedLongMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SortedLongMap(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        keys = new long[capacity];
+        values = new long[capacity];
+    }
+
+    public int size() {
+        mergeUnsortedEntries();
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long keyAt(int index) {
+        mergeUnsortedEntries();
+        checkIndex(index);
+        return keys[index];
+    }
+
+    public long valueAt(int index) {
+        mergeUnsortedEntries();
+        checkIndex(index);
+        return values[index];
+    }
+
+    public boolean containsKey(long key) {
+        mergeUnsortedEntries();
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return The value for {@code key} or {@code defaultValue} if the map doesn't contain the key.
+     */
+    public long get(long key, long defaultValue) {
+        mergeUnsortedEntries();
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    public void put(long key, long value) {
+        if (size == sortedSize) {
+            if (size == 0 || key > keys[size - 1]) {
+                append(key, value);
+                sortedSize++;
+                return;
+            }
+
+            int index = indexOf(key);
+            if (index >= 0) {
+                values[index] = value;
+                return;
+            }
+        }
+
+        // Duplicate keys are resolved when merging, the last value added wins
+        append(key, value);
+    }
+
+    /**
+     * @return {@code true} if the map contained {@code key}.
+     */
+    public boolean remove(long key) {
+        mergeUnsortedEntries();
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Removes {@code key} and decrements all larger keys by one.
+     *
+     * <p>
+     * This is what happens to message sequence numbers when the server reports an {@code EXPUNGE}.
+     * </p>
+     *
+     * @return {@code true} if the map contained {@code key}.
+     */
+    public boolean removeAndShiftFollowingKeys(long key) {
+        mergeUnsortedEntries();
+        int index = indexOf(key);
+        boolean removed = index >= 0;
+        if (removed) {
+            removeAt(index);
+        } else {
+            index = -(index + 1);
+        }
+
+        for (int i = index; i < size; i++) {
+            keys[i]--;
+        }
+
+        return removed;
+    }
+
+    public void clear() {
+        size = 0;
+        sortedSize = 0;
+    }
+
+    private int indexOf(long key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void append(long key, long value) {
+        ensureCapacity(size + 1);
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    private void removeAt(int index) {
+        int following = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, following);
+        System.arraycopy(values, index + 1, values, index, following);
+        size--;
+        sortedSize--;
+    }
+
+    private void mergeUnsortedEntries() {
+        if (sortedSize == size) {
+            return;
+        }
+
+        int[] unsorted = sortUnsortedEntries();
+
+        long[] mergedKeys = new long[keys.length];
+        long[] mergedValues = new long[values.length];
+        int mergedSize = 0;
+        int sortedIndex = 0;
+        int unsortedIndex = 0;
+        while (sortedIndex < sortedSize || unsortedIndex < unsorted.length) {
+            int index;
+            if (unsortedIndex == unsorted.length ||
+                    (sortedIndex < sortedSize && keys[sortedIndex] < keys[unsorted[unsortedIndex]])) {
+                index = sortedIndex++;
+            } else {
+                long key = keys[unsorted[unsortedIndex]];
+                if (sortedIndex < sortedSize && keys[sortedIndex] == key) {
+                    sortedIndex++;
+                }
+                while (unsortedIndex + 1 < unsorted.length && keys[unsorted[unsortedIndex + 1]] == key) {
+                    unsortedIndex++;
+                }
+                index = unsorted[unsortedIndex++];
+            }
+
+            mergedKeys[mergedSize] = keys[index];
+            mergedValues[mergedSize] = values[index];
+            mergedSize++;
+        }
+
+        keys = mergedKeys;
+        values = mergedValues;
+        size = mergedSize;
+        sortedSize = mergedSize;
+    }
+
+    /**
+     * @return The indices of the unsorted entries, ordered by key. Entries with the same key keep the order in which
+     *         they were added.
+     */
+    private int[] sortUnsortedEntries() {
+        int count = size - sortedSize;
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = sortedSize + i;
+        }
+
+        // Bottom-up merge sort, because it's stable
+        int[] buffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int start = 0; start < count; start += 2 * width) {
+                int middle = Math.min(start + width, count);
+                int end = Math.min(start + 2 * width, count);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right == end || keys[indices[left]] <= keys[indices[right]])) {
+                        buffer[i] = indices[left++];
+                    } else {
+                        buffer[i] = indices[right++];
+                    }
+                }
+            }
+
+            int[] sorted = buffer;
+            buffer = indices;
+            indices = sorted;
+        }
+
+        return indices;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            int newCapacity = Math.max(capacity, keys.length + (keys.length >> 1));
+            keys = Arrays.copyOf(keys, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A set of {@code long} values backed by a sorted array, e.g. the UIDs of all messages in a folder.
+ *
+ * <p>
+ * Values can be added in any order. The array is sorted, and duplicates are removed, the next time the set is
+ * queried. That makes building the set from an unordered source O(n log n) instead of O(n²).
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public class SortedLongSet {
+    private static final int DEFAULT_CAPACITY = 16;
+
+
+    private long[] values;
+    private int size;
+    private boolean sorted = true;
+
+
+    public SortedLongSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SortedLongSet(int initialCapacity) {
+        values = new long[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+
+        if (sorted && size > 0 && value <= values[size - 1]) {
+            sorted = false;
+        }
+
+        values[size++] = value;
+    }
+
+    public boolean contains(long value) {
+        sortIfNecessary();
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    public int size() {
+        sortIfNecessary();
+        return size;
+    }
+
+    public long get(int index) {
+        sortIfNecessary();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+
+        return values[index];
+    }
+
+    private void sortIfNecessary() {
+        if (sorted) {
+            return;
+        }
+
+        Arrays.sort(values, 0, size);
+
+        int uniqueCount = size == 0 ? 0 : 1;
+        for (int i = 1; i < size; i++) {
+            if (values[i] != values[uniqueCount - 1]) {
+                values[uniqueCount++] = values[i];
+            }
+        }
+
+        size = uniqueCount;
+        sorted = true;
+    }
+}
@@ -0,0 +1,107 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+/**
+ * Represents an untagged {@code STATUS} response as defined in RFC 3501.
+ *
+ * <p>
+ * Servers supporting the {@code NOTIFY} extension (RFC 5465) use this response to report changes to mailboxes that
+ * aren't selected. With {@code LIST-STATUS} (RFC 5819) it is returned for every mailbox matched by a {@code LIST}
+ * command.
+ * </p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * * STATUS INBOX (MESSAGES 231 UIDNEXT 44292)
+ * </pre>
+ */
+public class StatusResponse {
+    private static final String MESSAGES = "MESSAGES";
+    private static final String UIDNEXT = "UIDNEXT";
+    private static final String UIDVALIDITY = "UIDVALIDITY";
+    private static final String HIGHESTMODSEQ = "HIGHESTMODSEQ";
+
+
+    private final String encodedFolderName;
+    private final long messageCount;
+    private final long uidNext;
+    private final long uidValidity;
+    private final long highestModSeq;
+
+
+    private StatusResponse(String encodedFolderName, long messageCount, long uidNext, long uidValidity,
+            long highestModSeq) {
+        this.encodedFolderName = encodedFolderName;
+        this.messageCount = messageCount;
+        this.uidNext = uidNext;
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+    }
+
+    public static StatusResponse parse(ImapResponse response) {
+        if (response.isTagged() || response.size() < 3 || !equalsIgnoreCase(response.get(0), Responses.STATUS) ||
+                !response.isString(1) || !response.isList(2)) {
+            return null;
+        }
+
+        String encodedFolderName = response.getString(1);
+        ImapList attributes = response.getList(2);
+
+        try {
+            long messageCount = getNumber(attributes, MESSAGES);
+            long uidNext = getNumber(attributes, UIDNEXT);
+            long uidValidity = getNumber(attributes, UIDVALIDITY);
+            long highestModSeq = getNumber(attributes, HIGHESTMODSEQ);
+
+            return new StatusResponse(encodedFolderName, messageCount, uidNext, uidValidity, highestModSeq);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long getNumber(ImapList attributes, String key) {
+        if (!attributes.containsKey(key)) {
+            return -1L;
+        }
+
+        return Long.parseLong(attributes.getKeyedString(key));
+    }
+
+    /**
+     * @return The mailbox name as sent by the server, i.e. including the path prefix and still encoded.
+     */
+    public String getEncodedFolderName() {
+        return encodedFolderName;
+    }
+
+    /**
+     * @return The value of {@code MESSAGES} or {@code -1} if it wasn't included in the response.
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return The value of {@code UIDNEXT} or {@code -1} if it wasn't included in the response.
+     */
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    /**
+     * @return The value of {@code UIDVALIDITY} or {@code -1} if it wasn't included in the response.
+     */
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * @return The value of {@code HIGHESTMODSEQ} or {@code -1} if it wasn't included in the response.
+     */
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+}
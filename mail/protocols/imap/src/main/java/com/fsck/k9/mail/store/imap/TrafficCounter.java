@@ -0,0 +1,43 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Counts the bytes passing through a {@link MeteredInputStream} or {@link MeteredOutputStream}.
+ *
+ * <p>
+ * The counter outlives the streams it is attached to. So the counts continue when a connection replaces its streams
+ * after {@code STARTTLS} or {@code COMPRESS=DEFLATE}.
+ * </p>
+ *
+ * <p>
+ * The counts are updated from more than one thread, e.g. when {@code DONE} is sent to end an {@code IDLE} command
+ * while the pusher thread is reading.
+ * </p>
+ */
+class TrafficCounter {
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+
+    void addBytes(long count) {
+        bytes.addAndGet(count);
+    }
+
+    void addBlockedNanos(long nanos) {
+        blockedNanos.addAndGet(nanos);
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return The time spent waiting for the wrapped input stream to return data.
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.get();
+    }
+}
@@ -0,0 +1,64 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.List;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseParser.equalsIgnoreCase;
+
+
+/**
+ * Represents a {@code VANISHED} response as defined in RFC 7162.
+ *
+ * <p>Examples:</p>
+ * <pre>
+ * * VANISHED 405,407,410
+ * * VANISHED (EARLIER) 41,43:116,118
+ * </pre>
+ */
+class VanishedResponse {
+    private static final String EARLIER = "EARLIER";
+
+
+    private final boolean earlier;
+    private final List<String> uids;
+
+
+    private VanishedResponse(boolean earlier, List<String> uids) {
+        this.earlier = earlier;
+        this.uids = uids;
+    }
+
+    public static VanishedResponse parse(ImapResponse response) {
+        if (response.isTagged() || !equalsIgnoreCase(response.get(0), Responses.VANISHED)) {
+            return null;
+        }
+
+        boolean earlier = false;
+        int uidSetIndex = 1;
+        if (response.isList(1)) {
+            ImapList tags = response.getList(1);
+            earlier = tags.size() == 1 && equalsIgnoreCase(tags.get(0), EARLIER);
+            uidSetIndex = 2;
+        }
+
+        if (!response.isString(uidSetIndex)) {
+            return null;
+        }
+
+        List<String> uids = ImapUtility.getImapSequenceValues(response.getString(uidSetIndex));
+
+        return new VanishedResponse(earlier, uids);
+    }
+
+    /**
+     * @return {@code true} if this response lists messages that were expunged before the current session, e.g. in
+     *         response to a {@code SELECT} command using the {@code QRESYNC} parameter.
+     */
+    public boolean isEarlier() {
+        return earlier;
+    }
+
+    public List<String> getUids() {
+        return uids;
+    }
+}
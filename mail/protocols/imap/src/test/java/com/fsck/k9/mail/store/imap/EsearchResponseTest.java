@@ -0,0 +1,66 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class EsearchResponseTest {
+    @Test
+    public void parse_withAllReturnOptions() throws Exception {
+        List<ImapResponse> responses = singletonList(
+                createImapResponse("* ESEARCH (TAG \"A282\") UID MIN 2 MAX 47 COUNT 6 ALL 2,10:11,40,45:47"));
+
+        EsearchResponse result = EsearchResponse.parse(responses);
+
+        assertEquals(2L, result.getMin());
+        assertEquals(47L, result.getMax());
+        assertEquals(6L, result.getCount());
+        assertEquals(4, result.getAll().getRangeCount());
+        assertEquals(7L, result.getAll().getCount());
+    }
+
+    @Test
+    public void parse_withoutCorrelatorAndUid() throws Exception {
+        List<ImapResponse> responses = singletonList(createImapResponse("* ESEARCH COUNT 17"));
+
+        EsearchResponse result = EsearchResponse.parse(responses);
+
+        assertEquals(17L, result.getCount());
+        assertEquals(-1L, result.getMin());
+    }
+
+    @Test
+    public void parse_withoutMatches_shouldReturnDefaults() throws Exception {
+        List<ImapResponse> responses = asList(
+                createImapResponse("* ESEARCH (TAG \"A283\") UID"),
+                createImapResponse("A283 OK SEARCH completed"));
+
+        EsearchResponse result = EsearchResponse.parse(responses);
+
+        assertEquals(-1L, result.getMin());
+        assertEquals(-1L, result.getMax());
+        assertEquals(-1L, result.getCount());
+        assertTrue(result.getAll().isEmpty());
+    }
+
+    @Test
+    public void parse_shouldIgnoreOtherResponses() throws Exception {
+        List<ImapResponse> responses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* SEARCH 1 2 3"),
+                createImapResponse("* ESEARCH (TAG \"A284\") MAX 3"));
+
+        EsearchResponse result = EsearchResponse.parse(responses);
+
+        assertEquals(3L, result.getMax());
+        assertEquals(-1L, result.getCount());
+    }
+}
@@ -0,0 +1,118 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+
+public class FetchWindowSizerTest {
+    private final FetchWindowSizer fetchWindowSizer = new FetchWindowSizer();
+
+
+    @Test
+    public void getWindowEnd_withManyUids_shouldUseInitialWindowSize() throws Exception {
+        List<String> uids = createUids(1000);
+
+        int result = fetchWindowSizer.getWindowEnd(uids, 10, 20, 8172);
+
+        assertEquals(10 + FetchWindowSizer.INITIAL_WINDOW_SIZE, result);
+    }
+
+    @Test
+    public void getWindowEnd_withFewUids_shouldReturnEndOfList() throws Exception {
+        List<String> uids = createUids(5);
+
+        int result = fetchWindowSizer.getWindowEnd(uids, 2, 20, 8172);
+
+        assertEquals(5, result);
+    }
+
+    @Test
+    public void getWindowEnd_shouldRespectLineLengthLimit() throws Exception {
+        List<String> uids = asList("1000", "1001", "1002", "1003");
+
+        // "1000,1001" fits, "1000,1001,1002" doesn't
+        int result = fetchWindowSizer.getWindowEnd(uids, 0, 10, 23);
+
+        assertEquals(2, result);
+    }
+
+    @Test
+    public void getWindowEnd_withUidLongerThanLimit_shouldReturnWindowWithOneUid() throws Exception {
+        List<String> uids = asList("1000", "1001");
+
+        int result = fetchWindowSizer.getWindowEnd(uids, 0, 10, 12);
+
+        assertEquals(1, result);
+    }
+
+    @Test
+    public void recordWindow_withFastTransfer_shouldAtMostDoubleWindowSize() throws Exception {
+        fetchWindowSizer.recordWindow(100, 100 * 1000, 10, 110);
+
+        assertEquals(2 * FetchWindowSizer.INITIAL_WINDOW_SIZE, fetchWindowSizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withFastTransferRepeatedly_shouldStopAtMaximum() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            fetchWindowSizer.recordWindow(100, 100 * 1000, 10, 110);
+        }
+
+        assertEquals(FetchWindowSizer.MAX_WINDOW_SIZE, fetchWindowSizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withSlowTransfer_shouldAtMostHalveWindowSize() throws Exception {
+        fetchWindowSizer.recordWindow(100, 100 * 1000 * 1000, 100, 60000);
+
+        assertEquals(FetchWindowSizer.INITIAL_WINDOW_SIZE / 2, fetchWindowSizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withSlowTransferRepeatedly_shouldStopAtMinimum() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            fetchWindowSizer.recordWindow(100, 100 * 1000 * 1000, 100, 60000);
+        }
+
+        assertEquals(FetchWindowSizer.MIN_WINDOW_SIZE, fetchWindowSizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withTransferMatchingTarget_shouldKeepWindowSize() throws Exception {
+        // 100 messages of 10 KB at 500 bytes/ms take exactly TARGET_WINDOW_MILLIS
+        fetchWindowSizer.recordWindow(100, 100 * 10000, 50, 50 + FetchWindowSizer.TARGET_WINDOW_MILLIS);
+
+        assertEquals(FetchWindowSizer.INITIAL_WINDOW_SIZE, fetchWindowSizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withHighLatency_shouldAmortizeRoundTrips() throws Exception {
+        // With a round trip of 1 second a window should take 4 seconds, i.e. twice the target
+        fetchWindowSizer.recordWindow(100, 100 * 10000, 1000, 1000 + FetchWindowSizer.TARGET_WINDOW_MILLIS);
+
+        assertEquals(2 * FetchWindowSizer.INITIAL_WINDOW_SIZE, fetchWindowSizer.getWindowSize());
+    }
+
+    @Test
+    public void recordWindow_withoutBytes_shouldKeepWindowSize() throws Exception {
+        fetchWindowSizer.recordWindow(100, 0, 10, 20);
+
+        assertEquals(FetchWindowSizer.INITIAL_WINDOW_SIZE, fetchWindowSizer.getWindowSize());
+    }
+
+
+    private List<String> createUids(int count) {
+        List<String> uids = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            uids.add(Integer.toString(i));
+        }
+
+        return uids;
+    }
+}
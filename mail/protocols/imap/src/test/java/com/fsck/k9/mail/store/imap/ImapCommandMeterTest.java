@@ -0,0 +1,135 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ImapCommandMeterTest {
+    private final ImapStatisticsRecorder recorder = new ImapStatisticsRecorder();
+    private final ImapCommandMeter commandMeter = new ImapCommandMeter(recorder);
+
+
+    @Test
+    public void getCommandType_shouldStripArguments() throws Exception {
+        assertEquals("LOGIN", ImapCommandMeter.getCommandType("LOGIN \"user\" \"secret\""));
+    }
+
+    @Test
+    public void getCommandType_withoutArguments() throws Exception {
+        assertEquals("NOOP", ImapCommandMeter.getCommandType("noop"));
+    }
+
+    @Test
+    public void getCommandType_withUidCommand_shouldIncludeSubcommand() throws Exception {
+        assertEquals("UID FETCH", ImapCommandMeter.getCommandType("UID fetch 1:* (FLAGS)"));
+    }
+
+    @Test
+    public void responseRead_withTaggedResponse_shouldRecordCommand() throws Exception {
+        OutputStream outputStream = commandMeter.meterOutputStream(new ByteArrayOutputStream());
+        InputStream inputStream = commandMeter.meterInputStream(new ByteArrayInputStream(new byte[100]));
+
+        commandMeter.commandStarted("1", "UID FETCH 1:* (FLAGS)");
+        outputStream.write(new byte[25]);
+        inputStream.read(new byte[60]);
+        commandMeter.responseRead(createImapResponse("* 1 FETCH (FLAGS () UID 23)"), 0);
+        commandMeter.responseRead(createImapResponse("1 OK done"), 0);
+
+        CommandStatistics statistics = recorder.getStatistics().getCommandStatistics("UID FETCH");
+        assertEquals(1, statistics.getCount());
+        assertEquals(25, statistics.getBytesSent());
+        assertEquals(60, statistics.getBytesReceived());
+        assertEquals(0, statistics.getWireBytesSent());
+    }
+
+    @Test
+    public void responseRead_withPipelinedCommands_shouldAttributeTrafficInOrderOfCompletion() throws Exception {
+        InputStream inputStream = commandMeter.meterInputStream(new ByteArrayInputStream(new byte[100]));
+
+        commandMeter.commandStarted("1", "UID STORE 1 +FLAGS (\\Seen)");
+        commandMeter.commandStarted("2", "UID STORE 2 +FLAGS (\\Seen)");
+        inputStream.read(new byte[10]);
+        commandMeter.responseRead(createImapResponse("1 OK done"), 0);
+        inputStream.read(new byte[30]);
+        commandMeter.responseRead(createImapResponse("2 OK done"), 0);
+
+        CommandStatistics statistics = recorder.getStatistics().getCommandStatistics("UID STORE");
+        assertEquals(2, statistics.getCount());
+        assertEquals(40, statistics.getBytesReceived());
+    }
+
+    @Test
+    public void responseRead_withUnknownTag_shouldNotRecordCommand() throws Exception {
+        commandMeter.commandStarted("1", "NOOP");
+        commandMeter.responseRead(createImapResponse("2 OK done"), 0);
+
+        assertNull(recorder.getStatistics().getCommandStatistics("NOOP"));
+    }
+
+    @Test
+    public void responseRead_shouldNotCountTimeWaitingForNetworkAsParseTime() throws Exception {
+        InputStream wireInputStream = commandMeter.meterWireInputStream(new SlowInputStream(50));
+
+        commandMeter.commandStarted("1", "NOOP");
+        long startTime = System.nanoTime();
+        wireInputStream.read();
+        commandMeter.responseRead(createImapResponse("1 OK done"), System.nanoTime() - startTime);
+
+        CommandStatistics statistics = recorder.getStatistics().getCommandStatistics("NOOP");
+        assertEquals(0, statistics.getParseTimeMillis());
+        assertEquals(1, statistics.getWireBytesReceived());
+    }
+
+
+    @Test
+    public void responseRead_withIdleCommand_shouldNotCountTimeSpentIdlingAsLatency() throws Exception {
+        commandMeter.commandStarted("1", "IDLE");
+        commandMeter.responseRead(createImapResponse("+ idling"), 0);
+        Thread.sleep(100);
+        commandMeter.responseRead(createImapResponse("* 23 EXISTS"), 0);
+        commandMeter.responseRead(createImapResponse("1 OK IDLE terminated"), 0);
+
+        CommandStatistics statistics = recorder.getStatistics().getCommandStatistics("IDLE");
+        assertEquals(1, statistics.getCount());
+        assertTrue(statistics.getMaxLatencyMillis() < 100);
+    }
+
+    @Test
+    public void responseRead_withContinuationForOtherCommand_shouldCountFullLatency() throws Exception {
+        commandMeter.commandStarted("1", "APPEND \"Folder\" {23}");
+        commandMeter.responseRead(createImapResponse("+ Ready for literal data"), 0);
+        Thread.sleep(100);
+        commandMeter.responseRead(createImapResponse("1 OK APPEND completed"), 0);
+
+        CommandStatistics statistics = recorder.getStatistics().getCommandStatistics("APPEND");
+        assertTrue(statistics.getMaxLatencyMillis() >= 100);
+    }
+
+    private static class SlowInputStream extends InputStream {
+        private final long delayMillis;
+
+        SlowInputStream(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public int read() {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ignored) {
+            }
+
+            return 'x';
+        }
+    }
+}
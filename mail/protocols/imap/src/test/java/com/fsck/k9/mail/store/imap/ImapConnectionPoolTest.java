@@ -0,0 +1,132 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class ImapConnectionPoolTest {
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+    private static final long IDLE_TIMEOUT_MILLIS = 1000L;
+
+
+    private final TestImapConnectionPool connectionPool = new TestImapConnectionPool();
+
+
+    @Test
+    public void poll_withEmptyPool_shouldReturnNull() throws Exception {
+        ImapConnection result = connectionPool.poll();
+
+        assertNull(result);
+    }
+
+    @Test
+    public void poll_shouldReturnMostRecentlyReleasedConnection() throws Exception {
+        ImapConnection connectionOne = createConnectedConnection();
+        ImapConnection connectionTwo = createConnectedConnection();
+        connectionPool.offer(connectionOne);
+        connectionPool.offer(connectionTwo);
+
+        ImapConnection result = connectionPool.poll();
+
+        assertSame(connectionTwo, result);
+    }
+
+    @Test
+    public void offer_withClosedConnection_shouldNotAddConnectionToPool() throws Exception {
+        ImapConnection connection = mock(ImapConnection.class);
+        connectionPool.offer(connection);
+
+        ImapConnection result = connectionPool.poll();
+
+        assertNull(result);
+    }
+
+    @Test
+    public void offer_withFullPool_shouldCloseConnectionIdleTheLongest() throws Exception {
+        ImapConnection connectionOne = createConnectedConnection();
+        ImapConnection connectionTwo = createConnectedConnection();
+        ImapConnection connectionThree = createConnectedConnection();
+        connectionPool.offer(connectionOne);
+        connectionPool.offer(connectionTwo);
+
+        connectionPool.offer(connectionThree);
+
+        verify(connectionOne).close();
+        verify(connectionTwo, never()).close();
+        assertEquals(1, connectionPool.getStatistics().getEvictions());
+        assertEquals(2, connectionPool.getStatistics().getIdleConnections());
+    }
+
+    @Test
+    public void poll_withConnectionIdleLongerThanTimeout_shouldCloseConnection() throws Exception {
+        ImapConnection connection = createConnectedConnection();
+        connectionPool.offer(connection);
+        connectionPool.currentTime += IDLE_TIMEOUT_MILLIS;
+
+        ImapConnection result = connectionPool.poll();
+
+        assertNull(result);
+        verify(connection).close();
+        assertEquals(1, connectionPool.getStatistics().getEvictions());
+    }
+
+    @Test
+    public void poll_withOnlyOldestConnectionExpired_shouldReturnRecentConnection() throws Exception {
+        ImapConnection connectionOne = createConnectedConnection();
+        ImapConnection connectionTwo = createConnectedConnection();
+        connectionPool.offer(connectionOne);
+        connectionPool.currentTime += IDLE_TIMEOUT_MILLIS / 2;
+        connectionPool.offer(connectionTwo);
+        connectionPool.currentTime += IDLE_TIMEOUT_MILLIS / 2;
+
+        ImapConnection result = connectionPool.poll();
+
+        assertSame(connectionTwo, result);
+        verify(connectionOne).close();
+        assertEquals(0, connectionPool.getStatistics().getIdleConnections());
+    }
+
+    @Test
+    public void getStatistics_shouldReturnRecordedValues() throws Exception {
+        connectionPool.recordHit();
+        connectionPool.recordHit();
+        connectionPool.recordMiss();
+        connectionPool.recordFailedProbe();
+        connectionPool.recordWaitTime(3000000L);
+
+        ConnectionPoolStatistics statistics = connectionPool.getStatistics();
+
+        assertEquals(2, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(3, statistics.getTotalWaitTimeMillis());
+    }
+
+    private ImapConnection createConnectedConnection() {
+        ImapConnection connection = mock(ImapConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        return connection;
+    }
+
+
+    static class TestImapConnectionPool extends ImapConnectionPool {
+        long currentTime = 1000000L;
+
+        TestImapConnectionPool() {
+            super(MAX_IDLE_CONNECTIONS, IDLE_TIMEOUT_MILLIS);
+        }
+
+        @Override
+        long now() {
+            return currentTime;
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.fsck.k9.mail.store.imap;
 
 
 import java.io.IOException;
+import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Collections;
 import java.util.List;
 
 import android.app.Activity;
@@ -27,9 +29,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.shadows.ShadowLog;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -114,6 +118,105 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void open_withSessionProfileOfPreviousConnection_shouldNotRequestCapabilities() throws Exception {
+        ImapSessionProfile sessionProfile = new ImapSessionProfile();
+        MockImapServer server = new MockImapServer();
+        loginDialogRequestingCapabilities(server, "* OK IMAP4rev1 Service Ready");
+        openAndClose(server, sessionProfile);
+
+        MockImapServer secondServer = new MockImapServer();
+        secondServer.output("* OK IMAP4rev1 Service Ready");
+        secondServer.expect("1 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        secondServer.output("1 OK LOGIN completed");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(secondServer, sessionProfile);
+
+        imapConnection.open();
+
+        assertTrue(imapConnection.hasCapability("X-SOMETHING"));
+        secondServer.verifyConnectionStillOpen();
+        secondServer.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void open_withExpiredSessionProfile_shouldRequestCapabilities() throws Exception {
+        ImapSessionProfile sessionProfile = new ImapSessionProfile(0);
+        MockImapServer server = new MockImapServer();
+        loginDialogRequestingCapabilities(server, "* OK IMAP4rev1 Service Ready");
+        openAndClose(server, sessionProfile);
+
+        MockImapServer secondServer = new MockImapServer();
+        secondServer.output("* OK IMAP4rev1 Service Ready");
+        secondServer.expect("1 CAPABILITY");
+        secondServer.output("* CAPABILITY IMAP4 IMAP4REV1");
+        secondServer.output("1 OK CAPABILITY");
+        secondServer.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        secondServer.output("2 OK LOGIN completed");
+        secondServer.expect("3 CAPABILITY");
+        secondServer.output("* CAPABILITY IMAP4 IMAP4REV1 X-SOMETHING");
+        secondServer.output("3 OK CAPABILITY");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(secondServer, sessionProfile);
+
+        imapConnection.open();
+
+        secondServer.verifyConnectionStillOpen();
+        secondServer.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void open_withSessionProfileOfOtherHost_shouldRequestCapabilities() throws Exception {
+        ImapSessionProfile sessionProfile = new ImapSessionProfile();
+        sessionProfile.matchesGreeting("imap.example.com OK");
+        sessionProfile.setPreAuthCapabilities(Collections.singleton("X-SOMETHING"));
+        MockImapServer server = new MockImapServer();
+        loginDialogRequestingCapabilities(server, "* OK IMAP4rev1 Service Ready");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server, sessionProfile);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void readResponse_withConnectionClosedByServer_shouldInvalidateSessionProfile() throws Exception {
+        ImapSessionProfile sessionProfile = new ImapSessionProfile();
+        MockImapServer server = new MockImapServer();
+        loginDialogRequestingCapabilities(server, "* OK IMAP4rev1 Service Ready");
+        server.expect("5 NOOP");
+        server.closeConnection();
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server, sessionProfile);
+        imapConnection.open();
+
+        try {
+            imapConnection.executeSimpleCommand("NOOP");
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertNull(sessionProfile.getPreAuthCapabilities());
+            assertNull(sessionProfile.getPostAuthCapabilities());
+        }
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void open_withChangedGreeting_shouldDiscardSessionProfile() throws Exception {
+        ImapSessionProfile sessionProfile = new ImapSessionProfile();
+        MockImapServer server = new MockImapServer();
+        loginDialogRequestingCapabilities(server, "* OK IMAP4rev1 Service Ready");
+        openAndClose(server, sessionProfile);
+
+        MockImapServer secondServer = new MockImapServer();
+        loginDialogRequestingCapabilities(secondServer, "* OK [ALERT] Service Ready");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(secondServer, sessionProfile);
+
+        imapConnection.open();
+
+        secondServer.verifyConnectionStillOpen();
+        secondServer.verifyInteractionCompleted();
+    }
+
     @Test
     public void open_authPlain() throws Exception {
         settings.setAuthType(AuthType.PLAIN);
@@ -672,6 +775,29 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void open_withStartTlsAndSessionProfileOfPreviousConnection_shouldRequestCapabilitiesAgain()
+            throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        settings.setConnectionSecurity(ConnectionSecurity.STARTTLS_REQUIRED);
+        socketFactory = new PlainTextSocketFactory();
+        ImapSessionProfile sessionProfile = new ImapSessionProfile();
+        MockImapServer server = new MockImapServer();
+        startTlsDialogWithoutHandshake(server);
+        simplePostAuthenticationDialog(server, 5);
+        openAndClose(server, sessionProfile);
+
+        MockImapServer secondServer = new MockImapServer();
+        startTlsDialogWithoutHandshake(secondServer);
+        ImapConnection imapConnection = startServerAndCreateImapConnection(secondServer, sessionProfile);
+
+        imapConnection.open();
+
+        assertFalse(imapConnection.hasCapability(Capabilities.LOGINDISABLED));
+        secondServer.verifyConnectionStillOpen();
+        secondServer.verifyInteractionCompleted();
+    }
+
     @Test
     public void open_withStartTlsButWithoutStartTlsCapability_shouldThrow() throws Exception {
         settings.setConnectionSecurity(ConnectionSecurity.STARTTLS_REQUIRED);
@@ -901,6 +1027,52 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void open_withQresyncCapability_shouldNotEnableQresync() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "CONDSTORE QRESYNC");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        imapConnection.open();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertFalse(imapConnection.isQresyncEnabled());
+    }
+
+    @Test
+    public void enableQresyncIfAvailable_withQresyncCapability_shouldIssueEnableCommand() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "CONDSTORE QRESYNC");
+        server.expect("4 ENABLE QRESYNC");
+        server.output("* ENABLED QRESYNC");
+        server.output("4 OK");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        boolean result = imapConnection.enableQresyncIfAvailable();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertTrue(result);
+        assertTrue(imapConnection.isQresyncEnabled());
+    }
+
+    @Test
+    public void enableQresyncIfAvailable_afterMailboxWasSelected_shouldNotIssueEnableCommand() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "CONDSTORE QRESYNC");
+        server.expect("4 SELECT INBOX");
+        server.output("4 OK [READ-WRITE] Select completed.");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+        imapConnection.executeSimpleCommand("SELECT INBOX");
+
+        boolean result = imapConnection.enableQresyncIfAvailable();
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+        assertFalse(result);
+    }
+
     @Test
     public void executeSingleCommand_withOkResponse_shouldReturnResult() throws Exception {
         MockImapServer server = new MockImapServer();
@@ -935,6 +1107,106 @@ public class ImapConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void executePipelinedCommands_shouldSendCommandsBeforeReadingResponses() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "");
+        server.expect("4 UID STORE 1 +FLAGS.SILENT (\\Seen)");
+        server.expect("5 UID STORE 3 +FLAGS.SILENT (\\Seen)");
+        server.output("* 1 FETCH (FLAGS (\\Seen))");
+        server.output("4 OK STORE completed");
+        server.output("5 OK STORE completed");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        List<List<ImapResponse>> result = imapConnection.executePipelinedCommands(asList(
+                "UID STORE 1 +FLAGS.SILENT (\\Seen)",
+                "UID STORE 3 +FLAGS.SILENT (\\Seen)"));
+
+        assertEquals(2, result.size());
+        assertEquals(2, result.get(0).size());
+        assertEquals(1, result.get(1).size());
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void executePipelinedCommands_withNoResponse_shouldReadAllResponsesBeforeThrowing() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "");
+        server.expect("4 CREATE Folder");
+        server.expect("5 CREATE Other");
+        server.output("4 NO Folder exists");
+        server.output("5 OK Folder created");
+        server.expect("6 NOOP");
+        server.output("6 OK NOOP completed");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        try {
+            imapConnection.executePipelinedCommands(asList("CREATE Folder", "CREATE Other"));
+            fail("Expected exception");
+        } catch (NegativeImapResponseException e) {
+            assertEquals("Folder exists", e.getLastResponse().getString(1));
+        }
+        imapConnection.executeSimpleCommand("NOOP");
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void executePipelinedCommands_withManyCommands_shouldLimitCommandsInFlight() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "");
+        server.expect("4 UID EXPUNGE 1");
+        server.expect("5 UID EXPUNGE 2");
+        server.expect("6 UID EXPUNGE 3");
+        server.expect("7 UID EXPUNGE 4");
+        server.output("4 OK EXPUNGE completed");
+        server.expect("8 UID EXPUNGE 5");
+        server.output("5 OK EXPUNGE completed");
+        server.output("6 OK EXPUNGE completed");
+        server.output("7 OK EXPUNGE completed");
+        server.output("8 OK EXPUNGE completed");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        List<List<ImapResponse>> result = imapConnection.executePipelinedCommands(asList(
+                "UID EXPUNGE 1", "UID EXPUNGE 2", "UID EXPUNGE 3", "UID EXPUNGE 4", "UID EXPUNGE 5"));
+
+        assertEquals(5, result.size());
+        assertEquals("8", result.get(4).get(0).getTag());
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void executePipelinedCommands_withNoResponse_shouldNotSendRemainingCommands() throws Exception {
+        MockImapServer server = new MockImapServer();
+        simpleOpenDialog(server, "");
+        server.expect("4 UID EXPUNGE 1");
+        server.expect("5 UID EXPUNGE 2");
+        server.expect("6 UID EXPUNGE 3");
+        server.expect("7 UID EXPUNGE 4");
+        server.output("4 NO EXPUNGE failed");
+        server.output("5 OK EXPUNGE completed");
+        server.output("6 OK EXPUNGE completed");
+        server.output("7 OK EXPUNGE completed");
+        server.expect("8 NOOP");
+        server.output("8 OK NOOP completed");
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server);
+
+        try {
+            imapConnection.executePipelinedCommands(asList(
+                    "UID EXPUNGE 1", "UID EXPUNGE 2", "UID EXPUNGE 3", "UID EXPUNGE 4", "UID EXPUNGE 5"));
+            fail("Expected exception");
+        } catch (NegativeImapResponseException e) {
+            assertEquals("EXPUNGE failed", e.getLastResponse().getString(1));
+        }
+        imapConnection.executeSimpleCommand("NOOP");
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
     @Test
     public void hasCapability_withNotYetOpenedConnection_shouldConnectAndFetchCapabilities() throws Exception {
         MockImapServer server = new MockImapServer();
@@ -950,8 +1222,15 @@ public class ImapConnectionTest {
 
     private ImapConnection createImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
             ConnectivityManager connectivityManager, OAuth2TokenProvider oAuth2TokenProvider) {
+        return createImapConnection(settings, socketFactory, connectivityManager, oAuth2TokenProvider,
+                new ImapSessionProfile());
+    }
+
+    private ImapConnection createImapConnection(ImapSettings settings, TrustedSocketFactory socketFactory,
+            ConnectivityManager connectivityManager, OAuth2TokenProvider oAuth2TokenProvider,
+            ImapSessionProfile sessionProfile) {
         return new ImapConnection(settings, socketFactory, connectivityManager, oAuth2TokenProvider,
-                SOCKET_CONNECT_TIMEOUT, SOCKET_READ_TIMEOUT);
+                SOCKET_CONNECT_TIMEOUT, SOCKET_READ_TIMEOUT, sessionProfile);
     }
 
     private ImapConnection startServerAndCreateImapConnection(MockImapServer server) throws IOException {
@@ -961,6 +1240,51 @@ public class ImapConnectionTest {
         return createImapConnection(settings, socketFactory, connectivityManager, oAuth2TokenProvider);
     }
 
+    private ImapConnection startServerAndCreateImapConnection(MockImapServer server,
+            ImapSessionProfile sessionProfile) throws IOException {
+        server.start();
+        settings.setHost(server.getHost());
+        settings.setPort(server.getPort());
+        return createImapConnection(settings, socketFactory, connectivityManager, oAuth2TokenProvider,
+                sessionProfile);
+    }
+
+    private void openAndClose(MockImapServer server, ImapSessionProfile sessionProfile) throws Exception {
+        ImapConnection imapConnection = startServerAndCreateImapConnection(server, sessionProfile);
+        imapConnection.open();
+        server.verifyInteractionCompleted();
+        imapConnection.close();
+        server.shutdown();
+    }
+
+    private void loginDialogRequestingCapabilities(MockImapServer server, String greeting) {
+        settings.setAuthType(AuthType.PLAIN);
+        server.output(greeting);
+        server.expect("1 CAPABILITY");
+        server.output("* CAPABILITY IMAP4 IMAP4REV1");
+        server.output("1 OK CAPABILITY");
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK LOGIN completed");
+        server.expect("3 CAPABILITY");
+        server.output("* CAPABILITY IMAP4 IMAP4REV1 X-SOMETHING");
+        server.output("3 OK CAPABILITY");
+        simplePostAuthenticationDialog(server, 4);
+    }
+
+    /**
+     * To be used with {@link PlainTextSocketFactory}.
+     */
+    private void startTlsDialogWithoutHandshake(MockImapServer server) {
+        preAuthenticationDialog(server, "STARTTLS LOGINDISABLED");
+        server.expect("2 STARTTLS");
+        server.output("2 OK Begin TLS negotiation now");
+        server.expect("3 CAPABILITY");
+        server.output("* CAPABILITY IMAP4 IMAP4REV1");
+        server.output("3 OK");
+        server.expect("4 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("4 OK [CAPABILITY IMAP4 IMAP4REV1] LOGIN completed");
+    }
+
     private ImapConnection simpleOpen(MockImapServer server) throws Exception {
         return simpleOpenWithCapabilities(server, "");
     }
@@ -1060,4 +1384,15 @@ public class ImapConnectionTest {
             }
         };
     }
+
+    /**
+     * Skips the TLS handshake after STARTTLS, so the dialog doesn't depend on the TLS support of the JVM running the
+     * tests.
+     */
+    private static class PlainTextSocketFactory implements TrustedSocketFactory {
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, String clientCertificateAlias) {
+            return socket;
+        }
+    }
 }
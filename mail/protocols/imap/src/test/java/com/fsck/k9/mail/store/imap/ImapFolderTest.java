@@ -1,8 +1,10 @@
 package com.fsck.k9.mail.store.imap;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -23,7 +25,9 @@ import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.Part;
 import com.fsck.k9.mail.internet.BinaryTempFileBody;
+import com.fsck.k9.mail.internet.MimeBodyPart;
 import com.fsck.k9.mail.internet.MimeHeader;
+import com.fsck.k9.mail.internet.RawDataBody;
 import com.fsck.k9.mail.store.StoreConfig;
 import okio.Buffer;
 import org.apache.james.mime4j.util.MimeUtil;
@@ -47,14 +51,20 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.geq;
 import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -76,6 +86,7 @@ public class ImapFolderTest {
         when(storeConfig.getInboxFolder()).thenReturn("INBOX");
         when(imapStore.getCombinedPrefix()).thenReturn("");
         when(imapStore.getStoreConfig()).thenReturn(storeConfig);
+        when(imapStore.getFetchWindowSizer()).thenReturn(new FetchWindowSizer());
 
         imapConnection = mock(ImapConnection.class);
     }
@@ -210,6 +221,46 @@ public class ImapFolderTest {
         }
     }
 
+    @Test
+    public void openUsingQresync_withMatchingUidValidity_shouldReturnChanges() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForQresyncOpen(1125022061L);
+
+        QresyncResponse result = imapFolder.openUsingQresync(OPEN_MODE_RO, 1125022061L, 715194045000L);
+
+        assertNotNull(result);
+        assertEquals(asList("41", "43", "44"), result.getVanishedUids());
+        assertEquals(1, result.getChangedMessages().size());
+        ImapMessage changedMessage = result.getChangedMessages().get(0);
+        assertEquals("49", changedMessage.getUid());
+        assertTrue(changedMessage.isSet(Flag.SEEN));
+        assertEquals(715194045007L, imapFolder.getHighestModSeq());
+    }
+
+    @Test
+    public void openUsingQresync_withChangedUidValidity_shouldReturnNull() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForQresyncOpen(1125022062L);
+
+        QresyncResponse result = imapFolder.openUsingQresync(OPEN_MODE_RO, 1125022061L, 715194045000L);
+
+        assertNull(result);
+        assertTrue(imapFolder.isOpen());
+        assertEquals(1125022062L, imapFolder.getUidValidity());
+    }
+
+    @Test
+    public void openUsingQresync_withQresyncNotEnabled_shouldIssuePlainExamineAndReturnNull() throws Exception {
+        ImapFolder imapFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+
+        QresyncResponse result = imapFolder.openUsingQresync(OPEN_MODE_RO, 1125022061L, 715194045000L);
+
+        assertNull(result);
+        assertTrue(imapFolder.isOpen());
+        verify(imapConnection).executeSimpleCommand("EXAMINE \"Folder\"");
+    }
+
     @Test
     public void close_shouldCloseImapFolder() throws Exception {
         ImapFolder imapFolder = createFolder("Folder");
@@ -379,6 +430,42 @@ public class ImapFolderTest {
         assertNull(uidMapping);
     }
 
+    @Test
+    public void moveMessagesAndExpunge_withUidPlusCapability_shouldPipelineStoreAndExpunge() throws Exception {
+        ImapFolder sourceFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        ImapFolder destinationFolder = createFolder("Destination");
+        List<ImapMessage> messages = asList(createImapMessage("1"), createImapMessage("2"));
+        setupCopyResponse("x OK [COPYUID 23 1:2 101:102] Success");
+        when(imapConnection.isUidPlusCapable()).thenReturn(true);
+        when(imapConnection.getLineLengthLimit()).thenReturn(980);
+        when(imapConnection.splitCommandWithIdSet(anyString(), anyString(), anySetOf(Long.class)))
+                .thenCallRealMethod();
+        sourceFolder.open(OPEN_MODE_RW);
+
+        Map<String, String> uidMapping = sourceFolder.moveMessagesAndExpunge(messages, destinationFolder);
+
+        assertEquals("102", uidMapping.get("2"));
+        verify(imapConnection).executePipelinedCommands(asList(
+                "UID STORE 1:2 +FLAGS.SILENT (\\Deleted)",
+                "UID EXPUNGE 1:2"));
+    }
+
+    @Test
+    public void moveMessagesAndExpunge_withoutUidPlusCapability_shouldExpungeFolder() throws Exception {
+        ImapFolder sourceFolder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        ImapFolder destinationFolder = createFolder("Destination");
+        List<ImapMessage> messages = singletonList(createImapMessage("1"));
+        sourceFolder.open(OPEN_MODE_RW);
+
+        sourceFolder.moveMessagesAndExpunge(messages, destinationFolder);
+
+        assertCommandWithIdsIssued("UID STORE 1 +FLAGS.SILENT (\\Deleted)");
+        verify(imapConnection).executeSimpleCommand("EXPUNGE");
+        verify(imapConnection, never()).executePipelinedCommands(anyListOf(String.class));
+    }
+
     @Test
     public void getUnreadMessageCount_withClosedFolder_shouldThrow() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -420,6 +507,21 @@ public class ImapFolderTest {
         assertEquals(3, unreadMessageCount);
     }
 
+    @Test
+    public void getUnreadMessageCount_withEsearchCapability_shouldOnlyRequestCount() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        List<ImapResponse> imapResponses = singletonList(createImapResponse("* ESEARCH (TAG \"3\") COUNT 1234"));
+        when(imapConnection.executeSimpleCommand("SEARCH RETURN (COUNT) 1:* UNSEEN NOT DELETED"))
+                .thenReturn(imapResponses);
+        folder.open(OPEN_MODE_RW);
+
+        int unreadMessageCount = folder.getUnreadMessageCount();
+
+        assertEquals(1234, unreadMessageCount);
+    }
+
     @Test
     public void getFlaggedMessageCount_withClosedFolder_shouldThrow() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -461,6 +563,33 @@ public class ImapFolderTest {
         assertEquals(42L, highestUid);
     }
 
+    @Test
+    public void getHighestUid_withEsearchCapability_shouldRequestMax() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        setupUidSearchResponses("* ESEARCH (TAG \"3\") UID MAX 4711");
+        folder.open(OPEN_MODE_RW);
+
+        long highestUid = folder.getHighestUid();
+
+        assertEquals(4711L, highestUid);
+        assertCommandIssued("UID SEARCH RETURN (MAX) ALL");
+    }
+
+    @Test
+    public void getHighestUid_withEsearchCapabilityAndEmptyFolder_shouldReturnMinusOne() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        setupUidSearchResponses("* ESEARCH (TAG \"3\") UID");
+        folder.open(OPEN_MODE_RW);
+
+        long highestUid = folder.getHighestUid();
+
+        assertEquals(-1L, highestUid);
+    }
+
     @Test
     public void getHighestUid_imapConnectionThrowsNegativesResponse_shouldReturnMinusOne() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -531,6 +660,23 @@ public class ImapFolderTest {
         verifyNoMoreInteractions(listener);
     }
 
+    @Test
+    public void getMessages_withEsearchCapability_shouldReturnMessagesNewestFirst() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        setupUidSearchResponses("* ESEARCH (TAG \"3\") UID ALL 3,5:7");
+        folder.open(OPEN_MODE_RW);
+        MessageRetrievalListener<ImapMessage> listener = createMessageRetrievalListener();
+
+        List<ImapMessage> messages = folder.getMessages(1, 10, null, listener);
+
+        assertEquals(asList("7", "6", "5", "3"), extractMessageUidList(messages));
+        verify(imapConnection).executeSimpleCommand("UID SEARCH RETURN (ALL) 1:10 NOT DELETED");
+        verify(listener).messageStarted("7", 0, 4);
+        verify(listener).messageFinished(messages.get(3), 3, 4);
+    }
+
     @Test
     public void getMessages_withInvalidStartArgument_shouldThrow() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -685,6 +831,33 @@ public class ImapFolderTest {
         assertFalse(areMoreMessagesAvailable);
     }
 
+    @Test
+    public void areMoreMessagesAvailable_withEsearchCapability_shouldIssueSingleSearchCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        setupSearchResponses("* ESEARCH (TAG \"3\") MIN 17");
+        folder.open(OPEN_MODE_RW);
+
+        boolean areMoreMessagesAvailable = folder.areMoreMessagesAvailable(10000, null);
+
+        assertTrue(areMoreMessagesAvailable);
+        verify(imapConnection).executeSimpleCommand("SEARCH RETURN (MIN) 1:9999 NOT DELETED");
+    }
+
+    @Test
+    public void areMoreMessagesAvailable_withEsearchCapabilityAndNoMatch_shouldReturnFalse() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isEsearchCapable()).thenReturn(true);
+        setupSearchResponses("* ESEARCH (TAG \"3\")");
+        folder.open(OPEN_MODE_RW);
+
+        boolean areMoreMessagesAvailable = folder.areMoreMessagesAvailable(10000, null);
+
+        assertFalse(areMoreMessagesAvailable);
+    }
+
     @Test
     public void areMoreMessagesAvailable_withIndexOfOne_shouldReturnFalseWithoutPerformingSearch() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -746,6 +919,25 @@ public class ImapFolderTest {
         verify(imapConnection).sendCommand("UID FETCH 1 (UID FLAGS)", false);
     }
 
+    @Test
+    public void fetch_shouldRecordWindowWithStoreFetchWindowSizer() throws Exception {
+        FetchWindowSizer fetchWindowSizer = mock(FetchWindowSizer.class);
+        when(fetchWindowSizer.getWindowEnd(anyListOf(String.class), anyInt(), anyInt(), anyInt())).thenReturn(1);
+        when(imapStore.getFetchWindowSizer()).thenReturn(fetchWindowSizer);
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class))).thenReturn(createImapResponse("x OK"));
+        when(imapConnection.getBytesRead()).thenReturn(100L, 1100L);
+        when(imapConnection.getResponseStartNanos()).thenReturn(System.nanoTime() + 50000000L);
+        List<ImapMessage> messages = createImapMessages("1");
+        FetchProfile fetchProfile = createFetchProfile(Item.FLAGS);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        verify(fetchWindowSizer).recordWindow(eq(1), eq(1000L), geq(40L), anyLong());
+    }
+
     @Test
     public void fetch_withEnvelopeFetchProfile_shouldIssueRespectiveCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -762,6 +954,58 @@ public class ImapFolderTest {
                 ")", false);
     }
 
+    @Test
+    public void fetch_withEnvelopeFetchProfileAndObjectIdCapability_shouldFetchEmailId() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.isObjectIdCapable()).thenReturn(true);
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (UID 1 EMAILID (M6d99ac3275bb4e))"))
+                .thenReturn(createImapResponse("x OK"));
+        List<ImapMessage> messages = createImapMessages("1");
+        FetchProfile fetchProfile = createFetchProfile(Item.ENVELOPE);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID INTERNALDATE RFC822.SIZE BODY.PEEK[HEADER.FIELDS " +
+                "(date subject from content-type to cc reply-to message-id references in-reply-to X-K9mail-Identity)]" +
+                " EMAILID)", false);
+        verify(messages.get(0)).setEmailId("M6d99ac3275bb4e");
+    }
+
+    @Test
+    public void fetch_withPreviewFetchProfileAndPreviewCapability_shouldFetchPreview() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.isPreviewCapable()).thenReturn(true);
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (UID 1 PREVIEW \"Hello\")"))
+                .thenReturn(createImapResponse("x OK"));
+        List<ImapMessage> messages = createImapMessages("1");
+        FetchProfile fetchProfile = createFetchProfile(Item.PREVIEW);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID PREVIEW)", false);
+        verify(messages.get(0)).setPreview("Hello");
+    }
+
+    @Test
+    public void fetch_withPreviewFetchProfileWithoutPreviewCapability_shouldNotFetchPreview() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class))).thenReturn(createImapResponse("x OK"));
+        List<ImapMessage> messages = createImapMessages("1");
+        FetchProfile fetchProfile = createFetchProfile(Item.PREVIEW);
+
+        folder.fetch(messages, fetchProfile, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID)", false);
+    }
+
     @Test
     public void fetch_withStructureFetchProfile_shouldIssueRespectiveCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -883,6 +1127,105 @@ public class ImapFolderTest {
         verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[1.1])", false);
     }
 
+    @Test
+    public void fetchPart_withBase64EncodedPartAndBinaryCapability_shouldIssueBinaryCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        when(imapConnection.isBinaryCapable()).thenReturn(true);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        Part part = createBase64EncodedPart("1.2");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class))).thenReturn(createImapResponse("x OK"));
+
+        folder.fetchPart(message, part, null, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BINARY.PEEK[1.2])", false);
+        verify(imapConnection, never()).sendCommand("UID FETCH 1 (UID BODY.PEEK[1.2])", false);
+    }
+
+    @Test
+    public void fetchPart_withBase64EncodedPartAndWithoutBinaryCapability_shouldIssueBodyCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        Part part = createBase64EncodedPart("1.2");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class))).thenReturn(createImapResponse("x OK"));
+
+        folder.fetchPart(message, part, null, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[1.2])", false);
+    }
+
+    @Test
+    public void fetchPart_withBinaryCommandFailing_shouldFallBackToBodyCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        when(imapConnection.isBinaryCapable()).thenReturn(true);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        Part part = createBase64EncodedPart("1.2");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("x NO [UNKNOWN-CTE] Can't decode"))
+                .thenReturn(createImapResponse("x OK"));
+
+        folder.fetchPart(message, part, null, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BINARY.PEEK[1.2])", false);
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[1.2])", false);
+    }
+
+    @Test
+    public void fetchPart_withBinaryResponse_shouldKeepOriginalContentTransferEncoding() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        when(imapConnection.isBinaryCapable()).thenReturn(true);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        MimeBodyPart part = new MimeBodyPart();
+        part.setServerExtra("1.2");
+        part.setHeader(MimeHeader.HEADER_CONTENT_TYPE, "application/octet-stream");
+        part.setHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING, "base64");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenAnswer(new Answer<ImapResponse>() {
+                    @Override
+                    public ImapResponse answer(InvocationOnMock invocation) throws Throwable {
+                        ImapResponseCallback callback = (ImapResponseCallback) invocation.getArguments()[0];
+                        return createImapResponse("* 1 FETCH (UID 1 BINARY[1.2] ~{4}\r\ndata)", callback);
+                    }
+                })
+                .thenReturn(createImapResponse("x OK"));
+
+        folder.fetchPart(message, part, null, new DefaultBodyFactory());
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BINARY.PEEK[1.2])", false);
+        assertEquals("base64", ((RawDataBody) part.getBody()).getEncoding());
+        Buffer buffer = new Buffer();
+        part.writeTo(buffer.outputStream());
+        assertEquals("" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Transfer-Encoding: base64\r\n" +
+                "\r\n" +
+                "ZGF0YQ==\r\n", buffer.readUtf8());
+    }
+
+    @Test
+    public void fetchPart_withBase64EncodedMessagePart_shouldIssueBodyCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        when(imapConnection.isBinaryCapable()).thenReturn(true);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        Part part = createBase64EncodedPart("1.2");
+        when(part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)).thenReturn(new String[] { "message/rfc822" });
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class))).thenReturn(createImapResponse("x OK"));
+
+        folder.fetchPart(message, part, null, null);
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[1.2])", false);
+        verify(imapConnection, never()).sendCommand("UID FETCH 1 (UID BINARY.PEEK[1.2])", false);
+    }
+
     @Test
     public void fetchPart_withTextSection_shouldProcessImapResponses() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -902,6 +1245,69 @@ public class ImapFolderTest {
         assertEquals("text", buffer.readUtf8());
     }
 
+    @Test
+    public void fetchPart_withLargePart_shouldFetchPartInPipelinedChunks() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("1");
+        Part part = createLargePart("2", 1024 * 1024);
+        when(imapConnection.sendCommand(anyString(), eq(false))).thenReturn("1", "2", "3", "4");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (UID 1 BODY[2]<0> \"data\")"))
+                .thenReturn(createImapResponse("1 OK"))
+                .thenReturn(createImapResponse("2 OK"))
+                .thenReturn(createImapResponse("3 OK"))
+                .thenReturn(createImapResponse("4 OK"));
+
+        folder.fetchPart(message, part, null, new DefaultBodyFactory());
+
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[2]<0.262144>)", false);
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[2]<262144.262144>)", false);
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[2]<524288.262144>)", false);
+        verify(imapConnection).sendCommand("UID FETCH 1 (UID BODY.PEEK[2]<786432.262144>)", false);
+        ArgumentCaptor<Body> bodyArgumentCaptor = ArgumentCaptor.forClass(Body.class);
+        verify(part).setBody(bodyArgumentCaptor.capture());
+        Buffer buffer = new Buffer();
+        bodyArgumentCaptor.getValue().writeTo(buffer.outputStream());
+        assertEquals("data", buffer.readUtf8());
+    }
+
+    @Test
+    public void fetchPart_withInterruptedChunkedDownload_shouldResumeAtLastStoredByte() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RO);
+        folder.open(OPEN_MODE_RO);
+        ImapMessage message = createImapMessage("2");
+        Part part = createLargePart("2", 1024 * 1024);
+        String firstChunk = createString('x', 262144);
+        when(imapConnection.sendCommand(anyString(), eq(false))).thenReturn("1", "2", "3", "4", "5", "6", "7");
+        when(imapConnection.readResponse(nullable(ImapResponseCallback.class)))
+                .thenReturn(createImapResponse("* 1 FETCH (UID 2 BODY[2]<0> \"" + firstChunk + "\")"))
+                .thenThrow(new IOException("Connection dropped"));
+        try {
+            folder.fetchPart(message, part, null, new DefaultBodyFactory());
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            folder.open(OPEN_MODE_RO);
+        }
+        doReturn(createImapResponse("* 1 FETCH (UID 2 BODY[2]<262144> \"data\")"))
+                .doReturn(createImapResponse("5 OK"))
+                .doReturn(createImapResponse("6 OK"))
+                .doReturn(createImapResponse("7 OK"))
+                .when(imapConnection).readResponse(nullable(ImapResponseCallback.class));
+
+        folder.fetchPart(message, part, null, new DefaultBodyFactory());
+
+        verify(imapConnection, times(1)).sendCommand("UID FETCH 2 (UID BODY.PEEK[2]<0.262144>)", false);
+        verify(imapConnection, times(2)).sendCommand("UID FETCH 2 (UID BODY.PEEK[2]<262144.262144>)", false);
+        ArgumentCaptor<Body> bodyArgumentCaptor = ArgumentCaptor.forClass(Body.class);
+        verify(part).setBody(bodyArgumentCaptor.capture());
+        Buffer buffer = new Buffer();
+        bodyArgumentCaptor.getValue().writeTo(buffer.outputStream());
+        assertEquals(firstChunk + "data", buffer.readUtf8());
+    }
+
     @Test
     public void appendMessages_shouldIssueRespectiveCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -915,6 +1321,86 @@ public class ImapFolderTest {
         verify(imapConnection).sendCommand("APPEND \"Folder\" () {0}", false);
     }
 
+    @Test
+    public void appendMessages_withoutMultiAppend_shouldIssueOneCommandPerMessage() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        folder.open(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        when(imapConnection.readResponse()).thenReturn(
+                createImapResponse("x OK [APPENDUID 1 23]"),
+                createImapResponse("x OK [APPENDUID 1 24]"));
+
+        Map<String, String> uidMap = folder.appendMessages(messages);
+
+        verify(imapConnection, times(2)).sendCommand("APPEND \"Folder\" () {0}", false);
+        assertEquals("23", uidMap.get("1"));
+        assertEquals("24", uidMap.get("2"));
+    }
+
+    @Test
+    public void appendMessages_withMultiAppendAndLiteralPlus_shouldIssueSingleCommand() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isMultiAppendCapable()).thenReturn(true);
+        when(imapConnection.isLiteralPlusCapable()).thenReturn(true);
+        when(imapConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        folder.open(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("1", "2", "3");
+        when(imapConnection.readResponse()).thenReturn(createImapResponse("x OK [APPENDUID 1 23:24,30]"));
+
+        Map<String, String> uidMap = folder.appendMessages(messages);
+
+        verify(imapConnection).sendCommand("APPEND \"Folder\" () {0+}", false);
+        verify(imapConnection, times(2)).sendContinuation(" () {0+}");
+        verify(imapConnection).sendContinuation("");
+        verify(imapConnection).readResponse();
+        assertEquals("23", uidMap.get("1"));
+        assertEquals("24", uidMap.get("2"));
+        assertEquals("30", uidMap.get("3"));
+    }
+
+    @Test
+    public void appendMessages_withMultiAppend_shouldWaitForContinuationBeforeEachMessage() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isMultiAppendCapable()).thenReturn(true);
+        when(imapConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        folder.open(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        when(imapConnection.readResponse()).thenReturn(
+                createImapResponse("+ Ready"),
+                createImapResponse("+ Ready"),
+                createImapResponse("x OK [APPENDUID 1 23:24]"));
+
+        Map<String, String> uidMap = folder.appendMessages(messages);
+
+        verify(imapConnection).sendCommand("APPEND \"Folder\" () {0}", false);
+        verify(imapConnection).sendContinuation(" () {0}");
+        verify(imapConnection, times(3)).readResponse();
+        assertEquals("24", uidMap.get("2"));
+    }
+
+    @Test
+    public void appendMessages_withLiteralMinusAndLargeMessage_shouldUseSynchronizingLiteral() throws Exception {
+        ImapFolder folder = createFolder("Folder");
+        prepareImapFolderForOpen(OPEN_MODE_RW);
+        when(imapConnection.isLiteralMinusCapable()).thenReturn(true);
+        when(imapConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        folder.open(OPEN_MODE_RW);
+        List<ImapMessage> messages = createImapMessages("1", "2");
+        when(messages.get(1).calculateSize()).thenReturn(5000L);
+        when(imapConnection.readResponse()).thenReturn(
+                createImapResponse("x OK [APPENDUID 1 23]"),
+                createImapResponse("+ Ready"),
+                createImapResponse("x OK [APPENDUID 1 24]"));
+
+        folder.appendMessages(messages);
+
+        verify(imapConnection).sendCommand("APPEND \"Folder\" () {0+}", false);
+        verify(imapConnection).sendCommand("APPEND \"Folder\" () {5000}", false);
+    }
+
     @Test
     public void getUidFromMessageId_withMessageIdHeader_shouldIssueUidSearchCommand() throws Exception {
         ImapFolder folder = createFolder("Folder");
@@ -1052,6 +1538,17 @@ public class ImapFolderTest {
         assertEquals(folder, message.getFolder());
     }
 
+    private Part createBase64EncodedPart(String serverExtra) {
+        Part part = createPart(serverExtra);
+        when(part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)).thenReturn(
+                new String[] { MimeUtil.ENC_BASE64 }
+        );
+        when(part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)).thenReturn(
+                new String[] { "application/octet-stream" }
+        );
+        return part;
+    }
+
     private Part createPlainTextPart(String serverExtra) {
         Part part = createPart(serverExtra);
         when(part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING)).thenReturn(
@@ -1104,6 +1601,15 @@ public class ImapFolderTest {
         return result;
     }
 
+    private List<String> extractMessageUidList(List<ImapMessage> messages) {
+        List<String> result = new ArrayList<>();
+        for (Message message : messages) {
+            result.add(message.getUid());
+        }
+
+        return result;
+    }
+
     private ImapFolder createFolder(String folderName) {
         return new ImapFolder(imapStore, folderName, FolderNameCodec.newInstance());
     }
@@ -1129,10 +1635,26 @@ public class ImapFolderTest {
     private Part createPart(String serverExtra) {
         Part part = mock(Part.class);
         when(part.getServerExtra()).thenReturn(serverExtra);
+        when(part.getHeader(anyString())).thenReturn(new String[0]);
+
+        return part;
+    }
 
+    private Part createLargePart(String serverExtra, long size) {
+        Part part = createPart(serverExtra);
+        when(part.getHeader(MimeHeader.HEADER_CONTENT_TYPE)).thenReturn(
+                new String[] { "application/octet-stream" }
+        );
+        when(part.getDisposition()).thenReturn("attachment; size=" + size);
         return part;
     }
 
+    private static String createString(char character, int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, character);
+        return new String(chars);
+    }
+
     private FetchProfile createFetchProfile(Item... items) {
         FetchProfile fetchProfile = new FetchProfile();
         Collections.addAll(fetchProfile, items);
@@ -1167,6 +1689,24 @@ public class ImapFolderTest {
         }
     }
 
+    private void prepareImapFolderForQresyncOpen(long uidValidity) throws MessagingException, IOException {
+        when(imapStore.getConnection()).thenReturn(imapConnection);
+        when(imapConnection.enableQresyncIfAvailable()).thenReturn(true);
+        when(imapConnection.isQresyncEnabled()).thenReturn(true);
+        List<ImapResponse> imapResponses = asList(
+                createImapResponse("* 23 EXISTS"),
+                createImapResponse("* OK [UIDVALIDITY " + uidValidity + "] UIDs valid"),
+                createImapResponse("* OK [UIDNEXT 57576] Predicted next UID"),
+                createImapResponse("* OK [HIGHESTMODSEQ 715194045007] Highest"),
+                createImapResponse("* VANISHED (EARLIER) 41,43:44"),
+                createImapResponse("* 22 FETCH (UID 49 FLAGS (\\Seen) MODSEQ (715194045007))"),
+                createImapResponse("2 OK [READ-ONLY] Examine completed.")
+        );
+
+        when(imapConnection.executeSimpleCommand("EXAMINE \"Folder\" (QRESYNC (1125022061 715194045000))"))
+                .thenReturn(imapResponses);
+    }
+
     private void assertCheckOpenErrorMessage(String folderName, MessagingException e) {
         assertEquals("Folder " + folderName + " is not open.", e.getMessage());
     }
@@ -0,0 +1,276 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import android.net.ConnectivityManager;
+
+import com.fsck.k9.mail.AuthType;
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.Message;
+import com.fsck.k9.mail.PushReceiver;
+import com.fsck.k9.mail.helpers.TestTrustedSocketFactory;
+import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
+import com.fsck.k9.mail.power.PowerManager;
+import com.fsck.k9.mail.power.WakeLock;
+import com.fsck.k9.mail.store.StoreConfig;
+import com.fsck.k9.mail.store.imap.ImapNotifyPusher.FallbackHandler;
+import com.fsck.k9.mail.store.imap.mockserver.MockImapServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class ImapNotifyPusherTest {
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "123456";
+    private static final int SOCKET_CONNECT_TIMEOUT = 10000;
+    private static final int SOCKET_READ_TIMEOUT = 10000;
+    private static final int VERIFICATION_TIMEOUT = 5000;
+    private static final String NOTIFY_SET_COMMAND = "NOTIFY SET (MAILBOXES (\"INBOX\" \"Folder\") " +
+            "(MessageNew MessageExpunge FlagChange))";
+    private static final String NOTIFY_SET_COMMAND_WITHOUT_FLAG_CHANGE = "NOTIFY SET (MAILBOXES (\"INBOX\" " +
+            "\"Folder\") (MessageNew MessageExpunge))";
+
+
+    private ImapStore imapStore;
+    private ImapConnection folderConnection;
+    private PushReceiver pushReceiver;
+    private PowerManager powerManager;
+    private FallbackHandler fallbackHandler;
+    private SimpleImapSettings settings;
+    private MockImapServer server;
+    private ImapConnection pushConnection;
+    private ImapNotifyPusher pusher;
+
+
+    @Before
+    public void setUp() throws Exception {
+        StoreConfig storeConfig = mock(StoreConfig.class);
+        when(storeConfig.getIdleRefreshMinutes()).thenReturn(24);
+        when(storeConfig.getDisplayCount()).thenReturn(25);
+
+        folderConnection = mock(ImapConnection.class);
+        when(folderConnection.executeSimpleCommand(startsWith("EXAMINE"))).thenReturn(asList(
+                ImapResponseHelper.createImapResponse("* 23 EXISTS"),
+                ImapResponseHelper.createImapResponse("* OK [UIDVALIDITY 1125022061] UIDs valid"),
+                ImapResponseHelper.createImapResponse("2 OK [READ-ONLY] Examine completed.")));
+
+        imapStore = mock(ImapStore.class);
+        when(imapStore.getStoreConfig()).thenReturn(storeConfig);
+        when(imapStore.getFolderNameCodec()).thenReturn(FolderNameCodec.newInstance());
+        when(imapStore.getCombinedPrefix()).thenReturn("");
+        when(imapStore.getConnection()).thenReturn(folderConnection);
+
+        pushReceiver = mock(PushReceiver.class);
+        powerManager = mock(PowerManager.class);
+        when(powerManager.newWakeLock(anyString())).thenReturn(mock(WakeLock.class));
+        fallbackHandler = mock(FallbackHandler.class);
+
+        settings = new SimpleImapSettings();
+        settings.setAuthType(AuthType.PLAIN);
+        settings.setUsername(USERNAME);
+        settings.setPassword(PASSWORD);
+        settings.setPathPrefix("");
+        settings.setPathDelimiter("/");
+
+        server = new MockImapServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pusher != null) {
+            pusher.stop();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void statusResponseWithNewUidNext_shouldReportNewMessages() throws Exception {
+        when(pushReceiver.getPushState("Folder")).thenReturn("uidNext=10");
+        loginDialog("IDLE NOTIFY");
+        server.expect("3 " + NOTIFY_SET_COMMAND);
+        server.output("3 OK NOTIFY completed");
+        server.expect("4 IDLE");
+        server.output("+ idling");
+        server.output("* STATUS \"Folder\" (UIDNEXT 12)");
+        server.expect("DONE");
+        server.output("4 OK IDLE terminated");
+        server.expect("5 IDLE");
+        server.output("+ idling");
+
+        startPusher();
+
+        List<Message> messages = verifyMessagesArrived("Folder");
+        assertEquals(2, messages.size());
+        assertEquals("10", messages.get(0).getUid());
+        assertEquals("11", messages.get(1).getUid());
+        verify(pushReceiver, never()).syncFolder(any(ImapFolder.class));
+        server.waitForInteractionToComplete();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void statusResponseWithoutKnownUidNext_shouldSyncFolder() throws Exception {
+        loginDialog("IDLE NOTIFY");
+        server.expect("3 " + NOTIFY_SET_COMMAND);
+        server.output("3 OK NOTIFY completed");
+        server.expect("4 IDLE");
+        server.output("+ idling");
+        server.output("* STATUS INBOX (HIGHESTMODSEQ 12)");
+        server.expect("DONE");
+        server.output("4 OK IDLE terminated");
+        server.expect("5 IDLE");
+        server.output("+ idling");
+
+        startPusher();
+
+        ArgumentCaptor<ImapFolder> folderCaptor = ArgumentCaptor.forClass(ImapFolder.class);
+        verify(pushReceiver, timeout(VERIFICATION_TIMEOUT)).syncFolder(folderCaptor.capture());
+        assertEquals("INBOX", folderCaptor.getValue().getServerId());
+        server.waitForInteractionToComplete();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void fetchResponseWhileIdling_shouldBeIgnored() throws Exception {
+        when(pushReceiver.getPushState("Folder")).thenReturn("uidNext=10");
+        loginDialog("IDLE NOTIFY");
+        server.expect("3 " + NOTIFY_SET_COMMAND);
+        server.output("3 OK NOTIFY completed");
+        server.expect("4 IDLE");
+        server.output("+ idling");
+        server.output("* 1 FETCH (FLAGS (\\Seen))");
+        server.output("* STATUS \"Folder\" (UIDNEXT 11)");
+        server.expect("DONE");
+        server.output("4 OK IDLE terminated");
+        server.expect("5 IDLE");
+        server.output("+ idling");
+
+        startPusher();
+
+        List<Message> messages = verifyMessagesArrived("Folder");
+        assertEquals(1, messages.size());
+        server.waitForInteractionToComplete();
+        verify(pushReceiver, never()).syncFolder(any(ImapFolder.class));
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void notifySetRejectedWithBadEvent_shouldRetryWithoutFlagChange() throws Exception {
+        loginDialog("IDLE NOTIFY");
+        server.expect("3 " + NOTIFY_SET_COMMAND);
+        server.output("3 NO [BADEVENT (MessageNew MessageExpunge)] FlagChange not supported");
+        server.expect("4 " + NOTIFY_SET_COMMAND_WITHOUT_FLAG_CHANGE);
+        server.output("4 OK NOTIFY completed");
+        server.expect("5 IDLE");
+        server.output("+ idling");
+
+        startPusher();
+
+        server.waitForInteractionToComplete();
+        server.verifyInteractionCompleted();
+        verify(pushReceiver, timeout(VERIFICATION_TIMEOUT)).setPushActive("Folder", true);
+        verify(fallbackHandler, never()).onNotifyNotSupported(any(ImapNotifyPusher.class));
+    }
+
+    @Test
+    public void notificationOverflow_shouldSyncAllFoldersAndSetUpNotificationsAgain() throws Exception {
+        loginDialog("IDLE NOTIFY");
+        server.expect("3 " + NOTIFY_SET_COMMAND);
+        server.output("3 OK NOTIFY completed");
+        server.expect("4 IDLE");
+        server.output("+ idling");
+        server.output("* OK [NOTIFICATIONOVERFLOW] Too many notifications");
+        server.expect("DONE");
+        server.output("4 OK IDLE terminated");
+        server.expect("5 " + NOTIFY_SET_COMMAND);
+        server.output("5 OK NOTIFY completed");
+        server.expect("6 IDLE");
+        server.output("+ idling");
+
+        startPusher();
+
+        verify(pushReceiver, timeout(VERIFICATION_TIMEOUT).times(2)).syncFolder(any(ImapFolder.class));
+        server.waitForInteractionToComplete();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void serverWithoutNotifyCapability_shouldFallBackToFolderPushers() throws Exception {
+        loginDialog("IDLE");
+
+        startPusher();
+
+        verify(fallbackHandler, timeout(VERIFICATION_TIMEOUT)).onNotifyNotSupported(pusher);
+        verify(imapStore).releaseConnection(pushConnection);
+        server.verifyInteractionCompleted();
+        pusher = null;
+    }
+
+    @Test
+    public void notifySetRejected_shouldFallBackToFolderPushers() throws Exception {
+        loginDialog("IDLE NOTIFY");
+        server.expect("3 " + NOTIFY_SET_COMMAND);
+        server.output("3 BAD Unknown command");
+
+        startPusher();
+
+        verify(fallbackHandler, timeout(VERIFICATION_TIMEOUT)).onNotifyNotSupported(pusher);
+        verify(imapStore).releaseConnection(pushConnection);
+        verify(pushReceiver, never()).pushError(anyString(), any(Exception.class));
+        server.verifyInteractionCompleted();
+        pusher = null;
+    }
+
+    private void loginDialog(String postAuthCapabilities) {
+        server.output("* OK IMAP4rev1 Service Ready");
+        server.expect("1 CAPABILITY");
+        server.output("* CAPABILITY IMAP4 IMAP4REV1");
+        server.output("1 OK CAPABILITY");
+        server.expect("2 LOGIN \"" + USERNAME + "\" \"" + PASSWORD + "\"");
+        server.output("2 OK [CAPABILITY IMAP4rev1 " + postAuthCapabilities + "] LOGIN completed");
+    }
+
+    private void startPusher() throws IOException {
+        server.start();
+        settings.setHost(server.getHost());
+        settings.setPort(server.getPort());
+
+        pushConnection = new ImapConnection(settings, TestTrustedSocketFactory.newInstance(),
+                mock(ConnectivityManager.class), mock(OAuth2TokenProvider.class), SOCKET_CONNECT_TIMEOUT,
+                SOCKET_READ_TIMEOUT, new ImapSessionProfile());
+        when(imapStore.createImapConnection()).thenReturn(pushConnection);
+
+        pusher = new ImapNotifyPusher(imapStore, Arrays.asList("INBOX", "Folder"), pushReceiver, powerManager,
+                fallbackHandler);
+        pusher.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Message> verifyMessagesArrived(String folderServerId) {
+        ArgumentCaptor<ImapFolder> folderCaptor = ArgumentCaptor.forClass(ImapFolder.class);
+        ArgumentCaptor<List> messagesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(pushReceiver, timeout(VERIFICATION_TIMEOUT).times(1)).messagesArrived(folderCaptor.capture(),
+                messagesCaptor.capture());
+        assertEquals(folderServerId, folderCaptor.getValue().getServerId());
+
+        return messagesCaptor.getValue();
+    }
+}
@@ -65,11 +65,25 @@ public class ImapPusherTest {
     }
 
     @Test
-    public void start_withTwoFolderNames_shouldCreateTwoImapFolderPushersAndCallStart() throws Exception {
+    public void start_withTwoFolderNames_shouldCreateImapNotifyPusherAndCallStartOnIt() throws Exception {
         List<String> folderNames = Arrays.asList("Important", "Drafts");
 
         imapPusher.start(folderNames);
 
+        assertEquals(0, imapPusher.getImapFolderPushers().size());
+        List<ImapNotifyPusher> imapNotifyPushers = imapPusher.getImapNotifyPushers();
+        assertEquals(1, imapNotifyPushers.size());
+        verify(imapNotifyPushers.get(0)).start();
+    }
+
+    @Test
+    public void fallBackToFolderPushers_withTwoFolderNames_shouldCreateTwoImapFolderPushersAndCallStart()
+            throws Exception {
+        List<String> folderNames = Arrays.asList("Important", "Drafts");
+        imapPusher.start(folderNames);
+
+        imapPusher.fallBackToFolderPushers(imapPusher.getImapNotifyPushers().get(0));
+
         List<ImapFolderPusher> imapFolderPushers = imapPusher.getImapFolderPushers();
         assertEquals(2, imapFolderPushers.size());
         ImapFolderPusher imapFolderPusherOne = imapFolderPushers.get(0);
@@ -78,6 +92,39 @@ public class ImapPusherTest {
         verify(imapFolderPusherTwo).start();
     }
 
+    @Test
+    public void start_afterFallBackToFolderPushers_shouldNotCreateAnotherImapNotifyPusher() throws Exception {
+        List<String> folderNames = Arrays.asList("Important", "Drafts");
+        imapPusher.start(folderNames);
+        imapPusher.fallBackToFolderPushers(imapPusher.getImapNotifyPushers().get(0));
+
+        imapPusher.start(folderNames);
+
+        assertEquals(1, imapPusher.getImapNotifyPushers().size());
+        assertEquals(4, imapPusher.getImapFolderPushers().size());
+    }
+
+    @Test
+    public void fallBackToFolderPushers_afterStop_shouldNotCreateImapFolderPushers() throws Exception {
+        imapPusher.start(Arrays.asList("Important", "Drafts"));
+        ImapNotifyPusher imapNotifyPusher = imapPusher.getImapNotifyPushers().get(0);
+        imapPusher.stop();
+
+        imapPusher.fallBackToFolderPushers(imapNotifyPusher);
+
+        verify(imapNotifyPusher).stop();
+        assertEquals(0, imapPusher.getImapFolderPushers().size());
+    }
+
+    @Test
+    public void refresh_afterStartWithTwoFolderNames_shouldCallRefreshOnImapNotifyPusher() throws Exception {
+        imapPusher.start(Arrays.asList("Important", "Drafts"));
+
+        imapPusher.refresh();
+
+        verify(imapPusher.getImapNotifyPushers().get(0)).refresh();
+    }
+
     @Test
     public void stop_withoutStartBeingCalled_shouldNotCreateAnyImapFolderPushers() throws Exception {
         imapPusher.stop();
@@ -156,6 +203,7 @@ public class ImapPusherTest {
 
 
         private final List<ImapFolderPusher> imapFolderPushers = new ArrayList<>();
+        private final List<ImapNotifyPusher> imapNotifyPushers = new ArrayList<>();
 
 
         public TestImapPusher(ImapStore store, PushReceiver receiver, PowerManager powerManager) {
@@ -173,6 +221,18 @@ public class ImapPusherTest {
             return imapFolderPushers;
         }
 
+        @Override
+        ImapNotifyPusher createImapNotifyPusher(List<String> folderServerIds) {
+            ImapNotifyPusher imapNotifyPusher = mock(ImapNotifyPusher.class);
+            when(imapNotifyPusher.getFolderServerIds()).thenReturn(folderServerIds);
+            imapNotifyPushers.add(imapNotifyPusher);
+            return imapNotifyPusher;
+        }
+
+        public List<ImapNotifyPusher> getImapNotifyPushers() {
+            return imapNotifyPushers;
+        }
+
         @Override
         long currentTimeMillis() {
             return CURRENT_TIME_MILLIS;
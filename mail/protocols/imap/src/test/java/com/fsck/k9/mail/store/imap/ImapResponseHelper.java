@@ -21,11 +21,16 @@ public class ImapResponseHelper {
     }
 
     public static ImapResponse createImapResponse(String response) throws IOException {
+        return createImapResponse(response, null);
+    }
+
+    public static ImapResponse createImapResponse(String response, ImapResponseCallback callback)
+            throws IOException {
         String input = response + "\r\n";
         PeekableInputStream inputStream = new PeekableInputStream(new ByteArrayInputStream(input.getBytes()));
         ImapResponseParser parser = new ImapResponseParser(inputStream);
 
-        return parser.readResponse();
+        return parser.readResponse(callback);
     }
 
     public static Set<Long> createNonContiguousIdSet(long start, long end, int interval) {
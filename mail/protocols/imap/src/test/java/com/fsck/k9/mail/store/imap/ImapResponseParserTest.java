@@ -13,6 +13,7 @@ import org.junit.Test;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -141,6 +142,31 @@ public class ImapResponseParserTest {
 
     }
 
+    @Test
+    public void testReadPipelinedStatusResponseDemultiplexesByTag() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (FLAGS ())\r\n" +
+                "A2 OK COMMAND completed\r\n" +
+                "A0 OK previous command\r\n" +
+                "* 2 EXPUNGE\r\n" +
+                "A1 NO COMMAND failed\r\n");
+        List<String> tags = asList("A1", "A2");
+
+        List<ImapResponse> firstResponses = new ArrayList<>();
+        int firstIndex = parser.readPipelinedStatusResponse(tags, firstResponses, null, null);
+        List<ImapResponse> secondResponses = new ArrayList<>();
+        int secondIndex = parser.readPipelinedStatusResponse(tags, secondResponses, null, null);
+
+        assertEquals(1, firstIndex);
+        assertEquals(2, firstResponses.size());
+        assertEquals("FETCH", firstResponses.get(0).getString(1));
+        assertEquals("A2", firstResponses.get(1).getTag());
+        assertEquals(0, secondIndex);
+        assertEquals(2, secondResponses.size());
+        assertEquals(asList("2", "EXPUNGE"), secondResponses.get(0));
+        assertEquals("A1", secondResponses.get(1).getTag());
+        assertAllInputConsumed();
+    }
+
     @Test(expected = NegativeImapResponseException.class)
     public void testReadStatusResponseWithErrorResponse() throws Exception {
         ImapResponseParser parser = createParser("* COMMAND BAR BAZ\r\nTAG ERROR COMMAND errored\r\n");
@@ -218,6 +244,27 @@ public class ImapResponseParserTest {
         assertEquals("", response.getString(0));
     }
 
+    @Test
+    public void testParseLiteral8() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (BINARY[1] ~{4}\r\nte\0t)\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        ImapList fetchList = response.getList(2);
+        assertEquals("BINARY", fetchList.getString(0));
+        assertEquals("te\0t", fetchList.getString(2));
+        assertAllInputConsumed();
+    }
+
+    @Test
+    public void testParseAtomStartingWithTilde() throws Exception {
+        ImapResponseParser parser = createParser("* LIST () \"/\" ~user\r\n");
+
+        ImapResponse response = parser.readResponse();
+
+        assertEquals("~user", response.getString(3));
+    }
+
     @Test(expected = IOException.class)
     public void testParseLiteralToEndOfStream() throws Exception {
         ImapResponseParser parser = createParser("* {4}\r\nabc");
@@ -225,6 +272,27 @@ public class ImapResponseParserTest {
         parser.readResponse();
     }
 
+    @Test(expected = IOException.class)
+    public void testParseLiteralWithInvalidSize() throws Exception {
+        ImapResponseParser parser = createParser("* {4x}\r\ntest\r\n");
+
+        parser.readResponse();
+    }
+
+    @Test
+    public void testReadResponseReusesKnownAtoms() throws Exception {
+        ImapResponseParser parser = createParser("* 1 FETCH (UID 23 FLAGS (\\Seen))\r\n" +
+                "* 2 FETCH (UID 24 FLAGS (\\Seen))\r\n");
+
+        ImapResponse first = parser.readResponse();
+        ImapResponse second = parser.readResponse();
+
+        assertSame(first.getString(1), second.getString(1));
+        assertSame(first.getList(2).getKeyedList("FLAGS").getString(0),
+                second.getList(2).getKeyedList("FLAGS").getString(0));
+        assertEquals("24", second.getList(2).getKeyedString("UID"));
+    }
+
     @Test
     public void testParseLiteralWithConsumingCallbackReturningNull() throws Exception {
         ImapResponseParser parser = createParser("* {4}\r\ntest\r\n");
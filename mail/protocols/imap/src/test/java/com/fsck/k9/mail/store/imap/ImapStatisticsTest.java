@@ -0,0 +1,72 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class ImapStatisticsTest {
+    private final ImapStatisticsRecorder recorder = new ImapStatisticsRecorder();
+
+
+    @Test
+    public void recordCommand_shouldAggregatePerCommandType() throws Exception {
+        recorder.recordCommand("SELECT", millisToNanos(5), 20, 10, 300, 100, millisToNanos(1));
+        recorder.recordCommand("SELECT", millisToNanos(200), 20, 10, 500, 200, millisToNanos(2));
+        recorder.recordCommand("NOOP", millisToNanos(40000), 10, 5, 10, 5, 0);
+
+        List<CommandStatistics> commandStatistics = recorder.getStatistics().getCommandStatistics();
+
+        assertEquals(2, commandStatistics.size());
+        CommandStatistics select = commandStatistics.get(1);
+        assertEquals("SELECT", select.getCommandType());
+        assertEquals(2, select.getCount());
+        assertEquals(205, select.getTotalLatencyMillis());
+        assertEquals(200, select.getMaxLatencyMillis());
+        assertEquals(40, select.getBytesSent());
+        assertEquals(20, select.getWireBytesSent());
+        assertEquals(800, select.getBytesReceived());
+        assertEquals(300, select.getWireBytesReceived());
+        assertEquals(3, select.getParseTimeMillis());
+        assertEquals(1, select.getLatencyHistogram()[0]);
+        assertEquals(1, select.getLatencyHistogram()[4]);
+    }
+
+    @Test
+    public void getLatencyBucket_withLatencyAboveLastBound_shouldReturnOverflowBucket() throws Exception {
+        int bucket = CommandStatistics.getLatencyBucket(40000);
+
+        assertEquals(CommandStatistics.LATENCY_BUCKET_BOUNDS_MILLIS.length, bucket);
+    }
+
+    @Test
+    public void getLatencyBucket_withLatencyEqualToBound_shouldReturnBucketOfBound() throws Exception {
+        int bucket = CommandStatistics.getLatencyBucket(10);
+
+        assertEquals(0, bucket);
+    }
+
+    @Test
+    public void writeTo_shouldWriteOneLinePerCommandType() throws Exception {
+        recorder.recordCommand("UID FETCH", millisToNanos(30), 40, 20, 4000, 1000, millisToNanos(7));
+        StringWriter writer = new StringWriter();
+
+        recorder.getStatistics().writeTo(writer);
+
+        String[] lines = writer.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("command,count,total_latency_ms,max_latency_ms,le_10ms,le_25ms,le_50ms,le_100ms,le_250ms," +
+                "le_500ms,le_1000ms,le_2500ms,le_5000ms,le_10000ms,le_30000ms,gt_30000ms,bytes_sent,wire_bytes_sent," +
+                "bytes_received,wire_bytes_received,parse_time_ms", lines[1]);
+        assertEquals("UID FETCH,1,30,30,0,0,1,0,0,0,0,0,0,0,0,0,40,20,4000,1000,7", lines[2]);
+    }
+
+
+    private static long millisToNanos(long millis) {
+        return millis * 1000000L;
+    }
+}
@@ -29,6 +29,7 @@ import org.mockito.internal.util.collections.Sets;
 import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
@@ -155,6 +156,127 @@ public class ImapStoreTest {
         verify(imapConnection).executeSimpleCommand("LIST \"\" \"*\"");
     }
 
+    @Test
+    public void getPersonalNamespaces_withListStatusCapability_shouldRememberFolderStatus() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.hasCapability(Capabilities.LIST_STATUS)).thenReturn(true);
+        when(imapConnection.hasCapability(Capabilities.CONDSTORE)).thenReturn(true);
+        List<ImapResponse> imapResponses = Arrays.asList(
+                createImapResponse("* LIST (\\HasNoChildren) \".\" \"INBOX\""),
+                createImapResponse("* STATUS \"INBOX\" (MESSAGES 17 UIDNEXT 44292 UIDVALIDITY 1234 " +
+                        "HIGHESTMODSEQ 9006)"),
+                createImapResponse("* LIST (\\HasNoChildren) \".\" \"Folder\""),
+                createImapResponse("6 OK Success")
+        );
+        when(imapConnection.executeSimpleCommand(
+                "LIST \"\" \"*\" RETURN (STATUS (MESSAGES UIDNEXT UIDVALIDITY HIGHESTMODSEQ))"))
+                .thenReturn(imapResponses);
+        imapStore.enqueueImapConnection(imapConnection);
+
+        imapStore.getPersonalNamespaces();
+
+        StatusResponse inboxStatus = imapStore.takeFolderStatus("INBOX");
+        assertNotNull(inboxStatus);
+        assertEquals(44292L, inboxStatus.getUidNext());
+        assertEquals(9006L, inboxStatus.getHighestModSeq());
+        assertNull(imapStore.takeFolderStatus("INBOX"));
+        assertNull(imapStore.takeFolderStatus("Folder"));
+    }
+
+    @Test
+    public void refreshFolderStatus_withListStatusCapability_shouldRememberStatusOfGivenFolders() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.hasCapability(Capabilities.LIST_STATUS)).thenReturn(true);
+        List<ImapResponse> imapResponses = Arrays.asList(
+                createImapResponse("* LIST (\\HasNoChildren) \".\" \"INBOX\""),
+                createImapResponse("* STATUS \"INBOX\" (MESSAGES 3 UIDNEXT 12 UIDVALIDITY 1234)"),
+                createImapResponse("* LIST (\\HasNoChildren) \".\" \"Folder\""),
+                createImapResponse("* STATUS \"Folder\" (MESSAGES 17 UIDNEXT 44292 UIDVALIDITY 1234)"),
+                createImapResponse("6 OK Success")
+        );
+        when(imapConnection.executeSimpleCommand(
+                "LIST \"\" (\"INBOX\" \"Folder\") RETURN (STATUS (MESSAGES UIDNEXT UIDVALIDITY))"))
+                .thenReturn(imapResponses);
+        imapStore.enqueueImapConnection(imapConnection);
+
+        imapStore.refreshFolderStatus(Arrays.asList("INBOX", "Folder"));
+
+        StatusResponse inboxStatus = imapStore.takeFolderStatus("INBOX");
+        assertNotNull(inboxStatus);
+        assertEquals(3L, inboxStatus.getMessageCount());
+        StatusResponse folderStatus = imapStore.takeFolderStatus("Folder");
+        assertNotNull(folderStatus);
+        assertEquals(17L, folderStatus.getMessageCount());
+    }
+
+    @Test
+    public void refreshFolderStatus_withPathPrefix_shouldListPrefixedFolderNames() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.hasCapability(Capabilities.LIST_STATUS)).thenReturn(true);
+        List<ImapResponse> imapResponses = Arrays.asList(
+                createImapResponse("* LIST (\\HasNoChildren) \".\" \"INBOX.Folder\""),
+                createImapResponse("* STATUS \"INBOX.Folder\" (MESSAGES 17 UIDNEXT 44292 UIDVALIDITY 1234)"),
+                createImapResponse("6 OK Success")
+        );
+        when(imapConnection.executeSimpleCommand(
+                "LIST \"\" (\"INBOX\" \"INBOX.Folder\") RETURN (STATUS (MESSAGES UIDNEXT UIDVALIDITY))"))
+                .thenReturn(imapResponses);
+        imapStore.enqueueImapConnection(imapConnection);
+        imapStore.setTestCombinedPrefix("INBOX.");
+
+        imapStore.refreshFolderStatus(Arrays.asList("INBOX", "Folder"));
+
+        StatusResponse folderStatus = imapStore.takeFolderStatus("Folder");
+        assertNotNull(folderStatus);
+        assertEquals(17L, folderStatus.getMessageCount());
+        assertNull(imapStore.takeFolderStatus("INBOX"));
+    }
+
+    @Test
+    public void refreshFolderStatus_withSingleFolder_shouldNotListFolders() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        when(imapConnection.hasCapability(Capabilities.LIST_STATUS)).thenReturn(true);
+        imapStore.enqueueImapConnection(imapConnection);
+
+        imapStore.refreshFolderStatus(Collections.singletonList("Folder"));
+
+        verify(imapConnection, never()).executeSimpleCommand(anyString());
+    }
+
+    @Test
+    public void refreshFolderStatus_withoutListStatusCapability_shouldNotListFolders() throws Exception {
+        ImapConnection imapConnection = mock(ImapConnection.class);
+        imapStore.enqueueImapConnection(imapConnection);
+
+        imapStore.refreshFolderStatus(Arrays.asList("INBOX", "Folder"));
+
+        verify(imapConnection, never()).executeSimpleCommand(anyString());
+    }
+
+    @Test
+    public void getMaxParallelSyncs_withActivePushConnections_shouldLeaveRoomForThem() throws Exception {
+        int maxParallelSyncs = imapStore.getMaxParallelSyncs();
+
+        imapStore.pushConnectionStarted();
+        imapStore.pushConnectionStarted();
+
+        assertEquals(maxParallelSyncs - 2, imapStore.getMaxParallelSyncs());
+
+        imapStore.pushConnectionStopped();
+        imapStore.pushConnectionStopped();
+
+        assertEquals(maxParallelSyncs, imapStore.getMaxParallelSyncs());
+    }
+
+    @Test
+    public void getMaxParallelSyncs_withManyActivePushConnections_shouldAllowOneSync() throws Exception {
+        for (int i = 0, count = imapStore.getMaxParallelSyncs(); i < count; i++) {
+            imapStore.pushConnectionStarted();
+        }
+
+        assertEquals(1, imapStore.getMaxParallelSyncs());
+    }
+
     @Test
     public void getPersonalNamespaces_withoutSubscribedFoldersOnly() throws Exception {
         when(storeConfig.isSubscribedFoldersOnly()).thenReturn(false);
@@ -337,6 +459,26 @@ public class ImapStoreTest {
         assertSame(imapConnectionTwo, result);
     }
 
+    @Test
+    public void getConnectionPoolStatistics_shouldCountHitsMissesAndFailedProbes() throws Exception {
+        ImapConnection imapConnectionOne = mock(ImapConnection.class);
+        ImapConnection imapConnectionTwo = mock(ImapConnection.class);
+        imapStore.enqueueImapConnection(imapConnectionOne);
+        imapStore.enqueueImapConnection(imapConnectionTwo);
+        when(imapConnectionOne.isConnected()).thenReturn(true);
+        imapStore.releaseConnection(imapStore.getConnection());
+        imapStore.releaseConnection(imapStore.getConnection());
+        doThrow(IOException.class).when(imapConnectionOne).executeSimpleCommand(Commands.NOOP);
+
+        imapStore.getConnection();
+
+        ConnectionPoolStatistics statistics = imapStore.getConnectionPoolStatistics();
+        assertEquals(1, statistics.getHits());
+        assertEquals(2, statistics.getMisses());
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(0, statistics.getIdleConnections());
+    }
+
 
     private ImapStoreSettings createImapStoreSettings() {
         return new ImapStoreSettings(
@@ -0,0 +1,113 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+
+public class ImapTokenBufferTest {
+    private final ImapTokenBuffer tokenBuffer = new ImapTokenBuffer();
+
+
+    @Test
+    public void decode_withKnownAtom_shouldReturnSharedInstance() throws Exception {
+        append("FETCH");
+        String first = tokenBuffer.decode();
+        tokenBuffer.clear();
+        append("FETCH");
+
+        String second = tokenBuffer.decode();
+
+        assertEquals("FETCH", first);
+        assertSame(first, second);
+    }
+
+    @Test
+    public void decode_withDifferentCase_shouldNotReturnKnownAtom() throws Exception {
+        append("\\seen");
+
+        String result = tokenBuffer.decode();
+
+        assertEquals("\\seen", result);
+    }
+
+    @Test
+    public void decode_withUnknownToken_shouldReturnNewInstance() throws Exception {
+        append("4827");
+        String first = tokenBuffer.decode();
+        tokenBuffer.clear();
+        append("4827");
+
+        String second = tokenBuffer.decode();
+
+        assertEquals("4827", first);
+        assertEquals(first, second);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void decode_withEightBitBytes_shouldMapBytesToCharacters() throws Exception {
+        tokenBuffer.append(0xE4);
+        tokenBuffer.append('x');
+
+        String result = tokenBuffer.decode();
+
+        assertEquals("äx", result);
+    }
+
+    @Test
+    public void decode_withEmptyBuffer_shouldReturnEmptyString() throws Exception {
+        String result = tokenBuffer.decode();
+
+        assertEquals("", result);
+    }
+
+    @Test
+    public void append_withTokenExceedingInitialCapacity_shouldGrow() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            expected.append((char) ('a' + i % 26));
+        }
+        append(expected.toString());
+
+        String result = tokenBuffer.decode();
+
+        assertEquals(expected.toString(), result);
+    }
+
+    @Test
+    public void parseNumber_withDigits_shouldReturnValue() throws Exception {
+        append("2147483647");
+
+        int result = tokenBuffer.parseNumber();
+
+        assertEquals(Integer.MAX_VALUE, result);
+    }
+
+    @Test
+    public void parseNumber_withValueTooLarge_shouldReturnMinusOne() throws Exception {
+        append("2147483648");
+
+        int result = tokenBuffer.parseNumber();
+
+        assertEquals(-1, result);
+    }
+
+    @Test
+    public void parseNumber_withNonDigit_shouldReturnMinusOne() throws Exception {
+        append("12a");
+
+        int result = tokenBuffer.parseNumber();
+
+        assertEquals(-1, result);
+    }
+
+    private void append(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            tokenBuffer.append(value.charAt(i));
+        }
+    }
+}
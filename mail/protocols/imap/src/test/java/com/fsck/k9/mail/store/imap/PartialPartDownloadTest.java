@@ -0,0 +1,42 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class PartialPartDownloadTest {
+    private static final long NOW = 1500000000000L;
+
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+
+    @Test
+    public void deleteStaleDownloads_shouldDeleteOnlyOldPartialDownloads() throws Exception {
+        File directory = temporaryFolder.getRoot();
+        File staleDownload = createFile("imap-part-stale", NOW - PartialPartDownload.MAX_AGE_MILLIS - 1);
+        File recentDownload = createFile("imap-part-recent", NOW - 1000);
+        File otherFile = createFile("body", NOW - PartialPartDownload.MAX_AGE_MILLIS - 1);
+
+        PartialPartDownload.deleteStaleDownloads(directory, NOW);
+
+        assertFalse(staleDownload.exists());
+        assertTrue(recentDownload.exists());
+        assertTrue(otherFile.exists());
+    }
+
+    private File createFile(String name, long lastModified) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
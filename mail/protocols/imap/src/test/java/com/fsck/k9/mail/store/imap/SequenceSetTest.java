@@ -0,0 +1,85 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class SequenceSetTest {
+    @Test
+    public void parse_withSingleNumber() throws Exception {
+        SequenceSet result = SequenceSet.parse("23");
+
+        assertEquals(1, result.getRangeCount());
+        assertEquals(23L, result.getRangeStart(0));
+        assertEquals(23L, result.getRangeEnd(0));
+        assertEquals(1L, result.getCount());
+        assertEquals(23L, result.getMax());
+    }
+
+    @Test
+    public void parse_withRangesAndNumbers() throws Exception {
+        SequenceSet result = SequenceSet.parse("2,10:15,20");
+
+        assertEquals(3, result.getRangeCount());
+        assertEquals(2L, result.getRangeStart(0));
+        assertEquals(10L, result.getRangeStart(1));
+        assertEquals(15L, result.getRangeEnd(1));
+        assertEquals(8L, result.getCount());
+        assertEquals(20L, result.getMax());
+        assertFalse(result.isEmpty());
+    }
+
+    @Test
+    public void parse_withReversedRange_shouldNormalizeRange() throws Exception {
+        SequenceSet result = SequenceSet.parse("15:10");
+
+        assertEquals(10L, result.getRangeStart(0));
+        assertEquals(15L, result.getRangeEnd(0));
+    }
+
+    @Test
+    public void parse_withUnsortedRanges_shouldSortRanges() throws Exception {
+        SequenceSet result = SequenceSet.parse("30:31,5,10:12");
+
+        assertEquals(5L, result.getRangeStart(0));
+        assertEquals(10L, result.getRangeStart(1));
+        assertEquals(30L, result.getRangeStart(2));
+        assertEquals(31L, result.getMax());
+    }
+
+    @Test
+    public void parse_withLargeUids() throws Exception {
+        SequenceSet result = SequenceSet.parse("4294967294:4294967295");
+
+        assertEquals(2L, result.getCount());
+        assertEquals(4294967295L, result.getMax());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parse_withAsterisk_shouldThrow() throws Exception {
+        SequenceSet.parse("1:*");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parse_withEmptyElement_shouldThrow() throws Exception {
+        SequenceSet.parse("1,,2");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parse_withEmptyString_shouldThrow() throws Exception {
+        SequenceSet.parse("");
+    }
+
+    @Test
+    public void empty() throws Exception {
+        SequenceSet result = SequenceSet.empty();
+
+        assertTrue(result.isEmpty());
+        assertEquals(0, result.getRangeCount());
+        assertEquals(-1L, result.getMax());
+    }
+}
@@ -0,0 +1,132 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class SortedLongMapTest {
+    private final SortedLongMap map = new SortedLongMap(2);
+
+
+    @Test
+    public void put_inAscendingOrder_shouldKeepAllEntries() throws Exception {
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, key * 10);
+        }
+
+        assertEquals(100, map.size());
+        assertEquals(10L, map.get(1, -1));
+        assertEquals(1000L, map.get(100, -1));
+    }
+
+    @Test
+    public void put_outOfOrder_shouldKeepKeysSorted() throws Exception {
+        map.put(30, 3);
+        map.put(10, 1);
+        map.put(20, 2);
+
+        assertMapEquals(new long[] { 10, 20, 30 }, new long[] { 1, 2, 3 });
+    }
+
+    @Test
+    public void put_inDescendingOrder_shouldKeepAllEntries() throws Exception {
+        for (long key = 100; key >= 1; key--) {
+            map.put(key, key * 10);
+        }
+
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 1, map.keyAt(i));
+            assertEquals((i + 1) * 10, map.valueAt(i));
+        }
+    }
+
+    @Test
+    public void put_withExistingKeyOutOfOrder_shouldKeepLastValue() throws Exception {
+        map.put(20, 2);
+        map.put(30, 3);
+        map.put(10, 1);
+        map.put(30, 6);
+        map.put(10, 4);
+        map.put(20, 5);
+
+        assertMapEquals(new long[] { 10, 20, 30 }, new long[] { 4, 5, 6 });
+    }
+
+    @Test
+    public void put_withExistingKey_shouldReplaceValue() throws Exception {
+        map.put(10, 1);
+        map.put(20, 2);
+        map.put(10, 5);
+
+        assertMapEquals(new long[] { 10, 20 }, new long[] { 5, 2 });
+    }
+
+    @Test
+    public void get_withMissingKey_shouldReturnDefaultValue() throws Exception {
+        map.put(10, 1);
+
+        assertEquals(-1L, map.get(11, -1));
+        assertFalse(map.containsKey(11));
+        assertTrue(map.containsKey(10));
+    }
+
+    @Test
+    public void remove_shouldOnlyRemoveKey() throws Exception {
+        map.put(10, 1);
+        map.put(20, 2);
+        map.put(30, 3);
+
+        boolean removed = map.remove(20);
+
+        assertTrue(removed);
+        assertMapEquals(new long[] { 10, 30 }, new long[] { 1, 3 });
+    }
+
+    @Test
+    public void removeAndShiftFollowingKeys_shouldDecrementLargerKeys() throws Exception {
+        map.put(1, 100);
+        map.put(2, 200);
+        map.put(3, 300);
+        map.put(4, 400);
+
+        boolean removed = map.removeAndShiftFollowingKeys(2);
+
+        assertTrue(removed);
+        assertMapEquals(new long[] { 1, 2, 3 }, new long[] { 100, 300, 400 });
+    }
+
+    @Test
+    public void removeAndShiftFollowingKeys_withMissingKey_shouldStillDecrementLargerKeys() throws Exception {
+        map.put(1, 100);
+        map.put(5, 500);
+
+        boolean removed = map.removeAndShiftFollowingKeys(3);
+
+        assertFalse(removed);
+        assertMapEquals(new long[] { 1, 4 }, new long[] { 100, 500 });
+    }
+
+    @Test
+    public void clear_shouldRemoveAllEntries() throws Exception {
+        map.put(1, 100);
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(1));
+    }
+
+
+    private void assertMapEquals(long[] expectedKeys, long[] expectedValues) {
+        assertEquals(expectedKeys.length, map.size());
+        for (int i = 0; i < expectedKeys.length; i++) {
+            assertEquals(expectedKeys[i], map.keyAt(i));
+            assertEquals(expectedValues[i], map.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class SortedLongSetTest {
+    private final SortedLongSet set = new SortedLongSet(2);
+
+
+    @Test
+    public void add_outOfOrder_shouldSortValues() throws Exception {
+        set.add(30);
+        set.add(10);
+        set.add(20);
+
+        assertEquals(3, set.size());
+        assertEquals(10L, set.get(0));
+        assertEquals(20L, set.get(1));
+        assertEquals(30L, set.get(2));
+    }
+
+    @Test
+    public void add_withDuplicates_shouldKeepValueOnce() throws Exception {
+        set.add(10);
+        set.add(10);
+        set.add(5);
+        set.add(10);
+
+        assertEquals(2, set.size());
+        assertEquals(5L, set.get(0));
+        assertEquals(10L, set.get(1));
+    }
+
+    @Test
+    public void contains() throws Exception {
+        for (long value = 1000; value > 0; value -= 2) {
+            set.add(value);
+        }
+
+        assertTrue(set.contains(2));
+        assertTrue(set.contains(1000));
+        assertFalse(set.contains(1));
+        assertFalse(set.contains(1001));
+    }
+
+    @Test
+    public void add_afterQuery_shouldStillSortValues() throws Exception {
+        set.add(20);
+        set.contains(20);
+
+        set.add(10);
+
+        assertTrue(set.contains(10));
+        assertEquals(10L, set.get(0));
+    }
+}
@@ -0,0 +1,77 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+public class StatusResponseTest {
+    @Test
+    public void parse_withStatusResponse_shouldExtractValues() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* STATUS INBOX (MESSAGES 231 UIDNEXT 44292)");
+
+        StatusResponse result = StatusResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertEquals("INBOX", result.getEncodedFolderName());
+        assertEquals(231L, result.getMessageCount());
+        assertEquals(44292L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withListStatusItems_shouldExtractAllValues() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* STATUS INBOX (MESSAGES 17 UNSEEN 16 UIDNEXT 44292 " +
+                "UIDVALIDITY 1234 HIGHESTMODSEQ 90060115205545359)");
+
+        StatusResponse result = StatusResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertEquals(17L, result.getMessageCount());
+        assertEquals(44292L, result.getUidNext());
+        assertEquals(1234L, result.getUidValidity());
+        assertEquals(90060115205545359L, result.getHighestModSeq());
+    }
+
+    @Test
+    public void parse_withQuotedFolderNameAndWithoutUidNext_shouldReturnMinusOne() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* STATUS \"Sent Items\" (MESSAGES 7)");
+
+        StatusResponse result = StatusResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertEquals("Sent Items", result.getEncodedFolderName());
+        assertEquals(7L, result.getMessageCount());
+        assertEquals(-1L, result.getUidNext());
+    }
+
+    @Test
+    public void parse_withInvalidNumber_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* STATUS INBOX (UIDNEXT x)");
+
+        StatusResponse result = StatusResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("x STATUS INBOX (MESSAGES 1)");
+
+        StatusResponse result = StatusResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withOtherResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* 23 EXISTS");
+
+        StatusResponse result = StatusResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+}
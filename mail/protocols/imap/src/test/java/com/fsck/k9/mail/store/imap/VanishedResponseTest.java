@@ -0,0 +1,64 @@
+package com.fsck.k9.mail.store.imap;
+
+
+import org.junit.Test;
+
+import static com.fsck.k9.mail.store.imap.ImapResponseHelper.createImapResponse;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class VanishedResponseTest {
+    @Test
+    public void parse_withVanishedResponse_shouldExtractUids() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED 405,407:409");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertFalse(result.isEarlier());
+        assertEquals(asList("405", "407", "408", "409"), result.getUids());
+    }
+
+    @Test
+    public void parse_withVanishedEarlierResponse_shouldExtractUids() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED (EARLIER) 41,43:44");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNotNull(result);
+        assertTrue(result.isEarlier());
+        assertEquals(asList("41", "43", "44"), result.getUids());
+    }
+
+    @Test
+    public void parse_withTaggedResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("x VANISHED 1");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withExpungeResponse_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* 23 EXPUNGE");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+
+    @Test
+    public void parse_withoutUidSet_shouldReturnNull() throws Exception {
+        ImapResponse imapResponse = createImapResponse("* VANISHED (EARLIER)");
+
+        VanishedResponse result = VanishedResponse.parse(imapResponse);
+
+        assertNull(result);
+    }
+}
@@ -5,14 +5,13 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
 import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
@@ -26,6 +25,8 @@ import com.fsck.k9.mail.K9MailLib;
 import com.fsck.k9.mail.MessagingException;
 import com.fsck.k9.mail.filter.Base64;
 import com.fsck.k9.mail.filter.Hex;
+import com.fsck.k9.mail.net.HappyEyeballsConnector;
+import com.fsck.k9.mail.net.HappyEyeballsConnector.SocketCreator;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
 import com.fsck.k9.mail.store.RemoteStore;
 import javax.net.ssl.SSLException;
@@ -37,6 +38,10 @@ import static com.fsck.k9.mail.store.pop3.Pop3Commands.*;
 
 
 class Pop3Connection {
+    /**
+     * The maximum number of commands sent before reading their responses, so neither side's socket buffer fills up.
+     */
+    static final int MAX_PIPELINED_COMMANDS = 50;
 
     private final Pop3Settings settings;
     private final TrustedSocketFactory trustedSocketFactory;
@@ -60,15 +65,11 @@ class Pop3Connection {
 
     void open() throws MessagingException {
         try {
-            SocketAddress socketAddress = new InetSocketAddress(settings.getHost(), settings.getPort());
-            if (settings.getConnectionSecurity() == ConnectionSecurity.SSL_TLS_REQUIRED) {
-                socket = trustedSocketFactory.createSocket(null, settings.getHost(),
-                        settings.getPort(), settings.getClientCertificateAlias());
-            } else {
-                socket = new Socket();
-            }
-
-            socket.connect(socketAddress, RemoteStore.SOCKET_CONNECT_TIMEOUT);
+            SocketCreator socketCreator = HappyEyeballsConnector.createSocketCreator(trustedSocketFactory,
+                    settings.getConnectionSecurity(), settings.getHost(), settings.getPort(),
+                    settings.getClientCertificateAlias());
+            socket = HappyEyeballsConnector.connect(settings.getHost(), settings.getPort(),
+                    RemoteStore.SOCKET_CONNECT_TIMEOUT, socketCreator);
             in = new BufferedInputStream(socket.getInputStream(), 1024);
             out = new BufferedOutputStream(socket.getOutputStream(), 512);
 
@@ -222,6 +223,8 @@ class Pop3Connection {
                     capabilities.uidl = true;
                 } else if (response.equals(TOP_CAPABILITY)) {
                     capabilities.top = true;
+                } else if (response.equals(PIPELINING_CAPABILITY)) {
+                    capabilities.pipelining = true;
                 } else if (response.startsWith(SASL_CAPABILITY)) {
                     List<String> saslAuthMechanisms = Arrays.asList(response.split(" "));
                     if (saslAuthMechanisms.contains(AUTH_PLAIN_CAPABILITY)) {
@@ -353,12 +356,7 @@ class Pop3Connection {
                 writeLine(command);
             }
 
-            String response = readLine();
-            if (response.length() == 0 || response.charAt(0) != '+') {
-                throw new Pop3ErrorResponse(response);
-            }
-
-            return response;
+            return readResponse();
         } catch (MessagingException me) {
             throw me;
         } catch (Exception e) {
@@ -367,6 +365,93 @@ class Pop3Connection {
         }
     }
 
+    /**
+     * Executes commands with single-line responses, e.g. {@code DELE}. If the server supports {@code PIPELINING}
+     * (RFC 2449) the commands are sent in batches before reading the responses. Otherwise they are executed one after
+     * the other.
+     *
+     * @return The responses in the order of the commands.
+     *
+     * @throws Pop3ErrorResponse
+     *         for the first command that failed, after all responses have been read.
+     */
+    List<String> executeSimpleCommands(List<String> commands) throws MessagingException {
+        List<String> responses = new ArrayList<>(commands.size());
+        if (!supportsPipelining()) {
+            for (String command : commands) {
+                responses.add(executeSimpleCommand(command));
+            }
+            return responses;
+        }
+
+        Pop3ErrorResponse errorResponse = null;
+        for (int start = 0, count = commands.size(); start < count; start += MAX_PIPELINED_COMMANDS) {
+            int end = Math.min(start + MAX_PIPELINED_COMMANDS, count);
+            sendCommands(commands.subList(start, end));
+
+            for (int i = start; i < end; i++) {
+                try {
+                    responses.add(readResponse());
+                } catch (Pop3ErrorResponse e) {
+                    if (errorResponse == null) {
+                        errorResponse = e;
+                    }
+                    responses.add(null);
+                }
+            }
+        }
+
+        if (errorResponse != null) {
+            throw errorResponse;
+        }
+
+        return responses;
+    }
+
+    /**
+     * Sends the commands without waiting for a response. Only use this if the server supports {@code PIPELINING}, and
+     * read one response per command using {@link #readResponse()} afterwards.
+     */
+    void sendCommands(List<String> commands) throws MessagingException {
+        try {
+            for (String command : commands) {
+                if (K9MailLib.isDebug() && DEBUG_PROTOCOL_POP3) {
+                    Timber.d(">>> %s", command);
+                }
+
+                out.write(command.getBytes());
+                out.write('\r');
+                out.write('\n');
+            }
+            out.flush();
+        } catch (Exception e) {
+            close();
+            throw new MessagingException("Unable to execute POP3 command", e);
+        }
+    }
+
+    /**
+     * Reads the status line of the response to a command.
+     *
+     * @throws Pop3ErrorResponse
+     *         if the server returned a negative status indicator.
+     */
+    String readResponse() throws MessagingException {
+        String response;
+        try {
+            response = readLine();
+        } catch (IOException e) {
+            close();
+            throw new MessagingException("Unable to execute POP3 command", e);
+        }
+
+        if (response.length() == 0 || response.charAt(0) != '+') {
+            throw new Pop3ErrorResponse(response);
+        }
+
+        return response;
+    }
+
     String readLine() throws IOException {
         StringBuilder sb = new StringBuilder();
         int d = in.read();
@@ -437,6 +522,10 @@ class Pop3Connection {
         return this.capabilities.uidl;
     }
 
+    boolean supportsPipelining() {
+        return capabilities.pipelining;
+    }
+
     InputStream getInputStream() {
         return in;
     }
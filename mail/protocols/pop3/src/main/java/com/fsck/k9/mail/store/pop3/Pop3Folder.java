@@ -198,25 +198,33 @@ public class Pop3Folder extends Folder<Pop3Message> {
         if (unindexedMessageCount == 0) {
             return;
         }
-        if (unindexedMessageCount < 50 && messageCount > 5000) {
+        boolean partiallyIndexed = unindexedMessageCount < (end - start + 1);
+        if (unindexedMessageCount < 50 && (messageCount > 5000 || partiallyIndexed)) {
             /*
-             * In extreme cases we'll do a UIDL command per message instead of a bulk
-             * download.
+             * In extreme cases, or when only a few messages were added to a restored index, we'll
+             * do a UIDL command per message instead of a bulk download.
              */
+            List<Integer> msgNums = new ArrayList<>();
+            List<String> commands = new ArrayList<>();
             for (int msgNum = start; msgNum <= end; msgNum++) {
-                Pop3Message message = msgNumToMsgMap.get(msgNum);
-                if (message == null) {
-                    String response = connection.executeSimpleCommand(UIDL_COMMAND + " " + msgNum);
-                    // response = "+OK msgNum msgUid"
-                    String[] uidParts = response.split(" +");
-                    if (uidParts.length < 3 || !"+OK".equals(uidParts[0])) {
-                        Timber.e("ERR response: %s", response);
-                        return;
-                    }
-                    String msgUid = uidParts[2];
-                    message = new Pop3Message(msgUid, this);
-                    indexMessage(msgNum, message);
+                if (msgNumToMsgMap.get(msgNum) == null) {
+                    msgNums.add(msgNum);
+                    commands.add(UIDL_COMMAND + " " + msgNum);
+                }
+            }
+
+            List<String> responses = connection.executeSimpleCommands(commands);
+            for (int i = 0, count = responses.size(); i < count; i++) {
+                String response = responses.get(i);
+                // response = "+OK msgNum msgUid"
+                String[] uidParts = response.split(" +");
+                if (uidParts.length < 3 || !"+OK".equals(uidParts[0])) {
+                    Timber.e("ERR response: %s", response);
+                    return;
                 }
+                String msgUid = uidParts[2];
+                Pop3Message message = new Pop3Message(msgUid, this);
+                indexMessage(msgNums.get(i), message);
             }
         } else {
             connection.executeSimpleCommand(UIDL_COMMAND);
@@ -264,6 +272,82 @@ public class Pop3Folder extends Folder<Pop3Message> {
         }
     }
 
+    /**
+     * Returns the UIDs of messages {@code start} through {@code end} so the index can be restored using
+     * {@link #restoreUidIndex(int, int, List)} in a later session.
+     *
+     * @return The UIDs in message number order, or {@code null} if not all of these messages have been indexed.
+     */
+    public List<String> getIndexedUids(int start, int end) {
+        List<String> uids = new ArrayList<>(Math.max(0, end - start + 1));
+        for (int msgNum = start; msgNum <= end; msgNum++) {
+            Pop3Message message = msgNumToMsgMap.get(msgNum);
+            if (message == null) {
+                return null;
+            }
+            uids.add(message.getUid());
+        }
+
+        return uids;
+    }
+
+    /**
+     * Restores the index of messages {@code start} onwards from a previous session.
+     *
+     * <p>
+     * Message numbers only change when messages are deleted, and new messages are always added to the end of the
+     * mailbox. So if the mailbox hasn't shrunk and the first and last of these messages still have the same UIDs,
+     * none of the messages in between has been deleted and all of them still have the same message number. That is
+     * checked with {@code UIDL n} commands for both ends of the window instead of listing the whole mailbox.
+     * </p>
+     *
+     * @param savedMessageCount
+     *         The number of messages in the mailbox when the index was saved. The saved window is expected to end
+     *         with the last of these messages.
+     *
+     * @return {@code true} if the index was restored, {@code false} if the mailbox has changed in a way that
+     *         requires a full {@code UIDL} listing.
+     */
+    public boolean restoreUidIndex(int start, int savedMessageCount, List<String> uids) throws MessagingException {
+        int end = start + uids.size() - 1;
+        if (uids.isEmpty() || start < 1 || end != savedMessageCount || messageCount < savedMessageCount) {
+            return false;
+        }
+
+        List<String> commands = new ArrayList<>(2);
+        commands.add(UIDL_COMMAND + " " + start);
+        if (end != start) {
+            commands.add(UIDL_COMMAND + " " + end);
+        }
+
+        List<String> responses;
+        try {
+            responses = connection.executeSimpleCommands(commands);
+        } catch (Pop3ErrorResponse e) {
+            return false;
+        }
+
+        if (!isUidResponse(responses.get(0), uids.get(0)) ||
+                !isUidResponse(responses.get(responses.size() - 1), uids.get(uids.size() - 1))) {
+            return false;
+        }
+
+        for (int i = 0, count = uids.size(); i < count; i++) {
+            int msgNum = start + i;
+            if (msgNumToMsgMap.get(msgNum) == null) {
+                indexMessage(msgNum, new Pop3Message(uids.get(i), this));
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isUidResponse(String response, String uid) {
+        // response = "+OK msgNum msgUid"
+        String[] uidParts = response.split(" +");
+        return uidParts.length >= 3 && uid.equals(uidParts[2]);
+    }
+
     private void indexUids(List<String> uids)
     throws MessagingException, IOException {
         Set<String> unindexedUids = new HashSet<>();
@@ -354,25 +438,19 @@ public class Pop3Folder extends Folder<Pop3Message> {
         } catch (IOException ioe) {
             throw new MessagingException("fetch", ioe);
         }
+        if ((fp.contains(FetchProfile.Item.BODY) || fp.contains(FetchProfile.Item.BODY_SANE)) &&
+                connection.supportsPipelining()) {
+            fetchBodiesPipelined(messages, getBodyLineLimit(fp), fp, listener);
+            return;
+        }
         for (int i = 0, count = messages.size(); i < count; i++) {
             Pop3Message pop3Message = messages.get(i);
             try {
                 if (listener != null && !fp.contains(FetchProfile.Item.ENVELOPE)) {
                     listener.messageStarted(pop3Message.getUid(), i, count);
                 }
-                if (fp.contains(FetchProfile.Item.BODY)) {
-                    fetchBody(pop3Message, -1);
-                } else if (fp.contains(FetchProfile.Item.BODY_SANE)) {
-                    /*
-                     * To convert the suggested download size we take the size
-                     * divided by the maximum line size (76).
-                     */
-                    if (pop3Store.getConfig().getMaximumAutoDownloadMessageSize() > 0) {
-                        fetchBody(pop3Message,
-                                  (pop3Store.getConfig().getMaximumAutoDownloadMessageSize() / 76));
-                    } else {
-                        fetchBody(pop3Message, -1);
-                    }
+                if (fp.contains(FetchProfile.Item.BODY) || fp.contains(FetchProfile.Item.BODY_SANE)) {
+                    fetchBody(pop3Message, getBodyLineLimit(fp));
                 } else if (fp.contains(FetchProfile.Item.STRUCTURE)) {
                     /*
                      * If the user is requesting STRUCTURE we are required to set the body
@@ -384,6 +462,8 @@ public class Pop3Folder extends Folder<Pop3Message> {
                     listener.messageFinished(pop3Message, i, count);
                 }
             } catch (IOException ioe) {
+                // The rest of the response wasn't read
+                connection.close();
                 throw new MessagingException("Unable to fetch message", ioe);
             }
         }
@@ -405,14 +485,18 @@ public class Pop3Folder extends Folder<Pop3Message> {
              * In extreme cases we'll do a command per message instead of a bulk request
              * to hopefully save some time and bandwidth.
              */
+            List<String> commands = new ArrayList<>(messages.size());
+            for (Pop3Message message : messages) {
+                commands.add(String.format(Locale.US, LIST_COMMAND + " %d", uidToMsgNumMap.get(message.getUid())));
+            }
+
+            List<String> responses = connection.executeSimpleCommands(commands);
             for (int i = 0, count = messages.size(); i < count; i++) {
                 Pop3Message message = messages.get(i);
                 if (listener != null) {
                     listener.messageStarted(message.getUid(), i, count);
                 }
-                String response = connection.executeSimpleCommand(
-                        String.format(Locale.US, LIST_COMMAND + " %d",
-                                uidToMsgNumMap.get(message.getUid())));
+                String response = responses.get(i);
                 String[] listParts = response.split(" ");
                 //int msgNum = Integer.parseInt(listParts[1]);
                 int msgSize = Integer.parseInt(listParts[2]);
@@ -451,6 +535,101 @@ public class Pop3Folder extends Folder<Pop3Message> {
         }
     }
 
+    /**
+     * @return The number of lines to download for the requested body item, or -1 for the entire message.
+     */
+    private int getBodyLineLimit(FetchProfile fp) {
+        if (fp.contains(FetchProfile.Item.BODY)) {
+            return -1;
+        }
+
+        /*
+         * To convert the suggested download size we take the size
+         * divided by the maximum line size (76).
+         */
+        int maximumAutoDownloadMessageSize = pop3Store.getConfig().getMaximumAutoDownloadMessageSize();
+        return maximumAutoDownloadMessageSize > 0 ? maximumAutoDownloadMessageSize / 76 : -1;
+    }
+
+    /**
+     * Fetches the bodies of the given messages using {@code PIPELINING} (RFC 2449). The {@code TOP} or {@code RETR}
+     * commands for a batch of messages are sent at once, then the responses are parsed in order.
+     *
+     * <p>
+     * If anything goes wrong the connection is closed, so responses to pipelined commands that haven't been read can't
+     * be mistaken for responses to later commands.
+     * </p>
+     */
+    private void fetchBodiesPipelined(List<Pop3Message> messages, int lines, FetchProfile fp,
+            MessageRetrievalListener<Pop3Message> listener) throws MessagingException {
+        boolean useTop = lines != -1 && connection.supportsTop();
+        boolean notifyStarted = listener != null && !fp.contains(FetchProfile.Item.ENVELOPE);
+        boolean notifyFinished = listener != null && !(fp.contains(FetchProfile.Item.ENVELOPE) && fp.size() == 1);
+
+        MessagingException firstException = null;
+        boolean success = false;
+        try {
+            for (int start = 0, count = messages.size(); start < count;
+                    start += Pop3Connection.MAX_PIPELINED_COMMANDS) {
+                int end = Math.min(start + Pop3Connection.MAX_PIPELINED_COMMANDS, count);
+
+                List<String> commands = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    Integer msgNum = uidToMsgNumMap.get(messages.get(i).getUid());
+                    if (useTop) {
+                        commands.add(String.format(Locale.US, TOP_COMMAND + " %d %d", msgNum, lines));
+                    } else {
+                        commands.add(String.format(Locale.US, RETR_COMMAND + " %d", msgNum));
+                    }
+                }
+                connection.sendCommands(commands);
+
+                for (int i = start; i < end; i++) {
+                    Pop3Message pop3Message = messages.get(i);
+                    if (notifyStarted) {
+                        listener.messageStarted(pop3Message.getUid(), i, count);
+                    }
+
+                    try {
+                        connection.readResponse();
+                    } catch (Pop3ErrorResponse e) {
+                        // A negative response is a single line, so the responses to the remaining commands can still
+                        // be read
+                        if (firstException == null) {
+                            firstException = e;
+                        }
+                        continue;
+                    }
+
+                    try {
+                        parseBody(pop3Message, lines);
+                    } catch (MessagingException me) {
+                        if (firstException == null) {
+                            firstException = me;
+                        }
+                        continue;
+                    }
+
+                    if (notifyFinished) {
+                        listener.messageFinished(pop3Message, i, count);
+                    }
+                }
+            }
+
+            success = firstException == null;
+        } catch (IOException ioe) {
+            throw new MessagingException("Unable to fetch message", ioe);
+        } finally {
+            if (!success) {
+                connection.close();
+            }
+        }
+
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
     /**
      * Fetches the body of the given message, limiting the downloaded data to the specified
      * number of lines if possible.
@@ -497,8 +676,17 @@ public class Pop3Folder extends Folder<Pop3Message> {
                                  uidToMsgNumMap.get(message.getUid())));
         }
 
+        parseBody(message, lines);
+    }
+
+    /**
+     * Parses the multi-line response to a {@code TOP} or {@code RETR} command whose status line has already been read.
+     */
+    private void parseBody(Pop3Message message, int lines) throws IOException, MessagingException {
+        Pop3ResponseInputStream inputStream = new Pop3ResponseInputStream(connection.getInputStream());
+        MessagingException parseException = null;
         try {
-            message.parse(new Pop3ResponseInputStream(connection.getInputStream()));
+            message.parse(inputStream);
 
             // TODO: if we've received fewer lines than requested we also have the complete message.
             if (lines == -1 || !connection.supportsTop()) {
@@ -512,9 +700,19 @@ public class Pop3Folder extends Folder<Pop3Message> {
              * and can't parse it we need to let the user know.
              */
             if (lines == -1) {
-                throw me;
+                parseException = me;
             }
         }
+
+        // Skip what the parser didn't read so the next response starts at the right position. This isn't done when
+        // reading failed with an IOException, which is passed on to the caller as is.
+        while (inputStream.read() != -1) {
+            // Keep reading until the terminating "." line
+        }
+
+        if (parseException != null) {
+            throw parseException;
+        }
     }
 
     @Override
@@ -551,6 +749,7 @@ public class Pop3Folder extends Folder<Pop3Message> {
         } catch (IOException ioe) {
             throw new MessagingException("Could not get message number for uid " + uids, ioe);
         }
+        List<String> commands = new ArrayList<>(messages.size());
         for (Message message : messages) {
 
             Integer msgNum = uidToMsgNumMap.get(message.getUid());
@@ -560,9 +759,10 @@ public class Pop3Folder extends Folder<Pop3Message> {
                         true
                 );
             }
-            open(Folder.OPEN_MODE_RW);
-            connection.executeSimpleCommand(String.format(DELE_COMMAND + " %s", msgNum));
+            commands.add(String.format(DELE_COMMAND + " %s", msgNum));
         }
+        open(Folder.OPEN_MODE_RW);
+        connection.executeSimpleCommands(commands);
     }
 
     @Override
@@ -8,6 +8,7 @@ import java.net.Socket;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.List;
 
 import com.fsck.k9.mail.AuthType;
 import com.fsck.k9.mail.AuthenticationFailedException;
@@ -22,6 +23,7 @@ import javax.net.ssl.SSLException;
 import org.junit.Before;
 import org.junit.Test;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -37,7 +39,7 @@ import static org.mockito.Mockito.when;
 
 public class Pop3ConnectionTest {
 
-    private static final String host = "server";
+    private static final String host = "127.0.0.1";
     private static final int port = 12345;
     private static String username = "user";
     private static String password = "password";
@@ -663,6 +665,73 @@ public class Pop3ConnectionTest {
         server.verifyInteractionCompleted();
     }
 
+    @Test
+    public void executeSimpleCommands_withPipeliningCapability_shouldReturnResponsesInOrder() throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockPop3Server server = new MockPop3Server();
+        setupServerWithPipeliningCapability(server);
+        server.expect("DELE 1");
+        server.expect("DELE 2");
+        server.output("+OK message 1 deleted");
+        server.output("+OK message 2 deleted");
+        server.start();
+        settings.setHost(server.getHost());
+        settings.setPort(server.getPort());
+        Pop3Connection connection = new Pop3Connection(settings, socketFactory);
+        connection.open();
+
+        List<String> responses = connection.executeSimpleCommands(asList("DELE 1", "DELE 2"));
+
+        assertEquals(asList("+OK message 1 deleted", "+OK message 2 deleted"), responses);
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void executeSimpleCommands_withPipeliningAndErrorResponse_shouldReadAllResponsesBeforeThrowing()
+            throws Exception {
+        settings.setAuthType(AuthType.PLAIN);
+        MockPop3Server server = new MockPop3Server();
+        setupServerWithPipeliningCapability(server);
+        server.expect("DELE 1");
+        server.expect("DELE 2");
+        server.output("-ERR no such message");
+        server.output("+OK message 2 deleted");
+        server.expect("STAT");
+        server.output("+OK 1 100");
+        server.start();
+        settings.setHost(server.getHost());
+        settings.setPort(server.getPort());
+        Pop3Connection connection = new Pop3Connection(settings, socketFactory);
+        connection.open();
+
+        try {
+            connection.executeSimpleCommands(asList("DELE 1", "DELE 2"));
+            fail("Expected exception");
+        } catch (Pop3ErrorResponse e) {
+            assertEquals("-ERR no such message", e.getMessage());
+        }
+
+        assertEquals("+OK 1 100", connection.executeSimpleCommand("STAT"));
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    private void setupServerWithPipeliningCapability(MockPop3Server server) {
+        server.output("+OK POP3 server greeting");
+        server.expect("AUTH");
+        server.output("-ERR");
+        server.expect("CAPA");
+        server.output("+OK Capability list follows");
+        server.output("SASL PLAIN");
+        server.output("PIPELINING");
+        server.output(".");
+        server.expect("AUTH PLAIN");
+        server.output("+OK");
+        server.expect(new String(Base64.encodeBase64(("\000"+username+"\000"+password).getBytes())));
+        server.output("+OK");
+    }
+
     private void startServerAndCreateOpenConnection(MockPop3Server server) throws IOException,
             MessagingException {
         server.start();
@@ -6,10 +6,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 
 import com.fsck.k9.mail.FetchProfile;
 import com.fsck.k9.mail.FetchProfile.Item;
+import com.fsck.k9.mail.Flag;
 import com.fsck.k9.mail.Folder;
 import com.fsck.k9.mail.MessageRetrievalListener;
 import com.fsck.k9.mail.MessagingException;
@@ -17,13 +19,19 @@ import com.fsck.k9.mail.internet.BinaryTempFileBody;
 import com.fsck.k9.mail.store.StoreConfig;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -319,6 +327,174 @@ public class Pop3FolderTest {
         assertEquals("this is some test text.", new String(bodyData.toByteArray(), "UTF-8"));
     }
 
+    @Test
+    public void fetch_withBodyProfileAndPipelining_shouldSendAllCommandsBeforeReadingResponses() throws Exception {
+        InputStream messageInputStream = new ByteArrayInputStream((
+                "Subject: First\r\n" +
+                "\r\n" +
+                "one\r\n" +
+                ".\r\n" +
+                "Subject: Second\r\n" +
+                "\r\n" +
+                "two\r\n" +
+                ".\r\n").getBytes());
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn("2 efgh").thenReturn(".");
+        List<Pop3Message> messageList = folder.getMessages(1, 2, null, mockListener);
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+
+        folder.fetch(messageList, fetchProfile, mockListener);
+
+        InOrder inOrder = inOrder(mockConnection);
+        inOrder.verify(mockConnection).sendCommands(asList("RETR 1", "RETR 2"));
+        inOrder.verify(mockConnection, times(2)).readResponse();
+        assertEquals("First", messageList.get(0).getSubject());
+        assertEquals("Second", messageList.get(1).getSubject());
+    }
+
+    @Test
+    public void fetch_withPipeliningAndNegativeResponse_shouldReadRemainingResponsesAndCloseConnection()
+            throws Exception {
+        InputStream messageInputStream = new ByteArrayInputStream((
+                "Subject: Second\r\n" +
+                "\r\n" +
+                "two\r\n" +
+                ".\r\n").getBytes());
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn("2 efgh").thenReturn(".");
+        List<Pop3Message> messageList = folder.getMessages(1, 2, null, mockListener);
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+        Pop3ErrorResponse errorResponse = new Pop3ErrorResponse("-ERR no such message");
+        when(mockConnection.readResponse()).thenThrow(errorResponse).thenReturn("+OK");
+
+        try {
+            folder.fetch(messageList, fetchProfile, mockListener);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertSame(errorResponse, e);
+        }
+
+        assertEquals("Second", messageList.get(1).getSubject());
+        verify(mockConnection).close();
+    }
+
+    @Test
+    public void fetch_withPipeliningAndReadError_shouldReportReadErrorAndCloseConnection() throws Exception {
+        final IOException readError = new IOException("Connection reset");
+        InputStream messageInputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw readError;
+            }
+        };
+        folder.open(Folder.OPEN_MODE_RW);
+        List<Pop3Message> messageList = setupMessageFromServer();
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(Item.BODY);
+        when(mockConnection.supportsPipelining()).thenReturn(true);
+        when(mockConnection.getInputStream()).thenReturn(messageInputStream);
+
+        try {
+            folder.fetch(messageList, fetchProfile, mockListener);
+            fail("Expected exception");
+        } catch (MessagingException e) {
+            assertSame(readError, e.getCause());
+        }
+
+        verify(mockConnection).close();
+    }
+
+    @Test
+    public void setFlags_withDeletedFlag_shouldDeleteAllMessagesInOneBatch() throws Exception {
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn("2 efgh").thenReturn(".");
+        List<Pop3Message> messageList = folder.getMessages(1, 2, null, mockListener);
+
+        folder.setFlags(messageList, Collections.singleton(Flag.DELETED), true);
+
+        verify(mockConnection).executeSimpleCommands(asList("DELE 1", "DELE 2"));
+    }
+
+    @Test
+    public void restoreUidIndex_withUnchangedWindow_shouldNotRequestUidListing() throws Exception {
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.executeSimpleCommands(asList("UIDL 8", "UIDL 9")))
+                .thenReturn(asList("+OK 8 uid8", "+OK 9 uid9"));
+
+        boolean restored = folder.restoreUidIndex(8, 9, asList("uid8", "uid9"));
+        List<Pop3Message> messages = folder.getMessages(8, 9, null, mockListener);
+
+        assertTrue(restored);
+        assertEquals("uid8", messages.get(0).getUid());
+        assertEquals("uid9", messages.get(1).getUid());
+        verify(mockConnection, never()).executeSimpleCommand(Pop3Commands.UIDL_COMMAND);
+    }
+
+    @Test
+    public void restoreUidIndex_withDeletedMessages_shouldReturnFalse() throws Exception {
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.executeSimpleCommands(asList("UIDL 8", "UIDL 9")))
+                .thenReturn(asList("+OK 8 uid8", "+OK 9 uid10"));
+
+        boolean restored = folder.restoreUidIndex(8, 9, asList("uid8", "uid9"));
+
+        assertFalse(restored);
+        assertNull(folder.getIndexedUids(8, 9));
+    }
+
+    @Test
+    public void restoreUidIndex_withChangedFirstMessage_shouldReturnFalse() throws Exception {
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.executeSimpleCommands(asList("UIDL 8", "UIDL 9")))
+                .thenReturn(asList("+OK 8 uid7", "+OK 9 uid9"));
+
+        boolean restored = folder.restoreUidIndex(8, 9, asList("uid8", "uid9"));
+
+        assertFalse(restored);
+        assertNull(folder.getIndexedUids(8, 9));
+    }
+
+    @Test
+    public void restoreUidIndex_withFewerMessagesThanSaved_shouldNotSendCommands() throws Exception {
+        folder.open(Folder.OPEN_MODE_RW);
+
+        boolean restored = folder.restoreUidIndex(10, 11, asList("uid10", "uid11"));
+
+        assertFalse(restored);
+        verify(mockConnection, never()).executeSimpleCommands(anyListOf(String.class));
+    }
+
+    @Test
+    public void restoreUidIndex_withWindowNotEndingAtSavedMessageCount_shouldReturnFalse() throws Exception {
+        folder.open(Folder.OPEN_MODE_RW);
+
+        boolean restored = folder.restoreUidIndex(7, 9, asList("uid7", "uid8"));
+
+        assertFalse(restored);
+        verify(mockConnection, never()).executeSimpleCommands(anyListOf(String.class));
+    }
+
+    @Test
+    public void getMessages_withRestoredUidIndex_shouldOnlyRequestUidsOfNewMessages() throws Exception {
+        folder.open(Folder.OPEN_MODE_RW);
+        when(mockConnection.executeSimpleCommands(asList("UIDL 1", "UIDL 9")))
+                .thenReturn(asList("+OK 1 uid1", "+OK 9 uid9"));
+        when(mockConnection.executeSimpleCommands(asList("UIDL 10"))).thenReturn(asList("+OK 10 uid10"));
+        folder.restoreUidIndex(1, 9, asList("uid1", "uid2", "uid3", "uid4", "uid5", "uid6", "uid7", "uid8", "uid9"));
+
+        List<Pop3Message> messages = folder.getMessages(1, 10, null, mockListener);
+
+        assertEquals(10, messages.size());
+        assertEquals("uid10", messages.get(9).getUid());
+        verify(mockConnection, never()).executeSimpleCommand(Pop3Commands.UIDL_COMMAND);
+    }
+
     private List<Pop3Message> setupMessageFromServer() throws IOException, MessagingException {
         when(mockConnection.readLine()).thenReturn("1 abcd").thenReturn(".");
         return folder.getMessages(1, 1, null, mockListener);
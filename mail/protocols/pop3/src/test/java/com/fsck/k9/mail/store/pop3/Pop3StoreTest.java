@@ -65,7 +65,7 @@ public class Pop3StoreTest {
     public void setUp() throws Exception {
         ServerSettings serverSettings = createServerSettings();
         when(mockStoreConfig.getInboxFolder()).thenReturn(Pop3Folder.INBOX);
-        when(mockTrustedSocketFactory.createSocket(null, "server", 12345, null)).thenReturn(mockSocket);
+        when(mockTrustedSocketFactory.createSocket(null, "127.0.0.1", 12345, null)).thenReturn(mockSocket);
         when(mockSocket.isConnected()).thenReturn(true);
         when(mockSocket.isClosed()).thenReturn(false);
 
@@ -176,7 +176,7 @@ public class Pop3StoreTest {
     private ServerSettings createServerSettings() {
         return new ServerSettings(
                 "pop3",
-                "server",
+                "127.0.0.1",
                 12345,
                 ConnectionSecurity.SSL_TLS_REQUIRED,
                 AuthType.PLAIN,
@@ -0,0 +1,145 @@
+package com.fsck.k9.mail.transport.smtp;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import com.fsck.k9.mail.Body;
+import com.fsck.k9.mail.BodyPart;
+import com.fsck.k9.mail.MessagingException;
+import com.fsck.k9.mail.Part;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.internet.MimeHeader;
+import com.fsck.k9.mail.internet.MimeMultipart;
+import com.fsck.k9.mail.internet.MimeUtility;
+import com.fsck.k9.mail.internet.RawDataBody;
+import org.apache.commons.io.IOUtils;
+
+
+/**
+ * Writes a message for transmission with {@code BODY=BINARYMIME} (RFC 3030).
+ *
+ * <p>
+ * Parts whose raw data is base64-encoded are decoded and sent with {@code Content-Transfer-Encoding: binary}. This
+ * data bypasses the line ending conversion applied to everything else. The contents of {@code multipart/signed} and
+ * {@code multipart/encrypted} parts are written unchanged because modifying them would break the signature.
+ * </p>
+ */
+class BinaryMimeWriter {
+    private static final String ENCODING_BASE64 = "base64";
+    private static final String ENCODING_BINARY = "binary";
+    private static final String CONTENT_TRANSFER_ENCODING_PREFIX =
+            MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING.toLowerCase(Locale.US) + ":";
+
+
+    private final EOLConvertingOutputStream textOutputStream;
+    private final OutputStream binaryOutputStream;
+
+
+    BinaryMimeWriter(EOLConvertingOutputStream textOutputStream, OutputStream binaryOutputStream) {
+        this.textOutputStream = textOutputStream;
+        this.binaryOutputStream = binaryOutputStream;
+    }
+
+    void writePart(Part part) throws IOException, MessagingException {
+        Body body = part.getBody();
+        if (body instanceof MimeMultipart && !isProtectedMultipart((MimeMultipart) body)) {
+            part.writeHeaderTo(textOutputStream);
+            writeText("\r\n");
+            writeMultipart((MimeMultipart) body);
+        } else if (isBase64RawData(part, body)) {
+            writeHeaderWithBinaryEncoding(part);
+            writeText("\r\n");
+            writeDecodedBody(body);
+        } else {
+            part.writeTo(textOutputStream);
+        }
+    }
+
+    private void writeMultipart(MimeMultipart multipart) throws IOException, MessagingException {
+        String boundary = multipart.getBoundary();
+
+        byte[] preamble = multipart.getPreamble();
+        if (preamble != null) {
+            textOutputStream.write(preamble);
+            writeText("\r\n");
+        }
+
+        if (multipart.getBodyParts().isEmpty()) {
+            writeText("--" + boundary + "\r\n");
+        } else {
+            for (BodyPart bodyPart : multipart.getBodyParts()) {
+                writeText("--" + boundary + "\r\n");
+                writePart(bodyPart);
+                writeText("\r\n");
+            }
+        }
+
+        writeText("--" + boundary + "--\r\n");
+
+        byte[] epilogue = multipart.getEpilogue();
+        if (epilogue != null) {
+            textOutputStream.write(epilogue);
+        }
+    }
+
+    private void writeHeaderWithBinaryEncoding(Part part) throws IOException, MessagingException {
+        ByteArrayOutputStream headerOutputStream = new ByteArrayOutputStream();
+        part.writeHeaderTo(headerOutputStream);
+        String header = headerOutputStream.toString("ISO-8859-1");
+
+        StringBuilder rewrittenHeader = new StringBuilder(header.length());
+        boolean skipContinuationLines = false;
+        for (String line : header.split("\r\n")) {
+            if (skipContinuationLines && (line.startsWith(" ") || line.startsWith("\t"))) {
+                continue;
+            }
+
+            skipContinuationLines = line.toLowerCase(Locale.US).startsWith(CONTENT_TRANSFER_ENCODING_PREFIX);
+            if (skipContinuationLines) {
+                rewrittenHeader.append(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING).append(": ")
+                        .append(ENCODING_BINARY);
+            } else {
+                rewrittenHeader.append(line);
+            }
+            rewrittenHeader.append("\r\n");
+        }
+
+        textOutputStream.write(rewrittenHeader.toString().getBytes("ISO-8859-1"));
+    }
+
+    private void writeDecodedBody(Body body) throws IOException, MessagingException {
+        // Write out everything buffered by the text stream before bypassing it
+        textOutputStream.flush();
+
+        InputStream inputStream = MimeUtility.decodeBody(body);
+        try {
+            IOUtils.copy(inputStream, binaryOutputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void writeText(String text) throws IOException {
+        textOutputStream.write(text.getBytes("US-ASCII"));
+    }
+
+    private static boolean isProtectedMultipart(MimeMultipart multipart) {
+        String mimeType = multipart.getMimeType();
+        return MimeUtility.isSameMimeType(mimeType, "multipart/signed") ||
+                MimeUtility.isSameMimeType(mimeType, "multipart/encrypted");
+    }
+
+    private static boolean isBase64RawData(Part part, Body body) {
+        if (!(body instanceof RawDataBody) || !ENCODING_BASE64.equalsIgnoreCase(((RawDataBody) body).getEncoding())) {
+            return false;
+        }
+
+        String[] contentTransferEncoding = part.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING);
+        return contentTransferEncoding.length == 1 &&
+                ENCODING_BASE64.equalsIgnoreCase(contentTransferEncoding[0].trim());
+    }
+}
@@ -8,10 +8,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
-import java.net.SocketException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,6 +39,8 @@ import com.fsck.k9.mail.filter.LineWrapOutputStream;
 import com.fsck.k9.mail.filter.PeekableInputStream;
 import com.fsck.k9.mail.filter.SmtpDataStuffing;
 import com.fsck.k9.mail.internet.CharsetSupport;
+import com.fsck.k9.mail.net.HappyEyeballsConnector;
+import com.fsck.k9.mail.net.HappyEyeballsConnector.SocketCreator;
 import com.fsck.k9.mail.oauth.OAuth2TokenProvider;
 import com.fsck.k9.mail.oauth.XOAuth2ChallengeParser;
 import com.fsck.k9.mail.ssl.TrustedSocketFactory;
@@ -55,6 +54,9 @@ import static com.fsck.k9.mail.K9MailLib.DEBUG_PROTOCOL_SMTP;
 public class SmtpTransport extends Transport {
     private static final int SMTP_CONTINUE_REQUEST = 334;
     private static final int SMTP_AUTHENTICATION_FAILURE_ERROR_CODE = 535;
+    private static final int SMTP_SERVICE_NOT_AVAILABLE = 421;
+    private static final int BDAT_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_PIPELINED_BDAT_CHUNKS = 3;
 
 
     private final TrustedSocketFactory trustedSocketFactory;
@@ -77,6 +79,11 @@ public class SmtpTransport extends Transport {
     private int largestAcceptableMessage;
     private boolean retryXoauthWithNewToken;
     private boolean isPipeliningSupported;
+    private boolean isChunkingSupported;
+    private boolean isBinaryMimeSupported;
+    private boolean isSessionActive;
+    private int messagesSentOnConnection;
+    private int maxMessagesPerConnection;
 
 
     public SmtpTransport(ServerSettings serverSettings,
@@ -101,29 +108,15 @@ public class SmtpTransport extends Transport {
 
     @Override
     public void open() throws MessagingException {
+        messagesSentOnConnection = 0;
+        maxMessagesPerConnection = 0;
         try {
             boolean secureConnection = false;
             InetAddress[] addresses = InetAddress.getAllByName(host);
-            for (int i = 0; i < addresses.length; i++) {
-                try {
-                    SocketAddress socketAddress = new InetSocketAddress(addresses[i], port);
-                    if (connectionSecurity == ConnectionSecurity.SSL_TLS_REQUIRED) {
-                        socket = trustedSocketFactory.createSocket(null, host, port, clientCertificateAlias);
-                        socket.connect(socketAddress, SOCKET_CONNECT_TIMEOUT);
-                        secureConnection = true;
-                    } else {
-                        socket = new Socket();
-                        socket.connect(socketAddress, SOCKET_CONNECT_TIMEOUT);
-                    }
-                } catch (SocketException e) {
-                    if (i < (addresses.length - 1)) {
-                        // there are still other addresses for that host to try
-                        continue;
-                    }
-                    throw new MessagingException("Cannot connect to host", e);
-                }
-                break; // connection success
-            }
+            SocketCreator socketCreator = HappyEyeballsConnector.createSocketCreator(trustedSocketFactory,
+                    connectionSecurity, host, port, clientCertificateAlias);
+            socket = HappyEyeballsConnector.connect(addresses, port, SOCKET_CONNECT_TIMEOUT, socketCreator);
+            secureConnection = connectionSecurity == ConnectionSecurity.SSL_TLS_REQUIRED;
 
             // RFC 1047
             socket.setSoTimeout(SOCKET_READ_TIMEOUT);
@@ -141,6 +134,8 @@ public class SmtpTransport extends Transport {
             is8bitEncodingAllowed = extensions.containsKey("8BITMIME");
             isEnhancedStatusCodesProvided = extensions.containsKey("ENHANCEDSTATUSCODES");
             isPipeliningSupported = extensions.containsKey("PIPELINING");
+            isChunkingSupported = extensions.containsKey("CHUNKING");
+            isBinaryMimeSupported = isChunkingSupported && extensions.containsKey("BINARYMIME");
 
             if (connectionSecurity == ConnectionSecurity.STARTTLS_REQUIRED) {
                 if (extensions.containsKey("STARTTLS")) {
@@ -401,66 +396,187 @@ public class SmtpTransport extends Transport {
         }
     }
 
+    /**
+     * Keep the connection open after {@link #sendMessage(Message)} so it can be reused for the next message.
+     *
+     * <p>
+     * Subsequent messages are sent on the same connection after resetting it using {@code RSET}. A new connection is
+     * only established when the old one fails or when the server refused a message because too many messages were
+     * sent on that connection. Call {@link #endSession()} to close the connection.
+     * </p>
+     */
+    public void startSession() {
+        isSessionActive = true;
+    }
+
+    public void endSession() {
+        isSessionActive = false;
+        close();
+    }
+
     private void sendMessageTo(List<String> addresses, Message message)
             throws MessagingException {
-        close();
-        open();
+        boolean isConnectionReused = prepareConnection();
 
-        // If the message has attachments and our server has told us about a limit on
-        // the size of messages, count the message's size before sending it
-        if (largestAcceptableMessage > 0 && message.hasAttachments()) {
-            if (message.calculateSize() > largestAcceptableMessage) {
-                throw new MessagingException("Message too large for server", true);
-            }
+        // If our server has told us about a limit on the size of messages, check the message's size before sending
+        // it. The size is derived from the sizes of its parts and cached, so this doesn't serialize the message.
+        if (largestAcceptableMessage > 0 && message.calculateSize() > largestAcceptableMessage) {
+            throw new MessagingException("Message too large for server", true);
         }
 
         boolean entireMessageSent = false;
+        boolean closeConnection = true;
 
         try {
-            String mailFrom = constructSmtpMailFromCommand(message.getFrom(), is8bitEncodingAllowed);
+            try {
+                sendEnvelope(addresses, message);
+            } catch (NegativeSmtpReplyException e) {
+                if (!isConnectionReused || !isConnectionLimitReply(e)) {
+                    throw e;
+                }
 
-            if (isPipeliningSupported) {
-                Queue<String> pipelinedCommands = new LinkedList<>();
-                pipelinedCommands.add(mailFrom);
+                // Some servers limit the number of messages per connection. Remember the limit and use a new one.
+                Timber.d(e, "Transaction refused after %d messages on this connection. Reconnecting...",
+                        messagesSentOnConnection);
+                reconnectWithLimit(messagesSentOnConnection);
 
-                for (String address : addresses) {
-                    pipelinedCommands.add(String.format("RCPT TO:<%s>", address));
-                }
+                sendEnvelope(addresses, message);
+            }
 
-                pipelinedCommands.add("DATA");
-                executePipelinedCommands(pipelinedCommands);
-                readPipelinedResponse(pipelinedCommands);
-            } else {
-                executeCommand(mailFrom);
+            if (isChunkingSupported) {
+                ChunkingOutputStream chunkingOut = new ChunkingOutputStream();
+                EOLConvertingOutputStream msgOut;
 
-                for (String address : addresses) {
-                    executeCommand("RCPT TO:<%s>", address);
+                if (isBinaryMimeSupported) {
+                    msgOut = new EOLConvertingOutputStream(chunkingOut);
+                    new BinaryMimeWriter(msgOut, chunkingOut).writePart(message);
+                } else {
+                    // Without BINARYMIME the message still has to obey the line length limit of RFC 5322
+                    msgOut = new EOLConvertingOutputStream(new LineWrapOutputStream(chunkingOut, 1000));
+                    message.writeTo(msgOut);
                 }
+                msgOut.endWithCrLfAndFlush();
 
-                executeCommand("DATA");
-            }
+                entireMessageSent = true; // After the last chunk is attempted, we may have sent the message
+                chunkingOut.finish();
+            } else {
+                EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
+                        new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
 
-            EOLConvertingOutputStream msgOut = new EOLConvertingOutputStream(
-                    new LineWrapOutputStream(new SmtpDataStuffing(outputStream), 1000));
+                message.writeTo(msgOut);
+                msgOut.endWithCrLfAndFlush();
 
-            message.writeTo(msgOut);
-            msgOut.endWithCrLfAndFlush();
+                entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
+                executeCommand(".");
+            }
 
-            entireMessageSent = true; // After the "\r\n." is attempted, we may have sent the message
-            executeCommand(".");
+            messagesSentOnConnection++;
+            closeConnection = !isSessionActive;
         } catch (NegativeSmtpReplyException e) {
+            closeConnection = !isSessionActive || e.getReplyCode() == SMTP_SERVICE_NOT_AVAILABLE;
+            throw e;
+        } catch (AuthenticationFailedException | CertificateValidationException e) {
             throw e;
         } catch (Exception e) {
             throw new MessagingException("Unable to send message", entireMessageSent, e);
         } finally {
-            close();
+            if (closeConnection) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Make sure there's a connection ready for a new mail transaction.
+     *
+     * @return {@code true} if an existing connection is reused; {@code false} if a new connection was established.
+     */
+    private boolean prepareConnection() throws MessagingException {
+        if (isSessionActive && socket != null && isConnectionLimitReached()) {
+            reconnectWithLimit(maxMessagesPerConnection);
+            return false;
         }
 
+        if (isSessionActive && socket != null) {
+            try {
+                executeCommand("RSET");
+                return true;
+            } catch (Exception e) {
+                Timber.d(e, "Unable to reuse SMTP connection. Reconnecting...");
+            }
+        }
+
+        close();
+        open();
+        return false;
     }
 
-    private static String constructSmtpMailFromCommand(Address[] from, boolean is8bitEncodingAllowed) {
+    /**
+     * Replace the current connection with a new one that is subject to the per-connection message limit the server
+     * announced on the old one. Any other reconnect forgets that limit.
+     */
+    private void reconnectWithLimit(int maxMessages) throws MessagingException {
+        close();
+        open();
+        maxMessagesPerConnection = maxMessages;
+    }
+
+    private boolean isConnectionLimitReached() {
+        return maxMessagesPerConnection > 0 && messagesSentOnConnection >= maxMessagesPerConnection;
+    }
+
+    /**
+     * Check whether a reply means the server won't accept more messages on this connection.
+     *
+     * <p>
+     * Other transient failures, e.g. greylisting (450/451) or too many recipients (452), aren't related to the
+     * connection and are reported to the caller.
+     * </p>
+     */
+    private static boolean isConnectionLimitReply(NegativeSmtpReplyException e) {
+        if (e.getReplyCode() == SMTP_SERVICE_NOT_AVAILABLE) {
+            return true;
+        }
+
+        String replyText = e.getReplyText();
+        return e.getReplyCode() / 100 == 4 && replyText != null &&
+                replyText.toLowerCase(Locale.US).contains("too many messages");
+    }
+
+    private void sendEnvelope(List<String> addresses, Message message) throws IOException, MessagingException {
+        String mailFrom = constructSmtpMailFromCommand(message.getFrom());
+
+        if (isPipeliningSupported) {
+            Queue<String> pipelinedCommands = new LinkedList<>();
+            pipelinedCommands.add(mailFrom);
+
+            for (String address : addresses) {
+                pipelinedCommands.add(String.format("RCPT TO:<%s>", address));
+            }
+
+            if (!isChunkingSupported) {
+                pipelinedCommands.add("DATA");
+            }
+            executePipelinedCommands(pipelinedCommands);
+            readPipelinedResponse(pipelinedCommands);
+        } else {
+            executeCommand(mailFrom);
+
+            for (String address : addresses) {
+                executeCommand("RCPT TO:<%s>", address);
+            }
+
+            if (!isChunkingSupported) {
+                executeCommand("DATA");
+            }
+        }
+    }
+
+    private String constructSmtpMailFromCommand(Address[] from) {
         String fromAddress = from[0].getAddress();
-        if (is8bitEncodingAllowed) {
+        if (isBinaryMimeSupported) {
+            return String.format("MAIL FROM:<%s> BODY=BINARYMIME", fromAddress);
+        } else if (is8bitEncodingAllowed) {
             return String.format("MAIL FROM:<%s> BODY=8BITMIME", fromAddress);
         } else {
             Timber.d("Server does not support 8bit transfer encoding");
@@ -483,6 +599,94 @@ public class SmtpTransport extends Transport {
         socket = null;
     }
 
+    /**
+     * Sends the data written to it as {@code BDAT} chunks of {@link #BDAT_CHUNK_SIZE} bytes (RFC 3030).
+     *
+     * <p>
+     * The data is sent without dot-stuffing. If the server supports pipelining, up to
+     * {@link #MAX_PIPELINED_BDAT_CHUNKS} chunks are sent before the response to the oldest one is read. Once the
+     * server rejected a chunk, the rest of the message isn't sent.
+     * </p>
+     */
+    private class ChunkingOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[BDAT_CHUNK_SIZE];
+        private final int maxPendingResponses = isPipeliningSupported ? MAX_PIPELINED_BDAT_CHUNKS : 1;
+        private int count;
+        private int pendingResponses;
+        private MessagingException rejection;
+
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            if (count == buffer.length) {
+                sendChunk(false);
+            }
+            buffer[count++] = (byte) oneByte;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    sendChunk(false);
+                }
+
+                int bytesToCopy = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, bytesToCopy);
+                count += bytesToCopy;
+                offset += bytesToCopy;
+                length -= bytesToCopy;
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Data is only sent once a chunk is full or the message is complete
+        }
+
+        void finish() throws IOException, MessagingException {
+            sendChunk(true);
+            readPendingResponses(0);
+
+            if (rejection != null) {
+                throw rejection;
+            }
+        }
+
+        private void sendChunk(boolean last) throws IOException {
+            if (rejection != null) {
+                // The server rejected an earlier chunk. There's no point in sending the rest of the message.
+                count = 0;
+                return;
+            }
+
+            writeLine(String.format(Locale.ROOT, last ? "BDAT %d LAST" : "BDAT %d", count), false);
+            outputStream.write(buffer, 0, count);
+            outputStream.flush();
+            count = 0;
+            pendingResponses++;
+
+            readPendingResponses(maxPendingResponses - 1);
+        }
+
+        /**
+         * Reads responses to the oldest chunks until at most {@code maxRemaining} responses are outstanding. The
+         * first negative response is remembered in {@link #rejection}.
+         */
+        private void readPendingResponses(int maxRemaining) throws IOException {
+            while (pendingResponses > maxRemaining) {
+                pendingResponses--;
+                try {
+                    executeCommand(null);
+                } catch (MessagingException e) {
+                    if (rejection == null) {
+                        rejection = e;
+                    }
+                }
+            }
+        }
+    }
+
     private String readLine() throws IOException {
         StringBuilder sb = new StringBuilder();
         int d;
@@ -633,7 +837,7 @@ public class SmtpTransport extends Transport {
         String responseLine;
         List<String> results = new ArrayList<>();
         NegativeSmtpReplyException firstNegativeResponse = null;
-        boolean dataCommandOk = true;
+        boolean dataCommandOk = pipelinedCommands.contains("DATA");
         for (String command : pipelinedCommands) {
             results.clear();
             responseLine = readCommandResponseLine(results);
@@ -0,0 +1,67 @@
+package com.fsck.k9.mail.transport.smtp;
+
+
+import java.io.ByteArrayOutputStream;
+
+import com.fsck.k9.mail.K9LibRobolectricTestRunner;
+import com.fsck.k9.mail.filter.EOLConvertingOutputStream;
+import com.fsck.k9.mail.internet.MimeBodyPart;
+import com.fsck.k9.mail.internet.MimeMessage;
+import com.fsck.k9.mail.internet.MimeMessageHelper;
+import com.fsck.k9.mail.internet.MimeMultipart;
+import com.fsck.k9.mailstore.BinaryMemoryBody;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(K9LibRobolectricTestRunner.class)
+public class BinaryMimeWriterTest {
+    @Test
+    public void writePart_withBase64Attachment_shouldWriteDecodedData() throws Exception {
+        MimeMessage message = createMessage("multipart/mixed");
+
+        String output = writeMessage(message);
+
+        assertTrue(output.contains("Content-Transfer-Encoding: binary\r\n\r\n\u0000\u00FF\nA\r\n--boundary--\r\n"));
+        assertTrue(output.contains("Content-Transfer-Encoding: 7bit\r\n\r\nHello\r\n"));
+        assertFalse(output.contains("AP8KQQ=="));
+    }
+
+    @Test
+    public void writePart_withSignedMultipart_shouldWriteUnchanged() throws Exception {
+        MimeMessage message = createMessage("multipart/signed");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        message.writeTo(expected);
+
+        String output = writeMessage(message);
+
+        assertEquals(expected.toString("ISO-8859-1"), output);
+    }
+
+
+    private MimeMessage createMessage(String mimeType) throws Exception {
+        MimeMultipart multipart = new MimeMultipart(mimeType, "boundary");
+        multipart.addBodyPart(new MimeBodyPart(new BinaryMemoryBody("Hello".getBytes("US-ASCII"), "7bit"),
+                "text/plain"));
+        multipart.addBodyPart(new MimeBodyPart(new BinaryMemoryBody("AP8KQQ==".getBytes("US-ASCII"), "base64"),
+                "application/octet-stream"));
+
+        MimeMessage message = new MimeMessage();
+        MimeMessageHelper.setBody(message, multipart);
+        return message;
+    }
+
+    private String writeMessage(MimeMessage message) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        EOLConvertingOutputStream textOutputStream = new EOLConvertingOutputStream(outputStream);
+
+        new BinaryMimeWriter(textOutputStream, outputStream).writePart(message);
+        textOutputStream.flush();
+
+        return outputStream.toString("ISO-8859-1");
+    }
+}
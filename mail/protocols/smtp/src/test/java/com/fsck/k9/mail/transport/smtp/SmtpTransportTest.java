@@ -1,6 +1,8 @@
 package com.fsck.k9.mail.transport.smtp;
 
 
+import java.util.Arrays;
+
 import com.fsck.k9.mail.AuthType;
 import com.fsck.k9.mail.AuthenticationFailedException;
 import com.fsck.k9.mail.CertificateValidationException;
@@ -656,6 +658,23 @@ public class SmtpTransportTest {
         //server.verifyConnectionClosed();
     }
 
+    @Test
+    public void sendMessage_withoutAttachmentsAndMessageTooLarge_shouldThrow() throws Exception {
+        Message message = getDefaultMessageBuilder()
+                .messageSize(1234L)
+                .build();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("SIZE 1000");
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected message too large error");
+        } catch (MessagingException e) {
+            assertTrue(e.isPermanentFailure());
+            assertEquals("Message too large for server", e.getMessage());
+        }
+    }
+
     @Test
     public void sendMessage_withNegativeReply_shouldThrow() throws Exception {
         Message message = getDefaultMessage();
@@ -854,6 +873,247 @@ public class SmtpTransportTest {
     }
 
 
+    @Test
+    public void sendMessage_withSessionStarted_shouldReuseConnection() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("RSET");
+        server.output("250 OK");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12346");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.startSession();
+        transport.sendMessage(message);
+        transport.sendMessage(message);
+        transport.endSession();
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withSessionStartedAndNegativeReply_shouldKeepConnectionOpen() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("550 remote mail to <user2@localhost> not allowed");
+        server.expect("RSET");
+        server.output("250 OK");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+        transport.startSession();
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(550, e.getReplyCode());
+        }
+        transport.sendMessage(message);
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withSessionStartedAndGreylistingReply_shouldNotReconnect() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication();
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("DATA");
+        server.output("354 End data with <CR><LF>.<CR><LF>");
+        server.expect("[message data]");
+        server.expect(".");
+        server.output("250 OK: queued as 12345");
+        server.expect("RSET");
+        server.output("250 OK");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("451 4.7.1 Greylisted, please try again later");
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+        transport.startSession();
+        transport.sendMessage(message);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(451, e.getReplyCode());
+        }
+
+        server.verifyConnectionStillOpen();
+        server.verifyInteractionCompleted();
+    }
+
+
+    @Test
+    public void sendMessage_withChunking_shouldUseBdat() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndBinaryMimeAndPipelining() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("PIPELINING", "CHUNKING", "BINARYMIME");
+        server.expect("MAIL FROM:<user@localhost> BODY=BINARYMIME");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndNegativeReply_shouldThrow() throws Exception {
+        Message message = getDefaultMessage();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 16 LAST");
+        server.expect("[message data]");
+        server.output("554 Transaction failed");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(554, e.getReplyCode());
+            assertEquals("Transaction failed", e.getReplyText());
+        }
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndLongLine_shouldWrapLine() throws Exception {
+        String firstWord = repeat('a', 600);
+        String secondWord = repeat('b', 600);
+        Message message = getDefaultMessageBuilder().messageData(firstWord + " " + secondWord).build();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.output("250 OK");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.expect("BDAT 1204 LAST");
+        server.expect(firstWord);
+        server.expect(secondWord);
+        server.output("250 OK: queued as 12345");
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        transport.sendMessage(message);
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
+    @Test
+    public void sendMessage_withChunkingAndPipeliningAndRejectedChunk_shouldStopSendingChunks() throws Exception {
+        // Every chunk consists of 128 lines of 512 bytes
+        String line = repeat('x', 510);
+        StringBuilder messageData = new StringBuilder();
+        for (int i = 0; i < 5 * 128; i++) {
+            messageData.append(line).append("\r\n");
+        }
+        Message message = getDefaultMessageBuilder().messageData(messageData.toString()).build();
+        MockSmtpServer server = createServerAndSetupForPlainAuthentication("PIPELINING", "CHUNKING");
+        server.expect("MAIL FROM:<user@localhost>");
+        server.expect("RCPT TO:<user2@localhost>");
+        server.output("250 OK");
+        server.output("250 OK");
+        for (int chunk = 0; chunk < SmtpTransport.MAX_PIPELINED_BDAT_CHUNKS; chunk++) {
+            server.expect("BDAT 65536");
+            for (int i = 0; i < 128; i++) {
+                server.expect(line);
+            }
+            server.output(chunk == 0 ? "554 Transaction failed" : "503 Bad sequence of commands");
+        }
+        server.expect("QUIT");
+        server.output("221 BYE");
+        server.closeConnection();
+        SmtpTransport transport = startServerAndCreateSmtpTransport(server);
+
+        try {
+            transport.sendMessage(message);
+            fail("Expected exception");
+        } catch (NegativeSmtpReplyException e) {
+            assertEquals(554, e.getReplyCode());
+        }
+
+        server.verifyConnectionClosed();
+        server.verifyInteractionCompleted();
+    }
+
     private SmtpTransport startServerAndCreateSmtpTransport(MockSmtpServer server) throws Exception {
         return startServerAndCreateSmtpTransport(server, AuthType.PLAIN, ConnectionSecurity.NONE);
     }
@@ -921,4 +1181,10 @@ public class SmtpTransportTest {
         
         return server;
     }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
 }